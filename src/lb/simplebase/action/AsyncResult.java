@@ -1,5 +1,8 @@
 package lb.simplebase.action;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 /**
  * Result of a task that can be executed on another thread
  */
@@ -17,4 +20,23 @@ public interface AsyncResult extends ResultAction, FailableAction, AsyncAction {
 		}
 	}
 	
+	/**
+	 * Creates a {@link CompletableFuture} that is completed when this task is done, so the result can be composed
+	 * with other asynchronous code instead of blocking in {@link #syncOrError()}.
+	 * If the task succeeds, the future is completed with this result. If it fails, the future is completed exceptionally
+	 * with a {@link CompletionException} that has the error message and the error of this result as its cause.
+	 * @return A new future for this result
+	 */
+	public default CompletableFuture<AsyncResult> toCompletableFuture() {
+		final CompletableFuture<AsyncResult> future = new CompletableFuture<>();
+		addDoneHandler(() -> {
+			if(isFailed()) {
+				future.completeExceptionally(new CompletionException(getErrorMessage(), getError()));
+			} else {
+				future.complete(this);
+			}
+		});
+		return future;
+	}
+	
 }
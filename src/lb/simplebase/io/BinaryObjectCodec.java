@@ -0,0 +1,725 @@
+package lb.simplebase.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import lb.simplebase.reflect.BaseReflectionUtils;
+import lb.simplebase.reflect.UnsafeUtils;
+
+/**
+ * A compact {@link ObjectCodec}. Every value starts with a one-byte tag, numbers are written as variable-length
+ * integers and strings as UTF-8. The supported types are:
+ * <ul>
+ * <li><code>null</code>, {@link String}, all primitive wrapper types and all primitive arrays</li>
+ * <li>Object arrays, where every element is encoded with this codec</li>
+ * <li>{@link ArrayList}, {@link LinkedList}, {@link HashSet}, {@link LinkedHashSet}, {@link HashMap} and {@link LinkedHashMap}.
+ * Subclasses of these, and all other collection types, are written with Java serialization</li>
+ * <li>Enums, which are written by name</li>
+ * <li>Records, which are created with their canonical constructor</li>
+ * <li>{@link Serializable} classes without custom serialization methods (<code>writeObject</code>, <code>readObject</code>,
+ * <code>writeReplace</code>, <code>readResolve</code>, or {@link Externalizable}). Like with Java serialization, all
+ * non-static and non-transient fields of the class and its serializable superclasses are written,
+ * and no constructor of the class is called when it is read</li>
+ * </ul>
+ * All other {@link Serializable} objects, including classes from the <code>java.*</code> packages that are not listed above,
+ * are written with Java serialization inside the binary data, so this codec can read and write everything that
+ * {@link JavaSerializationCodec} can.
+ * <p>
+ * The fields of a class are found once with reflection and then cached for that class. The name of a class is only written
+ * the first time it is used in a value, later uses refer to it by index.<br>
+ * Shared references are written as separate copies. The object graph must not contain cycles: objects nested deeper
+ * than {@link #MAX_DEPTH} levels are rejected.
+ */
+public final class BinaryObjectCodec implements ObjectCodec {
+
+	/**
+	 * The maximum nesting depth of objects, arrays and collections
+	 */
+	public static final int MAX_DEPTH = 256;
+
+	static final BinaryObjectCodec DEFAULT = new BinaryObjectCodec(null);
+
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_FALSE = 1;
+	private static final byte TAG_TRUE = 2;
+	private static final byte TAG_BYTE = 3;
+	private static final byte TAG_SHORT = 4;
+	private static final byte TAG_CHAR = 5;
+	private static final byte TAG_INT = 6;
+	private static final byte TAG_LONG = 7;
+	private static final byte TAG_FLOAT = 8;
+	private static final byte TAG_DOUBLE = 9;
+	private static final byte TAG_STRING = 10;
+	private static final byte TAG_BOOLEAN_ARRAY = 11;
+	private static final byte TAG_BYTE_ARRAY = 12;
+	private static final byte TAG_SHORT_ARRAY = 13;
+	private static final byte TAG_CHAR_ARRAY = 14;
+	private static final byte TAG_INT_ARRAY = 15;
+	private static final byte TAG_LONG_ARRAY = 16;
+	private static final byte TAG_FLOAT_ARRAY = 17;
+	private static final byte TAG_DOUBLE_ARRAY = 18;
+	private static final byte TAG_OBJECT_ARRAY = 19;
+	private static final byte TAG_ARRAY_LIST = 20;
+	private static final byte TAG_LINKED_LIST = 21;
+	private static final byte TAG_HASH_SET = 22;
+	private static final byte TAG_LINKED_HASH_SET = 23;
+	private static final byte TAG_HASH_MAP = 24;
+	private static final byte TAG_LINKED_HASH_MAP = 25;
+	private static final byte TAG_ENUM = 26;
+	private static final byte TAG_OBJECT = 27;
+	private static final byte TAG_SERIALIZED = 28;
+	private static final byte TAG_UNSUPPORTED = -1;
+
+	private static final Method IS_RECORD = BaseReflectionUtils.getMethod(Class.class, "isRecord");
+	private static final Method GET_RECORD_COMPONENTS = BaseReflectionUtils.getMethod(Class.class, "getRecordComponents");
+
+	private static final ClassValue<TypeInfo> TYPES = new ClassValue<TypeInfo>() {
+		@Override
+		protected TypeInfo computeValue(Class<?> type) {
+			return TypeInfo.create(type);
+		}
+	};
+
+	private final ClassLoader classLoader;
+
+	/**
+	 * Creates a codec that loads the classes of decoded objects with a specific {@link ClassLoader}.
+	 * @param classLoader The class loader for decoded classes, or <code>null</code> to use the loader of this class
+	 * @see ObjectCodec#binary()
+	 */
+	public BinaryObjectCodec(ClassLoader classLoader) {
+		this.classLoader = classLoader == null ? BinaryObjectCodec.class.getClassLoader() : classLoader;
+	}
+
+	@Override
+	public void writeObject(Object object, WritableByteData data) throws IOException {
+		new Writer(data).writeValue(object, 0);
+	}
+
+	@Override
+	public Object readObject(ReadableByteData data) throws IOException {
+		try {
+			return new Reader(data).readValue(0);
+		} catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+			throw (StreamCorruptedException) new StreamCorruptedException("Invalid binary object data").initCause(e);
+		}
+	}
+
+	/**
+	 * Encodes one value. Holds the indices of the class names that were already written.
+	 */
+	private static final class Writer {
+		private final WritableByteData data;
+		private Map<Class<?>, Integer> classIndices;
+
+		private Writer(WritableByteData data) {
+			this.data = data;
+		}
+
+		private void writeValue(Object value, int depth) throws IOException {
+			if(value == null) {
+				data.writeByte(TAG_NULL);
+				return;
+			}
+			if(depth > MAX_DEPTH) throw new NotSerializableException("Object graph is deeper than " + MAX_DEPTH + " levels or contains a cycle");
+			final Class<?> type = value.getClass();
+			final TypeInfo info = TYPES.get(type);
+			switch (info.tag) {
+			case TAG_FALSE: //Boolean
+				data.writeByte(((Boolean) value).booleanValue() ? TAG_TRUE : TAG_FALSE);
+				break;
+			case TAG_BYTE:
+				data.writeByte(TAG_BYTE);
+				data.writeByte(((Byte) value).byteValue());
+				break;
+			case TAG_SHORT:
+				data.writeByte(TAG_SHORT);
+				data.writeSignedVarInt(((Short) value).shortValue());
+				break;
+			case TAG_CHAR:
+				data.writeByte(TAG_CHAR);
+				data.writeVarInt(((Character) value).charValue());
+				break;
+			case TAG_INT:
+				data.writeByte(TAG_INT);
+				data.writeSignedVarInt(((Integer) value).intValue());
+				break;
+			case TAG_LONG:
+				data.writeByte(TAG_LONG);
+				data.writeSignedVarLong(((Long) value).longValue());
+				break;
+			case TAG_FLOAT:
+				data.writeByte(TAG_FLOAT);
+				data.writeFloat(((Float) value).floatValue());
+				break;
+			case TAG_DOUBLE:
+				data.writeByte(TAG_DOUBLE);
+				data.writeDouble(((Double) value).doubleValue());
+				break;
+			case TAG_STRING:
+				data.writeByte(TAG_STRING);
+				data.writeUTF8((String) value);
+				break;
+			case TAG_BOOLEAN_ARRAY:
+				final boolean[] booleans = (boolean[]) value;
+				data.writeByte(TAG_BOOLEAN_ARRAY);
+				data.writeVarInt(booleans.length);
+				for(boolean b : booleans) data.writeBoolean(b);
+				break;
+			case TAG_BYTE_ARRAY:
+				final byte[] bytes = (byte[]) value;
+				data.writeByte(TAG_BYTE_ARRAY);
+				data.writeVarInt(bytes.length);
+				data.write(bytes);
+				break;
+			case TAG_SHORT_ARRAY:
+				final short[] shorts = (short[]) value;
+				data.writeByte(TAG_SHORT_ARRAY);
+				data.writeVarInt(shorts.length);
+				for(short s : shorts) data.writeSignedVarInt(s);
+				break;
+			case TAG_CHAR_ARRAY:
+				final char[] chars = (char[]) value;
+				data.writeByte(TAG_CHAR_ARRAY);
+				data.writeVarInt(chars.length);
+				for(char c : chars) data.writeVarInt(c);
+				break;
+			case TAG_INT_ARRAY:
+				final int[] ints = (int[]) value;
+				data.writeByte(TAG_INT_ARRAY);
+				data.writeVarInt(ints.length);
+				for(int i : ints) data.writeSignedVarInt(i);
+				break;
+			case TAG_LONG_ARRAY:
+				final long[] longs = (long[]) value;
+				data.writeByte(TAG_LONG_ARRAY);
+				data.writeVarInt(longs.length);
+				for(long l : longs) data.writeSignedVarLong(l);
+				break;
+			case TAG_FLOAT_ARRAY:
+				final float[] floats = (float[]) value;
+				data.writeByte(TAG_FLOAT_ARRAY);
+				data.writeVarInt(floats.length);
+				for(float f : floats) data.writeFloat(f);
+				break;
+			case TAG_DOUBLE_ARRAY:
+				final double[] doubles = (double[]) value;
+				data.writeByte(TAG_DOUBLE_ARRAY);
+				data.writeVarInt(doubles.length);
+				for(double d : doubles) data.writeDouble(d);
+				break;
+			case TAG_OBJECT_ARRAY:
+				final Object[] objects = (Object[]) value;
+				data.writeByte(TAG_OBJECT_ARRAY);
+				writeClass(type.getComponentType());
+				data.writeVarInt(objects.length);
+				for(Object o : objects) writeValue(o, depth + 1);
+				break;
+			case TAG_ARRAY_LIST:
+			case TAG_LINKED_LIST:
+			case TAG_HASH_SET:
+			case TAG_LINKED_HASH_SET:
+				final Collection<?> collection = (Collection<?>) value;
+				data.writeByte(info.tag);
+				data.writeVarInt(collection.size());
+				for(Object o : collection) writeValue(o, depth + 1);
+				break;
+			case TAG_HASH_MAP:
+			case TAG_LINKED_HASH_MAP:
+				final Map<?, ?> map = (Map<?, ?>) value;
+				data.writeByte(info.tag);
+				data.writeVarInt(map.size());
+				for(Map.Entry<?, ?> entry : map.entrySet()) {
+					writeValue(entry.getKey(), depth + 1);
+					writeValue(entry.getValue(), depth + 1);
+				}
+				break;
+			case TAG_ENUM:
+				data.writeByte(TAG_ENUM);
+				writeClass(info.type);
+				data.writeUTF8(((Enum<?>) value).name());
+				break;
+			case TAG_OBJECT:
+				data.writeByte(TAG_OBJECT);
+				writeClass(type);
+				for(FieldSlot slot : info.fields) writeField(slot, value, depth);
+				break;
+			case TAG_SERIALIZED:
+				data.writeByte(TAG_SERIALIZED);
+				final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+				try(ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+					out.writeObject(value);
+				}
+				data.writeVarInt(serialized.size());
+				data.write(serialized.toByteArray());
+				break;
+			default:
+				throw new NotSerializableException(info.unsupportedReason);
+			}
+		}
+
+		private void writeField(FieldSlot slot, Object instance, int depth) throws IOException {
+			final Field field = slot.field;
+			try {
+				switch (slot.kind) {
+				case TAG_FALSE:
+					data.writeBoolean(field.getBoolean(instance));
+					break;
+				case TAG_BYTE:
+					data.writeByte(field.getByte(instance));
+					break;
+				case TAG_SHORT:
+					data.writeSignedVarInt(field.getShort(instance));
+					break;
+				case TAG_CHAR:
+					data.writeVarInt(field.getChar(instance));
+					break;
+				case TAG_INT:
+					data.writeSignedVarInt(field.getInt(instance));
+					break;
+				case TAG_LONG:
+					data.writeSignedVarLong(field.getLong(instance));
+					break;
+				case TAG_FLOAT:
+					data.writeFloat(field.getFloat(instance));
+					break;
+				case TAG_DOUBLE:
+					data.writeDouble(field.getDouble(instance));
+					break;
+				default:
+					writeValue(field.get(instance), depth + 1);
+				}
+			} catch (IllegalAccessException e) {
+				throw (InvalidClassException) new InvalidClassException(field.getDeclaringClass().getName(),
+						"Field " + field.getName() + " is not accessible").initCause(e);
+			}
+		}
+
+		private void writeClass(Class<?> type) {
+			if(classIndices == null) classIndices = new IdentityHashMap<>();
+			final Integer index = classIndices.get(type);
+			if(index == null) {
+				classIndices.put(type, classIndices.size());
+				data.writeVarInt(0);
+				data.writeUTF8(type.getName());
+			} else {
+				data.writeVarInt(index.intValue() + 1);
+			}
+		}
+	}
+
+	/**
+	 * Decodes one value. Holds the classes that were already read.
+	 */
+	private final class Reader {
+		private final ReadableByteData data;
+		private List<Class<?>> classes;
+
+		private Reader(ReadableByteData data) {
+			this.data = data;
+		}
+
+		private Object readValue(int depth) throws IOException {
+			final byte tag = data.readByte();
+			if(tag == TAG_NULL) return null;
+			if(depth > MAX_DEPTH) throw new StreamCorruptedException("Object graph is deeper than " + MAX_DEPTH + " levels");
+			switch (tag) {
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_BYTE:
+				return Byte.valueOf(data.readByte());
+			case TAG_SHORT:
+				return Short.valueOf((short) data.readSignedVarInt());
+			case TAG_CHAR:
+				return Character.valueOf((char) data.readVarInt());
+			case TAG_INT:
+				return Integer.valueOf(data.readSignedVarInt());
+			case TAG_LONG:
+				return Long.valueOf(data.readSignedVarLong());
+			case TAG_FLOAT:
+				return Float.valueOf(data.readFloat());
+			case TAG_DOUBLE:
+				return Double.valueOf(data.readDouble());
+			case TAG_STRING:
+				return data.readUTF8();
+			case TAG_BOOLEAN_ARRAY:
+				final boolean[] booleans = new boolean[readLength(1)];
+				for(int i = 0; i < booleans.length; i++) booleans[i] = data.readBoolean();
+				return booleans;
+			case TAG_BYTE_ARRAY:
+				return data.read(readLength(1));
+			case TAG_SHORT_ARRAY:
+				final short[] shorts = new short[readLength(1)];
+				for(int i = 0; i < shorts.length; i++) shorts[i] = (short) data.readSignedVarInt();
+				return shorts;
+			case TAG_CHAR_ARRAY:
+				final char[] chars = new char[readLength(1)];
+				for(int i = 0; i < chars.length; i++) chars[i] = (char) data.readVarInt();
+				return chars;
+			case TAG_INT_ARRAY:
+				final int[] ints = new int[readLength(1)];
+				for(int i = 0; i < ints.length; i++) ints[i] = data.readSignedVarInt();
+				return ints;
+			case TAG_LONG_ARRAY:
+				final long[] longs = new long[readLength(1)];
+				for(int i = 0; i < longs.length; i++) longs[i] = data.readSignedVarLong();
+				return longs;
+			case TAG_FLOAT_ARRAY:
+				final float[] floats = new float[readLength(4)];
+				for(int i = 0; i < floats.length; i++) floats[i] = data.readFloat();
+				return floats;
+			case TAG_DOUBLE_ARRAY:
+				final double[] doubles = new double[readLength(8)];
+				for(int i = 0; i < doubles.length; i++) doubles[i] = data.readDouble();
+				return doubles;
+			case TAG_OBJECT_ARRAY:
+				final Class<?> componentType = readClass();
+				final Object[] objects = (Object[]) Array.newInstance(componentType, readLength(1));
+				for(int i = 0; i < objects.length; i++) objects[i] = readValue(depth + 1);
+				return objects;
+			case TAG_ARRAY_LIST:
+				return readElements(new ArrayList<>(), depth);
+			case TAG_LINKED_LIST:
+				return readElements(new LinkedList<>(), depth);
+			case TAG_HASH_SET:
+				return readElements(new HashSet<>(), depth);
+			case TAG_LINKED_HASH_SET:
+				return readElements(new LinkedHashSet<>(), depth);
+			case TAG_HASH_MAP:
+				return readEntries(new HashMap<>(), depth);
+			case TAG_LINKED_HASH_MAP:
+				return readEntries(new LinkedHashMap<>(), depth);
+			case TAG_ENUM:
+				return readEnum();
+			case TAG_OBJECT:
+				return readFields(depth);
+			case TAG_SERIALIZED:
+				return readSerialized();
+			default:
+				throw new StreamCorruptedException("Unknown value tag " + tag);
+			}
+		}
+
+		private Collection<Object> readElements(Collection<Object> collection, int depth) throws IOException {
+			final int size = readLength(1);
+			for(int i = 0; i < size; i++) collection.add(readValue(depth + 1));
+			return collection;
+		}
+
+		private Map<Object, Object> readEntries(Map<Object, Object> map, int depth) throws IOException {
+			final int size = readLength(2);
+			for(int i = 0; i < size; i++) map.put(readValue(depth + 1), readValue(depth + 1));
+			return map;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private Object readEnum() throws IOException {
+			final Class<?> type = readClass();
+			if(!type.isEnum()) throw new InvalidClassException(type.getName(), "Not an enum type");
+			return Enum.valueOf((Class) type, data.readUTF8());
+		}
+
+		private Object readFields(int depth) throws IOException {
+			final Class<?> type = readClass();
+			final TypeInfo info = TYPES.get(type);
+			if(info.tag != TAG_OBJECT) throw new InvalidClassException(type.getName(), "Class can not be read field by field");
+			try {
+				if(info.constructor != null) { //Record: collect the values first
+					final Object[] values = new Object[info.fields.length];
+					for(int i = 0; i < values.length; i++) {
+						values[i] = readFieldValue(info.fields[i], depth);
+					}
+					return info.constructor.newInstance(values);
+				} else {
+					final Object instance = UnsafeUtils.getInstanceWithoutConstructor(type);
+					if(instance == null) throw new InvalidClassException(type.getName(), "Class can not be instantiated");
+					for(FieldSlot slot : info.fields) readField(slot, instance, depth);
+					return instance;
+				}
+			} catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
+				throw (InvalidClassException) new InvalidClassException(type.getName(), "Object could not be created").initCause(e);
+			}
+		}
+
+		private void readField(FieldSlot slot, Object instance, int depth) throws IOException, IllegalAccessException {
+			final Field field = slot.field;
+			switch (slot.kind) {
+			case TAG_FALSE:
+				field.setBoolean(instance, data.readBoolean());
+				break;
+			case TAG_BYTE:
+				field.setByte(instance, data.readByte());
+				break;
+			case TAG_SHORT:
+				field.setShort(instance, (short) data.readSignedVarInt());
+				break;
+			case TAG_CHAR:
+				field.setChar(instance, (char) data.readVarInt());
+				break;
+			case TAG_INT:
+				field.setInt(instance, data.readSignedVarInt());
+				break;
+			case TAG_LONG:
+				field.setLong(instance, data.readSignedVarLong());
+				break;
+			case TAG_FLOAT:
+				field.setFloat(instance, data.readFloat());
+				break;
+			case TAG_DOUBLE:
+				field.setDouble(instance, data.readDouble());
+				break;
+			default:
+				field.set(instance, readValue(depth + 1));
+			}
+		}
+
+		private Object readFieldValue(FieldSlot slot, int depth) throws IOException {
+			switch (slot.kind) {
+			case TAG_FALSE:
+				return Boolean.valueOf(data.readBoolean());
+			case TAG_BYTE:
+				return Byte.valueOf(data.readByte());
+			case TAG_SHORT:
+				return Short.valueOf((short) data.readSignedVarInt());
+			case TAG_CHAR:
+				return Character.valueOf((char) data.readVarInt());
+			case TAG_INT:
+				return Integer.valueOf(data.readSignedVarInt());
+			case TAG_LONG:
+				return Long.valueOf(data.readSignedVarLong());
+			case TAG_FLOAT:
+				return Float.valueOf(data.readFloat());
+			case TAG_DOUBLE:
+				return Double.valueOf(data.readDouble());
+			default:
+				return readValue(depth + 1);
+			}
+		}
+
+		private Object readSerialized() throws IOException {
+			final byte[] serialized = data.read(readLength(1));
+			try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized)) {
+				@Override
+				protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+					try {
+						return Class.forName(desc.getName(), false, classLoader);
+					} catch (ClassNotFoundException e) {
+						return super.resolveClass(desc);
+					}
+				}
+			}) {
+				return in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Class of serialized object not found", e);
+			}
+		}
+
+		private Class<?> readClass() throws IOException {
+			if(classes == null) classes = new ArrayList<>();
+			final int index = data.readVarInt();
+			if(index == 0) {
+				final String name = data.readUTF8();
+				try {
+					final Class<?> type = Class.forName(name, false, classLoader);
+					classes.add(type);
+					return type;
+				} catch (ClassNotFoundException e) {
+					throw new IOException("Class " + name + " not found", e);
+				}
+			} else if(index <= classes.size()) {
+				return classes.get(index - 1);
+			} else {
+				throw new StreamCorruptedException("Invalid class index " + index);
+			}
+		}
+
+		/**
+		 * Reads a length and checks that enough bytes are left, so corrupted data can not allocate huge arrays
+		 */
+		private int readLength(int minBytesPerElement) throws IOException {
+			final int length = data.readVarInt();
+			if(length < 0 || (long) length * minBytesPerElement > data.getRemainingLength()) {
+				throw new StreamCorruptedException("Invalid length " + length);
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * How a class is written, found once per class
+	 */
+	private static final class TypeInfo {
+		private final byte tag;
+		private final Class<?> type;
+		private final FieldSlot[] fields;
+		private final Constructor<?> constructor; //Only for records
+		private final String unsupportedReason;
+
+		private TypeInfo(byte tag, Class<?> type, FieldSlot[] fields, Constructor<?> constructor, String unsupportedReason) {
+			this.tag = tag;
+			this.type = type;
+			this.fields = fields;
+			this.constructor = constructor;
+			this.unsupportedReason = unsupportedReason;
+		}
+
+		private static TypeInfo of(byte tag, Class<?> type) {
+			return new TypeInfo(tag, type, null, null, null);
+		}
+
+		private static TypeInfo create(Class<?> type) {
+			if(type == Boolean.class) return of(TAG_FALSE, type);
+			if(type == Byte.class) return of(TAG_BYTE, type);
+			if(type == Short.class) return of(TAG_SHORT, type);
+			if(type == Character.class) return of(TAG_CHAR, type);
+			if(type == Integer.class) return of(TAG_INT, type);
+			if(type == Long.class) return of(TAG_LONG, type);
+			if(type == Float.class) return of(TAG_FLOAT, type);
+			if(type == Double.class) return of(TAG_DOUBLE, type);
+			if(type == String.class) return of(TAG_STRING, type);
+			if(type == boolean[].class) return of(TAG_BOOLEAN_ARRAY, type);
+			if(type == byte[].class) return of(TAG_BYTE_ARRAY, type);
+			if(type == short[].class) return of(TAG_SHORT_ARRAY, type);
+			if(type == char[].class) return of(TAG_CHAR_ARRAY, type);
+			if(type == int[].class) return of(TAG_INT_ARRAY, type);
+			if(type == long[].class) return of(TAG_LONG_ARRAY, type);
+			if(type == float[].class) return of(TAG_FLOAT_ARRAY, type);
+			if(type == double[].class) return of(TAG_DOUBLE_ARRAY, type);
+			if(type.isArray()) return of(TAG_OBJECT_ARRAY, type);
+			if(type == ArrayList.class) return of(TAG_ARRAY_LIST, type);
+			if(type == LinkedList.class) return of(TAG_LINKED_LIST, type);
+			if(type == HashSet.class) return of(TAG_HASH_SET, type);
+			if(type == LinkedHashSet.class) return of(TAG_LINKED_HASH_SET, type);
+			if(type == HashMap.class) return of(TAG_HASH_MAP, type);
+			if(type == LinkedHashMap.class) return of(TAG_LINKED_HASH_MAP, type);
+			if(Enum.class.isAssignableFrom(type)) {
+				Class<?> enumType = type;
+				while(!enumType.isEnum()) enumType = enumType.getSuperclass(); //Constants with a body are subclasses
+				return of(TAG_ENUM, enumType);
+			}
+			if(isRecord(type)) return createRecord(type);
+			if(!Serializable.class.isAssignableFrom(type)) {
+				return new TypeInfo(TAG_UNSUPPORTED, type, null, null, type.getName());
+			}
+			if(hasCustomSerialization(type) || !UnsafeUtils.hasUnsafe()) return of(TAG_SERIALIZED, type);
+
+			final List<FieldSlot> fields = new ArrayList<>();
+			addFields(type, fields);
+			return new TypeInfo(TAG_OBJECT, type, fields.toArray(new FieldSlot[fields.size()]), null, null);
+		}
+
+		/**
+		 * Adds the fields of the class and all serializable superclasses, superclass fields first
+		 */
+		private static void addFields(Class<?> type, List<FieldSlot> fields) {
+			final Class<?> superclass = type.getSuperclass();
+			if(superclass != null && Serializable.class.isAssignableFrom(superclass)) addFields(superclass, fields);
+			for(Field declared : type.getDeclaredFields()) {
+				final int modifiers = declared.getModifiers();
+				if(Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) continue;
+				final Field field = BaseReflectionUtils.getField(type, declared.getName()); //Makes it accessible
+				fields.add(new FieldSlot(field == null ? declared : field));
+			}
+		}
+
+		private static TypeInfo createRecord(Class<?> type) {
+			try {
+				final Object[] components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+				final FieldSlot[] fields = new FieldSlot[components.length];
+				final Class<?>[] signature = new Class<?>[components.length];
+				for(int i = 0; i < components.length; i++) {
+					final Method getName = components[i].getClass().getMethod("getName");
+					final Field field = BaseReflectionUtils.getField(type, (String) getName.invoke(components[i]));
+					if(field == null) return new TypeInfo(TAG_UNSUPPORTED, type, null, null, type.getName() + " (record fields not accessible)");
+					fields[i] = new FieldSlot(field);
+					signature[i] = field.getType();
+				}
+				final Constructor<?> constructor = type.getDeclaredConstructor(signature);
+				constructor.setAccessible(true);
+				return new TypeInfo(TAG_OBJECT, type, fields, constructor, null);
+			} catch (ReflectiveOperationException | RuntimeException e) {
+				return new TypeInfo(TAG_UNSUPPORTED, type, null, null, type.getName() + " (record could not be inspected: " + e + ")");
+			}
+		}
+
+		private static boolean isRecord(Class<?> type) {
+			if(IS_RECORD == null || GET_RECORD_COMPONENTS == null) return false; //Before Java 16
+			try {
+				return (Boolean) IS_RECORD.invoke(type);
+			} catch (ReflectiveOperationException e) {
+				return false;
+			}
+		}
+
+		private static boolean hasCustomSerialization(Class<?> type) {
+			if(Externalizable.class.isAssignableFrom(type) || Proxy.isProxyClass(type)) return true;
+			for(Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+				final String name = current.getName();
+				if(name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")) return true;
+				for(Method method : current.getDeclaredMethods()) {
+					switch (method.getName()) {
+					case "writeObject":
+					case "readObject":
+					case "readObjectNoData":
+					case "writeReplace":
+					case "readResolve":
+						return true;
+					}
+				}
+				for(Field field : current.getDeclaredFields()) {
+					if(field.getName().equals("serialPersistentFields")) return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class FieldSlot {
+		private final Field field;
+		private final byte kind;
+
+		private FieldSlot(Field field) {
+			this.field = field;
+			final Class<?> type = field.getType();
+			if(type == boolean.class) kind = TAG_FALSE;
+			else if(type == byte.class) kind = TAG_BYTE;
+			else if(type == short.class) kind = TAG_SHORT;
+			else if(type == char.class) kind = TAG_CHAR;
+			else if(type == int.class) kind = TAG_INT;
+			else if(type == long.class) kind = TAG_LONG;
+			else if(type == float.class) kind = TAG_FLOAT;
+			else if(type == double.class) kind = TAG_DOUBLE;
+			else kind = TAG_OBJECT;
+		}
+	}
+
+}
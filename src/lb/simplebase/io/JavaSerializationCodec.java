@@ -0,0 +1,39 @@
+package lb.simplebase.io;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * An {@link ObjectCodec} that uses Java serialization, the same as {@link WritableByteData#writeObject(Serializable)}
+ * and {@link ReadableByteData#readObject()}.
+ * @see ObjectCodec#javaSerialization()
+ */
+public final class JavaSerializationCodec implements ObjectCodec {
+
+	static final JavaSerializationCodec INSTANCE = new JavaSerializationCodec();
+
+	private JavaSerializationCodec() {}
+
+	@Override
+	public void writeObject(Object object, WritableByteData data) throws IOException {
+		if(object != null && !(object instanceof Serializable)) {
+			throw new NotSerializableException(object.getClass().getName());
+		}
+		try(ObjectOutputStream out = new ObjectOutputStream(data.getOutStream())) {
+			out.writeObject(object);
+		}
+	}
+
+	@Override
+	public Object readObject(ReadableByteData data) throws IOException {
+		try(ObjectInputStream in = new ObjectInputStream(data.getInStream())) {
+			return in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Class of serialized object not found", e);
+		}
+	}
+
+}
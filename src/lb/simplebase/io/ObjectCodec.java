@@ -0,0 +1,50 @@
+package lb.simplebase.io;
+
+import java.io.IOException;
+
+/**
+ * Converts objects to bytes and back. The same codec (or a compatible one) must be used on both sides
+ * of a connection, because the bytes do not contain any information about the codec that wrote them.
+ * <br>Implementations must be thread-safe, as one codec instance is usually shared by all packets.
+ * @see #javaSerialization()
+ * @see #binary()
+ */
+public interface ObjectCodec {
+
+	/**
+	 * Writes the object to the end of the byte sequence.
+	 * @param object The object that should be written, may be <code>null</code>
+	 * @param data The {@link WritableByteData} that the object is written to
+	 * @throws IOException When the object cannot be encoded by this codec
+	 */
+	public void writeObject(Object object, WritableByteData data) throws IOException;
+
+	/**
+	 * Reads the next object from the byte sequence.
+	 * @param data The {@link ReadableByteData} that the object is read from
+	 * @return The object, may be <code>null</code>
+	 * @throws IOException When the bytes are not a valid object for this codec
+	 */
+	public Object readObject(ReadableByteData data) throws IOException;
+
+	/**
+	 * The codec that uses {@link java.io.ObjectOutputStream} and {@link java.io.ObjectInputStream}.
+	 * It supports every {@link java.io.Serializable} object graph, but every object carries a stream header
+	 * and class descriptors.
+	 * @return The Java serialization codec
+	 */
+	public static ObjectCodec javaSerialization() {
+		return JavaSerializationCodec.INSTANCE;
+	}
+
+	/**
+	 * A compact codec for strings, primitives, arrays, common collections, enums, records and simple
+	 * serializable classes. Other serializable objects are written with Java serialization.
+	 * @return The binary codec that uses the default class loader
+	 * @see BinaryObjectCodec
+	 */
+	public static ObjectCodec binary() {
+		return BinaryObjectCodec.DEFAULT;
+	}
+
+}
@@ -1,5 +1,6 @@
 package lb.simplebase.io;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 public class ReadableArrayData implements ReadableByteData {
@@ -55,6 +56,15 @@ public class ReadableArrayData implements ReadableByteData {
 		return data.length - readPointer;
 	}
 	
+	@Override
+	public String readUTF8() {
+		final int length = readVarInt();
+		if(length < 0 || length > getRemainingLength()) throw new IllegalArgumentException("Invalid UTF-8 string length " + length);
+		final String string = new String(data, readPointer, length, StandardCharsets.UTF_8);
+		readPointer += length;
+		return string;
+	}
+	
 	public byte[] internalArray() {
 		return data;
 	}
@@ -1,27 +1,31 @@
 package lb.simplebase.io;
 
 import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 
 public class ReadableBufferData implements ReadableByteData {
 
 	private final ByteBuffer data;
 	
 	/**
-	 * Buffer position will be reset to 0, the buffer will be read from 0 to the limit 
-	 * @param data The buffer to use. Must not be native/direct
+	 * Buffer position will be reset to 0, the buffer will be read from 0 to the limit.
+	 * Data is read as Little Endian, like all other {@link ReadableByteData} implementations, regardless of the buffer's byte order.
+	 * @param data The buffer to use
 	 * @param copy If true, the buffer will be copied so that changes to the buffer object are not visible in this ReadableBufferData object. If false, the buffer will share data but have independent poition, mark, etc.
 	 */
 	public ReadableBufferData(ByteBuffer data, boolean copy) {
 		this.data = copy ? deepCopy(data) : data.duplicate();
-		data.rewind();
+		this.data.order(ByteOrder.LITTLE_ENDIAN);
+		this.data.rewind();
 	}
 
 	
 	protected static ByteBuffer deepCopy(final ByteBuffer buffer) {
-		assert !buffer.isDirect();
-		final ByteBuffer buf2 = ByteBuffer.allocate(buffer.capacity());
-		buf2.put(buffer);
+		final ByteBuffer source = buffer.duplicate();
+		source.rewind();
+		final ByteBuffer buf2 = ByteBuffer.allocate(source.limit());
+		buf2.put(source);
 		return buf2;
 	}
 
@@ -46,13 +50,17 @@ public class ReadableBufferData implements ReadableByteData {
 
 	@Override
 	public byte[] getByteData() {
-		return Arrays.copyOf(data.array(), data.array().length);
+		final ByteBuffer all = data.duplicate();
+		all.rewind();
+		final byte[] ret = new byte[all.limit()];
+		all.get(ret);
+		return ret;
 	}
 
 
 	@Override
 	public int getByteLength() {
-		return data.capacity();
+		return data.limit();
 	}
 
 
@@ -110,4 +118,15 @@ public class ReadableBufferData implements ReadableByteData {
 	public void read(byte[] toFill) {
 		data.get(toFill);
 	}
+
+
+	@Override
+	public String readUTF8() {
+		if(!data.hasArray()) return ReadableByteData.super.readUTF8();
+		final int length = readVarInt();
+		if(length < 0 || length > data.remaining()) throw new IllegalArgumentException("Invalid UTF-8 string length " + length);
+		final String string = new String(data.array(), data.arrayOffset() + data.position(), length, StandardCharsets.UTF_8);
+		data.position(data.position() + length);
+		return string;
+	}
 }
@@ -180,6 +180,94 @@ public interface ReadableByteData {
 		return readString(readByte() & 0xFF);
 	}
 	
+	/**
+	 * Reads a variable-length integer that was written by {@link WritableByteData#writeVarInt(int)}.
+	 * @return The <code>int</code> value
+	 * @throws IllegalArgumentException When the encoding is longer than five bytes
+	 */
+	public default int readVarInt() {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			final byte b = readByte();
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) return value; //Highest bit not set: last byte
+		}
+		throw new IllegalArgumentException("Variable-length int is longer than 5 bytes");
+	}
+	
+	/**
+	 * Reads a variable-length integer that was written by {@link WritableByteData#writeVarLong(long)}.
+	 * @return The <code>long</code> value
+	 * @throws IllegalArgumentException When the encoding is longer than ten bytes
+	 */
+	public default long readVarLong() {
+		long value = 0;
+		for(int shift = 0; shift < 70; shift += 7) {
+			final byte b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if(b >= 0) return value;
+		}
+		throw new IllegalArgumentException("Variable-length long is longer than 10 bytes");
+	}
+	
+	/**
+	 * Reads a zigzag encoded variable-length integer that was written by {@link WritableByteData#writeSignedVarInt(int)}.
+	 * @return The <code>int</code> value
+	 */
+	public default int readSignedVarInt() {
+		final int value = readVarInt();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Reads a zigzag encoded variable-length integer that was written by {@link WritableByteData#writeSignedVarLong(long)}.
+	 * @return The <code>long</code> value
+	 */
+	public default long readSignedVarLong() {
+		final long value = readVarLong();
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Reads a UTF-8 string that was written by {@link WritableByteData#writeUTF8(CharSequence)}.
+	 * Invalid byte sequences are replaced with <code>'\uFFFD'</code>.
+	 * @return The created {@link String}
+	 * @throws IllegalArgumentException When the length is negative or larger than the remaining data
+	 */
+	public default String readUTF8() {
+		final int length = readVarInt();
+		if(length < 0 || length > getRemainingLength()) throw new IllegalArgumentException("Invalid UTF-8 string length " + length);
+		final char[] chars = new char[length]; //Never more chars than bytes
+		int count = 0;
+		int remaining = length;
+		while(remaining > 0) {
+			final int b0 = readByte() & 0xFF;
+			remaining--;
+			final int extra = b0 < 0x80 ? 0 : b0 < 0xC2 ? -1 : b0 < 0xE0 ? 1 : b0 < 0xF0 ? 2 : b0 < 0xF5 ? 3 : -1;
+			if(extra < 0 || extra > remaining) { //Invalid start byte, or sequence is cut off
+				chars[count++] = '\uFFFD';
+				continue;
+			}
+			int codePoint = extra == 0 ? b0 : b0 & (0x3F >> extra);
+			boolean valid = true;
+			for(int i = 0; i < extra; i++) {
+				final int next = readByte() & 0xFF;
+				remaining--;
+				if((next & 0xC0) != 0x80) valid = false;
+				codePoint = (codePoint << 6) | (next & 0x3F);
+			}
+			if(!valid || Character.isSurrogate((char) codePoint) && codePoint < 0x10000 || codePoint > Character.MAX_CODE_POINT) {
+				chars[count++] = '\uFFFD';
+			} else if(codePoint >= 0x10000) {
+				chars[count++] = Character.highSurrogate(codePoint);
+				chars[count++] = Character.lowSurrogate(codePoint);
+			} else {
+				chars[count++] = (char) codePoint;
+			}
+		}
+		return new String(chars, 0, count);
+	}
+	
 	public default Object readObject() {
 		try (ObjectInputStream ois = new ObjectInputStream(getInStream())) {
 			return ois.readObject();
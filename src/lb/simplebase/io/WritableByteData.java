@@ -161,6 +161,123 @@ public interface WritableByteData {
 		}
 	}
 	
+	/**
+	 * Writes an <code>int</code> as a variable-length integer: 7 bits per byte, least significant group first, and the highest
+	 * bit of every byte except the last one is set. Values from 0 to 127 take one byte, negative values always take five bytes.
+	 * @param i The <code>int</code> that should be written
+	 * @see #writeSignedVarInt(int)
+	 */
+	public default void writeVarInt(int i) {
+		while((i & ~0x7F) != 0) {
+			writeByte((byte) ((i & 0x7F) | 0x80));
+			i >>>= 7;
+		}
+		writeByte((byte) i);
+	}
+	
+	/**
+	 * Writes a <code>long</code> as a variable-length integer of one to ten bytes, like {@link #writeVarInt(int)}.
+	 * @param l The <code>long</code> that should be written
+	 * @see #writeSignedVarLong(long)
+	 */
+	public default void writeVarLong(long l) {
+		while((l & ~0x7FL) != 0) {
+			writeByte((byte) ((l & 0x7F) | 0x80));
+			l >>>= 7;
+		}
+		writeByte((byte) l);
+	}
+	
+	/**
+	 * Writes an <code>int</code> with zigzag encoding as a variable-length integer, so numbers close to zero take few bytes
+	 * even if they are negative: 0, -1, 1, -2, ... are written as 0, 1, 2, 3, ...
+	 * @param i The <code>int</code> that should be written
+	 * @see #writeVarInt(int)
+	 */
+	public default void writeSignedVarInt(int i) {
+		writeVarInt((i << 1) ^ (i >> 31));
+	}
+	
+	/**
+	 * Writes a <code>long</code> with zigzag encoding as a variable-length integer, like {@link #writeSignedVarInt(int)}.
+	 * @param l The <code>long</code> that should be written
+	 */
+	public default void writeSignedVarLong(long l) {
+		writeVarLong((l << 1) ^ (l >> 63));
+	}
+	
+	/**
+	 * Writes a {@link CharSequence} as UTF-8, with the amount of bytes as a variable-length integer ({@link #writeVarInt(int)}) in front.
+	 * The characters are encoded directly, without creating a {@link String} or byte array first.
+	 * Unpaired surrogate characters are replaced with <code>'?'</code>, like {@link String#getBytes(java.nio.charset.Charset)} does.
+	 * @param cs The {@link CharSequence} that should be written
+	 */
+	public default void writeUTF8(CharSequence cs) {
+		writeVarInt(utf8Length(cs));
+		final int length = cs.length();
+		for(int i = 0; i < length; i++) {
+			final char c = cs.charAt(i);
+			if(c < 0x80) {
+				writeByte((byte) c);
+			} else if(c < 0x800) {
+				writeByte((byte) (0xC0 | (c >> 6)));
+				writeByte((byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+					final int codePoint = Character.toCodePoint(c, cs.charAt(++i));
+					writeByte((byte) (0xF0 | (codePoint >> 18)));
+					writeByte((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+					writeByte((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+					writeByte((byte) (0x80 | (codePoint & 0x3F)));
+				} else {
+					writeByte((byte) '?');
+				}
+			} else {
+				writeByte((byte) (0xE0 | (c >> 12)));
+				writeByte((byte) (0x80 | ((c >> 6) & 0x3F)));
+				writeByte((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+	}
+	
+	/**
+	 * The amount of bytes that {@link #writeUTF8(CharSequence)} writes for the characters, without the length in front.
+	 * @param cs The {@link CharSequence}
+	 * @return The length of the UTF-8 encoding of the {@link CharSequence}
+	 */
+	public static int utf8Length(CharSequence cs) {
+		final int length = cs.length();
+		int bytes = length;
+		for(int i = 0; i < length; i++) {
+			final char c = cs.charAt(i);
+			if(c < 0x80) continue;
+			if(c < 0x800) {
+				bytes += 1;
+			} else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+					bytes += 2; //4 bytes for two chars
+					i++;
+				} //Otherwise replaced by a single byte
+			} else {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+	
+	/**
+	 * The amount of bytes that {@link #writeVarInt(int)} writes for a value.
+	 * @param i The <code>int</code> value
+	 * @return The length of the variable-length encoding, from 1 to 5
+	 */
+	public static int varIntLength(int i) {
+		if((i & ~0x7F) == 0) return 1;
+		if((i & ~0x3FFF) == 0) return 2;
+		if((i & ~0x1FFFFF) == 0) return 3;
+		if((i & ~0xFFFFFFF) == 0) return 4;
+		return 5;
+	}
+	
 	public default boolean writeObject(Serializable object) {
 		try(ObjectOutputStream oos = new ObjectOutputStream(getOutStream())) {
 			oos.writeObject(object);
@@ -0,0 +1,233 @@
+package lb.simplebase.io;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A {@link WritableByteData} that writes into a byte array and grows it when it is full.
+ * The array can be reused with {@link #reset(int)}, and bytes that were already written can be changed
+ * with the <code>set...</code> methods, e.g. to fill in a header after the data following it is known.
+ */
+public class WritableGrowableData implements WritableByteData {
+
+	private byte[] data;
+	private int writePointer;
+
+	public WritableGrowableData(int initialCapacity) {
+		this.data = new byte[Math.max(initialCapacity, 16)];
+		this.writePointer = 0;
+	}
+
+	private void ensureCapacity(int additional) {
+		final int required = writePointer + additional;
+		if(required > data.length) {
+			data = Arrays.copyOf(data, Math.max(required, data.length * 2));
+		}
+	}
+
+	@Override
+	public void writeByte(byte b) {
+		ensureCapacity(1);
+		data[writePointer++] = b;
+	}
+
+	@Override
+	public void write(byte[] toWrite) {
+		write(toWrite, 0, toWrite.length);
+	}
+
+	/**
+	 * Writes a part of the byte array at the end of the current byte sequence
+	 * @param toWrite The byte data that should be written
+	 * @param offset The index of the first byte to write
+	 * @param length The amount of bytes to write
+	 */
+	public void write(byte[] toWrite, int offset, int length) {
+		ensureCapacity(length);
+		System.arraycopy(toWrite, offset, data, writePointer, length);
+		writePointer += length;
+	}
+
+	@Override
+	public void writeShort(short s) {
+		ensureCapacity(2);
+		data[writePointer++] = (byte) s;
+		data[writePointer++] = (byte) (s >>> 8);
+	}
+
+	@Override
+	public void writeChar(char c) {
+		writeShort((short) c);
+	}
+
+	@Override
+	public void writeInt(int i) {
+		ensureCapacity(4);
+		putInt(writePointer, i);
+		writePointer += 4;
+	}
+
+	@Override
+	public void writeLong(long l) {
+		ensureCapacity(8);
+		putInt(writePointer, (int) l);
+		putInt(writePointer + 4, (int) (l >>> 32));
+		writePointer += 8;
+	}
+
+	@Override
+	public void writeVarInt(int i) {
+		ensureCapacity(5);
+		while((i & ~0x7F) != 0) {
+			data[writePointer++] = (byte) ((i & 0x7F) | 0x80);
+			i >>>= 7;
+		}
+		data[writePointer++] = (byte) i;
+	}
+
+	/**
+	 * Encodes the characters directly into the internal array, after the length was calculated.
+	 */
+	@Override
+	public void writeUTF8(CharSequence cs) {
+		final int byteLength = WritableByteData.utf8Length(cs);
+		writeVarInt(byteLength);
+		ensureCapacity(byteLength);
+		final byte[] data = this.data;
+		int index = writePointer;
+		final int length = cs.length();
+		for(int i = 0; i < length; i++) {
+			final char c = cs.charAt(i);
+			if(c < 0x80) {
+				data[index++] = (byte) c;
+			} else if(c < 0x800) {
+				data[index++] = (byte) (0xC0 | (c >> 6));
+				data[index++] = (byte) (0x80 | (c & 0x3F));
+			} else if(Character.isSurrogate(c)) {
+				if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+					final int codePoint = Character.toCodePoint(c, cs.charAt(++i));
+					data[index++] = (byte) (0xF0 | (codePoint >> 18));
+					data[index++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					data[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					data[index++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else {
+					data[index++] = (byte) '?';
+				}
+			} else {
+				data[index++] = (byte) (0xE0 | (c >> 12));
+				data[index++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				data[index++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		writePointer = index;
+	}
+
+	/**
+	 * Replaces a byte that was already written.
+	 * @param index The index of the byte
+	 * @param b The new value
+	 */
+	public void setByte(int index, byte b) {
+		if(index < 0 || index >= writePointer)
+			throw new IndexOutOfBoundsException("Index " + index + " is outside of the written data");
+		data[index] = b;
+	}
+
+	/**
+	 * Moves all bytes from the index to the end of the written data back, so that there are <code>amount</code> new bytes
+	 * at the index. The new bytes have undefined values until they are set.
+	 * @param index The index where the new bytes start
+	 * @param amount The amount of bytes to insert
+	 */
+	public void insert(int index, int amount) {
+		if(index < 0 || index > writePointer)
+			throw new IndexOutOfBoundsException("Index " + index + " is outside of the written data");
+		ensureCapacity(amount);
+		System.arraycopy(data, index, data, index + amount, writePointer - index);
+		writePointer += amount;
+	}
+
+	/**
+	 * Replaces four bytes that were already written with an <code>int</code> value, in the same encoding as {@link #writeInt(int)}.
+	 * @param index The index of the first byte
+	 * @param i The <code>int</code> that should be written
+	 */
+	public void setInt(int index, int i) {
+		if(index < 0 || index + 4 > writePointer)
+			throw new IndexOutOfBoundsException("Index " + index + " is outside of the written data");
+		putInt(index, i);
+	}
+
+	private void putInt(int index, int i) {
+		data[index    ] = (byte) i;
+		data[index + 1] = (byte) (i >>> 8);
+		data[index + 2] = (byte) (i >>> 16);
+		data[index + 3] = (byte) (i >>> 24);
+	}
+
+	/**
+	 * Skips bytes that will be set later. The skipped bytes have undefined values until they are set.
+	 * @param amount The amount of bytes to skip
+	 */
+	public void reserve(int amount) {
+		ensureCapacity(amount);
+		writePointer += amount;
+	}
+
+	/**
+	 * Discards the written bytes after the length, e.g. when less bytes than were reserved are used.
+	 * @param length The new length, not larger than the current length
+	 */
+	public void truncate(int length) {
+		if(length < 0 || length > writePointer)
+			throw new IndexOutOfBoundsException("Length " + length + " is outside of the written data");
+		writePointer = length;
+	}
+
+	/**
+	 * Discards all written data. If the internal array is larger than the maximum capacity, it is replaced by a smaller one.
+	 * @param maxCapacity The maximum size of the internal array that should be kept
+	 */
+	public void reset(int maxCapacity) {
+		writePointer = 0;
+		if(data.length > maxCapacity) data = new byte[Math.max(maxCapacity, 16)];
+	}
+
+	/**
+	 * The array can contain more bytes than were written, only the first {@link #getLength()} bytes are valid.
+	 * The array changes when the buffer grows.
+	 * @return The internal byte array
+	 */
+	public byte[] internalArray() {
+		return data;
+	}
+
+	/**
+	 * @return A copy of the written bytes
+	 */
+	public byte[] getAsArray() {
+		return Arrays.copyOf(data, writePointer);
+	}
+
+	/**
+	 * @return A {@link ByteBuffer} that shares data with this object and contains all written bytes
+	 */
+	public ByteBuffer getAsBuffer() {
+		return ByteBuffer.wrap(data, 0, writePointer);
+	}
+
+	/**
+	 * @return The amount of bytes that were written
+	 */
+	public int getLength() {
+		return writePointer;
+	}
+
+	/**
+	 * @return The size of the internal array
+	 */
+	public int getCapacity() {
+		return data.length;
+	}
+
+}
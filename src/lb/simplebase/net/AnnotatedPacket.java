@@ -0,0 +1,23 @@
+package lb.simplebase.net;
+
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+
+/**
+ * A {@link Packet} that writes and reads all fields marked with {@link PacketField} automatically, using the
+ * {@link PacketSerializer} for its class. Subclasses only declare the fields and need a constructor without parameters
+ * for the {@link PacketIdMapping}.
+ */
+public abstract class AnnotatedPacket implements Packet {
+
+	@Override
+	public void writeData(WritableByteData data) {
+		PacketSerializer.forClass(getClass()).writeFields(this, data);
+	}
+
+	@Override
+	public void readData(ReadableByteData data) {
+		PacketSerializer.forClass(getClass()).readFields(this, data);
+	}
+
+}
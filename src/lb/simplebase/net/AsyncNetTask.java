@@ -1,37 +1,55 @@
 package lb.simplebase.net;
 
-import java.util.ArrayList;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Consumer;
 
 import lb.simplebase.action.AsyncResult;
+import lb.simplebase.log.LogLevel;
 import lb.simplebase.util.NamedThreadFactory;
-import lb.simplebase.action.AsyncAction.DoneHandler;
 
 /**
- * Implementations represent a {@link Future}, but instead of
- * returning a value, the have members that change until the future is completed
+ * The {@link AsyncResult} of a network task, e.g. sending a packet. A task is a single completion cell:
+ * the state, the result and the done handlers are fields of the task itself, and state changes are compare-and-set operations
+ * instead of locks. The task is done when its immutable result has been set, so only the first completion counts,
+ * and the error of a task can't change after it is done. Done handlers are only allocated when they are added,
+ * and {@link #syncOrError()} only allocates a latch when it actually has to wait, so a send that is never observed costs one object.<br>
+ * Use {@link AsyncResult#toCompletableFuture()} to compose the result with other asynchronous code.
  */
-public final class AsyncNetTask extends DoneHandler implements AsyncResult {
+public final class AsyncNetTask implements AsyncResult {
 
-	private final Future<Void> task;
-	private volatile State state;
+	private static final AtomicReferenceFieldUpdater<AsyncNetTask, State> STATE =
+			AtomicReferenceFieldUpdater.newUpdater(AsyncNetTask.class, State.class, "state");
+	private static final AtomicReferenceFieldUpdater<AsyncNetTask, Result> RESULT =
+			AtomicReferenceFieldUpdater.newUpdater(AsyncNetTask.class, Result.class, "result");
+	private static final AtomicReferenceFieldUpdater<AsyncNetTask, HandlerNode> HANDLERS =
+			AtomicReferenceFieldUpdater.newUpdater(AsyncNetTask.class, HandlerNode.class, "handlers");
 	
-	private Exception error;
-	private String errorMessage;
-	private final Accessor accessor;
+	/**
+	 * Replaces the handler list when the task is done, so handlers that are added later run immediately
+	 */
+	private static final HandlerNode DONE = new HandlerNode(null, null);
+	
+	private static final Result SUCCESS = new Result(null, null);
+	private static final AsyncNetTask SUCCEEDED = new AsyncNetTask(SUCCESS);
 	
 	private static final ExecutorService futureExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("FutureStateProcessing-"));
+	private static volatile ExecutorService virtualExecutor = null; //Created for the first network manager that uses virtual threads
+	
+	private volatile State state; //IDLE or WORKING, the task is FINISHED when the result is set
+	private volatile Result result; //null until the task is done, then never changed
+	private volatile HandlerNode handlers; //A stack of done handlers, or DONE
+	private final Consumer<Accessor> work; //Only for submitted tasks
+	private final boolean virtual; //Whether submitted work runs on a virtual thread
 	
 	public class Accessor {
-		public synchronized void setErrorAndMessage(Exception e, String message) {
+		private Exception error;
+		private String errorMessage;
+		
+		public void setErrorAndMessage(Exception e, String message) {
 			error = e;
 			if(message == null && error != null) {
 				errorMessage = e.getMessage();
@@ -48,90 +66,219 @@ public final class AsyncNetTask extends DoneHandler implements AsyncResult {
 	protected static volatile boolean RUN_ASYNC = true;
 	
 	public static AsyncResult submitTask(Consumer<Accessor> task) {
-		return new AsyncNetTask(false, task, null, null, false).run();
+		return new AsyncNetTask(State.IDLE, task, false).run();
+	}
+	
+	/**
+	 * Submits a task for a network manager.
+	 * @param task The task to run
+	 * @param virtual Whether the task should run on a virtual thread, see {@link #executeAsync(Runnable, boolean)}
+	 * @return The {@link AsyncResult} of the task
+	 */
+	static AsyncResult submitTask(Consumer<Accessor> task, boolean virtual) {
+		return new AsyncNetTask(State.IDLE, task, virtual).run();
 	}
 	
 	@Deprecated
 	protected static AsyncNetTask createTask(Consumer<Accessor> task) {
-		return new AsyncNetTask(false, task, null, null, false);
+		return new AsyncNetTask(State.IDLE, task, false);
+	}
+	
+	/**
+	 * A task that is already done and successful. The same instance is returned every time, so nothing is allocated.
+	 * Done handlers that are added to it run immediately.
+	 * @return The shared successful task
+	 */
+	public static AsyncNetTask createSucceeded() {
+		return SUCCEEDED;
 	}
 	
+	/**
+	 * A task that is already done and failed. The failure is only logged at {@link LogLevel#DEBUG}, because the caller
+	 * receives it with the result.
+	 * @param ex The exception that made the task fail, or <code>null</code>
+	 * @param message The error message
+	 * @return The failed task
+	 */
 	public static AsyncNetTask createFailed(Exception ex, String message) {
-		return new AsyncNetTask(true, null, ex, message, true);
-	}
-	
-	private AsyncNetTask(boolean failed, Consumer<Accessor> asyncTask, Exception ex, String message, boolean log) {
-		super(() -> new ArrayList<>());
-		this.accessor = new Accessor();
-		if(failed) {
-			this.task = CompletableFuture.completedFuture(null);
-			this.state = State.FINISHED;
-			this.error = ex;
-			this.errorMessage = message;
-			if(log) {
-				if(error == null) {
-					NetworkManager.NET_LOG.error("[AsyncNetTask]:" + errorMessage);
-				} else {
-					NetworkManager.NET_LOG.error("[AsyncNetTask]:" + errorMessage == null ? error.getMessage() : errorMessage, error);
-				}
-			}
-		} else {
-			Callable<Void> newTask = () -> {
-				try {
-					asyncTask.accept(accessor);
-				} finally { //Make sure that taskDoneHandler is called when an uncaught exception is thrown
-					taskDoneHandler();
-				}
-				return null;
-			};
-			this.state = State.IDLE;
-			this.task = new FutureTask<>(newTask);
-		}
+		final AsyncNetTask failed = new AsyncNetTask(createResult(ex, message));
+		failed.logFailure();
+		return failed;
+	}
+	
+	/**
+	 * Creates a task that does not run any code itself, but is completed from the outside by calling
+	 * {@link #completePending(Exception, String)}, e.g. when a selector thread has written the data of a packet.
+	 * @return The new pending task, with state {@link State#WORKING}
+	 */
+	protected static AsyncNetTask createPending() {
+		return new AsyncNetTask(State.WORKING, null, false);
+	}
+	
+	private AsyncNetTask(State initialState, Consumer<Accessor> work, boolean virtual) {
+		this.work = work;
+		this.virtual = virtual;
+		this.state = initialState;
+		this.result = null;
+		this.handlers = null;
+	}
+	
+	private AsyncNetTask(Result result) { //Already done
+		this.work = null;
+		this.virtual = false;
+		this.state = State.FINISHED;
+		this.result = result;
+		this.handlers = DONE;
 	}
 	
 	@Override
 	public Exception getError() {
-		return error;
+		final Result current = result;
+		return current == null ? null : current.error;
 	}
 	
 	@Override
 	public String getErrorMessage() {
-		return errorMessage;
-	}
-	
-	protected void taskDoneHandler() {
-		state = State.FINISHED;
-		if(isFailed()) NetworkManager.NET_LOG.error("[AsyncNetTask]:" + errorMessage, error);
-		runDoneHandlers();
+		final Result current = result;
+		return current == null ? null : current.errorMessage;
 	}
 	
 	@Override
 	public boolean isFailed() {
-		return task.isCancelled() || error != null || errorMessage != null;
+		final Result current = result;
+		return current != null && current != SUCCESS;
 	}
 
 	@Override
 	public boolean isSuccess() {
-		return task.isDone() && !isFailed();
+		return result == SUCCESS;
 	}
 
-	protected synchronized AsyncNetTask runInSync() {
-		if(state == State.IDLE) { //If task is CompletedFuture, state will be finished
-			((FutureTask<Void>) task).run();
+	/**
+	 * Completes a task created by {@link #createPending()}. Has no effect on other tasks or when the task is already done,
+	 * so if several threads complete the task at the same time, only the result of the first one is used.
+	 * @param ex The exception that made the task fail, or <code>null</code>
+	 * @param message The error message, or <code>null</code> if the task completed successfully
+	 */
+	protected void completePending(Exception ex, String message) {
+		if(work != null || result != null) return;
+		finish(createResult(ex, message));
+	}
+	
+	private static Result createResult(Exception ex, String message) {
+		if(ex == null && message == null) return SUCCESS;
+		return new Result(ex, message == null ? ex.getMessage() : message);
+	}
+	
+	/**
+	 * Sets the result, which makes the task {@link State#FINISHED}, then runs the done handlers.
+	 * Has no effect if the task already has a result.
+	 * @param completed The result of the task
+	 */
+	private void finish(Result completed) {
+		if(!RESULT.compareAndSet(this, null, completed)) return;
+		state = State.FINISHED;
+		if(completed != SUCCESS) logFailure();
+		HandlerNode node = HANDLERS.getAndSet(this, DONE);
+		//The stack has the last added handler on top, reverse it so handlers run in the order in which they were added
+		HandlerNode reversed = null;
+		while(node != null) {
+			final HandlerNode next = node.next;
+			node.next = reversed;
+			reversed = node;
+			node = next;
+		}
+		for(HandlerNode handler = reversed; handler != null; handler = handler.next) {
+			try {
+				handler.handler.run();
+			} catch (RuntimeException e) {
+				NetworkManager.NET_LOG.error("[AsyncNetTask]: Done handler threw an exception", e);
+			}
+		}
+	}
+	
+	private void logFailure() {
+		if(!LogLevel.DEBUG.isHigherOrEqual(NetworkManager.NET_LOG.getMinimalLevel())) return; //Don't format a message that is not logged
+		final Result failure = result;
+		if(failure.error == null) {
+			NetworkManager.NET_LOG.debug("[AsyncNetTask]: " + failure.errorMessage);
+		} else {
+			NetworkManager.NET_LOG.debug("[AsyncNetTask]: " + failure.errorMessage, failure.error);
+		}
+	}
+	
+	@Override
+	public void addDoneHandler(Runnable handler) {
+		HandlerNode node = null;
+		while(true) {
+			final HandlerNode current = handlers;
+			if(current == DONE) {
+				handler.run();
+				return;
+			}
+			if(node == null) node = new HandlerNode(handler, current);
+			node.next = current;
+			if(HANDLERS.compareAndSet(this, current, node)) return;
+		}
+	}
+	
+	/**
+	 * Runs a task on the executor that is used for asynchronous tasks.
+	 * If async mode is disabled, the task runs in the calling thread and is done when the method returns.
+	 * @param work The task to run
+	 * @return <code>false</code> if the executor has been shut down and the task was not run
+	 */
+	protected static boolean executeAsync(Runnable work) {
+		return executeAsync(work, false);
+	}
+	
+	/**
+	 * Runs a task for a network manager on the executor that is used for asynchronous tasks.
+	 * If async mode is disabled, the task runs in the calling thread and is done when the method returns.
+	 * @param work The task to run
+	 * @param virtual If <code>true</code> and supported by the JVM, the task runs on a new virtual thread.
+	 * Only the managers that use virtual threads pass <code>true</code>, the executor for all other managers does not change
+	 * @return <code>false</code> if the executor has been shut down and the task was not run
+	 * @see NetworkConnection#executeAsync(Runnable)
+	 */
+	static boolean executeAsync(Runnable work, boolean virtual) {
+		if(RUN_ASYNC) {
+			try {
+				getExecutor(virtual).execute(work);
+			} catch (RejectedExecutionException e) {
+				NetworkManager.NET_LOG.warn("Rejected FutureState execution, Service might be shut down already - Task not executed", e);
+				return false;
+			}
+		} else {
+			work.run();
+		}
+		return true;
+	}
+	
+	protected AsyncNetTask runInSync() {
+		if(STATE.compareAndSet(this, State.IDLE, State.WORKING)) {
+			runWork();
 		}
 		return this;
 	}
 	
-	protected synchronized void setState(State state) {
-		this.state = state;
+	private void runWork() {
+		final Accessor accessor = new Accessor();
+		try {
+			work.accept(accessor);
+		} catch (RuntimeException e) {
+			accessor.error = e;
+			accessor.errorMessage = e.getMessage();
+		} finally { //Make sure that the done handlers are called when an uncaught exception is thrown
+			finish(createResult(accessor.error, accessor.errorMessage));
+		}
 	}
 	
-	protected synchronized AsyncNetTask run() {
+	protected AsyncNetTask run() {
 		if(RUN_ASYNC) {
-			if(state == State.IDLE) { //It is a FutureTask (otherwise, it's already done)
-				state = State.WORKING;
+			if(STATE.compareAndSet(this, State.IDLE, State.WORKING)) { //Otherwise it is running or done already
 				try {
-					futureExecutor.execute((FutureTask<Void>) task);
+					getExecutor(virtual).execute(this::runWork);
 				} catch (RejectedExecutionException e) {
 					NetworkManager.NET_LOG.warn("Rejected FutureState execution, Service might be shut down already - Task not executed", e);
 				}
@@ -144,30 +291,74 @@ public final class AsyncNetTask extends DoneHandler implements AsyncResult {
 	
 	@Override
 	public boolean isDone() {
-		return task.isDone();
+		return result != null;
 	}
 	
 	@Override
 	public AsyncResult syncOrError() throws InterruptedException {
-		if(state == State.FINISHED) return this;
-		try {
-			task.get();
-		} catch (ExecutionException e) {
-			accessor.setErrorAndMessage(e, null);
-		}
+		if(result != null) return this;
+		final CountDownLatch waiter = new CountDownLatch(1); //Only allocated if the caller has to wait
+		addDoneHandler(waiter::countDown);
+		waiter.await();
 		return this;
 	}
 	
 	public State getState() {
-		return state;
+		return result != null ? State.FINISHED : state;
 	}
 	
 	public static enum State {
 		IDLE, WORKING, FINISHED;
 	}
 	
-	public static void shutdownExecutor() {
+	public static synchronized void shutdownExecutor() {
 		futureExecutor.shutdown();
+		if(virtualExecutor != null) virtualExecutor.shutdown();
+	}
+	
+	/**
+	 * @param virtual Whether the executor for virtual threads is requested
+	 * @return The executor, which is the platform executor if virtual threads are not available
+	 */
+	private static ExecutorService getExecutor(boolean virtual) {
+		if(!virtual || !VirtualThreads.isAvailable()) return futureExecutor;
+		final ExecutorService existing = virtualExecutor;
+		return existing != null ? existing : createVirtualExecutor();
+	}
+	
+	/**
+	 * The executor for virtual threads is created when it is first used, and it is never replaced, so tasks
+	 * that other threads are submitting at the same time are not rejected.
+	 */
+	private static synchronized ExecutorService createVirtualExecutor() {
+		if(virtualExecutor == null) {
+			if(futureExecutor.isShutdown()) return futureExecutor; //Rejects the task like after shutdownExecutor()
+			virtualExecutor = VirtualThreads.createExecutor("FutureStateProcessing-Virtual-");
+		}
+		return virtualExecutor;
+	}
+	
+	/**
+	 * The outcome of a done task. Success is the shared {@link #SUCCESS} instance, so a successful task allocates nothing.
+	 */
+	private static final class Result {
+		private final Exception error;
+		private final String errorMessage;
+		
+		private Result(Exception error, String errorMessage) {
+			this.error = error;
+			this.errorMessage = errorMessage;
+		}
+	}
+	
+	private static final class HandlerNode {
+		private final Runnable handler;
+		private HandlerNode next;
+		
+		private HandlerNode(Runnable handler, HandlerNode next) {
+			this.handler = handler;
+			this.next = next;
+		}
 	}
 
 }
@@ -2,14 +2,15 @@ package lb.simplebase.net;
 
 import java.net.InetAddress;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 /**
  * A simple filter that can be used as a listener for the {@link AttemptedConnectionEvent} to prevent certain ips, represented by {@link InetAddress}es,
- * form making a connection to the server. 
+ * form making a connection to the server. The filter can be changed while the server is running.<br>
+ * To ban address ranges or to limit the rate of connection attempts, use the {@link ConnectionAttemptFilter}.
  */
 public class BannedIpFilter implements Consumer<AttemptedConnectionEvent>, Iterable<InetAddress>{
 
@@ -20,7 +21,7 @@ public class BannedIpFilter implements Consumer<AttemptedConnectionEvent>, Itera
 	 * @param bannedIps A list of {@link InetAddress}es that should be in the filter
 	 */
 	public BannedIpFilter(Iterable<InetAddress> bannedIps) {
-		this.bannedIps = new HashSet<>();
+		this.bannedIps = ConcurrentHashMap.newKeySet();
 		for(InetAddress address : bannedIps) {
 			this.bannedIps.add(address);
 		}
@@ -30,7 +31,7 @@ public class BannedIpFilter implements Consumer<AttemptedConnectionEvent>, Itera
 	 * Creates a new {@link BannedIpFilter} with an empty filter.
 	 */
 	public BannedIpFilter() {
-		this.bannedIps = new HashSet<>();
+		this.bannedIps = ConcurrentHashMap.newKeySet();
 	}
 	
 	/**
@@ -0,0 +1,294 @@
+package lb.simplebase.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import lb.simplebase.action.AsyncResult;
+import lb.simplebase.net.ClosedConnectionEvent.Cause;
+import lb.simplebase.util.OptionalError;
+
+/**
+ * A server side {@link NetworkConnection} that uses a non-blocking {@link SocketChannel}.
+ * It does not have its own thread: reading and writing is done by the {@link ChannelSelectorThread}
+ * that the channel is registered with.
+ */
+class ChannelNetworkConnection extends NetworkConnection {
+
+	private final SocketChannel channel;
+	private final ChannelSelectorThread selectorThread;
+	private final PacketFactory factory;
+
+	private final MultiplexedWriteQueue writeQueue;
+	private final AtomicBoolean writeRequested;
+	private final int fragmentSize;
+	//The slice that is being written, only used by the selector thread
+	private final MultiplexedWriteQueue.Slice slice;
+	private final ByteBuffer[] sliceBuffers;
+	private boolean sliceStarted;
+	private volatile SelectionKey key;
+	private volatile boolean readingPaused;
+
+	public ChannelNetworkConnection(TargetIdentifier source, TargetIdentifier target, NetworkManager packetHandler, SocketChannel connectedChannel,
+			ChannelSelectorThread selectorThread, boolean isServer, Object payload, boolean compactFrames, int compressionThreshold, int fragmentSize, int maxFrameSize) {
+		super(source, target, packetHandler, ConnectionState.fromChannel(connectedChannel), isServer, payload);
+
+		this.channel = connectedChannel;
+		this.selectorThread = selectorThread;
+		this.factory = new PacketFactory(getNetworkManager(), this::handleReceivedPacket, compactFrames, compressionThreshold, getCompressionStatistics());
+		this.writeQueue = new MultiplexedWriteQueue();
+		this.writeRequested = new AtomicBoolean(false);
+		this.fragmentSize = fragmentSize;
+		this.slice = new MultiplexedWriteQueue.Slice();
+		this.sliceBuffers = new ByteBuffer[] {ByteBuffer.wrap(slice.header), null};
+		this.sliceStarted = false;
+		if(fragmentSize > 0) factory.enableFragments();
+		factory.setMaxFrameSize(maxFrameSize);
+		factory.setProtocolErrorHandler(() -> closeChannel(Cause.PROTOCOL_ERROR));
+
+		selectorThread.register(this);
+		sendHandshake(); //Runs after the registration, the selector thread executes tasks in order
+	}
+
+	protected SocketChannel getChannel() {
+		return channel;
+	}
+
+	protected void setSelectionKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Encodes the packet on the calling thread and queues it for the selector thread.
+	 * The returned {@link AsyncResult} is done when all bytes of the packet have been written to the channel.
+	 */
+	@Override
+	public AsyncResult sendPacketToTarget(Packet packet) {
+		if(getState() == ConnectionState.OPEN) {
+			final EncodedPacket data;
+			try {
+				data = factory.encodeForQueue(packet);
+			} catch (PacketMappingNotFoundException e) {
+				return AsyncNetTask.createFailed(e, "No mapping was found for packet type " + packet.getClass().getSimpleName());
+			}
+			return queuePacket(data);
+		} else {
+			return AsyncNetTask.createFailed(null, "Connection was not open");
+		}
+	}
+	
+	/**
+	 * Queues the handshake control frame that tells the remote side that compact frames or fragments can be read.
+	 */
+	private void sendHandshake() {
+		if(factory.isCompactFrameEnabled() || factory.isFragmentEnabled()) queuePacket(new EncodedPacket(factory.encodeHandshake()));
+	}
+	
+	@Override
+	void sendHeartbeat() {
+		if(getState() == ConnectionState.OPEN) queuePacket(new EncodedPacket(factory.encodeHeartbeat()));
+	}
+	
+	@Override
+	void closeTimedOut() {
+		closeChannel(Cause.TIMEOUT);
+	}
+	
+	@Override
+	void sendDatagramOffer(long token, int port) {
+		if(getState() == ConnectionState.OPEN) queuePacket(new EncodedPacket(factory.encodeDatagramOffer(token, port)));
+	}
+	
+	@Override
+	PacketFactory getPacketFactory() {
+		return factory;
+	}
+	
+	@Override
+	protected void closeWithReason(Cause cause) {
+		super.closeWithReason(cause);
+		factory.notifyConnectionClosed();
+	}
+	
+	@Override
+	boolean usesCompactFrames() {
+		return factory.isCompactFrameOutput();
+	}
+	
+	@Override
+	AsyncResult sendEncodedPacket(Packet packet, EncodedPacket encoded) {
+		if(getState() == ConnectionState.OPEN) {
+			return queuePacket(encoded.retain());
+		} else {
+			return AsyncNetTask.createFailed(null, "Connection was not open");
+		}
+	}
+	
+	private AsyncResult queuePacket(EncodedPacket data) {
+		final AsyncNetTask task = AsyncNetTask.createPending();
+		writeQueue.add(data, task);
+		if(writeRequested.compareAndSet(false, true)) {
+			selectorThread.execute(this::enableWriteInterest);
+		}
+		return task;
+	}
+
+	private void enableWriteInterest() {
+		final SelectionKey currentKey = key;
+		if(currentKey != null && currentKey.isValid()) {
+			currentKey.interestOps(readInterest() | SelectionKey.OP_WRITE);
+		}
+	}
+	
+	private int readInterest() {
+		return readingPaused ? 0 : SelectionKey.OP_READ;
+	}
+	
+	@Override
+	void setReadingPaused(boolean paused) {
+		readingPaused = paused;
+		selectorThread.execute(this::updateReadInterest);
+	}
+	
+	private void updateReadInterest() {
+		final SelectionKey currentKey = key;
+		if(currentKey != null && currentKey.isValid()) {
+			currentKey.interestOps(readInterest() | (currentKey.interestOps() & SelectionKey.OP_WRITE));
+		}
+	}
+
+	/**
+	 * Called by the selector thread when the channel has data to read.
+	 * @param buffer The read buffer of the selector thread
+	 */
+	protected void handleReadable(ByteBuffer buffer) {
+		buffer.clear();
+		final int count;
+		try {
+			count = channel.read(buffer);
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Channel Connection: Closing: Channel IO Exception", e);
+			closeChannel(Cause.IOEXCEPTION);
+			return;
+		}
+		if(count == -1) {
+			NetworkManager.NET_LOG.info("Channel Connection: Channel was closed remotely");
+			closeChannel(Cause.REMOTE);
+			return;
+		}
+		buffer.flip();
+		getMetrics().recordBytesReceived(count);
+		recordReadActivity();
+		try {
+			factory.feed(buffer);
+		} catch (PacketMappingNotFoundException e) {
+			getMetrics().recordDecodeErrors(e);
+			NetworkManager.NET_LOG.warn("Channel Connection: Packet mapping not found for received packet", e);
+		}
+	}
+
+	/**
+	 * Called by the selector thread when the channel can accept more data.
+	 * Writes queued packets until the queue is empty or the socket buffer is full.
+	 * The queue chooses the lane again for every packet or fragment, so packets of a higher priority are written first.
+	 */
+	protected void handleWritable() {
+		final int currentFragmentSize = factory.isFragmentedOutput() ? fragmentSize : 0;
+		while(sliceStarted || writeQueue.next(slice, currentFragmentSize)) {
+			if(!sliceStarted) {
+				sliceBuffers[0].clear();
+				sliceBuffers[0].limit(slice.headerLength);
+				sliceBuffers[1] = ByteBuffer.wrap(slice.array, slice.offset, slice.length);
+				sliceStarted = true;
+			}
+			try {
+				channel.write(sliceBuffers);
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Channel Connection: Closing: Channel IO Exception while writing", e);
+				closeChannel(Cause.IOEXCEPTION);
+				return;
+			}
+			recordWriteActivity();
+			if(sliceBuffers[1].hasRemaining()) return; //Socket buffer is full, wait for the next write event
+			sliceStarted = false;
+			final MultiplexedWriteQueue.Entry done = writeQueue.advance(slice);
+			if(done != null) {
+				getMetrics().recordPacketSent(done.data.getLength(), done.startNanos);
+				done.data.release();
+				done.task.completePending(null, null);
+			}
+		}
+		//Queue is empty: Stop listening for write events unless a sender just added more data
+		writeRequested.set(false);
+		if(writeQueue.isEmpty() || !writeRequested.compareAndSet(false, true)) {
+			key.interestOps(readInterest());
+		}
+	}
+
+	@Override
+	public Optional<IOException> close() {
+		try {
+			stateRW.writeLock().lock();
+			if(state == ConnectionState.CLOSED) {
+				NetworkManager.NET_LOG.info("Connection already closed");
+				return Optional.empty();
+			} else {
+				final Optional<IOException> result = closeChannelOnly();
+				NetworkManager.NET_LOG.info("Closed Network connection to " + getRemoteTargetId());
+				closeWithReason(Cause.EXPECTED);
+				return result;
+			}
+		} finally {
+			stateRW.writeLock().unlock();
+		}
+	}
+
+	private void closeChannel(Cause cause) {
+		try {
+			stateRW.writeLock().lock();
+			if(state == ConnectionState.CLOSED) return;
+			closeChannelOnly();
+			closeWithReason(cause);
+		} finally {
+			stateRW.writeLock().unlock();
+		}
+	}
+
+	private Optional<IOException> closeChannelOnly() {
+		final SelectionKey currentKey = key;
+		if(currentKey != null) currentKey.cancel();
+		Optional<IOException> result = Optional.empty();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Closing the SocketChannel failed with exception", e);
+			result = Optional.of(e);
+		}
+		MultiplexedWriteQueue.Entry unsent;
+		while((unsent = writeQueue.poll()) != null) {
+			getMetrics().recordSendFailure();
+			unsent.data.release();
+			unsent.task.completePending(null, "Connection was closed before the packet was sent");
+		}
+		return result;
+	}
+
+	/**
+	 * Connections of this type are created from an accepted channel and are always connected.
+	 */
+	@Override
+	public OptionalError<Boolean, IOException> connect(int timeout) {
+		NetworkManager.NET_LOG.warn("Connection is already " + (getState() == ConnectionState.CLOSED ? "closed" : "connected")
+				+ " and cannot be connected again");
+		return OptionalError.ofValue(Boolean.FALSE, IOException.class);
+	}
+
+	@Override
+	public boolean isLocalConnection() {
+		return false;
+	}
+
+}
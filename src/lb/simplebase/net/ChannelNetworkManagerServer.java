@@ -0,0 +1,173 @@
+package lb.simplebase.net;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lb.simplebase.event.EventResult;
+
+/**
+ * A server that uses non-blocking {@link SocketChannel}s for client connections. Instead of one thread per client,
+ * all connections are distributed over a small, fixed amount of {@link ChannelSelectorThread}s.<br>
+ * Connections are accepted and configured with the same events as the {@link SocketNetworkManagerServer}.
+ */
+class ChannelNetworkManagerServer extends CommonServer {
+
+	private final ServerSocketChannel serverChannel;
+	private final ConnectionAcceptorThread acceptor;
+	private final ChannelSelectorThread[] selectors;
+	private final AtomicInteger nextSelector;
+
+	private final boolean allowDatagramDiscovery;
+	private final DatagramSocket receiverSocket;
+	private final LanServerDiscoveryEchoThread echoThread;
+
+	protected ChannelNetworkManagerServer(TargetIdentifier localId, ServerSocketChannel channel, ServerConfig config, boolean udpDiscovery) throws IOException {
+		super(localId, config.getThreadCount(), VirtualThreads.checkRequested(config.useVirtualThreads()), config.useOrderedDispatch());
+		setFrameFormat(config.useCompactFrames(), config.getCompressionThreshold());
+		handler.setQueueLimits(config.getInboundConnectionQueueLimit(), config.getInboundTotalQueueLimit(), config.getInboundOverflowPolicy());
+		setLocalDelivery(config.getLocalDelivery());
+		setIdleTimeouts(config.getReadIdleTimeout(), config.getWriteIdleTimeout());
+		setFragmentSize(config.getFragmentSize());
+		setMaxFrameSize(config.getMaxFrameSize());
+		setDatagrams(config.getDatagramPort(), config.useDatagramSequencing());
+		serverChannel = channel;
+		serverChannel.configureBlocking(true); //Accepting is done by a separate thread
+		acceptor = new ConnectionAcceptorThread(serverChannel.socket(), this::acceptIncomingUnconfirmedConnection);
+
+		selectors = new ChannelSelectorThread[config.getSelectorThreadCount()];
+		nextSelector = new AtomicInteger(0);
+		for(int i = 0; i < selectors.length; i++) {
+			selectors[i] = new ChannelSelectorThread(config.getReadBufferSize());
+		}
+
+		DatagramSocket discoverySocket = null;
+		if(udpDiscovery) {
+			try {
+				discoverySocket = new DatagramSocket(null); //unbound
+			} catch (SocketException e) {
+				NetworkManager.NET_LOG.warn("Server Manager: Error while creating Server Datagram Socket. Continuing without Datagram Discovery Features", e);
+			}
+		}
+		allowDatagramDiscovery = discoverySocket != null;
+		receiverSocket = discoverySocket;
+		if(allowDatagramDiscovery) {
+			//normalize sequence
+			final byte[] sequence = config.getDatagramDiscoverySequence();
+			byte[] seq = new byte[7];
+			System.arraycopy(sequence, 0, seq, 0, Math.min(7, sequence.length));
+			echoThread = new LanServerDiscoveryEchoThread(this, receiverSocket, seq);
+		} else {
+			echoThread = null;
+		}
+	}
+
+	@Override
+	public boolean allowDatagramDiscovery() {
+		return allowDatagramDiscovery;
+	}
+
+	protected void acceptIncomingUnconfirmedConnection(Socket newConnectionSocket) {
+		NetworkManager.NET_LOG.info("Server Manager: Remote connection attempted (" + newConnectionSocket.getRemoteSocketAddress() + ")");
+
+		//Post the event
+		final EventResult result = bus.post(new AttemptedConnectionEvent(newConnectionSocket.getInetAddress(), this));
+		if(result.isCanceled()) {
+			NetworkManager.NET_LOG.info("Server Manager: Remote connection rejected (" + newConnectionSocket.getRemoteSocketAddress() + ")");
+			try {
+				newConnectionSocket.close();
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Server Manager: Could not close socket of rejected connection", e);
+			}
+		} else {
+			final SocketChannel newChannel = newConnectionSocket.getChannel();
+			TargetIdentifier remote = RemoteIDGenerator.generateID((InetSocketAddress) newConnectionSocket.getRemoteSocketAddress());
+			final EventResult result2 = bus.post(new ConfigureConnectionEvent(newConnectionSocket, remote, this));
+			final ConfigureConnectionEvent handledEvent = result2.getEvent(ConfigureConnectionEvent.class);
+			try {
+				newChannel.configureBlocking(false);
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Server Manager: Could not switch channel to non-blocking mode", e);
+				try {
+					newChannel.close();
+				} catch (IOException e1) {
+					NetworkManager.NET_LOG.error("Server Manager: Could not close channel of failed connection", e1);
+				}
+				return;
+			}
+			final ChannelSelectorThread selector = selectors[Math.floorMod(nextSelector.getAndIncrement(), selectors.length)];
+			NetworkConnection newCon = new ChannelNetworkConnection(getLocalID(), remote, this, newChannel, selector, true, handledEvent.getCustomObject(), useCompactFrames(), getCompressionThreshold(), getFragmentSize(), getMaxFrameSize());
+			addClient(newCon);
+			NetworkManager.NET_LOG.info("Server Manager: Remote connection accepted successfully (" + remote + ")");
+		}
+	}
+
+	@Override
+	public void startServer() {
+		if(state == ServerState.INITIALIZED) {
+			NetworkManager.NET_LOG.info("Server Manager: Starting server...");
+			LocalConnectionManager.addServer(this);
+			try {
+				getLocalID().bindSocket(() -> SocketActions.of(serverChannel.socket()));
+				if(allowDatagramDiscovery) getLocalID().bindSocket(() -> SocketActions.of(receiverSocket));
+				startDatagrams(serverChannel.socket().getInetAddress());
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Server Manager: Error while binding socket", e);
+				return;
+			}
+			for(ChannelSelectorThread selector : selectors) {
+				selector.start();
+			}
+			acceptor.start();
+			if(allowDatagramDiscovery) echoThread.start();
+			state = ServerState.STARTED;
+			NetworkManager.NET_LOG.info("Server Manager: Server start complete.");
+		} else {
+			NetworkManager.NET_LOG.warn("Server Manager: Server has already been started");
+		}
+	}
+
+	@Override
+	public void stopServer() {
+		if(state == ServerState.STOPPED) {
+			NetworkManager.NET_LOG.info("Server Manager: Server already stopped");
+			return;
+		} else {
+			NetworkManager.NET_LOG.info("Server Manager: Stopping server...");
+			LocalConnectionManager.removeServer(this);
+			//Then kick everyone
+			NetworkManager.NET_LOG.info("Server Manager: Disconnecting all clients");
+			for(NetworkConnection con : getClientConnections()) {
+				NetworkManager.NET_LOG.debug("Closing client connection: " + con.getRemoteTargetId());
+				con.close();
+			}
+			handler.shutdownExecutor();
+			stopDatagrams();
+			closeBroadcastEncoders();
+			for(ChannelSelectorThread selector : selectors) {
+				selector.shutdown();
+			}
+			try {
+				serverChannel.close();
+				acceptor.awaitStop(1000);
+				if(allowDatagramDiscovery) receiverSocket.close();
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Server Manager: Error while closing Channel", e);
+				return;
+			}
+			state = ServerState.STOPPED;
+			NetworkManager.NET_LOG.info("Server Manager: Server stop complete.");
+		}
+	}
+
+	@Override
+	protected void shutdown() {
+		stopServer();
+	}
+
+}
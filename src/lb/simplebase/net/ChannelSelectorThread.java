@@ -0,0 +1,108 @@
+package lb.simplebase.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves a group of {@link ChannelNetworkConnection}s with one {@link Selector}.<br>
+ * All reads, writes and changes of interest sets happen on this thread. Other threads
+ * submit their requests through {@link #execute(Runnable)}, which wakes up the selector.
+ */
+class ChannelSelectorThread extends Thread {
+
+	private static final AtomicInteger threadIds = new AtomicInteger(0);
+
+	private final Selector selector;
+	private final ByteBuffer readBuffer; //Shared by all connections of this thread
+	private final Queue<Runnable> pendingTasks;
+	private volatile boolean running;
+
+	public ChannelSelectorThread(int readBufferSize) throws IOException {
+		super("ChannelSelector-" + threadIds.getAndIncrement());
+		setDaemon(true);
+		this.selector = Selector.open();
+		this.readBuffer = ByteBuffer.allocate(readBufferSize > 0 ? readBufferSize : DataReceiverThread.DEFAULT_BUFFER_SIZE);
+		this.pendingTasks = new ConcurrentLinkedQueue<>();
+		this.running = true;
+	}
+
+	/**
+	 * Runs the task on the selector thread before the next selection.
+	 * @param task The task to run
+	 */
+	public void execute(Runnable task) {
+		pendingTasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Registers the connection's channel for reading with this selector.
+	 * @param connection The connection, with a channel that is in non-blocking mode
+	 */
+	public void register(ChannelNetworkConnection connection) {
+		execute(() -> {
+			try {
+				connection.setSelectionKey(connection.getChannel().register(selector, SelectionKey.OP_READ, connection));
+			} catch (ClosedChannelException e) {
+				NetworkManager.NET_LOG.warn("Channel Selector: Channel was closed before it could be registered");
+				connection.closeWithReason(ClosedConnectionEvent.Cause.EXTERNAL);
+			}
+		});
+	}
+
+	@Override
+	public void run() {
+		NetworkManager.NET_LOG.info("Started Channel Selector");
+		try {
+			while(running) {
+				selector.select();
+				if(!running) break;
+
+				Runnable task;
+				while((task = pendingTasks.poll()) != null) {
+					task.run();
+				}
+
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					final ChannelNetworkConnection connection = (ChannelNetworkConnection) key.attachment();
+					try {
+						if(key.isReadable()) connection.handleReadable(readBuffer);
+						if(key.isValid() && key.isWritable()) connection.handleWritable();
+					} catch (CancelledKeyException e) {
+						//Closed by another thread while selected, nothing left to do
+					}
+				}
+			}
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Channel Selector: Closing: Selector IO error", e);
+		} catch (ClosedSelectorException e) {
+			//Closed by shutdown()
+		}
+		NetworkManager.NET_LOG.info("Channel Selector: Stopped");
+	}
+
+	/**
+	 * Stops the thread and closes the selector. Connections have to be closed separately.
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.warn("Channel Selector: Error while closing selector", e);
+		}
+	}
+
+}
@@ -1,14 +1,43 @@
 package lb.simplebase.net;
 
 import java.net.Socket;
+import java.util.Objects;
 
 public class ClientConfig extends SocketConfiguration {
 	
 	private Object customData;
+	private int readBufferSize;
+	private boolean virtualThreads;
+	private boolean compactFrames;
+	private int compressionThreshold;
+	private int fragmentSize;
+	private int maxFrameSize;
+	private boolean datagrams;
+	private boolean datagramSequencing;
+	private boolean orderedDispatch;
+	private int queueLimit;
+	private InboundOverflowPolicy overflowPolicy;
+	private LocalDelivery localDelivery;
+	private int readIdleTimeout;
+	private int writeIdleTimeout;
 	
 	private ClientConfig(boolean net) {
 		super(net ? new Socket() : null);
 		customData = null;
+		readBufferSize = DataReceiverThread.DEFAULT_BUFFER_SIZE;
+		virtualThreads = false;
+		compactFrames = false;
+		compressionThreshold = -1;
+		fragmentSize = 0;
+		maxFrameSize = PacketFactory.DEFAULT_MAX_FRAME_SIZE;
+		datagrams = false;
+		datagramSequencing = false;
+		orderedDispatch = false;
+		queueLimit = 0;
+		overflowPolicy = InboundOverflowPolicy.PAUSE_READING;
+		localDelivery = LocalDelivery.DIRECT;
+		readIdleTimeout = 0;
+		writeIdleTimeout = 0;
 	}
 	
 	public Object getCustomObject() {
@@ -20,6 +49,228 @@ public class ClientConfig extends SocketConfiguration {
 		return this;
 	}
 	
+	/**
+	 * Sets the size of the buffer that received data is read into before it is decoded.
+	 * Larger buffers need fewer reads from the socket when a lot of data arrives at once.
+	 * @param size The buffer size in bytes, must be at least 1
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setReadBufferSize(int size) {
+		if(size <= 0) throw new IllegalArgumentException("Read buffer size must be at least 1");
+		this.readBufferSize = size;
+		return this;
+	}
+	
+	protected int getReadBufferSize() {
+		return readBufferSize;
+	}
+	
+	/**
+	 * Runs the receiver loop of the server connection and the packet handlers on virtual threads instead of platform threads.
+	 * Asynchronous tasks of the connection, like writing queued packets, also run on virtual threads.
+	 * Other servers and clients are not affected and keep using platform threads.<br>
+	 * Virtual threads require Java 21 or newer. On older JVMs, a warning is logged and platform threads are used.
+	 * @param enabled Whether virtual threads should be used
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setVirtualThreads(boolean enabled) {
+		this.virtualThreads = enabled;
+		return this;
+	}
+	
+	protected boolean useVirtualThreads() {
+		return virtualThreads;
+	}
+	
+	/**
+	 * Enables the compact frame format for the server connection. Packet ids and lengths are then written as variable-length integers,
+	 * which saves up to 9 bytes for every small packet. The format is negotiated when a connection is opened, so
+	 * it is only used if the other side has enabled it too. Disabled by default.
+	 * @param enabled Whether compact frames should be used
+	 * @return This {@link ClientConfig}
+	 * @see PacketFactory
+	 */
+	public ClientConfig setCompactFrames(boolean enabled) {
+		this.compactFrames = enabled;
+		return this;
+	}
+	
+	protected boolean useCompactFrames() {
+		return compactFrames || compressionThreshold >= 0;
+	}
+	
+	/**
+	 * Compresses packets with at least this amount of data bytes before they are sent to the server. Smaller packets are sent
+	 * as they are, because compression would not make them smaller. Compressed packets are sent as compact frames,
+	 * so this enables compact frames too (see {@link #setCompactFrames(boolean)}).
+	 * Whether compression pays off can be checked with {@link NetworkConnection#getCompressionStatistics()}.
+	 * Disabled by default.
+	 * @param threshold The minimum amount of data bytes, or a negative value to disable compression
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setCompressionThreshold(int threshold) {
+		this.compressionThreshold = threshold < 0 ? -1 : threshold;
+		return this;
+	}
+	
+	protected int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Splits frames that are larger than this amount of bytes into fragments when they are sent to the server, so that packets of
+	 * {@link PacketChannel}s with a higher priority can be sent between the fragments instead of waiting until the large packet was sent.
+	 * Fragments are only sent if the other side has set a fragment size too, which is negotiated when a connection is opened.
+	 * Packets of channels with a higher priority are always sent first, fragments only make the waiting time shorter when large packets are sent.
+	 * Disabled by default.
+	 * @param fragmentSize The maximum amount of bytes of a frame that are sent at once, or <code>0</code> to disable fragments
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setFragmentSize(int fragmentSize) {
+		if(fragmentSize < 0) throw new IllegalArgumentException("Fragment size must not be negative");
+		this.fragmentSize = fragmentSize;
+		return this;
+	}
+	
+	protected int getFragmentSize() {
+		return fragmentSize;
+	}
+	
+	/**
+	 * Limits the size of a frame that the remote side sends in fragments, and at most {@link PacketFactory#MAX_FRAGMENT_STREAMS} fragment streams
+	 * can be open at the same time. A connection whose remote side exceeds a limit is closed with {@link ClosedConnectionEvent.Cause#PROTOCOL_ERROR}.
+	 * The default is {@link PacketFactory#DEFAULT_MAX_FRAME_SIZE}.
+	 * @param maxFrameSize The maximum amount of bytes of a reassembled frame
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setMaxFrameSize(int maxFrameSize) {
+		if(maxFrameSize <= 0) throw new IllegalArgumentException("Maximum frame size must be positive");
+		this.maxFrameSize = maxFrameSize;
+		return this;
+	}
+	
+	protected int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Accepts unreliable datagrams when the server offers them, see {@link NetworkManagerClient#sendDatagramToServer(Packet)}.
+	 * Datagrams are only used if the server has a datagram port (see {@link ServerConfig#setDatagramPort(int)}). Disabled by default.
+	 * @param enabled Whether datagrams should be used
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setDatagrams(boolean enabled) {
+		datagrams = enabled;
+		return this;
+	}
+	
+	protected boolean useDatagrams() {
+		return datagrams;
+	}
+	
+	/**
+	 * Adds a sequence number to every datagram that is sent to the server, so that the server drops datagrams that arrive after a newer one.
+	 * Use this if every packet sent as a datagram replaces the previous one, e.g. for position updates. Disabled by default.
+	 * @param enabled Whether datagrams have sequence numbers
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setDatagramSequencing(boolean enabled) {
+		datagramSequencing = enabled;
+		return this;
+	}
+	
+	protected boolean useDatagramSequencing() {
+		return datagramSequencing;
+	}
+	
+	/**
+	 * Processes the packets of the server connection one after another, in the order in which they were received, like a mailbox.
+	 * Handlers then don't need locking, because all packets are processed by a single thread.<br>
+	 * Disabled by default: every packet is processed as a separate task, so packets can be processed at the same time and in any order.
+	 * @param enabled Whether packets should be processed in order
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setOrderedDispatch(boolean enabled) {
+		this.orderedDispatch = enabled;
+		return this;
+	}
+	
+	protected boolean useOrderedDispatch() {
+		return orderedDispatch;
+	}
+	
+	/**
+	 * Limits the amount of received packets that wait to be processed. When the limit is reached, the {@link InboundOverflowPolicy} is applied
+	 * (see {@link #setInboundOverflowPolicy(InboundOverflowPolicy)}) and an {@link InboundQueueOverflowEvent} is posted.
+	 * With a limit, packets are processed one after another, like with {@link #setOrderedDispatch(boolean)}. Disabled by default.
+	 * @param limit The maximum amount of queued packets, or <code>0</code> for no limit
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setInboundQueueLimit(int limit) {
+		if(limit < 0) throw new IllegalArgumentException("Queue limit must not be negative");
+		this.queueLimit = limit;
+		return this;
+	}
+	
+	/**
+	 * Selects what happens to a received packet when the inbound queue limit is reached. The default is {@link InboundOverflowPolicy#PAUSE_READING}.
+	 * @param policy The policy for a full queue
+	 * @return This {@link ClientConfig}
+	 * @see #setInboundQueueLimit(int)
+	 */
+	public ClientConfig setInboundOverflowPolicy(InboundOverflowPolicy policy) {
+		this.overflowPolicy = Objects.requireNonNull(policy, "Overflow policy must not be null");
+		return this;
+	}
+	
+	protected int getInboundQueueLimit() {
+		return queueLimit;
+	}
+	
+	protected InboundOverflowPolicy getInboundOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/**
+	 * Selects how packets are sent to the server if it is in the same program and the connection is local.
+	 * The default is {@link LocalDelivery#DIRECT}.
+	 * @param delivery The delivery mode for a local connection
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setLocalDelivery(LocalDelivery delivery) {
+		this.localDelivery = Objects.requireNonNull(delivery, "Local delivery must not be null");
+		return this;
+	}
+	
+	protected LocalDelivery getLocalDelivery() {
+		return localDelivery;
+	}
+	
+	/**
+	 * Detects dead servers that would otherwise stay connected until the operating system notices, which can take hours.<br>
+	 * If nothing was received from the server for the read idle timeout, the connection is closed and the {@link ClosedConnectionEvent}
+	 * has the cause {@link ClosedConnectionEvent.Cause#TIMEOUT}. If nothing was sent to the server for the write idle timeout,
+	 * a small heartbeat frame is sent, so the write idle timeout should be less than the read idle timeout of the other side.
+	 * All timeouts are checked by one shared timer thread. Local connections never time out. Both timeouts are disabled by default.
+	 * @param readIdleTimeout The time in ms after which an idle connection is closed, or <code>0</code> to disable
+	 * @param writeIdleTimeout The time in ms after which a heartbeat is sent, or <code>0</code> to disable
+	 * @return This {@link ClientConfig}
+	 */
+	public ClientConfig setIdleTimeouts(int readIdleTimeout, int writeIdleTimeout) {
+		if(readIdleTimeout < 0 || writeIdleTimeout < 0) throw new IllegalArgumentException("Idle timeouts must not be negative");
+		this.readIdleTimeout = readIdleTimeout;
+		this.writeIdleTimeout = writeIdleTimeout;
+		return this;
+	}
+	
+	protected int getReadIdleTimeout() {
+		return readIdleTimeout;
+	}
+	
+	protected int getWriteIdleTimeout() {
+		return writeIdleTimeout;
+	}
+	
 	protected Socket configuredSocket() {
 		return socket;
 	}
@@ -48,6 +48,14 @@ public final class ClosedConnectionEvent extends Event {
 		 * The connection was closed because an {@link IOException} was thrown when interacting with an underlying object, e.g. a {@link Socket}
 		 */
 		IOEXCEPTION,
+		/**
+		 * The connection was closed because nothing was received from the remote side for the read idle timeout
+		 */
+		TIMEOUT,
+		/**
+		 * The connection was closed because the remote side exceeded a limit of the frame format, e.g. the maximum frame size
+		 */
+		PROTOCOL_ERROR,
 		/**
 		 * The connection was closed for an unknown reason
 		 */
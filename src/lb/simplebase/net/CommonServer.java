@@ -1,16 +1,24 @@
 package lb.simplebase.net;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 import lb.simplebase.action.AsyncResult;
+import lb.simplebase.action.AsyncResultGroup;
 import lb.simplebase.event.EventResult;
 import lb.simplebase.util.OptionalError;
 import lb.simplebase.util.SynchronizedStateProvider;
@@ -21,34 +29,242 @@ import lb.simplebase.util.SynchronizedStateProvider;
  */
 public abstract class CommonServer extends NetworkManager implements LocalConnectionServer {
 	
-	protected final Set<NetworkConnection> clientList;
+	/**
+	 * All client connections by their remote {@link TargetIdentifier}. Lookups don't need a lock,
+	 * but adding and removing clients must hold the write lock of {@link #clientListLock}.
+	 */
+	protected final ConcurrentMap<TargetIdentifier, NetworkConnection> clientMap;
 	protected final ReadWriteLock clientListLock;
 	
 	protected final InboundPacketThreadHandler handler;
+	private final PacketFactory broadcastEncoder;
+	private PacketFactory compactBroadcastEncoder;
+	private boolean compactFrames;
+	private int compressionThreshold;
+	private volatile int fragmentSize;
+	private volatile int maxFrameSize;
+	private volatile LocalDelivery localDelivery;
+	private volatile int readIdleTimeout;
+	private volatile int writeIdleTimeout;
+	private volatile int datagramPort;
+	private volatile boolean datagramSequencing;
+	private volatile DatagramTransport datagramTransport;
 	
 	protected volatile ServerState state;
 	
 	protected CommonServer(TargetIdentifier localId, int threads) {
-		super(localId);
+		this(localId, threads, false);
+	}
+	
+	/**
+	 * @param localId The {@link TargetIdentifier} of the server
+	 * @param threads The amount of packet processing threads, or <code>0</code> for no limit
+	 * @param virtualThreads Whether packets should be processed on virtual threads, if supported
+	 */
+	protected CommonServer(TargetIdentifier localId, int threads, boolean virtualThreads) {
+		this(localId, threads, virtualThreads, false);
+	}
+	
+	/**
+	 * @param localId The {@link TargetIdentifier} of the server
+	 * @param threads The amount of packet processing threads, or <code>0</code> for the default
+	 * @param virtualThreads Whether packets should be processed on virtual threads, if supported
+	 * @param orderedDispatch Whether the packets of each client should be processed one after another and in order
+	 * @see InboundPacketThreadHandler
+	 */
+	protected CommonServer(TargetIdentifier localId, int threads, boolean virtualThreads, boolean orderedDispatch) {
+		super(localId, virtualThreads);
 		
 		this.state = ServerState.INITIALIZED;
 		
-		this.clientList = new HashSet<>();
+		this.clientMap = new ConcurrentHashMap<>();
 		this.clientListLock = new ReentrantReadWriteLock(true);
 		
-		this.handler = new InboundPacketThreadHandler(PacketReceiver.createEmptyReceiver(), threads);
+		this.handler = new InboundPacketThreadHandler(PacketReceiver.createEmptyReceiver(), threads, virtualThreads, orderedDispatch,
+				getInboundQueueStatistics(), bus::post);
+		this.broadcastEncoder = new PacketFactory(this, (packet) -> {}); //Only used for encoding
+		this.localDelivery = LocalDelivery.DIRECT;
+		this.maxFrameSize = PacketFactory.DEFAULT_MAX_FRAME_SIZE;
+		setFrameFormat(false, -1);
+	}
+	
+	/**
+	 * Sets the frame format for client connections that are accepted after this call.
+	 * Usually called by the constructor of the implementation with the values from the {@link ServerConfig}.
+	 * @param compactFrames Whether compact frames should be negotiated with new clients
+	 * @param compressionThreshold The minimum amount of packet data bytes for compression, or a negative value to disable compression
+	 * @see PacketFactory
+	 */
+	protected void setFrameFormat(boolean compactFrames, int compressionThreshold) {
+		this.compactFrames = compactFrames;
+		this.compressionThreshold = compressionThreshold;
+		if(this.compactBroadcastEncoder != null) this.compactBroadcastEncoder.notifyConnectionClosed(); //Releases its Deflater
+		this.compactBroadcastEncoder = new PacketFactory(this, (packet) -> {}, true, compressionThreshold, getCompressionStatistics());
+		this.compactBroadcastEncoder.enableCompactOutput();
+	}
+	
+	/**
+	 * Releases the {@link java.util.zip.Deflater} of the encoder for compact broadcasts. Called when the server is stopped.
+	 * Packets that are broadcast later are not compressed.
+	 */
+	protected void closeBroadcastEncoders() {
+		compactBroadcastEncoder.notifyConnectionClosed();
+	}
+	
+	/**
+	 * Sets the fragment size for client connections over the network that are accepted after this call.
+	 * Usually called with the value from the {@link ServerConfig}.
+	 * @param fragmentSize The maximum amount of bytes of a frame that are sent at once, or <code>0</code> to disable fragments
+	 * @see ServerConfig#setFragmentSize(int)
+	 */
+	protected void setFragmentSize(int fragmentSize) {
+		this.fragmentSize = fragmentSize;
+	}
+	
+	/**
+	 * Sets the maximum size of a frame that is collected from fragments, for client connections over the network that are accepted after this call.
+	 * Usually called with the value from the {@link ServerConfig}.
+	 * @param maxFrameSize The maximum amount of bytes of a reassembled frame
+	 * @see ServerConfig#setMaxFrameSize(int)
+	 */
+	protected void setMaxFrameSize(int maxFrameSize) {
+		this.maxFrameSize = maxFrameSize;
+	}
+	
+	/**
+	 * Sets the UDP port for datagrams, which are offered to client connections over the network that are accepted after the server was started.
+	 * Usually called with the values from the {@link ServerConfig}.
+	 * @param port The UDP port, <code>0</code> for any free port, or a negative value to disable datagrams
+	 * @param sequencing Whether datagrams to clients have sequence numbers
+	 * @see ServerConfig#setDatagramPort(int)
+	 */
+	protected void setDatagrams(int port, boolean sequencing) {
+		this.datagramPort = port;
+		this.datagramSequencing = sequencing;
+	}
+	
+	/**
+	 * Opens the UDP socket for datagrams, if they are enabled. Called when the server is started.
+	 * @param address The local address that the server socket was bound to
+	 * @throws IOException If the socket could not be opened
+	 */
+	protected void startDatagrams(InetAddress address) throws IOException {
+		if(datagramPort < 0 || datagramTransport != null) return;
+		datagramTransport = DatagramTransport.open(new InetSocketAddress(address, datagramPort));
+	}
+	
+	/**
+	 * Closes the UDP socket for datagrams, if it was opened. Called when the server is stopped, after all clients were disconnected.
+	 */
+	protected void stopDatagrams() {
+		final DatagramTransport transport = datagramTransport;
+		datagramTransport = null;
+		if(transport != null) transport.close();
+	}
+	
+	/**
+	 * Sets how packets are sent to local clients that connect after this call.
+	 * Usually called with the value from the {@link ServerConfig}.
+	 * @param delivery The delivery mode for new local connections
+	 */
+	protected void setLocalDelivery(LocalDelivery delivery) {
+		this.localDelivery = Objects.requireNonNull(delivery, "Local delivery must not be null");
+	}
+	
+	/**
+	 * Sets the idle timeouts for client connections over the network that are accepted after this call.
+	 * Usually called with the values from the {@link ServerConfig}.
+	 * @param readIdleTimeout The time in ms after which an idle connection is closed, or <code>0</code> to disable
+	 * @param writeIdleTimeout The time in ms after which a heartbeat is sent, or <code>0</code> to disable
+	 * @see ServerConfig#setIdleTimeouts(int, int)
+	 */
+	protected void setIdleTimeouts(int readIdleTimeout, int writeIdleTimeout) {
+		this.readIdleTimeout = readIdleTimeout;
+		this.writeIdleTimeout = writeIdleTimeout;
+	}
+	
+	/**
+	 * Whether compact frames are negotiated with new client connections.
+	 * @return Whether compact frames are enabled
+	 */
+	protected boolean useCompactFrames() {
+		return compactFrames;
+	}
+	
+	/**
+	 * The minimum amount of packet data bytes for compression with new client connections.
+	 * @return The compression threshold, or a negative value if compression is disabled
+	 */
+	protected int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * The fragment size for new client connections.
+	 * @return The maximum amount of bytes of a frame that are sent at once, or <code>0</code> if fragments are disabled
+	 */
+	protected int getFragmentSize() {
+		return fragmentSize;
 	}
 	
+	/**
+	 * The maximum size of a frame that is collected from fragments for new client connections.
+	 * @return The maximum amount of bytes of a reassembled frame
+	 */
+	protected int getMaxFrameSize() {
+		return maxFrameSize;
+	}
 	
 	@Override
 	protected void notifyConnectionClosed(NetworkConnection connection, ClosedConnectionEvent.Cause cause) {
-		super.notifyConnectionClosed(connection, cause);
 		try {
 			clientListLock.writeLock().lock();
-			clientList.remove(connection);
+			clientMap.remove(connection.getRemoteTargetId(), connection);
 		} finally {
 			clientListLock.writeLock().unlock();
 		}
+		super.notifyConnectionClosed(connection, cause); //Handlers of the event don't see the closed client anymore
+	}
+	
+	/**
+	 * Adds a new client connection. If a connection with the same remote {@link TargetIdentifier}
+	 * exists already, it is replaced and a warning is logged.
+	 * The idle timeouts of the server start for the connection, and datagrams are offered to clients over the network if they are enabled.
+	 * @param connection The new connection
+	 */
+	protected void addClient(NetworkConnection connection) {
+		connection.setIdleTimeouts(readIdleTimeout, writeIdleTimeout);
+		final DatagramTransport transport = datagramTransport;
+		if(transport != null && !connection.isLocalConnection()) connection.offerDatagrams(transport, datagramSequencing);
+		try {
+			clientListLock.writeLock().lock();
+			final NetworkConnection old = clientMap.put(connection.getRemoteTargetId(), connection);
+			if(old != null && old != connection) {
+				NetworkManager.NET_LOG.warn("Server Manager: A client with this ID is already connected, replacing the connection (" + connection.getRemoteTargetId() + ")");
+			}
+		} finally {
+			clientListLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Posts an {@link AttemptedConnectionEvent} for a LAN discovery request and
+	 * creates the reply code for the request.
+	 * @param source The address that sent the request
+	 * @return {@link LanServerDiscovery#SUCCESS} or {@link LanServerDiscovery#DENIED}
+	 */
+	protected byte attemptUdpConnection(InetAddress source) {
+		NetworkManager.NET_LOG.info("Server Manager: UDP connection check (" + source + ")");
+
+		//Post the event
+		final EventResult result = bus.post(new AttemptedConnectionEvent(source, this));
+		if(result.isCanceled()) {
+			NetworkManager.NET_LOG.info("Server Manager: UDP connection check rejected (" + source + ")");
+			return LanServerDiscovery.DENIED;
+		} else {
+			NetworkManager.NET_LOG.info("Server Manager: UDP connection check accepted (" + source + ")");
+			return LanServerDiscovery.SUCCESS;
+		}
 	}
 	
 	/**
@@ -62,12 +278,8 @@ public abstract class CommonServer extends NetworkManager implements LocalConnec
 		final EventResult result = bus.post(new ConfigureConnectionEvent(connection.getLocalTargetId(), this));
 		final ConfigureConnectionEvent handledEvent = result.getEvent(ConfigureConnectionEvent.class);
 		LocalNetworkConnection con = new LocalNetworkConnection(getLocalID(), connection.getLocalTargetId(), this, connection, true, handledEvent.getCustomObject());
-		try {
-			clientListLock.writeLock().lock();
-			clientList.add(con);
-		} finally {
-			clientListLock.writeLock().unlock();
-		}
+		con.setDelivery(localDelivery);
+		addClient(con);
 		NetworkManager.NET_LOG.info("Server Manager: Accepted local connection (" + connection.getLocalTargetId() +")");
 		return con;
 	}
@@ -81,28 +293,92 @@ public abstract class CommonServer extends NetworkManager implements LocalConnec
 	 * @return A {@link PacketSendFuture} containing information about sending progress, success and errors
 	 */
 	@Override
-	public synchronized AsyncResult sendPacketToClient(Packet packet, TargetIdentifier client) {
-		try {
-			clientListLock.readLock().lock();
-			NetworkConnection con = getCurrentClient(client);
-			if(con == null) return AsyncNetTask.createFailed(null, "Target ID is not a client on this server");
-			if(!con.isConnectionOpen()) return AsyncNetTask.createFailed(null, "Connection to client is not open");
-			return con.sendPacketToTarget(packet);
-		} finally {
-			clientListLock.readLock().unlock();
-		}
+	public AsyncResult sendPacketToClient(Packet packet, TargetIdentifier client) {
+		final NetworkConnection con = getCurrentClient(client);
+		if(con == null) return AsyncNetTask.createFailed(null, "Target ID is not a client on this server");
+		if(!con.isConnectionOpen()) return AsyncNetTask.createFailed(null, "Connection to client is not open");
+		return con.sendPacketToTarget(packet);
 	}
 
-	protected NetworkConnection getCurrentClient(TargetIdentifier client) {
+	/**
+	 * Sends a packet to one client as an unreliable datagram.
+	 * @param packet The {@link Packet} that should be sent
+	 * @param client The {@link TargetIdentifier} that this packet should be sent to
+	 * @return The {@link AsyncResult} of sending the packet
+	 * @see NetworkConnection#sendDatagramToTarget(Packet)
+	 */
+	@Override
+	public AsyncResult sendDatagramToClient(Packet packet, TargetIdentifier client) {
+		final NetworkConnection con = getCurrentClient(client);
+		if(con == null) return AsyncNetTask.createFailed(null, "Target ID is not a client on this server");
+		return con.sendDatagramToTarget(packet);
+	}
+	
+	/**
+	 * Sends a packet to all clients that match the filter.<br>
+	 * The packet is encoded only once for each frame format, when it is sent to the first client with a network connection
+	 * that uses this format. All network connections then queue the same bytes. Local connections receive the packet object as usual.<br>
+	 * If the packet has no mapping and a network connection is selected, the packet is not sent to any client
+	 * and the returned group contains only one failed result.
+	 * @param packet The {@link Packet} that should be sent
+	 * @param filter Selects the clients that the packet is sent to
+	 * @return An {@link AsyncResultGroup} with the results for all selected clients
+	 */
+	@Override
+	public AsyncResultGroup broadcastPacket(Packet packet, Predicate<? super TargetIdentifier> filter) {
+		final List<NetworkConnection> connections = new ArrayList<>();
+		boolean needsMapping = false;
+		for(NetworkConnection con : getClientConnections()) {
+			if(!filter.test(con.getRemoteTargetId())) continue;
+			connections.add(con);
+			if(!con.isLocalConnection()) needsMapping = true;
+		}
+		if(needsMapping && !hasMappingFor(packet.getClass())) { //Before any client gets the packet
+			return new AsyncResultGroup(AsyncNetTask.createFailed(new PacketMappingNotFoundException("No mapping was found when trying to send packet", packet),
+					"No mapping was found for packet type " + packet.getClass().getSimpleName()));
+		}
+		final List<AsyncResult> results = new ArrayList<>(connections.size());
+		EncodedPacket encoded = null;
+		EncodedPacket compactEncoded = null;
 		try {
-			clientListLock.readLock().lock();
-			for(NetworkConnection con : clientList) {
-				if(con.getRemoteTargetId().equals(client)) return con;
+			for(NetworkConnection con : connections) {
+				if(!con.isConnectionOpen()) {
+					results.add(AsyncNetTask.createFailed(null, "Connection to client is not open"));
+				} else if(con.isLocalConnection()) {
+					results.add(con.sendPacketToTarget(packet));
+				} else {
+					final boolean compact = con.usesCompactFrames();
+					if(compact ? compactEncoded == null : encoded == null) {
+						try {
+							final PacketFactory encoder = compact ? compactBroadcastEncoder : broadcastEncoder;
+							final EncodedPacket newEncoded = encoder.encodeForQueue(packet);
+							if(compact) compactEncoded = newEncoded; else encoded = newEncoded;
+						} catch (PacketMappingNotFoundException e) { //Mappings are only added, so this was checked above
+							results.add(AsyncNetTask.createFailed(e, "No mapping was found for packet type " + packet.getClass().getSimpleName()));
+							continue;
+						}
+					}
+					results.add(con.sendEncodedPacket(packet, compact ? compactEncoded : encoded));
+				}
 			}
-			return null;
 		} finally {
-			clientListLock.readLock().unlock();
+			if(encoded != null) encoded.release(); //The connections hold their own references
+			if(compactEncoded != null) compactEncoded.release();
 		}
+		return new AsyncResultGroup(results.toArray(new AsyncResult[results.size()]));
+	}
+	
+	/**
+	 * Creates a copy of the current client list. Connections can be closed while iterating over the copy.
+	 * @return A snapshot of all client connections
+	 */
+	protected List<NetworkConnection> getClientConnections() {
+		return new ArrayList<>(clientMap.values());
+	}
+	
+	protected NetworkConnection getCurrentClient(TargetIdentifier client) {
+		if(client == null) return null;
+		return clientMap.get(client);
 	}
 	
 	/**
@@ -140,12 +416,7 @@ public abstract class CommonServer extends NetworkManager implements LocalConnec
 	 */
 	@Override
 	public int getCurrentClientCount() {
-		try {
-			clientListLock.readLock().lock();
-			return clientList.size();
-		}finally {
-			clientListLock.readLock().unlock();
-		}
+		return clientMap.size();
 	}
 	
 	/**
@@ -167,6 +438,11 @@ public abstract class CommonServer extends NetworkManager implements LocalConnec
 	public void processPacket(Packet received, PacketContext source) {
 		handler.processPacket(received, source);
 	}
+	
+	@Override
+	void processPacketInline(Packet received, PacketContext source) {
+		handler.processPacketInline(received, source);
+	}
 
 	/**
 	 * Adds a {@link PacketReceiver} that will be called when a packet is received by the network manager.
@@ -191,12 +467,7 @@ public abstract class CommonServer extends NetworkManager implements LocalConnec
 
 			@Override
 			public Set<TargetIdentifier> getState() {
-				try {
-					clientListLock.readLock().lock();
-					return clientList.stream().map((c) -> c.getRemoteTargetId()).collect(Collectors.toSet());
-				} finally {
-					clientListLock.readLock().unlock();
-				}
+				return new HashSet<>(clientMap.keySet());
 			}
 
 			@Override
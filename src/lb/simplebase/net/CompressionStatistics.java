@@ -0,0 +1,116 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the packet data bytes before and after compression, which shows whether compression pays off
+ * for the packets that are sent. Only packets with at least the compression threshold of data are counted.
+ * Packets that did not become smaller are sent uncompressed, and are counted with the same size before and after.<br>
+ * Every {@link NetworkConnection} has its own statistics, and all values are added to the statistics of its {@link NetworkManager} as well.
+ * @see ServerConfig#setCompressionThreshold(int)
+ * @see ClientConfig#setCompressionThreshold(int)
+ */
+public final class CompressionStatistics {
+
+	private final CompressionStatistics parent;
+
+	private final LongAdder compressedPackets;
+	private final LongAdder bytesBeforeCompression;
+	private final LongAdder bytesAfterCompression;
+	private final LongAdder decompressedPackets;
+	private final LongAdder bytesBeforeDecompression;
+	private final LongAdder bytesAfterDecompression;
+
+	/**
+	 * Creates statistics that are not added to other statistics, e.g. for a {@link PacketFactory} that is used on its own.
+	 */
+	public CompressionStatistics() {
+		this(null);
+	}
+
+	/**
+	 * @param parent The statistics that all values are also added to, or <code>null</code>
+	 */
+	CompressionStatistics(CompressionStatistics parent) {
+		this.parent = parent;
+		this.compressedPackets = new LongAdder();
+		this.bytesBeforeCompression = new LongAdder();
+		this.bytesAfterCompression = new LongAdder();
+		this.decompressedPackets = new LongAdder();
+		this.bytesBeforeDecompression = new LongAdder();
+		this.bytesAfterDecompression = new LongAdder();
+	}
+
+	void recordCompression(int before, int after) {
+		compressedPackets.increment();
+		bytesBeforeCompression.add(before);
+		bytesAfterCompression.add(after);
+		if(parent != null) parent.recordCompression(before, after);
+	}
+
+	void recordDecompression(int before, int after) {
+		decompressedPackets.increment();
+		bytesBeforeDecompression.add(before);
+		bytesAfterDecompression.add(after);
+		if(parent != null) parent.recordDecompression(before, after);
+	}
+
+	/**
+	 * @return The amount of sent packets that were large enough to be compressed
+	 */
+	public long getCompressedPacketCount() {
+		return compressedPackets.sum();
+	}
+
+	/**
+	 * @return The amount of data bytes of all sent packets that were large enough to be compressed, before compression
+	 */
+	public long getBytesBeforeCompression() {
+		return bytesBeforeCompression.sum();
+	}
+
+	/**
+	 * @return The amount of data bytes of all sent packets that were large enough to be compressed, as they were sent
+	 */
+	public long getBytesAfterCompression() {
+		return bytesAfterCompression.sum();
+	}
+
+	/**
+	 * @return The amount of received compressed packets
+	 */
+	public long getDecompressedPacketCount() {
+		return decompressedPackets.sum();
+	}
+
+	/**
+	 * @return The amount of data bytes of all received compressed packets, as they were received
+	 */
+	public long getBytesBeforeDecompression() {
+		return bytesBeforeDecompression.sum();
+	}
+
+	/**
+	 * @return The amount of data bytes of all received compressed packets, after decompression
+	 */
+	public long getBytesAfterDecompression() {
+		return bytesAfterDecompression.sum();
+	}
+
+	/**
+	 * The size of compressed data relative to the uncompressed data for all sent packets, e.g. <code>0.25</code> if
+	 * packets were compressed to a quarter of their size. Values close to <code>1</code> mean that compression does not pay off.
+	 * @return The compression ratio, or <code>1</code> if no packets were compressed yet
+	 */
+	public double getCompressionRatio() {
+		final long before = getBytesBeforeCompression();
+		return before == 0 ? 1.0 : (double) getBytesAfterCompression() / before;
+	}
+
+	@Override
+	public String toString() {
+		return "CompressionStatistics [sent=" + getCompressedPacketCount() + " packets, " + getBytesBeforeCompression() + " -> " + getBytesAfterCompression()
+				+ " bytes, received=" + getDecompressedPacketCount() + " packets, " + getBytesBeforeDecompression() + " -> " + getBytesAfterDecompression() + " bytes]";
+	}
+
+}
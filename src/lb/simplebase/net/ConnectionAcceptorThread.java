@@ -4,16 +4,23 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 class ConnectionAcceptorThread extends Thread {
 
 	private static final AtomicInteger threadIds = new AtomicInteger(0);
 	
 	private final ServerSocket socket;
-	private final SocketNetworkManagerServer server;
+	private final Consumer<Socket> server;
 	
-	public ConnectionAcceptorThread(ServerSocket socket, SocketNetworkManagerServer server) {
+	/**
+	 * Creates a new {@link ConnectionAcceptorThread}.
+	 * @param socket The {@link ServerSocket} that accepts connections. May also be the socket of a {@link java.nio.channels.ServerSocketChannel} in blocking mode
+	 * @param server Receives the {@link Socket} of every accepted connection
+	 */
+	public ConnectionAcceptorThread(ServerSocket socket, Consumer<Socket> server) {
 		super("SocketAcceptor-"+threadIds.getAndIncrement());
 		setDaemon(true);
 		this.socket = socket;
@@ -41,8 +48,8 @@ class ConnectionAcceptorThread extends Thread {
 			}
 			try {
 				Socket newSocket = socket.accept();
-				server.acceptIncomingUnconfirmedConnection(newSocket);
-			} catch (SocketException e) {
+				server.accept(newSocket);
+			} catch (SocketException | ClosedChannelException e) {
 //				e.printStackTrace();
 				NetworkManager.NET_LOG.info("Connection Acceptor: Closing: ServerSocket was closed");
 				return; //When another thread calls close
@@ -54,4 +61,18 @@ class ConnectionAcceptorThread extends Thread {
 //		server.stopServer();
 	}
 	
+	/**
+	 * Waits until this thread has stopped after the socket was closed. Depending on the JVM, the port is only released
+	 * when no thread is blocked in {@link ServerSocket#accept()} anymore, so it can not be bound again before that.
+	 * @param timeout The maximum time to wait in ms
+	 */
+	public void awaitStop(long timeout) {
+		if(!isAlive()) return;
+		try {
+			join(timeout);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
 }
@@ -0,0 +1,339 @@
+package lb.simplebase.net;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * A filter that can be used as a listener for the {@link AttemptedConnectionEvent} to reject connections from banned address ranges,
+ * and to limit how often a single address can attempt to connect. It replaces the {@link BannedIpFilter} for servers that must
+ * withstand a flood of connection attempts, because the event is handled on the thread that accepts connections.<p>
+ * Banned ranges are given in CIDR notation, e.g. <code>192.168.0.0/16</code>, and are stored in a binary prefix trie for every address family.
+ * A trie is never modified: changing the bans creates a new trie that shares the unchanged nodes and replaces the old one,
+ * so checking an address does not need a lock and always sees a complete ban list.<br>
+ * The rate limit is a token bucket for every address, stored as a single timestamp that is updated with compare-and-set
+ * (the generic cell rate algorithm). Buckets that are full again are removed from time to time.
+ */
+public class ConnectionAttemptFilter implements Consumer<AttemptedConnectionEvent> {
+
+	/**
+	 * The idle buckets are removed after this amount of attempts
+	 */
+	private static final int SWEEP_INTERVAL = 1024;
+	
+	private static final TrieNode BANNED = new TrieNode(null, null, true);
+	
+	private volatile TrieNode ipv4Bans; //null if empty
+	private volatile TrieNode ipv6Bans;
+	private final Object banLock; //Only one writer can replace a trie at a time
+	
+	private volatile long intervalNanos; //0 if the rate is not limited
+	private volatile long toleranceNanos;
+	private final ConcurrentMap<InetAddress, AtomicLong> buckets; //The time at which the bucket of the address is full again
+	private final AtomicInteger attemptsSinceSweep;
+	
+	private final LongAdder bannedRejections;
+	private final LongAdder rateLimitedRejections;
+	
+	/**
+	 * Creates a new {@link ConnectionAttemptFilter} without bans and without a rate limit.
+	 */
+	public ConnectionAttemptFilter() {
+		this.ipv4Bans = null;
+		this.ipv6Bans = null;
+		this.banLock = new Object();
+		this.intervalNanos = 0;
+		this.toleranceNanos = 0;
+		this.buckets = new ConcurrentHashMap<>();
+		this.attemptsSinceSweep = new AtomicInteger(0);
+		this.bannedRejections = new LongAdder();
+		this.rateLimitedRejections = new LongAdder();
+	}
+	
+	/**
+	 * Bans all addresses that start with the same prefix as the address.
+	 * @param address Any address in the banned range
+	 * @param prefixLength The amount of leading bits that are compared, e.g. <code>32</code> for a single IPv4 address
+	 * @return <code>true</code> if the range was added, <code>false</code> if it was already banned by this or a larger range
+	 * @throws IllegalArgumentException If the prefix length is negative or longer than the address
+	 */
+	public boolean ban(InetAddress address, int prefixLength) {
+		final byte[] bytes = address.getAddress();
+		checkPrefixLength(bytes, prefixLength);
+		synchronized (banLock) {
+			final TrieNode root = getTrie(bytes);
+			final TrieNode updated = insert(root, bytes, 0, prefixLength);
+			if(updated == root) return false;
+			setTrie(bytes, updated);
+			return true;
+		}
+	}
+	
+	/**
+	 * Bans an address range in CIDR notation, e.g. <code>10.0.0.0/8</code> or <code>2001:db8::/32</code>.
+	 * An address without a prefix length bans only that address.
+	 * @param cidr The address range
+	 * @return <code>true</code> if the range was added, <code>false</code> if it was already banned by this or a larger range
+	 * @throws IllegalArgumentException If the range can't be parsed
+	 */
+	public boolean ban(String cidr) {
+		final byte[] bytes = parseAddress(cidr);
+		return ban(toInetAddress(bytes), parsePrefixLength(cidr, bytes));
+	}
+	
+	/**
+	 * Removes a banned range. Only a range that was banned with exactly this prefix can be removed;
+	 * addresses that are also in a larger banned range stay banned.
+	 * @param address Any address in the banned range
+	 * @param prefixLength The prefix length that the range was banned with
+	 * @return <code>true</code> if the range was removed, <code>false</code> if it was not banned
+	 */
+	public boolean unban(InetAddress address, int prefixLength) {
+		final byte[] bytes = address.getAddress();
+		checkPrefixLength(bytes, prefixLength);
+		synchronized (banLock) {
+			final TrieNode root = getTrie(bytes);
+			final TrieNode updated = remove(root, bytes, 0, prefixLength);
+			if(updated == root) return false;
+			setTrie(bytes, updated);
+			return true;
+		}
+	}
+	
+	/**
+	 * Removes a banned range in CIDR notation.
+	 * @param cidr The address range, as it was banned
+	 * @return <code>true</code> if the range was removed, <code>false</code> if it was not banned
+	 * @see #unban(InetAddress, int)
+	 */
+	public boolean unban(String cidr) {
+		final byte[] bytes = parseAddress(cidr);
+		return unban(toInetAddress(bytes), parsePrefixLength(cidr, bytes));
+	}
+	
+	/**
+	 * Removes all bans.
+	 */
+	public void clearBans() {
+		synchronized (banLock) {
+			ipv4Bans = null;
+			ipv6Bans = null;
+		}
+	}
+	
+	/**
+	 * Checks whether an address is in any banned range. This does not lock.
+	 * @param address The address to check
+	 * @return Whether the address is banned
+	 */
+	public boolean isBanned(InetAddress address) {
+		final byte[] bytes = address.getAddress();
+		TrieNode node = getTrie(bytes);
+		for(int depth = 0; node != null; depth++) {
+			if(node.banned) return true;
+			if(depth == bytes.length * 8) return false;
+			node = getBit(bytes, depth) == 0 ? node.zero : node.one;
+		}
+		return false;
+	}
+	
+	/**
+	 * All banned ranges in CIDR notation. Ranges that are contained in a larger banned range are not listed.
+	 * @return A list of all banned ranges that is not updated anymore
+	 */
+	public List<String> getBannedRanges() {
+		final List<String> ranges = new ArrayList<>();
+		collectRanges(ipv4Bans, new byte[4], 0, ranges);
+		collectRanges(ipv6Bans, new byte[16], 0, ranges);
+		return Collections.unmodifiableList(ranges);
+	}
+	
+	/**
+	 * Limits the connection attempts of every address with a token bucket. An address can attempt <code>burst</code> connections
+	 * at once, after that the bucket refills at the given rate.
+	 * @param attemptsPerSecond The long-term rate of attempts for one address, or <code>0</code> to disable the limit
+	 * @param burst The amount of attempts that are allowed at once, at least <code>1</code>
+	 */
+	public void setRateLimit(double attemptsPerSecond, int burst) {
+		if(attemptsPerSecond < 0) throw new IllegalArgumentException("Rate must not be negative");
+		if(burst < 1) throw new IllegalArgumentException("Burst must be at least 1");
+		if(attemptsPerSecond == 0) {
+			intervalNanos = 0;
+			buckets.clear();
+		} else {
+			final long interval = Math.max(1, (long) (1000000000.0 / attemptsPerSecond));
+			toleranceNanos = interval * (burst - 1);
+			intervalNanos = interval;
+		}
+	}
+	
+	/**
+	 * Takes a token from the bucket of the address.
+	 * @param address The address that attempts to connect
+	 * @return <code>true</code> if the attempt is allowed, <code>false</code> if the address exceeded its rate limit
+	 */
+	public boolean tryAcquire(InetAddress address) {
+		final long interval = intervalNanos;
+		if(interval == 0) return true;
+		final long now = System.nanoTime();
+		if(attemptsSinceSweep.incrementAndGet() >= SWEEP_INTERVAL) {
+			attemptsSinceSweep.set(0);
+			buckets.values().removeIf((bucket) -> bucket.get() - now <= 0); //Full buckets are the same as no bucket
+		}
+		AtomicLong bucket = buckets.get(address);
+		if(bucket == null) bucket = buckets.computeIfAbsent(address, (a) -> new AtomicLong(now));
+		final long tolerance = toleranceNanos;
+		while(true) {
+			final long fullTime = bucket.get();
+			final long start = fullTime - now > 0 ? fullTime : now; //nanoTime values must be compared by difference
+			if(start - now > tolerance) return false;
+			if(bucket.compareAndSet(fullTime, start + interval)) return true;
+		}
+	}
+	
+	/**
+	 * @return How many connection attempts were rejected because the address was banned
+	 */
+	public long getBannedRejectionCount() {
+		return bannedRejections.sum();
+	}
+	
+	/**
+	 * @return How many connection attempts were rejected because the address exceeded the rate limit
+	 */
+	public long getRateLimitedRejectionCount() {
+		return rateLimitedRejections.sum();
+	}
+	
+	@Override
+	public void accept(AttemptedConnectionEvent event) {
+		final InetAddress address = event.getRemoteConnectionAddress();
+		if(address == null) return;
+		if(isBanned(address)) {
+			bannedRejections.increment();
+			event.tryCancel();
+		} else if(!tryAcquire(address)) {
+			rateLimitedRejections.increment();
+			event.tryCancel();
+		}
+	}
+	
+	private TrieNode getTrie(byte[] address) {
+		return address.length == 4 ? ipv4Bans : ipv6Bans;
+	}
+	
+	private void setTrie(byte[] address, TrieNode root) {
+		if(address.length == 4) {
+			ipv4Bans = root;
+		} else {
+			ipv6Bans = root;
+		}
+	}
+	
+	/**
+	 * @return The new node, or the same node if the range was already banned
+	 */
+	private static TrieNode insert(TrieNode node, byte[] address, int depth, int prefixLength) {
+		if(node != null && node.banned) return node; //Already covered by this or a larger range
+		if(depth == prefixLength) return BANNED; //Smaller ranges below are covered now
+		final TrieNode zero = node == null ? null : node.zero;
+		final TrieNode one = node == null ? null : node.one;
+		if(getBit(address, depth) == 0) {
+			final TrieNode updated = insert(zero, address, depth + 1, prefixLength);
+			return updated == zero ? node : new TrieNode(updated, one, false);
+		} else {
+			final TrieNode updated = insert(one, address, depth + 1, prefixLength);
+			return updated == one ? node : new TrieNode(zero, updated, false);
+		}
+	}
+	
+	/**
+	 * @return The new node, or the same node if the range was not banned
+	 */
+	private static TrieNode remove(TrieNode node, byte[] address, int depth, int prefixLength) {
+		if(node == null) return null;
+		if(depth == prefixLength) return node.banned ? null : node;
+		if(node.banned) return node; //Banned by a larger range, which stays
+		final TrieNode zero = node.zero;
+		final TrieNode one = node.one;
+		final TrieNode newZero = getBit(address, depth) == 0 ? remove(zero, address, depth + 1, prefixLength) : zero;
+		final TrieNode newOne = getBit(address, depth) == 1 ? remove(one, address, depth + 1, prefixLength) : one;
+		if(newZero == zero && newOne == one) return node;
+		if(newZero == null && newOne == null) return null; //Nothing is banned below this node anymore
+		return new TrieNode(newZero, newOne, false);
+	}
+	
+	private static void collectRanges(TrieNode node, byte[] address, int depth, List<String> ranges) {
+		if(node == null) return;
+		if(node.banned) {
+			ranges.add(toInetAddress(address).getHostAddress() + "/" + depth);
+			return;
+		}
+		collectRanges(node.zero, address, depth + 1, ranges);
+		address[depth / 8] |= (byte) (0x80 >>> (depth % 8));
+		collectRanges(node.one, address, depth + 1, ranges);
+		address[depth / 8] &= (byte) ~(0x80 >>> (depth % 8));
+	}
+	
+	private static int getBit(byte[] address, int index) {
+		return (address[index / 8] >>> (7 - index % 8)) & 1;
+	}
+	
+	private static void checkPrefixLength(byte[] address, int prefixLength) {
+		if(prefixLength < 0 || prefixLength > address.length * 8) {
+			throw new IllegalArgumentException("Prefix length must be between 0 and " + (address.length * 8) + ": " + prefixLength);
+		}
+	}
+	
+	private static byte[] parseAddress(String cidr) {
+		final int slash = cidr.indexOf('/');
+		final String host = slash < 0 ? cidr : cidr.substring(0, slash);
+		if(host.indexOf(':') < 0 && !host.matches("[0-9]+(\\.[0-9]+){3}")) { //Don't resolve host names
+			throw new IllegalArgumentException("Not an address literal: " + cidr);
+		}
+		try {
+			return InetAddress.getByName(host).getAddress(); //Literals are not looked up
+		} catch (UnknownHostException e) {
+			throw new IllegalArgumentException("Not an address literal: " + cidr, e);
+		}
+	}
+	
+	private static int parsePrefixLength(String cidr, byte[] address) {
+		final int slash = cidr.indexOf('/');
+		if(slash < 0) return address.length * 8;
+		try {
+			return Integer.parseInt(cidr.substring(slash + 1));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid prefix length: " + cidr, e);
+		}
+	}
+	
+	private static InetAddress toInetAddress(byte[] address) {
+		try {
+			return InetAddress.getByAddress(address);
+		} catch (UnknownHostException e) { //Only thrown for an invalid length
+			throw new IllegalArgumentException("Invalid address length: " + address.length, e);
+		}
+	}
+	
+	private static final class TrieNode {
+		private final TrieNode zero;
+		private final TrieNode one;
+		private final boolean banned;
+		
+		private TrieNode(TrieNode zero, TrieNode one, boolean banned) {
+			this.zero = zero;
+			this.one = one;
+			this.banned = banned;
+		}
+	}
+	
+}
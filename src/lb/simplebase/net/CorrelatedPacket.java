@@ -0,0 +1,123 @@
+package lb.simplebase.net;
+
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+
+/**
+ * Carries a request or a response of a {@link RequestManager}. It wraps a packet of the application together with the
+ * correlation id that matches the response to its request.<br>
+ * The wrapped packet is written behind the correlation id and its own packet id, so it needs a {@link PacketIdMapping} on both sides.
+ * When this packet is received, the wrapped data is kept as bytes and decoded by the {@link RequestManager} of the receiver.
+ * Other {@link PacketReceiver}s can ignore this packet type.
+ */
+public final class CorrelatedPacket implements Packet {
+
+	static final byte REQUEST = 0;
+	static final byte RESPONSE = 1;
+	static final byte FAILURE = 2;
+
+	private long correlationId;
+	private byte kind;
+	private int payloadId;
+	private Packet payload; //Set when sending, and when the packet was delivered through a local connection
+	private byte[] payloadData; //Set when the packet was received from the network
+	private String failureMessage;
+
+	/**
+	 * Creates an empty packet that reads its data when it is received
+	 */
+	CorrelatedPacket() {
+		this.payload = null;
+		this.payloadData = null;
+		this.failureMessage = null;
+	}
+
+	/**
+	 * Creates a request or a response that wraps a packet
+	 * @param correlationId The id that matches the response to the request
+	 * @param kind {@link #REQUEST} or {@link #RESPONSE}
+	 * @param payloadId The packet id of the wrapped packet
+	 * @param payload The wrapped packet
+	 */
+	CorrelatedPacket(long correlationId, byte kind, int payloadId, Packet payload) {
+		this.correlationId = correlationId;
+		this.kind = kind;
+		this.payloadId = payloadId;
+		this.payload = payload;
+		this.payloadData = null;
+		this.failureMessage = null;
+	}
+
+	/**
+	 * Creates a response that tells the requesting side that the request could not be handled
+	 * @param correlationId The id of the request
+	 * @param failureMessage Describes why there is no response
+	 */
+	CorrelatedPacket(long correlationId, String failureMessage) {
+		this.correlationId = correlationId;
+		this.kind = FAILURE;
+		this.payload = null;
+		this.payloadData = null;
+		this.failureMessage = failureMessage;
+	}
+
+	@Override
+	public void writeData(WritableByteData data) {
+		data.writeVarLong(correlationId);
+		data.writeByte(kind);
+		if(kind == FAILURE) {
+			data.writeUTF8(failureMessage);
+		} else {
+			data.writeSignedVarInt(payloadId);
+			payload.writeData(data);
+		}
+	}
+
+	@Override
+	public void readData(ReadableByteData data) {
+		correlationId = data.readVarLong();
+		kind = data.readByte();
+		if(kind == FAILURE) {
+			failureMessage = data.readUTF8();
+		} else {
+			payloadId = data.readSignedVarInt();
+			payloadData = data.read(data.getRemainingLength()); //The data object can't be kept
+		}
+	}
+
+	long getCorrelationId() {
+		return correlationId;
+	}
+
+	byte getKind() {
+		return kind;
+	}
+
+	int getPayloadId() {
+		return payloadId;
+	}
+
+	/**
+	 * @return The wrapped packet, or <code>null</code> if it was received as bytes
+	 */
+	Packet getPayload() {
+		return payload;
+	}
+
+	/**
+	 * @return The bytes of the wrapped packet, or <code>null</code> if the packet object is available
+	 */
+	byte[] getPayloadData() {
+		return payloadData;
+	}
+
+	String getFailureMessage() {
+		return failureMessage;
+	}
+
+	@Override
+	public String toString() {
+		return "CorrelatedPacket [correlationId=" + correlationId + ", kind=" + kind + ", payloadId=" + payloadId + "]";
+	}
+
+}
@@ -1,32 +1,96 @@
 package lb.simplebase.net;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lb.simplebase.net.ClosedConnectionEvent.Cause;
 
-class DataReceiverThread extends Thread {
+/**
+ * Reads data from a {@link Socket} and feeds it to a {@link PacketFactory}.<br>
+ * The read loop runs on its own thread, which can be a virtual thread on Java 21 and newer.
+ */
+class DataReceiverThread implements Runnable {
 
+	/**
+	 * The amount of bytes that are read from the socket at once if no other size is configured
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+	
 	private final Socket socket;
 	private final NetworkConnection connection;
 	private final PacketFactory factory;
+	private final int bufferSize;
+	private final Thread thread;
+	private final Lock pauseLock;
+	private final Condition resumed;
+	private boolean paused; //Guarded by pauseLock
 	
 	private static final AtomicInteger threadId = new AtomicInteger(0);
 	
-	public DataReceiverThread(Socket socket, PacketFactory factory, NetworkConnection connection) {
+	public DataReceiverThread(Socket socket, PacketFactory factory, NetworkConnection connection, int bufferSize, boolean virtualThread) {
 		this.socket = socket;
 		this.connection = connection;
 		this.factory = factory;
-		setDaemon(true);
-		setName("Socket-DataReceiverThread-" + threadId.getAndIncrement());
+		this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+		this.thread = VirtualThreads.createThread("Socket-DataReceiverThread-" + threadId.getAndIncrement(), this, virtualThread);
+		this.pauseLock = new ReentrantLock(); //Does not pin a virtual thread while waiting
+		this.resumed = pauseLock.newCondition();
+		this.paused = false;
+	}
+	
+	/**
+	 * Stops or continues reading from the socket. Data that was already read is still decoded.
+	 * @param paused Whether reading should be paused
+	 */
+	public void setPaused(boolean paused) {
+		pauseLock.lock();
+		try {
+			this.paused = paused;
+			if(!paused) resumed.signalAll();
+		} finally {
+			pauseLock.unlock();
+		}
+	}
+	
+	private void awaitResume() throws InterruptedException {
+		pauseLock.lock();
+		try {
+			while(paused && ConnectionState.fromSocket(socket).canSendData()) {
+				resumed.await();
+			}
+		} finally {
+			pauseLock.unlock();
+		}
+	}
+	
+	/**
+	 * Starts the thread that runs the read loop
+	 */
+	public void start() {
+		thread.start();
 	}
 	
 	@Override
 	public void run() {
 		NetworkManager.NET_LOG.info("Started Data Receiver");
 		ClosedConnectionEvent.Cause threadEndCause = Cause.UNKNOWN;
+		final byte[] buffer = new byte[bufferSize]; //Reused for every read
+		final ByteBuffer bufferView = ByteBuffer.wrap(buffer);
+		final InputStream input;
+		try {
+			input = socket.getInputStream();
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Data Receiver: Closing: Socket has no input stream", e);
+			connection.closeWithReason(Cause.IOEXCEPTION);
+			return;
+		}
 		while(ConnectionState.fromSocket(socket).canSendData()) {
 			if(Thread.interrupted()) {
 				Thread.currentThread().interrupt();
@@ -35,20 +99,30 @@ class DataReceiverThread extends Thread {
 				break;
 			}
 			try {
-				int i = socket.getInputStream().read();
-				if(i == -1) {
+				awaitResume();
+				final int count = input.read(buffer);
+				if(count == -1) {
 					NetworkManager.NET_LOG.info("Data Receiver: Socket was closed remotely");
 					threadEndCause = Cause.REMOTE;
 					break;
 				}
-				byte b = (byte) (i & 0xFF);
-				factory.feed(b);
+				connection.getMetrics().recordBytesReceived(count);
+				connection.recordReadActivity();
+				bufferView.clear();
+				bufferView.limit(count);
+				factory.feed(bufferView);
 			} catch (SocketException e) {
 				NetworkManager.NET_LOG.info("Data Receiver: Closing: Socket was closed");
 				threadEndCause = Cause.EXTERNAL;
 				break; //Socket closed
 			} catch (PacketMappingNotFoundException e) {
+				connection.getMetrics().recordDecodeErrors(e);
 				NetworkManager.NET_LOG.warn("Data Receiver: Packet mapping not found for received packet", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				NetworkManager.NET_LOG.info("Data Receiver: Closing: Thread was interrupted while reading was paused");
+				threadEndCause = Cause.INTERRUPTED;
+				break;
 			} catch (IOException e) {
 				NetworkManager.NET_LOG.error("Data Receiver: Closing: Socket IO Exception", e);
 				threadEndCause = Cause.IOEXCEPTION;
@@ -0,0 +1,297 @@
+package lb.simplebase.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lb.simplebase.action.AsyncResult;
+
+/**
+ * The unreliable datagram channel of one {@link NetworkConnection}, next to its byte stream.<br>
+ * Packets are encoded by the {@link PacketFactory} of the connection, so they use the same {@link PacketIdMappingContainer}
+ * and frame format, and received frames are decoded by a separate factory and handled like packets from the stream.
+ * Datagrams can be lost, duplicated or arrive out of order, and packets that are sent as datagrams are never split.
+ * <p>
+ * Packets that are queued at the same time are collected into one datagram, up to {@link DatagramTransport#MAX_DATAGRAM_SIZE} bytes.
+ * If sequencing is enabled, every datagram gets a sequence number, and the remote side drops datagrams that are older than the newest
+ * one it has received, so e.g. an old position update never replaces a newer one.
+ * <p>
+ * The server creates the endpoint with a random token and sends the token to the client over the stream. The client sends hello datagrams
+ * with the token until the server answers, so the server learns the address of the client even behind a NAT.
+ * @see DatagramTransport
+ */
+final class DatagramEndpoint {
+
+	/**
+	 * The time between two hello datagrams of a client, in milliseconds
+	 */
+	public static final int HELLO_INTERVAL = 250;
+	/**
+	 * The amount of hello datagrams that a client sends before it gives up
+	 */
+	public static final int HELLO_ATTEMPTS = 20;
+
+	private static final SecureRandom tokens = new SecureRandom();
+
+	private final NetworkConnection connection;
+	private final DatagramTransport transport;
+	private final boolean ownsTransport; //Only the client owns its transport
+	private final long token;
+	private final boolean sequenced;
+	private final PacketFactory encoder;
+	private final PacketFactory decoder;
+	private final MultiplexedWriteQueue queue;
+	private final AtomicBoolean flushScheduled;
+	private final AtomicInteger nextSequence;
+
+	private volatile InetSocketAddress remoteAddress;
+	private volatile boolean confirmed;
+	private volatile boolean closed;
+	private volatile TimerWheel.Timeout helloTimeout;
+
+	//Only used by the receiver thread of the transport
+	private boolean anySequenceReceived;
+	private int newestSequence;
+
+	private byte[] sendBuffer; //Only used by the flush task
+
+	private DatagramEndpoint(NetworkConnection connection, PacketFactory encoder, DatagramTransport transport, boolean ownsTransport,
+			long token, boolean sequenced, InetSocketAddress remoteAddress) {
+		this.connection = connection;
+		this.transport = transport;
+		this.ownsTransport = ownsTransport;
+		this.token = token;
+		this.sequenced = sequenced;
+		this.encoder = encoder;
+		this.decoder = new PacketFactory(encoder.getMappingContainer(), connection::handleReceivedPacket,
+				encoder.isCompactFrameEnabled(), -1, connection.getCompressionStatistics());
+		this.decoder.setMaxFrameSize(DatagramTransport.MAX_DATAGRAM_SIZE); //Fragments are never sent as datagrams
+		this.queue = new MultiplexedWriteQueue();
+		this.flushScheduled = new AtomicBoolean(false);
+		this.nextSequence = new AtomicInteger();
+		this.remoteAddress = remoteAddress;
+		this.confirmed = false;
+		this.closed = false;
+	}
+
+	/**
+	 * Creates the endpoint of a server connection with a new random token and registers it with the transport of the server.
+	 * The address of the client is not known until the first datagram from it was received.
+	 * @param connection The connection to the client
+	 * @param encoder The {@link PacketFactory} of the connection
+	 * @param transport The transport of the server
+	 * @param sequenced Whether sent datagrams have sequence numbers
+	 * @return The new endpoint
+	 */
+	static DatagramEndpoint createServer(NetworkConnection connection, PacketFactory encoder, DatagramTransport transport, boolean sequenced) {
+		final DatagramEndpoint endpoint = new DatagramEndpoint(connection, encoder, transport, false, tokens.nextLong(), sequenced, null);
+		transport.register(endpoint);
+		return endpoint;
+	}
+
+	/**
+	 * Creates the endpoint of a client connection after the server offered datagrams, with its own transport on any free port.
+	 * The endpoint sends hello datagrams until the server answered.
+	 * @param connection The connection to the server
+	 * @param encoder The {@link PacketFactory} of the connection
+	 * @param token The token from the offer of the server
+	 * @param serverAddress The address of the UDP socket of the server
+	 * @param sequenced Whether sent datagrams have sequence numbers
+	 * @return The new endpoint
+	 * @throws IOException If the socket could not be opened
+	 */
+	static DatagramEndpoint createClient(NetworkConnection connection, PacketFactory encoder, long token, InetSocketAddress serverAddress,
+			boolean sequenced) throws IOException {
+		final DatagramTransport transport = DatagramTransport.open(new InetSocketAddress(0));
+		final DatagramEndpoint endpoint = new DatagramEndpoint(connection, encoder, transport, true, token, sequenced, serverAddress);
+		transport.register(endpoint);
+		endpoint.scheduleHello(HELLO_ATTEMPTS);
+		return endpoint;
+	}
+
+	/**
+	 * @return The token that identifies the connection in datagrams
+	 */
+	long getToken() {
+		return token;
+	}
+
+	/**
+	 * @return Whether the remote side has answered. Always <code>true</code> on the server side once the client was heard from
+	 */
+	boolean isConfirmed() {
+		return confirmed;
+	}
+
+	/**
+	 * Encodes the packet on the calling thread and queues it for the next datagram.
+	 * The returned {@link AsyncResult} is done when the datagram was sent, which does not mean that it arrives.
+	 * @param packet The packet to send
+	 * @return The {@link AsyncResult} of sending the packet
+	 */
+	AsyncResult send(Packet packet) {
+		if(closed) return AsyncNetTask.createFailed(null, "Datagrams were closed");
+		if(remoteAddress == null) return AsyncNetTask.createFailed(null, "The datagram address of the remote side is not known yet");
+		final EncodedPacket data;
+		try {
+			data = encoder.encodeForQueue(packet);
+		} catch (PacketMappingNotFoundException e) {
+			return AsyncNetTask.createFailed(e, "No mapping was found for packet type " + packet.getClass().getSimpleName());
+		}
+		if(data.getLength() > DatagramTransport.MAX_DATAGRAM_SIZE - getHeaderLength()) {
+			final int length = data.getLength();
+			data.release();
+			return AsyncNetTask.createFailed(null, "Packet is too large for a datagram (" + length + " bytes)");
+		}
+		final AsyncNetTask task = AsyncNetTask.createPending();
+		queue.add(data, task);
+		if(flushScheduled.compareAndSet(false, true)) {
+			if(!connection.executeAsync(this::flushQueuedPackets)) {
+				failQueuedPackets(null, "Packet could not be sent: Executor was shut down");
+				flushScheduled.set(false);
+			}
+		}
+		return task;
+	}
+
+	private int getHeaderLength() {
+		return sequenced ? DatagramTransport.SEQUENCED_HEADER_LENGTH : DatagramTransport.HEADER_LENGTH;
+	}
+
+	/**
+	 * Sends all queued packets. Packets are collected into datagrams in the order of their channels' priority. Only one instance of this task runs at a time.
+	 */
+	private void flushQueuedPackets() {
+		if(sendBuffer == null) sendBuffer = new byte[DatagramTransport.MAX_DATAGRAM_SIZE];
+		final MultiplexedWriteQueue.Slice slice = new MultiplexedWriteQueue.Slice();
+		final List<MultiplexedWriteQueue.Entry> batch = new ArrayList<>();
+		do {
+			final int headerLength = getHeaderLength();
+			int length = headerLength;
+			while(queue.next(slice, 0)) {
+				if(length + slice.length > sendBuffer.length) { //Does not fit: send what we have first
+					sendBatch(length, batch);
+					length = headerLength;
+				}
+				System.arraycopy(slice.array, slice.offset, sendBuffer, length, slice.length);
+				length += slice.length;
+				final MultiplexedWriteQueue.Entry done = queue.advance(slice);
+				if(done != null) batch.add(done);
+			}
+			if(!batch.isEmpty()) sendBatch(length, batch);
+			flushScheduled.set(false);
+			//A sender might have added a packet after the queue was empty, but before the flag was reset
+		} while(!queue.isEmpty() && flushScheduled.compareAndSet(false, true));
+	}
+
+	private void sendBatch(int length, List<MultiplexedWriteQueue.Entry> batch) {
+		final int flags = sequenced ? DatagramTransport.FLAG_SEQUENCED : 0;
+		DatagramTransport.writeHeader(sendBuffer, flags, token, sequenced ? nextSequence.getAndIncrement() : 0);
+		IOException error = null;
+		try {
+			transport.send(sendBuffer, length, remoteAddress);
+			connection.getMetrics().recordDatagramSent();
+			connection.recordWriteActivity();
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Datagram Endpoint: Could not send a datagram with " + batch.size() + " packets", e);
+			error = e;
+		}
+		for(MultiplexedWriteQueue.Entry entry : batch) {
+			if(error == null) {
+				connection.getMetrics().recordPacketSent(entry.data.getLength(), entry.startNanos);
+			} else {
+				connection.getMetrics().recordSendFailure();
+			}
+			entry.data.release();
+			entry.task.completePending(error, error == null ? null : "An IO error occurred while trying to send a datagram");
+		}
+		batch.clear();
+	}
+
+	private void failQueuedPackets(Exception ex, String message) {
+		MultiplexedWriteQueue.Entry unsent;
+		while((unsent = queue.poll()) != null) {
+			connection.getMetrics().recordSendFailure();
+			unsent.data.release();
+			unsent.task.completePending(ex, message);
+		}
+	}
+
+	private void scheduleHello(int remainingAttempts) {
+		if(confirmed || closed) return;
+		if(remainingAttempts == 0) {
+			NetworkManager.NET_LOG.warn("Datagram Endpoint: The server did not answer " + HELLO_ATTEMPTS + " hello datagrams, datagrams might not arrive");
+			return;
+		}
+		connection.executeAsync(this::sendHello); //Not on the thread of the wheel
+		helloTimeout = TimerWheel.shared().schedule(() -> scheduleHello(remainingAttempts - 1), HELLO_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private void sendHello() {
+		final byte[] hello = new byte[DatagramTransport.HEADER_LENGTH];
+		DatagramTransport.writeHeader(hello, DatagramTransport.FLAG_HELLO, token, 0);
+		try {
+			transport.send(hello, hello.length, remoteAddress);
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.debug("Datagram Endpoint: Could not send a hello datagram", e);
+		}
+	}
+
+	/**
+	 * Handles a received datagram with the token of this endpoint. Only called by the receiver thread of the transport.
+	 * @param source The address that the datagram was sent from
+	 * @param flags The flags from the header
+	 * @param sequence The sequence number from the header, if {@link DatagramTransport#FLAG_SEQUENCED} is set
+	 * @param frames The frames of the datagram, after the header
+	 * @param length The length of the entire datagram
+	 */
+	void handleDatagram(InetSocketAddress source, int flags, int sequence, ByteBuffer frames, int length) {
+		if(closed) return;
+		connection.getMetrics().recordDatagramReceived(length);
+		connection.recordReadActivity();
+		if(ownsTransport) {
+			confirmed = true; //Anything from the server means that it knows our address
+		} else if(!source.equals(remoteAddress)) {
+			remoteAddress = source; //The client is new, or its NAT has changed the port
+			confirmed = true;
+		}
+		if((flags & DatagramTransport.FLAG_HELLO) != 0) {
+			if(!ownsTransport) sendHello(); //Answer, so the client stops sending hellos
+			return;
+		}
+		if((flags & DatagramTransport.FLAG_SEQUENCED) != 0) {
+			if(anySequenceReceived && sequence - newestSequence <= 0) { //Overflow-safe comparison
+				connection.getMetrics().recordStaleDatagram();
+				return;
+			}
+			anySequenceReceived = true;
+			newestSequence = sequence;
+		}
+		try {
+			decoder.feedDatagram(frames);
+		} catch (PacketMappingNotFoundException e) {
+			connection.getMetrics().recordDecodeErrors(e);
+		}
+	}
+
+	/**
+	 * Stops sending and receiving datagrams. Queued packets fail, and the client closes its transport.
+	 */
+	void close() {
+		if(closed) return;
+		closed = true;
+		final TimerWheel.Timeout hello = helloTimeout;
+		if(hello != null) hello.cancel();
+		transport.unregister(this);
+		failQueuedPackets(null, "Connection was closed before the datagram was sent");
+		decoder.notifyConnectionClosed();
+		if(ownsTransport) transport.close();
+	}
+
+}
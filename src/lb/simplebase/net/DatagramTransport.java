@@ -0,0 +1,190 @@
+package lb.simplebase.net;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends and receives the datagrams of {@link DatagramEndpoint}s through one {@link DatagramSocket}.<br>
+ * A server has one transport for all its clients, and a client has one for its connection to the server. Received datagrams
+ * are passed to the endpoint whose token they contain, on the single receiver thread of the transport. Every datagram starts with a header:
+ * <ul>
+ * <li>marker byte {@link #DATAGRAM_MARKER}: 1 byte</li>
+ * <li>flags, {@link #FLAG_SEQUENCED} and {@link #FLAG_HELLO}: 1 byte</li>
+ * <li>token of the connection: 8 bytes</li>
+ * <li>sequence number, only if {@link #FLAG_SEQUENCED} is set: 4 bytes</li>
+ * </ul>
+ * The rest of the datagram contains any amount of complete frames in the format of the {@link PacketFactory}.
+ */
+final class DatagramTransport implements Runnable {
+
+	/**
+	 * The maximum size of a datagram, including the header. It fits into the smallest MTU of IPv6 networks, so datagrams are not fragmented
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 1200;
+	/**
+	 * The first byte of every datagram
+	 */
+	public static final byte DATAGRAM_MARKER = (byte) 0xD6;
+	/**
+	 * Flag in the header: the header contains a sequence number
+	 */
+	public static final int FLAG_SEQUENCED = 0x01;
+	/**
+	 * Flag in the header: the datagram tells the remote side the address of the sender, and contains no frames
+	 */
+	public static final int FLAG_HELLO = 0x02;
+	/**
+	 * The length of the header without a sequence number
+	 */
+	public static final int HEADER_LENGTH = 10;
+	/**
+	 * The length of the header with a sequence number
+	 */
+	public static final int SEQUENCED_HEADER_LENGTH = 14;
+
+	private static final AtomicInteger threadIds = new AtomicInteger();
+
+	private final DatagramSocket socket;
+	private final ConcurrentMap<Long, DatagramEndpoint> endpoints;
+	private final Thread receiverThread;
+
+	private DatagramTransport(DatagramSocket socket) {
+		this.socket = socket;
+		this.endpoints = new ConcurrentHashMap<>();
+		this.receiverThread = new Thread(this, "DatagramReceiver-" + threadIds.getAndIncrement());
+		this.receiverThread.setDaemon(true);
+	}
+
+	/**
+	 * Opens a transport and starts its receiver thread.
+	 * @param address The local address of the socket. A port of <code>0</code> selects any free port
+	 * @return The new transport
+	 * @throws SocketException If the socket could not be opened or bound
+	 */
+	static DatagramTransport open(InetSocketAddress address) throws SocketException {
+		final DatagramTransport transport = new DatagramTransport(new DatagramSocket(address));
+		transport.receiverThread.start();
+		return transport;
+	}
+
+	/**
+	 * @return The local UDP port of the socket
+	 */
+	int getLocalPort() {
+		return socket.getLocalPort();
+	}
+
+	void register(DatagramEndpoint endpoint) {
+		endpoints.put(endpoint.getToken(), endpoint);
+	}
+
+	void unregister(DatagramEndpoint endpoint) {
+		endpoints.remove(endpoint.getToken(), endpoint);
+	}
+
+	/**
+	 * Sends a datagram. Can be called by any thread.
+	 * @param data The datagram, including the header
+	 * @param length The length of the datagram
+	 * @param target The address of the remote side
+	 * @throws IOException If the datagram could not be sent
+	 */
+	void send(byte[] data, int length, InetSocketAddress target) throws IOException {
+		socket.send(new DatagramPacket(data, length, target));
+	}
+
+	/**
+	 * Closes the socket, which stops the receiver thread.
+	 */
+	void close() {
+		socket.close();
+		endpoints.clear();
+	}
+
+	@Override
+	public void run() {
+		NetworkManager.NET_LOG.info("Datagram Transport: Listening on port " + socket.getLocalPort());
+		final byte[] buffer = new byte[MAX_DATAGRAM_SIZE + 1]; //One more byte to detect datagrams that are too large
+		final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while(!socket.isClosed()) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				handleDatagram(packet);
+			} catch (SocketException e) { //Closed by close()
+				break;
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Datagram Transport: Error while receiving a datagram", e);
+			} catch (RuntimeException e) { //The thread must not die because of one bad datagram
+				NetworkManager.NET_LOG.error("Datagram Transport: Error while handling a datagram", e);
+			}
+		}
+		NetworkManager.NET_LOG.info("Datagram Transport: Closed");
+	}
+
+	private void handleDatagram(DatagramPacket packet) {
+		final ByteBuffer data = ByteBuffer.wrap(packet.getData(), packet.getOffset(), packet.getLength());
+		if(data.remaining() > MAX_DATAGRAM_SIZE || data.remaining() < HEADER_LENGTH || data.get() != DATAGRAM_MARKER) {
+			NetworkManager.NET_LOG.debug("Datagram Transport: Invalid datagram dropped (" + packet.getSocketAddress() + ")");
+			return;
+		}
+		final int flags = data.get();
+		final long token = getLong(data);
+		final DatagramEndpoint endpoint = endpoints.get(token);
+		if(endpoint == null) {
+			NetworkManager.NET_LOG.debug("Datagram Transport: Datagram with unknown token dropped (" + packet.getSocketAddress() + ")");
+			return;
+		}
+		int sequence = 0;
+		if((flags & FLAG_SEQUENCED) != 0) {
+			if(data.remaining() < 4) return;
+			sequence = getInt(data);
+		}
+		endpoint.handleDatagram((InetSocketAddress) packet.getSocketAddress(), flags, sequence, data, packet.getLength());
+	}
+
+	/**
+	 * Writes the header of a datagram.
+	 * @param target The array of the datagram
+	 * @param flags The flags of the datagram
+	 * @param token The token of the connection
+	 * @param sequence The sequence number, only written if {@link #FLAG_SEQUENCED} is set
+	 * @return The length of the header
+	 */
+	static int writeHeader(byte[] target, int flags, long token, int sequence) {
+		target[0] = DATAGRAM_MARKER;
+		target[1] = (byte) flags;
+		for(int i = 0; i < 8; i++) {
+			target[2 + i] = (byte) (token >>> (8 * i)); //Little endian, like all other values
+		}
+		if((flags & FLAG_SEQUENCED) == 0) return HEADER_LENGTH;
+		for(int i = 0; i < 4; i++) {
+			target[HEADER_LENGTH + i] = (byte) (sequence >>> (8 * i));
+		}
+		return SEQUENCED_HEADER_LENGTH;
+	}
+
+	private static long getLong(ByteBuffer data) {
+		long value = 0;
+		for(int i = 0; i < 8; i++) {
+			value |= (data.get() & 0xFFL) << (8 * i);
+		}
+		return value;
+	}
+
+	private static int getInt(ByteBuffer data) {
+		int value = 0;
+		for(int i = 0; i < 4; i++) {
+			value |= (data.get() & 0xFF) << (8 * i);
+		}
+		return value;
+	}
+
+}
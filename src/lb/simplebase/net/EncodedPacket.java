@@ -0,0 +1,61 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lb.simplebase.io.WritableGrowableData;
+
+/**
+ * The encoded bytes of a packet, including the header, in a buffer from the {@link PacketBufferPool}.<br>
+ * The bytes must not be changed after encoding, so one instance can be queued on many connections at the same time.
+ * Every user holds a reference by calling {@link #retain()} and gives it up with {@link #release()}. The buffer
+ * goes back to the pool when the last reference is released.
+ */
+final class EncodedPacket {
+
+	private final WritableGrowableData buffer;
+	private final PacketChannel channel;
+	private final AtomicInteger references;
+
+	/**
+	 * Creates the instance with one reference, which is owned by the caller. It is sent on {@link PacketChannel#DEFAULT}.
+	 * @param buffer The buffer that contains the encoded packet
+	 */
+	public EncodedPacket(WritableGrowableData buffer) {
+		this(buffer, PacketChannel.DEFAULT);
+	}
+
+	/**
+	 * Creates the instance with one reference, which is owned by the caller.
+	 * @param buffer The buffer that contains the encoded packet
+	 * @param channel The {@link PacketChannel} that the packet is sent on
+	 */
+	public EncodedPacket(WritableGrowableData buffer, PacketChannel channel) {
+		this.buffer = buffer;
+		this.channel = channel;
+		this.references = new AtomicInteger(1);
+	}
+
+	public EncodedPacket retain() {
+		references.incrementAndGet();
+		return this;
+	}
+
+	public void release() {
+		if(references.decrementAndGet() == 0) {
+			PacketBufferPool.release(buffer);
+		}
+	}
+
+	public byte[] getArray() {
+		return buffer.internalArray();
+	}
+
+	public int getLength() {
+		return buffer.getLength();
+	}
+
+	public PacketChannel getChannel() {
+		return channel;
+	}
+
+}
@@ -0,0 +1,95 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the read and write activity of a {@link NetworkConnection} with a single timeout on the shared {@link TimerWheel}.<br>
+ * Reading and writing only store the current time, so they don't touch the wheel. When the timeout expires, the monitor checks
+ * how long the connection has been idle: if nothing was received for the read idle timeout, the connection is closed with
+ * {@link ClosedConnectionEvent.Cause#TIMEOUT}. If nothing was sent for the write idle timeout, a heartbeat is sent so that
+ * the remote side does not time out. Then the timeout is scheduled again for the next time that one of the limits can be reached.
+ */
+final class IdleTimeoutMonitor implements Runnable {
+
+	private final NetworkConnection connection;
+	private final long readTimeoutNanos;
+	private final long writeTimeoutNanos;
+	private volatile long lastReadNanos;
+	private volatile long lastWriteNanos;
+	private volatile TimerWheel.Timeout timeout;
+	private volatile boolean started;
+	private volatile boolean stopped;
+
+	/**
+	 * @param connection The connection to watch
+	 * @param readIdleTimeout The time in ms after which the connection is closed if nothing was received, or <code>0</code> to disable
+	 * @param writeIdleTimeout The time in ms after which a heartbeat is sent if nothing was sent, or <code>0</code> to disable
+	 */
+	IdleTimeoutMonitor(NetworkConnection connection, int readIdleTimeout, int writeIdleTimeout) {
+		if(readIdleTimeout < 0 || writeIdleTimeout < 0) throw new IllegalArgumentException("Idle timeouts must not be negative");
+		this.connection = connection;
+		this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readIdleTimeout);
+		this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeIdleTimeout);
+		this.started = false;
+		this.stopped = false;
+	}
+
+	/**
+	 * Starts watching the connection. Both idle times start now. Calling this more than once has no effect.
+	 */
+	synchronized void start() {
+		if(started || stopped) return;
+		started = true;
+		final long now = System.nanoTime();
+		lastReadNanos = now;
+		lastWriteNanos = now;
+		scheduleNext(now);
+	}
+
+	/**
+	 * Stops watching the connection, e.g. because it was closed.
+	 */
+	void stop() {
+		stopped = true;
+		final TimerWheel.Timeout current = timeout;
+		if(current != null) current.cancel();
+	}
+
+	void recordRead() {
+		lastReadNanos = System.nanoTime();
+	}
+
+	void recordWrite() {
+		lastWriteNanos = System.nanoTime();
+	}
+
+	@Override
+	public void run() {
+		if(stopped || connection.state != ConnectionState.OPEN) return;
+		final long now = System.nanoTime();
+		if(readTimeoutNanos > 0 && now - lastReadNanos >= readTimeoutNanos) {
+			stopped = true;
+			NetworkManager.NET_LOG.info("Network Connection: Closing: Nothing was received for "
+					+ TimeUnit.NANOSECONDS.toMillis(readTimeoutNanos) + "ms (" + connection.getRemoteTargetId() + ")");
+			//Closing posts an event, so it must not run on the thread of the wheel
+			if(!connection.executeAsync(connection::closeTimedOut)) connection.closeTimedOut();
+			return;
+		}
+		if(writeTimeoutNanos > 0 && now - lastWriteNanos >= writeTimeoutNanos) {
+			lastWriteNanos = now; //Don't send another one before this one was written
+			connection.sendHeartbeat();
+		}
+		scheduleNext(now);
+	}
+
+	private void scheduleNext(long now) {
+		long delay = Long.MAX_VALUE;
+		if(readTimeoutNanos > 0) delay = Math.min(delay, lastReadNanos + readTimeoutNanos - now);
+		if(writeTimeoutNanos > 0) delay = Math.min(delay, lastWriteNanos + writeTimeoutNanos - now);
+		if(delay == Long.MAX_VALUE) return; //Both are disabled
+		final TimerWheel.Timeout next = TimerWheel.shared().schedule(this, delay, TimeUnit.NANOSECONDS);
+		timeout = next;
+		if(stopped) next.cancel(); //Stopped while scheduling
+	}
+
+}
@@ -0,0 +1,29 @@
+package lb.simplebase.net;
+
+/**
+ * Decides what happens to a received packet when the inbound queue of its connection, or of all connections, is full.
+ * @see ServerConfig#setInboundQueueLimits(int, int)
+ * @see ClientConfig#setInboundQueueLimit(int)
+ */
+public enum InboundOverflowPolicy {
+	/**
+	 * The packet is queued, and no more data is read from the connection until the queue has been processed down to half of its limit.
+	 * The sender is slowed down by TCP flow control, so no packets are lost.<br>
+	 * Packets that were already received when the limit was reached are still queued, so the limit can be exceeded
+	 * by the packets in one read buffer. Local connections cannot be paused, their packets are always queued.
+	 */
+	PAUSE_READING,
+	/**
+	 * The oldest queued packet of the same connection is dropped to make room for the new packet.
+	 * If that connection has no queued packets, the new packet is dropped.
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new packet is dropped.
+	 */
+	DROP_NEWEST,
+	/**
+	 * The new packet is dropped and the connection is closed. Packets that were queued before are still processed.
+	 */
+	DISCONNECT;
+}
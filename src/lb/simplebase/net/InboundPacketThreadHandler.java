@@ -1,39 +1,296 @@
 package lb.simplebase.net;
 
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import lb.simplebase.event.Event;
 import lb.simplebase.util.NamedThreadFactory;
 
+/**
+ * Processes received packets on a thread pool.<br>
+ * By default, every packet is a separate task, so packets from the same connection can be processed at the same time and in any order.
+ * With ordered dispatch, every {@link PacketContext} has a mailbox: packets of one connection are processed one after another,
+ * in the order in which they were received, while packets of different connections are still processed in parallel.
+ * <p>
+ * The amount of queued packets can be limited for each connection and for all connections with {@link #setQueueLimits(int, int, InboundOverflowPolicy)}.
+ * When a limit is reached, the {@link InboundOverflowPolicy} is applied and an {@link InboundQueueOverflowEvent} is posted.
+ * Because several connections receive packets at the same time, the limit for all connections is not exact.
+ * With limits, every connection has a mailbox even without ordered dispatch, and at most one task per connection processes it,
+ * so the amount of waiting tasks is limited by the amount of connections and not by the amount of received packets.
+ */
 public class InboundPacketThreadHandler implements PacketReceiver{
 
+	/**
+	 * With ordered dispatch or queue limits, a connection gives up its thread after this amount of packets, so that a busy connection
+	 * does not delay the other connections
+	 */
+	public static final int MAILBOX_BATCH_SIZE = 64;
+	
 	private static final AtomicInteger ibhID = new AtomicInteger(0);
 	
 	private PacketReceiver delegateThreadReceiver;
 	private final ExecutorService threadExecutor;
 	private final NamedThreadFactory fac;
+	private final boolean ordered;
+	private final InboundQueueStatistics statistics;
+	private final AtomicInteger totalQueued;
+	private final Consumer<Event> eventSink;
+	private final Set<Mailbox> pausedMailboxes;
+	
+	//Set before the first packet is received
+	private volatile int connectionLimit; //0 means no limit
+	private volatile int totalLimit;
+	private volatile InboundOverflowPolicy overflowPolicy;
 	
 	public InboundPacketThreadHandler(PacketReceiver delegate, int threadCount) {
-		fac = new NamedThreadFactory("InboundPacketThreadHandler-" + ibhID.getAndIncrement() + "-Thread-");
+		this(delegate, threadCount, false);
+	}
+	
+	/**
+	 * @param delegate The {@link PacketReceiver} that processes the packets
+	 * @param threadCount The maximum amount of threads, or <code>0</code> for no limit
+	 * @param virtualThreads If <code>true</code> and supported by the JVM, every packet is processed on a new virtual thread
+	 * and the thread count is ignored
+	 */
+	public InboundPacketThreadHandler(PacketReceiver delegate, int threadCount, boolean virtualThreads) {
+		this(delegate, threadCount, virtualThreads, false);
+	}
+	
+	/**
+	 * @param delegate The {@link PacketReceiver} that processes the packets
+	 * @param threadCount The maximum amount of threads, or <code>0</code> for no limit. With ordered dispatch,
+	 * <code>0</code> means one thread per available processor
+	 * @param virtualThreads If <code>true</code> and supported by the JVM, packets are processed on virtual threads
+	 * and the thread count is ignored
+	 * @param ordered If <code>true</code>, the packets of each {@link PacketContext} are processed one after another and in order
+	 */
+	public InboundPacketThreadHandler(PacketReceiver delegate, int threadCount, boolean virtualThreads, boolean ordered) {
+		this(delegate, threadCount, virtualThreads, ordered, new InboundQueueStatistics(), (event) -> {});
+	}
+	
+	/**
+	 * @param delegate The {@link PacketReceiver} that processes the packets
+	 * @param threadCount The maximum amount of threads, or <code>0</code> for no limit. With ordered dispatch,
+	 * <code>0</code> means one thread per available processor
+	 * @param virtualThreads If <code>true</code> and supported by the JVM, packets are processed on virtual threads
+	 * and the thread count is ignored
+	 * @param ordered If <code>true</code>, the packets of each {@link PacketContext} are processed one after another and in order
+	 * @param statistics Counts the queued packets and the applied {@link InboundOverflowPolicy}s
+	 * @param eventSink Receives the {@link InboundQueueOverflowEvent}s, usually the post method of an event bus
+	 */
+	public InboundPacketThreadHandler(PacketReceiver delegate, int threadCount, boolean virtualThreads, boolean ordered,
+			InboundQueueStatistics statistics, Consumer<Event> eventSink) {
+		Objects.requireNonNull(statistics);
+		Objects.requireNonNull(eventSink);
+		final String namePrefix = "InboundPacketThreadHandler-" + ibhID.getAndIncrement() + "-Thread-";
+		fac = new NamedThreadFactory(namePrefix);
 		delegateThreadReceiver = delegate;
-		if(threadCount <= 0) {
-			threadExecutor = Executors.newCachedThreadPool(fac);
+		this.ordered = ordered;
+		this.statistics = statistics;
+		this.totalQueued = statistics.queuedCounter();
+		this.eventSink = eventSink;
+		this.pausedMailboxes = ConcurrentHashMap.newKeySet();
+		this.connectionLimit = 0;
+		this.totalLimit = 0;
+		this.overflowPolicy = InboundOverflowPolicy.PAUSE_READING;
+		if(virtualThreads && VirtualThreads.isAvailable()) {
+			threadExecutor = VirtualThreads.createExecutor(namePrefix);
+		} else if(threadCount <= 0) {
+			if(ordered) { //Threads are only used for parallel connections, so more threads than processors don't help
+				threadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), fac);
+			} else {
+				threadExecutor = Executors.newCachedThreadPool(fac);
+			}
 		} else {
 			threadExecutor = Executors.newFixedThreadPool(threadCount, fac);
 		}
 	}
 	
+	/**
+	 * Limits the amount of received packets that wait to be processed. Must be called before the first packet is received.
+	 * @param connectionLimit The maximum amount of queued packets for one connection, or <code>0</code> for no limit
+	 * @param totalLimit The maximum amount of queued packets for all connections, or <code>0</code> for no limit
+	 * @param policy Decides what happens to a packet that does not fit
+	 */
+	public void setQueueLimits(int connectionLimit, int totalLimit, InboundOverflowPolicy policy) {
+		Objects.requireNonNull(policy);
+		if(connectionLimit < 0 || totalLimit < 0) throw new IllegalArgumentException("Queue limits must not be negative");
+		this.connectionLimit = connectionLimit;
+		this.totalLimit = totalLimit;
+		this.overflowPolicy = policy;
+	}
+	
 	@Override
 	public void processPacket(Packet received, PacketContext source) {
+		final boolean limited = connectionLimit > 0 || totalLimit > 0;
+		if(!ordered && !limited) { //Nothing to count, every packet is its own task
+			try {
+				threadExecutor.execute(() -> deliverPacket(received, source));
+			} catch (RejectedExecutionException e) {
+				NetworkManager.NET_LOG.warn("Rejected Packet handler execution: Service might be shut down already - Packet dropped", e);
+			}
+			return;
+		}
+		final Mailbox mailbox = source.getMailbox();
+		if(limited && !checkLimits(received, mailbox)) return;
+		mailbox.packets.add(received);
+		mailbox.queued.incrementAndGet();
+		totalQueued.incrementAndGet();
+		//Also without ordered dispatch: a task per packet would not be limited, e.g. when DROP_OLDEST only removes packets from the mailbox
+		scheduleMailbox(mailbox);
+	}
+	
+	/**
+	 * Applies the {@link InboundOverflowPolicy} if a queue is full.
+	 * @return Whether the received packet should be queued
+	 */
+	private boolean checkLimits(Packet received, Mailbox mailbox) {
+		if(mailbox.disconnected) return false; //Already closing, don't count or post again
+		final int connectionQueued = mailbox.queued.get();
+		final int total = totalQueued.get();
+		if((connectionLimit <= 0 || connectionQueued < connectionLimit) && (totalLimit <= 0 || total < totalLimit)) return true;
+		final InboundOverflowPolicy policy = overflowPolicy;
+		final NetworkConnection connection = mailbox.context.getConnection();
+		switch (policy) {
+		case PAUSE_READING:
+			if(!connection.isLocalConnection() && mailbox.paused.compareAndSet(false, true)) {
+				pausedMailboxes.add(mailbox);
+				connection.setReadingPaused(true);
+				overflow(mailbox, policy, received, connectionQueued, total);
+				resumeConnections(); //In case all packets were processed before the mailbox was added
+			}
+			return true;
+		case DROP_OLDEST:
+			final Packet oldest = pollPacket(mailbox);
+			if(oldest == null) { //Only other connections have queued packets, so there is no room for this one
+				overflow(mailbox, InboundOverflowPolicy.DROP_NEWEST, received, connectionQueued, total);
+				return false;
+			}
+			overflow(mailbox, policy, oldest, connectionQueued, total);
+			return true;
+		case DROP_NEWEST:
+			overflow(mailbox, policy, received, connectionQueued, total);
+			return false;
+		case DISCONNECT:
+			mailbox.disconnected = true;
+			NetworkManager.NET_LOG.warn("InboundPacketThreadHandler: Closing connection to " + connection.getRemoteTargetId() + ": Too many queued packets");
+			overflow(mailbox, policy, received, connectionQueued, total);
+			if(!connection.executeAsync(connection::close)) connection.close(); //Not on the receiver thread if possible
+			return false;
+		default:
+			return true;
+		}
+	}
+	
+	private void overflow(Mailbox mailbox, InboundOverflowPolicy policy, Packet packet, int connectionQueued, int total) {
+		statistics.record(policy);
+		eventSink.accept(new InboundQueueOverflowEvent(mailbox.context, policy, packet, connectionQueued, total));
+	}
+	
+	/**
+	 * Takes the oldest packet out of the mailbox and updates the counters.
+	 * @return The packet, or <code>null</code> if the mailbox is empty
+	 */
+	private Packet pollPacket(Mailbox mailbox) {
+		final Packet next = mailbox.packets.poll();
+		if(next != null) {
+			mailbox.queued.decrementAndGet();
+			totalQueued.decrementAndGet();
+			if(!pausedMailboxes.isEmpty()) resumeConnections();
+		}
+		return next;
+	}
+	
+	/**
+	 * Resumes reading from all paused connections whose queues have been processed down to half of the limits.
+	 */
+	private void resumeConnections() {
+		if(totalLimit > 0 && totalQueued.get() > totalLimit / 2) return;
+		for(Mailbox mailbox : pausedMailboxes) {
+			if(connectionLimit > 0 && mailbox.queued.get() > connectionLimit / 2) continue;
+			if(mailbox.paused.compareAndSet(true, false)) {
+				pausedMailboxes.remove(mailbox);
+				mailbox.context.getConnection().setReadingPaused(false);
+			}
+		}
+	}
+	
+	private void deliverPacket(Packet packet, PacketContext source) {
+		final long start = System.nanoTime();
 		try {
-			threadExecutor.execute(() -> delegateThreadReceiver.processPacket(received, source));
-		} catch (RejectedExecutionException e) {
-			NetworkManager.NET_LOG.warn("Rejected Packet handler execution: Service might be shut down already - Packet dropped", e);
+			delegateThreadReceiver.processPacket(packet, source);
+		} finally {
+			source.getConnection().getMetrics().recordHandlerLatency(start);
+		}
+	}
+	
+	/**
+	 * Processes a packet on the calling thread. Queue limits and ordered dispatch do not apply.
+	 * Exceptions thrown by the delegate are logged.
+	 * @param received The packet to process
+	 * @param source The context of the connection that received the packet
+	 */
+	public void processPacketInline(Packet received, PacketContext source) {
+		processQueuedPacket(received, source);
+	}
+	
+	private void processQueuedPacket(Packet packet, PacketContext source) {
+		try {
+			deliverPacket(packet, source);
+		} catch (RuntimeException e) { //The next packets of this connection must still be processed
+			NetworkManager.NET_LOG.error("Packet handler threw an exception while processing " + packet.getClass().getSimpleName(), e);
+		}
+	}
+	
+	private void scheduleMailbox(Mailbox mailbox) {
+		if(mailbox.scheduled.compareAndSet(false, true)) {
+			try {
+				threadExecutor.execute(() -> processMailbox(mailbox));
+			} catch (RejectedExecutionException e) {
+				NetworkManager.NET_LOG.warn("Rejected Packet handler execution: Service might be shut down already - Packets dropped", e);
+				while(pollPacket(mailbox) != null);
+				mailbox.scheduled.set(false);
+			}
 		}
 	}
 	
+	/**
+	 * Processes up to {@link #MAILBOX_BATCH_SIZE} packets of one connection. Only one instance of this task runs for a mailbox at a time.
+	 */
+	private void processMailbox(Mailbox mailbox) {
+		for(int i = 0; i < MAILBOX_BATCH_SIZE; i++) {
+			final Packet next = pollPacket(mailbox);
+			if(next == null) break;
+			processQueuedPacket(next, mailbox.context);
+		}
+		mailbox.scheduled.set(false);
+		//Packets that were added after the last poll, or that did not fit in this batch, need a new task
+		if(!mailbox.packets.isEmpty()) scheduleMailbox(mailbox);
+	}
+	
+	/**
+	 * @return The statistics of the queued packets and the applied {@link InboundOverflowPolicy}s
+	 */
+	public InboundQueueStatistics getStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * @return Whether packets of one {@link PacketContext} are processed one after another and in order
+	 */
+	public boolean isOrdered() {
+		return ordered;
+	}
+	
 	protected void setDelegate(PacketReceiver delegate) {
 		delegateThreadReceiver = delegate;
 	}
@@ -46,4 +303,24 @@ public class InboundPacketThreadHandler implements PacketReceiver{
 		return delegateThreadReceiver;
 	}
 	
+	/**
+	 * The queued packets of one {@link PacketContext}, processed by at most one task at a time. Only used with ordered dispatch or queue limits.
+	 */
+	static final class Mailbox {
+		private final PacketContext context;
+		private final Queue<Packet> packets = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger queued = new AtomicInteger(0); //ConcurrentLinkedQueue.size() is not constant time
+		private final AtomicBoolean scheduled = new AtomicBoolean(false);
+		private final AtomicBoolean paused = new AtomicBoolean(false);
+		private volatile boolean disconnected = false;
+		
+		Mailbox(PacketContext context) {
+			this.context = context;
+		}
+		
+		int getQueuedCount() {
+			return queued.get();
+		}
+	}
+	
 }
@@ -0,0 +1,62 @@
+package lb.simplebase.net;
+
+import lb.simplebase.event.Event;
+
+/**
+ * Posted when a received packet does not fit into the inbound queue of its connection, or into the queue of all connections.
+ * The {@link InboundOverflowPolicy} has already been applied when the event is posted.<br>
+ * With {@link InboundOverflowPolicy#PAUSE_READING}, the event is only posted when reading is paused, not for every following packet.
+ */
+public final class InboundQueueOverflowEvent extends Event {
+
+	private final PacketContext connectionContext;
+	private final InboundOverflowPolicy policy;
+	private final Packet packet;
+	private final int connectionQueued;
+	private final int totalQueued;
+
+	protected InboundQueueOverflowEvent(PacketContext connectionContext, InboundOverflowPolicy policy, Packet packet, int connectionQueued, int totalQueued) {
+		super(false);
+		this.connectionContext = connectionContext;
+		this.policy = policy;
+		this.packet = packet;
+		this.connectionQueued = connectionQueued;
+		this.totalQueued = totalQueued;
+	}
+
+	/**
+	 * @return The context of the connection that received the packet
+	 */
+	public PacketContext getConnectionContext() {
+		return connectionContext;
+	}
+
+	/**
+	 * @return The policy that was applied
+	 */
+	public InboundOverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return The packet that was dropped, or for {@link InboundOverflowPolicy#PAUSE_READING} the packet that was queued
+	 */
+	public Packet getPacket() {
+		return packet;
+	}
+
+	/**
+	 * @return The amount of queued packets of the connection when the limit was reached
+	 */
+	public int getConnectionQueuedCount() {
+		return connectionQueued;
+	}
+
+	/**
+	 * @return The amount of queued packets of all connections when the limit was reached
+	 */
+	public int getTotalQueuedCount() {
+		return totalQueued;
+	}
+
+}
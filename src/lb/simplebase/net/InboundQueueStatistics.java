@@ -0,0 +1,91 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the received packets that are waiting to be processed, and how often the {@link InboundOverflowPolicy} had to be applied
+ * because an inbound queue was full.
+ * @see NetworkManager#getInboundQueueStatistics()
+ */
+public final class InboundQueueStatistics {
+
+	private final AtomicInteger queued;
+	private final LongAdder pauses;
+	private final LongAdder droppedOldest;
+	private final LongAdder droppedNewest;
+	private final LongAdder disconnects;
+
+	public InboundQueueStatistics() {
+		this.queued = new AtomicInteger(0);
+		this.pauses = new LongAdder();
+		this.droppedOldest = new LongAdder();
+		this.droppedNewest = new LongAdder();
+		this.disconnects = new LongAdder();
+	}
+
+	AtomicInteger queuedCounter() {
+		return queued;
+	}
+
+	void record(InboundOverflowPolicy policy) {
+		switch (policy) {
+		case PAUSE_READING:
+			pauses.increment();
+			break;
+		case DROP_OLDEST:
+			droppedOldest.increment();
+			break;
+		case DROP_NEWEST:
+			droppedNewest.increment();
+			break;
+		case DISCONNECT:
+			disconnects.increment();
+			break;
+		}
+	}
+
+	/**
+	 * Only packets of managers with queue limits or ordered dispatch are counted.
+	 * @return The amount of received packets that wait to be processed
+	 */
+	public int getQueuedPacketCount() {
+		return queued.get();
+	}
+
+	/**
+	 * @return How often reading from a connection was paused with {@link InboundOverflowPolicy#PAUSE_READING}
+	 */
+	public long getPauseCount() {
+		return pauses.sum();
+	}
+
+	/**
+	 * @return The amount of queued packets that were dropped with {@link InboundOverflowPolicy#DROP_OLDEST}
+	 */
+	public long getDroppedOldestCount() {
+		return droppedOldest.sum();
+	}
+
+	/**
+	 * @return The amount of received packets that were dropped with {@link InboundOverflowPolicy#DROP_NEWEST},
+	 * or with {@link InboundOverflowPolicy#DROP_OLDEST} when the connection had no queued packets
+	 */
+	public long getDroppedNewestCount() {
+		return droppedNewest.sum();
+	}
+
+	/**
+	 * @return The amount of connections that were closed with {@link InboundOverflowPolicy#DISCONNECT}
+	 */
+	public long getDisconnectCount() {
+		return disconnects.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "InboundQueueStatistics [queued=" + getQueuedPacketCount() + ", pauses=" + getPauseCount() + ", droppedOldest=" + getDroppedOldestCount()
+				+ ", droppedNewest=" + getDroppedNewestCount() + ", disconnects=" + getDisconnectCount() + "]";
+	}
+
+}
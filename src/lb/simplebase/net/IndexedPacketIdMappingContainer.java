@@ -0,0 +1,154 @@
+package lb.simplebase.net;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link PacketIdMappingContainer} that finds mappings by id or class in constant time.<br>
+ * The mappings are kept in an immutable index that is replaced when mappings are added. Lookups read the
+ * current index without locking, so they are cheap enough to be done for every sent and received packet.
+ * Adding mappings is slower, and should mostly happen before packets are sent.
+ * <p>
+ * Every id and every class can only be mapped once. If a mapping with an id or class that is already
+ * used is added, it is ignored and a warning is logged.
+ */
+public class IndexedPacketIdMappingContainer implements PacketIdMappingContainer {
+
+	/**
+	 * Ids from <code>0</code> up to this value are stored in an array, all other ids in a map
+	 */
+	public static final int MAX_DENSE_ID = 1023;
+
+	private volatile Index index;
+
+	public IndexedPacketIdMappingContainer() {
+		this.index = new Index(Collections.emptySet());
+	}
+
+	@Override
+	public Set<PacketIdMapping> getAllMappings() {
+		return index.allMappings;
+	}
+
+	@Override
+	public PacketIdMapping getMappingFor(Class<? extends Packet> clazz, PacketIdMapping defaultMapping) {
+		if(clazz == null) return defaultMapping;
+		final PacketIdMapping mapping = index.byClass.get(clazz);
+		return mapping == null ? defaultMapping : mapping;
+	}
+
+	@Override
+	public PacketIdMapping getMappingFor(int id, PacketIdMapping defaultMapping) {
+		final PacketIdMapping mapping = index.byId(id);
+		return mapping == null ? defaultMapping : mapping;
+	}
+
+	@Override
+	public boolean hasMappingFor(Class<? extends Packet> clazz) {
+		return getMappingFor(clazz, null) != null;
+	}
+
+	@Override
+	public boolean hasMappingFor(int id) {
+		return index.byId(id) != null;
+	}
+
+	@Override
+	public void addMapping(PacketIdMapping mapping) {
+		addAll(Collections.singleton(mapping));
+	}
+
+	@Override
+	public void addAllMappings(PacketIdMappingContainer con) {
+		addAll(con.getAllMappings());
+	}
+
+	@Override
+	public <T extends Enum<T> & PacketIdMapping> void addMappings(Class<T> e) {
+		addAll(EnumSet.allOf(e));
+	}
+
+	private synchronized void addAll(Collection<? extends PacketIdMapping> mappings) {
+		final Set<PacketIdMapping> newMappings = new LinkedHashSet<>(index.allMappings);
+		boolean changed = false;
+		for(PacketIdMapping mapping : mappings) {
+			if(mapping == null || newMappings.contains(mapping)) continue;
+			if(conflicts(newMappings, mapping)) continue;
+			newMappings.add(mapping);
+			changed = true;
+		}
+		if(changed) index = new Index(newMappings);
+	}
+
+	private static boolean conflicts(Set<PacketIdMapping> mappings, PacketIdMapping mapping) {
+		for(PacketIdMapping existing : mappings) {
+			if(existing.getPacketId() == mapping.getPacketId() && existing.getPacketClass() == mapping.getPacketClass()) {
+				return true; //Same mapping as a different object, nothing to add
+			} else if(existing.getPacketId() == mapping.getPacketId()) {
+				NetworkManager.NET_LOG.warn("Mapping Container: Packet id " + mapping.getPacketId() + " is already mapped to "
+						+ existing.getPacketClass().getName() + ", mapping for " + mapping.getPacketClass().getName() + " was not added");
+				return true;
+			} else if(existing.getPacketClass() == mapping.getPacketClass()) {
+				NetworkManager.NET_LOG.warn("Mapping Container: Packet class " + mapping.getPacketClass().getName() + " is already mapped to id "
+						+ existing.getPacketId() + ", mapping for id " + mapping.getPacketId() + " was not added");
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * An immutable snapshot of all mappings. A new instance is created whenever mappings are added.
+	 */
+	private static final class Index {
+		private final Set<PacketIdMapping> allMappings;
+		private final PacketIdMapping[] denseIds;
+		private final Map<Integer, PacketIdMapping> sparseIds;
+		private final ClassValue<PacketIdMapping> byClass;
+
+		private Index(Set<PacketIdMapping> mappings) {
+			this.allMappings = Collections.unmodifiableSet(mappings);
+
+			int maxDenseId = -1;
+			for(PacketIdMapping mapping : mappings) {
+				final int id = mapping.getPacketId();
+				if(id >= 0 && id <= MAX_DENSE_ID && id > maxDenseId) maxDenseId = id;
+			}
+			this.denseIds = new PacketIdMapping[maxDenseId + 1];
+			final Map<Integer, PacketIdMapping> sparse = new HashMap<>();
+			final Map<Class<?>, PacketIdMapping> classes = new IdentityHashMap<>();
+			for(PacketIdMapping mapping : mappings) {
+				final int id = mapping.getPacketId();
+				if(id >= 0 && id < denseIds.length) {
+					denseIds[id] = mapping;
+				} else {
+					sparse.put(id, mapping);
+				}
+				classes.put(mapping.getPacketClass(), mapping);
+			}
+			this.sparseIds = sparse;
+			//Every index has its own ClassValue, so no cached value can be outdated
+			this.byClass = new ClassValue<PacketIdMapping>() {
+				@Override
+				protected PacketIdMapping computeValue(Class<?> type) {
+					return classes.get(type);
+				}
+			};
+		}
+
+		private PacketIdMapping byId(int id) {
+			if(id >= 0 && id < denseIds.length) {
+				return denseIds[id];
+			} else {
+				return sparseIds.get(id);
+			}
+		}
+	}
+
+}
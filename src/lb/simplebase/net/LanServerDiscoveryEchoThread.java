@@ -11,16 +11,16 @@ class LanServerDiscoveryEchoThread extends Thread {
 
 	private static final AtomicInteger threadIds = new AtomicInteger();
 	
-	private final SocketNetworkManagerServer server;
+	private final CommonServer server;
 	private final byte[] sequence;
 	private final DatagramSocket socket;
 	
-	public LanServerDiscoveryEchoThread(SocketNetworkManagerServer server, byte[] sequence) {
+	public LanServerDiscoveryEchoThread(CommonServer server, DatagramSocket socket, byte[] sequence) {
 		super("LanServerDiscoveryEchoThread-" + threadIds.getAndIncrement());
 		setDaemon(true);
 		this.server = server;
 		this.sequence = sequence;
-		this.socket = server.getDatagramSocket();
+		this.socket = socket;
 	}
 
 	@Override
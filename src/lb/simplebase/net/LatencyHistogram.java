@@ -0,0 +1,144 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets with power-of-two bounds: bucket <code>i</code> contains the durations from
+ * <code>2<sup>i-1</sup></code> to <code>2<sup>i</sup> - 1</code> nanoseconds, and the last bucket contains all longer durations.
+ * Every bucket is a {@link LongAdder}, so threads that record at the same time update different cells instead of contending
+ * for one counter, and recording a value does not allocate. Percentiles are only as exact as the bucket bounds.
+ * @see NetworkMetrics
+ */
+public final class LatencyHistogram {
+
+	/**
+	 * The amount of buckets. The last bucket starts at <code>2<sup>38</sup></code> nanoseconds, which is about 4.5 minutes.
+	 */
+	public static final int BUCKET_COUNT = 40;
+
+	private final LatencyHistogram parent;
+	private final LongAdder[] buckets;
+	private final LongAdder totalNanos;
+	private final LongAccumulator maxNanos;
+
+	/**
+	 * Creates a histogram that does not add its values to another histogram.
+	 */
+	public LatencyHistogram() {
+		this(null);
+	}
+
+	/**
+	 * @param parent The histogram that all values are also added to, or <code>null</code>
+	 */
+	LatencyHistogram(LatencyHistogram parent) {
+		this.parent = parent;
+		this.buckets = new LongAdder[BUCKET_COUNT];
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+		this.totalNanos = new LongAdder();
+		this.maxNanos = new LongAccumulator(Math::max, 0);
+	}
+
+	/**
+	 * Adds a duration to the histogram. Negative durations are counted as <code>0</code>.
+	 * @param nanos The duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		final long value = Math.max(0, nanos);
+		buckets[getBucketIndex(value)].increment();
+		totalNanos.add(value);
+		maxNanos.accumulate(value);
+		if(parent != null) parent.record(value);
+	}
+
+	/**
+	 * @return The amount of recorded durations
+	 */
+	public long getCount() {
+		long count = 0;
+		for(LongAdder bucket : buckets) {
+			count += bucket.sum();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The sum of all recorded durations in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	/**
+	 * @return The average duration in nanoseconds, or <code>0</code> if nothing was recorded
+	 */
+	public double getMeanNanos() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) getTotalNanos() / count;
+	}
+
+	/**
+	 * @return The longest recorded duration in nanoseconds, or <code>0</code> if nothing was recorded
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * The upper bound of the bucket that contains the duration at the requested fraction of all recorded durations,
+	 * e.g. <code>0.99</code> for the 99th percentile. For the last bucket, the longest recorded duration is returned.
+	 * @param fraction The percentile as a fraction between <code>0</code> and <code>1</code>
+	 * @return The duration in nanoseconds that the requested fraction of all durations did not exceed, or <code>0</code> if nothing was recorded
+	 */
+	public long getPercentileNanos(double fraction) {
+		if(fraction < 0 || fraction > 1) throw new IllegalArgumentException("Percentile fraction must be between 0 and 1");
+		final long[] counts = getBucketCounts();
+		long count = 0;
+		for(long bucket : counts) {
+			count += bucket;
+		}
+		if(count == 0) return 0;
+		final long target = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKET_COUNT - 1; i++) {
+			seen += counts[i];
+			if(seen >= target) return Math.min(getBucketUpperBound(i), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	/**
+	 * The values are read one after another, so durations that are recorded at the same time might be missing.
+	 * @return A copy of the counts of all buckets
+	 */
+	public long[] getBucketCounts() {
+		final long[] counts = new long[BUCKET_COUNT];
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	/**
+	 * @param index The index of the bucket
+	 * @return The longest duration in nanoseconds that is counted in that bucket
+	 */
+	public static long getBucketUpperBound(int index) {
+		if(index < 0 || index >= BUCKET_COUNT) throw new IndexOutOfBoundsException("Bucket index: " + index);
+		return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << index) - 1;
+	}
+
+	private static int getBucketIndex(long nanos) {
+		return Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKET_COUNT - 1);
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram [count=" + getCount() + ", mean=" + (long) getMeanNanos() + "ns, p99=" + getPercentileNanos(0.99)
+				+ "ns, max=" + getMaxNanos() + "ns]";
+	}
+
+}
@@ -20,6 +20,7 @@ public final class LocalConnectionManager {
 	private static final int SERVER_CHECK_INTERVAL = 50;
 	
 	private static final ExecutorService localPacketOutputThread = Executors.newCachedThreadPool(new NamedThreadFactory("LocalPacketProcessing-"));
+	private static volatile ExecutorService virtualPacketOutputThread = null; //Created for the first network manager that uses virtual threads
 	private static final Map<TargetIdentifier, LocalConnectionServer> servers = Collections.synchronizedMap(new HashMap<>());
 	
 	public static void addServer(LocalConnectionServer server) {
@@ -33,9 +34,33 @@ public final class LocalConnectionManager {
 	public static void submitLocalPacketTask(Runnable task) {
 		localPacketOutputThread.execute(task);
 	}
+	
+	/**
+	 * Submits a local packet task for a network manager.
+	 * @param task The task to run
+	 * @param virtual If <code>true</code> and supported by the JVM, the task runs on a new virtual thread.
+	 * The executor for virtual threads is created when it is first used and never replaced
+	 */
+	static void submitLocalPacketTask(Runnable task, boolean virtual) {
+		if(!virtual || !VirtualThreads.isAvailable()) {
+			localPacketOutputThread.execute(task);
+		} else {
+			final ExecutorService existing = virtualPacketOutputThread;
+			(existing != null ? existing : createVirtualExecutor()).execute(task);
+		}
+	}
+	
+	private static synchronized ExecutorService createVirtualExecutor() {
+		if(virtualPacketOutputThread == null) {
+			if(localPacketOutputThread.isShutdown()) return localPacketOutputThread; //Rejects the task like after shutdownExecutor()
+			virtualPacketOutputThread = VirtualThreads.createExecutor("LocalPacketProcessing-Virtual-");
+		}
+		return virtualPacketOutputThread;
+	}
 
-	public static void shutdownExecutor() {
+	public static synchronized void shutdownExecutor() {
 		localPacketOutputThread.shutdown();
+		if(virtualPacketOutputThread != null) virtualPacketOutputThread.shutdown();
 	}
 	
 	protected static Map<TargetIdentifier, LocalConnectionServer> getServers() {
@@ -0,0 +1,29 @@
+package lb.simplebase.net;
+
+/**
+ * Decides how a {@link LocalNetworkConnection} hands a sent packet to its partner connection.
+ * Local connections never encode packets, the packet object itself is received by the partner.
+ * @see ServerConfig#setLocalDelivery(LocalDelivery)
+ * @see ClientConfig#setLocalDelivery(LocalDelivery)
+ */
+public enum LocalDelivery {
+	/**
+	 * Every packet is handed over by a task on the shared executor of the {@link LocalConnectionManager}, and the returned
+	 * {@link lb.simplebase.action.AsyncResult} is done when that task was submitted. Packets that are sent quickly after each other
+	 * can be received in a different order.
+	 */
+	EXECUTOR,
+	/**
+	 * The packet is added to the inbound queue of the partner on the calling thread, and the partner's processing threads handle it.
+	 * Nothing is allocated for the sender, the returned {@link lb.simplebase.action.AsyncResult} is a shared completed result.
+	 * Packets are received in the order in which they were sent by one thread. This is the default.
+	 */
+	DIRECT,
+	/**
+	 * The packet handlers of the partner run on the calling thread, and sending returns after they are done.
+	 * This is the fastest mode for single-player games and tests, but a slow handler blocks the sender,
+	 * and the inbound queue limits and ordered dispatch of the partner don't apply.
+	 * Exceptions thrown by the handlers are logged and not passed to the sender.
+	 */
+	INLINE;
+}
@@ -1,6 +1,7 @@
 package lb.simplebase.net;
 
 import java.io.IOException;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
 
@@ -11,6 +12,7 @@ import lb.simplebase.util.OptionalError;
 public class LocalNetworkConnection extends NetworkConnection{
 
 	private LocalNetworkConnection partner = null;
+	private volatile LocalDelivery delivery = LocalDelivery.DIRECT;
 	
 	public LocalNetworkConnection(TargetIdentifier source, TargetIdentifier target, NetworkManager packetHandler, boolean isServer, Object payload) {
 		super(source, target, packetHandler, ConnectionState.UNCONNECTED, isServer, payload);
@@ -25,13 +27,43 @@ public class LocalNetworkConnection extends NetworkConnection{
 	@Override
 	public AsyncResult sendPacketToTarget(Packet packet) {
 		if(getState() == ConnectionState.OPEN && partner != null) {
-			return AsyncNetTask.submitTask((f) -> {
-				LocalConnectionManager.submitLocalPacketTask(() -> partner.handleReceivedPacket(packet));
-			});
+			final long start = System.nanoTime();
+			switch (delivery) {
+			case EXECUTOR:
+				final boolean virtual = getNetworkManager().usesVirtualThreads();
+				return AsyncNetTask.submitTask((f) -> {
+					LocalConnectionManager.submitLocalPacketTask(() -> partner.handleReceivedPacket(packet), virtual);
+					getMetrics().recordPacketSent(0, start); //Nothing is encoded
+				}, virtual);
+			case INLINE:
+				partner.handleReceivedPacketInline(packet);
+				break;
+			default:
+				partner.handleReceivedPacket(packet);
+				break;
+			}
+			getMetrics().recordPacketSent(0, start);
+			return AsyncNetTask.createSucceeded();
 		} else {
 			return AsyncNetTask.createFailed(null, "Connection is not open");
 		}
 	}
+	
+	/**
+	 * Selects how packets sent through this connection are handed to the partner. Usually set by the
+	 * {@link NetworkManager} from its configuration before the connection is used.
+	 * @param delivery The new delivery mode
+	 */
+	void setDelivery(LocalDelivery delivery) {
+		this.delivery = Objects.requireNonNull(delivery, "Local delivery must not be null");
+	}
+	
+	/**
+	 * @return How packets sent through this connection are handed to the partner
+	 */
+	public LocalDelivery getDelivery() {
+		return delivery;
+	}
 
 	@Override
 	public OptionalError<Boolean, IOException> connect(int timeout) {
@@ -5,6 +5,14 @@ public class LocalNetworkManagerServer extends CommonServer {
 	public LocalNetworkManagerServer(TargetIdentifier localId, int threads) {
 		super(localId, threads);
 	}
+	
+	public LocalNetworkManagerServer(TargetIdentifier localId, int threads, boolean virtualThreads) {
+		super(localId, threads, virtualThreads);
+	}
+	
+	public LocalNetworkManagerServer(TargetIdentifier localId, int threads, boolean virtualThreads, boolean orderedDispatch) {
+		super(localId, threads, virtualThreads, orderedDispatch);
+	}
 
 	@Override
 	public void startServer() {
@@ -24,6 +32,7 @@ public class LocalNetworkManagerServer extends CommonServer {
 		} else {
 			NetworkManager.NET_LOG.info("Server Manager: Stopping server...");
 			LocalConnectionManager.removeServer(this);
+			closeBroadcastEncoders();
 			NetworkManager.NET_LOG.info("Server Manager: Server stop complete.");
 		}
 	}
@@ -0,0 +1,204 @@
+package lb.simplebase.net;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The outbound queue of a network connection, with one lane for every {@link PacketChannel} that packets were sent on.<br>
+ * Any thread can add packets, but only one writer at a time takes them out with {@link #next(Slice, int)}. The writer always
+ * continues with the lane of the highest priority that has packets, so the packets of one lane are written in order,
+ * but packets of a lane with a higher priority overtake the packets of lanes with a lower priority. Lanes with the same priority
+ * are written in the order in which they were first used.
+ * <p>
+ * With a fragment size, frames that are larger are written as fragment control frames, and the lane is chosen again before every
+ * fragment, so frames of lanes with a higher priority are written between them. A lane that writes a frame in fragments takes a stream number,
+ * so the remote side can collect the fragments of several lanes at the same time. The stream number is free again after the last fragment.
+ * There are only {@link PacketFactory#MAX_FRAGMENT_STREAMS} stream numbers, like the remote side accepts: when all of them are taken,
+ * a lane can only write frames that don't need fragments until one of the fragmented frames is complete.
+ * @see PacketFactory#writeFragmentHeader(byte[], int, boolean, int)
+ */
+final class MultiplexedWriteQueue {
+
+	/**
+	 * A bit for every stream number. {@link PacketFactory#MAX_FRAGMENT_STREAMS} must not be larger than 64
+	 */
+	private static final long ALL_STREAMS = -1L >>> (64 - PacketFactory.MAX_FRAGMENT_STREAMS);
+
+	private final ConcurrentMap<PacketChannel, Lane> lanesByChannel;
+	private volatile Lane[] lanes; //Sorted by priority, highest first. Replaced while holding this instance's monitor
+	private long usedStreams; //Bit i is set while stream number i is taken by a lane. Only used by the writer
+
+	MultiplexedWriteQueue() {
+		this.lanesByChannel = new ConcurrentHashMap<>();
+		this.lanes = new Lane[0];
+	}
+
+	/**
+	 * Adds a packet to the lane of its channel. Can be called by any thread.
+	 * @param data The encoded packet, the reference is owned by the queue now
+	 * @param task The task that is completed when the packet was written
+	 */
+	void add(EncodedPacket data, AsyncNetTask task) {
+		final PacketChannel channel = data.getChannel();
+		Lane lane = lanesByChannel.get(channel);
+		if(lane == null) lane = addLane(channel);
+		lane.entries.add(new Entry(data, task));
+	}
+
+	private synchronized Lane addLane(PacketChannel channel) {
+		final Lane existing = lanesByChannel.get(channel);
+		if(existing != null) return existing;
+		final Lane[] current = lanes;
+		final Lane lane = new Lane(channel.getPriority());
+		final Lane[] updated = Arrays.copyOf(current, current.length + 1);
+		int index = current.length;
+		while(index > 0 && updated[index - 1].priority < lane.priority) { //Keep the order of lanes with the same priority
+			updated[index] = updated[index - 1];
+			index--;
+		}
+		updated[index] = lane;
+		lanes = updated; //Published before the lane can be found in the map
+		lanesByChannel.put(channel, lane);
+		return lane;
+	}
+
+	/**
+	 * @return Whether no lane has a packet
+	 */
+	boolean isEmpty() {
+		for(Lane lane : lanes) {
+			if(!lane.entries.isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Removes any queued packet, including a packet whose fragments are being written. Used to fail all packets when the connection is closed.
+	 * @return A queued packet, or <code>null</code> if the queue is empty
+	 */
+	Entry poll() {
+		for(Lane lane : lanes) {
+			final Entry entry = lane.entries.poll();
+			if(entry != null) return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Selects the bytes that should be written next: the rest of the first packet of the lane with the highest priority,
+	 * or the next fragment of it. Lanes that would have to start a fragmented frame while all stream numbers are taken are skipped.
+	 * The queue does not change until {@link #advance(Slice)} is called. Only called by the writer.
+	 * @param slice The slice that is filled with the next bytes
+	 * @param fragmentSize The maximum amount of bytes of a frame that are written at once, or <code>0</code> to write frames as a whole
+	 * @return Whether there are bytes to write. If <code>false</code>, the slice is not changed
+	 */
+	boolean next(Slice slice, int fragmentSize) {
+		for(Lane lane : lanes) {
+			final Entry entry = lane.entries.peek();
+			if(entry == null) continue;
+			final int total = entry.data.getLength();
+			final boolean whole = entry.written == 0 && (fragmentSize <= 0 || total <= fragmentSize);
+			if(!whole && lane.stream < 0) { //The first fragment of the frame
+				lane.stream = takeStream();
+				if(lane.stream < 0) continue; //All stream numbers are taken by other lanes
+			}
+			slice.entry = entry;
+			slice.lane = lane;
+			slice.array = entry.data.getArray();
+			slice.offset = entry.written;
+			if(whole) {
+				slice.headerLength = 0;
+				slice.length = total;
+				slice.last = true;
+			} else {
+				final int remaining = total - entry.written;
+				slice.length = fragmentSize <= 0 ? remaining : Math.min(remaining, fragmentSize);
+				slice.last = slice.length == remaining;
+				slice.headerLength = PacketFactory.writeFragmentHeader(slice.header, lane.stream, slice.last, slice.length);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves the queue behind the bytes of the slice, after they were written. Only called by the writer.
+	 * @param slice The slice from the last call to {@link #next(Slice, int)}
+	 * @return The packet if the slice was its last part and it was not removed by {@link #poll()} in the meantime, otherwise <code>null</code>
+	 */
+	Entry advance(Slice slice) {
+		final Entry entry = slice.entry;
+		slice.entry = null;
+		if(!slice.last) {
+			entry.written += slice.length;
+			return null;
+		}
+		if(slice.headerLength > 0) { //The last fragment, the remote side has closed the stream
+			usedStreams &= ~(1L << slice.lane.stream);
+			slice.lane.stream = -1;
+		}
+		return slice.lane.entries.remove(entry) ? entry : null;
+	}
+	
+	/**
+	 * @return The lowest free stream number, or <code>-1</code> if all are taken
+	 */
+	private int takeStream() {
+		if(usedStreams == ALL_STREAMS) return -1;
+		final int stream = Long.numberOfTrailingZeros(~usedStreams);
+		usedStreams |= 1L << stream;
+		return stream;
+	}
+
+	/**
+	 * A queued packet
+	 */
+	static final class Entry {
+		final EncodedPacket data;
+		final AsyncNetTask task;
+		final long startNanos;
+		private int written; //Bytes that were sent in fragments, only used by the writer
+
+		private Entry(EncodedPacket data, AsyncNetTask task) {
+			this.data = data;
+			this.task = task;
+			this.startNanos = System.nanoTime();
+			this.written = 0;
+		}
+	}
+
+	/**
+	 * The bytes that should be written next: the header of a fragment, which is empty for a whole frame, and a part of the frame.
+	 * Reused by the writer.
+	 */
+	static final class Slice {
+		final byte[] header = new byte[PacketFactory.MAX_FRAGMENT_HEADER_LENGTH];
+		int headerLength;
+		byte[] array;
+		int offset;
+		int length;
+		private Entry entry;
+		private Lane lane;
+		private boolean last;
+
+		int getTotalLength() {
+			return headerLength + length;
+		}
+	}
+
+	private static final class Lane {
+		private final int priority;
+		private final Queue<Entry> entries;
+		private int stream; //The stream number of the frame that is written in fragments, or -1. Only used by the writer
+
+		private Lane(int priority) {
+			this.priority = priority;
+			this.entries = new ConcurrentLinkedQueue<>();
+			this.stream = -1;
+		}
+	}
+
+}
@@ -32,6 +32,10 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 	private final NetworkManager packetHandler; //This is the Networkmanager
 	protected volatile ConnectionState state; //Threadsafe for socket listener
 	private final PacketContext context;
+	private final CompressionStatistics compressionStatistics;
+	private final NetworkMetrics metrics;
+	private volatile IdleTimeoutMonitor idleMonitor;
+	private volatile DatagramEndpoint datagramEndpoint;
 	
 	protected final ReadWriteLock stateRW;
 //	private final PacketFactory factory;
@@ -43,6 +47,8 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 		this.state = initialState;
 		this.context = new PacketContext(isServer, packetHandler, this, payload);
 		this.stateRW = new ReentrantReadWriteLock();
+		this.compressionStatistics = new CompressionStatistics(packetHandler.getCompressionStatistics());
+		this.metrics = new NetworkMetrics(packetHandler.getMetrics(), context.getMailbox()::getQueuedCount);
 		
 //		this.factory = new PacketFactory(packetHandler, this);
 	}
@@ -92,6 +98,10 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 	
 	protected void closeWithReason(ClosedConnectionEvent.Cause cause) {
 		setConnectionState(ConnectionState.CLOSED);
+		final IdleTimeoutMonitor monitor = idleMonitor;
+		if(monitor != null) monitor.stop();
+		final DatagramEndpoint endpoint = datagramEndpoint;
+		if(endpoint != null) endpoint.close();
 		//Outside the lock, so the event handler can access it without waiting
 		packetHandler.notifyConnectionClosed(this, cause);
 	}
@@ -116,9 +126,20 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 	 * @param received The packet that was received by this connection
 	 */
 	public void handleReceivedPacket(Packet received) {
+		metrics.recordPacketReceived();
 		packetHandler.accept(received, getContext());
 	}
 	
+	/**
+	 * Processes a received packet on the calling thread, without the processing threads of the {@link NetworkManager}.
+	 * @param received The packet that was received by this connection
+	 * @see LocalDelivery#INLINE
+	 */
+	void handleReceivedPacketInline(Packet received) {
+		metrics.recordPacketReceived();
+		packetHandler.processPacketInline(received, getContext());
+	}
+	
 	/**
 	 * Tries to make a network connection to the remote target, using the connection information
 	 * that this instance was created with. This method uses a timeout vaule of 30 seconds.
@@ -143,6 +164,176 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 	 */
 	public abstract AsyncResult sendPacketToTarget(Packet packet);
 	
+	/**
+	 * Sends the {@link Packet} to the connected network target as an unreliable datagram, next to the byte stream of the connection.
+	 * The packet can be lost, duplicated or arrive out of order, but it is never delayed by packets that wait in the stream.
+	 * Datagrams must be enabled with {@link ServerConfig#setDatagramPort(int)} on the server and {@link ClientConfig#setDatagrams(boolean)} on the client.<br>
+	 * Local connections have no datagrams, they send the packet like {@link #sendPacketToTarget(Packet)}.
+	 * @param packet The {@link Packet} containing the data that should be sent
+	 * @return The {@link AsyncResult} of sending the packet. It fails if datagrams are not enabled, the client's address is not known
+	 * to the server yet, or the encoded packet does not fit into a datagram
+	 */
+	public AsyncResult sendDatagramToTarget(Packet packet) {
+		if(isLocalConnection()) return sendPacketToTarget(packet);
+		if(getState() != ConnectionState.OPEN) return AsyncNetTask.createFailed(null, "Connection was not open");
+		final DatagramEndpoint endpoint = datagramEndpoint;
+		if(endpoint == null) return AsyncNetTask.createFailed(null, "Datagrams are not enabled for this connection");
+		return endpoint.send(packet);
+	}
+	
+	/**
+	 * Sends a {@link Packet} that was already encoded, e.g. because it is sent to many connections.
+	 * Connections that send packets as bytes queue the encoded data, all others send the packet object.
+	 * @param packet The {@link Packet} that should be sent
+	 * @param encoded The encoded bytes of the packet. Implementations that keep it must call {@link EncodedPacket#retain()}
+	 * @return The {@link AsyncResult} of sending the packet
+	 */
+	AsyncResult sendEncodedPacket(Packet packet, EncodedPacket encoded) {
+		return sendPacketToTarget(packet);
+	}
+	
+	/**
+	 * Counts the bytes of packets that were compressed for this connection. The values stay <code>0</code>
+	 * for local connections and if compression is disabled.
+	 * @return The {@link CompressionStatistics} of this connection
+	 */
+	public CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
+	}
+	
+	/**
+	 * Counts the packets and bytes that were sent and received through this connection, and the time it took to send and process them.
+	 * All values are added to the {@link NetworkManager#getMetrics()} as well.
+	 * @return The {@link NetworkMetrics} of this connection
+	 */
+	public NetworkMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Closes this connection when nothing was received for the read idle timeout, and sends a heartbeat when nothing was sent
+	 * for the write idle timeout. Replaces the timeouts that were set before. If the connection is not open yet,
+	 * the timeouts start when it is opened.<br>
+	 * Only connections over the network use idle timeouts, all others ignore this.
+	 * @param readIdleTimeout The time in ms after which the connection is closed with {@link ClosedConnectionEvent.Cause#TIMEOUT}, or <code>0</code> to disable
+	 * @param writeIdleTimeout The time in ms after which a heartbeat is sent, or <code>0</code> to disable
+	 * @see IdleTimeoutMonitor
+	 */
+	void setIdleTimeouts(int readIdleTimeout, int writeIdleTimeout) {
+		if(isLocalConnection()) return;
+		final IdleTimeoutMonitor old = idleMonitor;
+		if(old != null) old.stop();
+		idleMonitor = readIdleTimeout > 0 || writeIdleTimeout > 0 ? new IdleTimeoutMonitor(this, readIdleTimeout, writeIdleTimeout) : null;
+		if(state == ConnectionState.OPEN) startIdleTimeouts();
+	}
+	
+	/**
+	 * Starts the idle timeouts. Called when the connection is opened.
+	 */
+	protected void startIdleTimeouts() {
+		final IdleTimeoutMonitor monitor = idleMonitor;
+		if(monitor != null) monitor.start();
+	}
+	
+	/**
+	 * Called when data was received from the remote side.
+	 */
+	void recordReadActivity() {
+		final IdleTimeoutMonitor monitor = idleMonitor;
+		if(monitor != null) monitor.recordRead();
+	}
+	
+	/**
+	 * Called when data was sent to the remote side.
+	 */
+	void recordWriteActivity() {
+		final IdleTimeoutMonitor monitor = idleMonitor;
+		if(monitor != null) monitor.recordWrite();
+	}
+	
+	/**
+	 * Sends a heartbeat control frame that keeps the remote side from timing out. Connections that don't time out ignore this.
+	 */
+	void sendHeartbeat() {
+		//Nothing to send
+	}
+	
+	/**
+	 * Closes this connection because nothing was received for the read idle timeout.
+	 * The {@link ClosedConnectionEvent} has the cause {@link ClosedConnectionEvent.Cause#TIMEOUT}.
+	 */
+	void closeTimedOut() {
+		close();
+	}
+	
+	/**
+	 * Stops or continues reading data from the remote side, e.g. because too many received packets wait to be processed.
+	 * Connections that can't be paused ignore this.
+	 * @param paused Whether reading should be paused
+	 * @see InboundOverflowPolicy#PAUSE_READING
+	 */
+	void setReadingPaused(boolean paused) {
+		//Nothing to pause
+	}
+	
+	/**
+	 * Whether the encoded packets for {@link #sendEncodedPacket(Packet, EncodedPacket)} must use the compact frame format.
+	 * @return <code>true</code> if the remote side has negotiated compact frames, <code>false</code> otherwise
+	 * @see PacketFactory
+	 */
+	boolean usesCompactFrames() {
+		return false;
+	}
+	
+	/**
+	 * The {@link PacketFactory} that encodes the packets of this connection.
+	 * @return The factory, or <code>null</code> for connections that don't send packets as bytes
+	 */
+	PacketFactory getPacketFactory() {
+		return null;
+	}
+	
+	/**
+	 * Sends the control frame that offers datagrams to the client. Connections that don't send packets as bytes ignore this.
+	 * @param token The token of the connection
+	 * @param port The UDP port of the server
+	 */
+	void sendDatagramOffer(long token, int port) {
+		//Nothing to send
+	}
+	
+	/**
+	 * Creates the datagram endpoint of a server connection and offers datagrams to the client.
+	 * Ignored by connections that don't send packets as bytes.
+	 * @param transport The datagram transport of the server
+	 * @param sequenced Whether the datagrams from the server have sequence numbers
+	 */
+	void offerDatagrams(DatagramTransport transport, boolean sequenced) {
+		final PacketFactory factory = getPacketFactory();
+		if(factory == null || isLocalConnection()) return;
+		final DatagramEndpoint endpoint = DatagramEndpoint.createServer(this, factory, transport, sequenced);
+		setDatagramEndpoint(endpoint);
+		sendDatagramOffer(endpoint.getToken(), transport.getLocalPort());
+	}
+	
+	/**
+	 * Sets the datagram endpoint. If the connection was closed in the meantime, the endpoint is closed immediately.
+	 * @param endpoint The new endpoint
+	 */
+	void setDatagramEndpoint(DatagramEndpoint endpoint) {
+		final DatagramEndpoint old = datagramEndpoint;
+		datagramEndpoint = endpoint;
+		if(old != null) old.close();
+		if(getState() == ConnectionState.CLOSED) endpoint.close();
+	}
+	
+	/**
+	 * @return The datagram endpoint of this connection, or <code>null</code> if datagrams are not enabled (yet)
+	 */
+	DatagramEndpoint getDatagramEndpoint() {
+		return datagramEndpoint;
+	}
+	
 	/**
 	 * A local connection is a connection between two network targets that exist within the same program.
 	 * To increase speed, {@link Packet} sent through a local connection are not sent to the network. For 
@@ -176,6 +367,16 @@ public abstract class NetworkConnection implements SynchronizedStateProvider<Con
 		return packetHandler;
 	}
 	
+	/**
+	 * Runs a task of this connection on the executor for asynchronous tasks. The task runs on a virtual thread
+	 * if the {@link NetworkManager} of this connection uses virtual threads.
+	 * @param work The task to run
+	 * @return <code>false</code> if the executor has been shut down and the task was not run
+	 */
+	boolean executeAsync(Runnable work) {
+		return AsyncNetTask.executeAsync(work, packetHandler.usesVirtualThreads());
+	}
+	
 	protected PacketContext getContext() {
 		return context;
 	}
@@ -1,13 +1,19 @@
 package lb.simplebase.net;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import lb.simplebase.event.EventBus;
 import lb.simplebase.event.EventBusRegistry;
 import lb.simplebase.log.CurrentThreadNameFormat;
@@ -26,15 +32,44 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 	
 	private static final List<Runnable> cleanupTasks = new ArrayList<>();
 	
-	private final Set<PacketIdMapping> mappings;
+	private final IndexedPacketIdMappingContainer mappings;
+	private final CompressionStatistics compressionStatistics;
+	private final InboundQueueStatistics inboundQueueStatistics;
+	private final NetworkMetrics metrics;
+	private ObjectName metricsName; //Guarded by this
 	protected final EventBus bus;
+	private final boolean virtualThreads;
 	
 	protected NetworkManager(TargetIdentifier localId) {
+		this(localId, false);
+	}
+	
+	/**
+	 * @param localId The {@link TargetIdentifier} of this manager
+	 * @param virtualThreads Whether the asynchronous tasks of this manager and its connections should run on virtual threads, if supported
+	 */
+	protected NetworkManager(TargetIdentifier localId, boolean virtualThreads) {
 		NetworkManager.createNetworkParty();
-		NetworkManager.addCleanupTask(this::shutdown);
+		NetworkManager.addCleanupTask(() -> {
+			shutdown();
+			unpublishMetrics();
+		});
 		local = localId;
-		mappings = Collections.synchronizedSet(new HashSet<>());
+		mappings = new IndexedPacketIdMappingContainer();
+		compressionStatistics = new CompressionStatistics(null);
+		inboundQueueStatistics = new InboundQueueStatistics();
+		metrics = new NetworkMetrics(null, inboundQueueStatistics::getQueuedPacketCount);
 		this.bus = EventBus.create();
+		this.virtualThreads = virtualThreads && VirtualThreads.isAvailable();
+	}
+	
+	/**
+	 * Whether the asynchronous tasks of this manager, e.g. writing queued packets, run on virtual threads.
+	 * This is set for each manager, so managers that use platform threads keep their executor.
+	 * @return <code>true</code> if virtual threads were requested and are supported by the JVM
+	 */
+	boolean usesVirtualThreads() {
+		return virtualThreads;
 	}
 
 	@Override
@@ -49,6 +84,71 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 		return local;
 	}
 	
+	/**
+	 * The sum of the {@link CompressionStatistics} of all connections of this manager, including connections that are already closed.
+	 * @return The compression statistics of this manager
+	 */
+	public CompressionStatistics getCompressionStatistics() {
+		return compressionStatistics;
+	}
+	
+	/**
+	 * The amount of received packets that wait to be processed, and how often the inbound queue limits were reached.
+	 * @return The inbound queue statistics of this manager
+	 * @see InboundOverflowPolicy
+	 */
+	public InboundQueueStatistics getInboundQueueStatistics() {
+		return inboundQueueStatistics;
+	}
+	
+	@Override
+	public NetworkMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * Registers the {@link NetworkMetrics} of this manager with the platform MBean server, as a {@link NetworkMetricsMXBean}
+	 * named <code>lb.simplebase.net:type=NetworkMetrics,name=</code><i>local id</i>. The MBean is unregistered by
+	 * {@link #unpublishMetrics()} and by {@link #cleanUp()}.
+	 * @return <code>true</code> if the MBean is registered, <code>false</code> if registering failed
+	 */
+	public synchronized boolean publishMetrics() {
+		if(metricsName != null) return true;
+		try {
+			final ObjectName name = new ObjectName("lb.simplebase.net:type=NetworkMetrics,name=" + ObjectName.quote(getLocalID().getId()));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(metrics.createMXBean(), NetworkMetricsMXBean.class, true), name);
+			metricsName = name;
+			return true;
+		} catch (JMException e) {
+			NET_LOG.warn("Network Manager: Could not register metrics MBean", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Unregisters the MBean that was registered by {@link #publishMetrics()}. Does nothing if the metrics are not published.
+	 */
+	public synchronized void unpublishMetrics() {
+		if(metricsName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+		} catch (JMException e) {
+			NET_LOG.warn("Network Manager: Could not unregister metrics MBean", e);
+		}
+		metricsName = null;
+	}
+	
+	/**
+	 * Runs the packet handlers for a received packet on the calling thread.
+	 * Implementations that process packets on other threads must bypass them here.
+	 * @param received The received packet
+	 * @param source The context of the connection that received the packet
+	 * @see LocalDelivery#INLINE
+	 */
+	void processPacketInline(Packet received, PacketContext source) {
+		processPacket(received, source);
+	}
+	
 	protected void notifyConnectionClosed(NetworkConnection connection, ClosedConnectionEvent.Cause cause) {
 		bus.post(new ClosedConnectionEvent(connection, cause));
 	}
@@ -57,7 +157,7 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 	
 	@Override
 	public Set<PacketIdMapping> getAllMappings() {
-		return mappings;
+		return mappings.getAllMappings();
 	}
 
 	/**
@@ -66,7 +166,37 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 	 */
 	@Override
 	public void addMapping(PacketIdMapping mapping) {
-		mappings.add(mapping);
+		mappings.addMapping(mapping);
+	}
+	
+	@Override
+	public void addAllMappings(PacketIdMappingContainer con) {
+		mappings.addAllMappings(con);
+	}
+	
+	@Override
+	public <T extends Enum<T> & PacketIdMapping> void addMappings(Class<T> e) {
+		mappings.addMappings(e);
+	}
+	
+	@Override
+	public PacketIdMapping getMappingFor(Class<? extends Packet> clazz, PacketIdMapping defaultMapping) {
+		return mappings.getMappingFor(clazz, defaultMapping);
+	}
+	
+	@Override
+	public PacketIdMapping getMappingFor(int id, PacketIdMapping defaultMapping) {
+		return mappings.getMappingFor(id, defaultMapping);
+	}
+	
+	@Override
+	public boolean hasMappingFor(Class<? extends Packet> clazz) {
+		return mappings.hasMappingFor(clazz);
+	}
+	
+	@Override
+	public boolean hasMappingFor(int id) {
+		return mappings.hasMappingFor(id);
 	}
 	
 	/**
@@ -77,6 +207,7 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 		cleanupTasks.forEach(Runnable::run);
 		AsyncNetTask.shutdownExecutor();
 		LocalConnectionManager.shutdownExecutor();
+		TimerWheel.shutdownShared();
 		currentState = Lifecycle.STOPPED;
 	}
 	
@@ -115,19 +246,39 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 		Objects.requireNonNull(localId, "Server local TargetIdentifier must not be null");
 		Objects.requireNonNull(config,  "ServerConfig must not be null");
 		
+		final boolean virtualThreads = VirtualThreads.checkRequested(config.useVirtualThreads());
+		
 		if(localId.isLocalOnly()) {
-			return new LocalNetworkManagerServer(localId, config.getThreadCount());
+			return createLocalServer(localId, config, virtualThreads);
+		} else if(config.useSelectorTransport()) {
+			final ServerSocketChannel channel = config.configuredChannel();
+			if(channel == null) {
+				NetworkManager.NET_LOG.warn("Error while creating ServerSocketChannel. Using local server.");
+				return createLocalServer(localId, config, virtualThreads);
+			} else {
+				try {
+					return new ChannelNetworkManagerServer(localId, channel, config, config.getDatagramDiscovery()); //Continues without discovery if its socket fails
+				} catch (IOException e) {
+					NetworkManager.NET_LOG.error("Error while setting up ServerSocketChannel and selectors. Using local server.", e);
+					try {
+						channel.close();
+					} catch (IOException e1) {
+						NetworkManager.NET_LOG.error("Could not close ServerSocketChannel", e1);
+					}
+					return createLocalServer(localId, config, virtualThreads);
+				}
+			}
 		} else {
 			if(config.configuredSocket() == null) {
 				NetworkManager.NET_LOG.warn("Error while creating ServerSocket. Using local server.");
-				return new LocalNetworkManagerServer(localId, config.getThreadCount());
+				return createLocalServer(localId, config, virtualThreads);
 			} else {
 				try {
-					return new SocketNetworkManagerServer(localId, config.configuredSocket(), config.getThreadCount(), config.getDatagramDiscovery(), config.getDatagramDiscoverySequence());
+					return new SocketNetworkManagerServer(localId, config.configuredSocket(), config, config.getDatagramDiscovery());
 				} catch (SocketException e) {
 					NetworkManager.NET_LOG.warn("Error while creating Server Datagram Socket. Continuing without Datagram Discovery Features");
 					try {
-						return new SocketNetworkManagerServer(localId, config.configuredSocket(), config.getThreadCount(), false, null); //Exc only happens when lat param is true
+						return new SocketNetworkManagerServer(localId, config.configuredSocket(), config, false); //Exc only happens when lat param is true
 					} catch (SocketException e1) {
 						NetworkManager.NET_LOG.fatal("Fatal error: Exception was thrown on a code path that it was not expected on", e1);
 						throw new Error("Invalid Codepath???", e);
@@ -137,6 +288,13 @@ public abstract class NetworkManager implements PacketReceiver, NetworkManagerCo
 		}
 	}
 	
+	private static NetworkManagerServer createLocalServer(TargetIdentifier localId, ServerConfig config, boolean virtualThreads) {
+		final LocalNetworkManagerServer server = new LocalNetworkManagerServer(localId, config.getThreadCount(), virtualThreads, config.useOrderedDispatch());
+		server.handler.setQueueLimits(config.getInboundConnectionQueueLimit(), config.getInboundTotalQueueLimit(), config.getInboundOverflowPolicy());
+		server.setLocalDelivery(config.getLocalDelivery());
+		return server;
+	}
+	
 	public static void setLogLevel(LogLevel level) {
 		Objects.requireNonNull(level, "Log Level can't be null");
 		QuickReflectionUtils.Fields.setField(Logger.class, "minimalLevel", NetworkManager.NET_LOG, level);
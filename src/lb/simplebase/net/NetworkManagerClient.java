@@ -35,6 +35,14 @@ public interface NetworkManagerClient extends NetworkManagerCommon{
 	 */
 	public AsyncResult sendPacketToServer(Packet packet);
 	
+	/**
+	 * Sends a packet to the server as an unreliable datagram, if datagrams were enabled with {@link ClientConfig#setDatagrams(boolean)}
+	 * and the server has offered them. The packet can be lost or arrive out of order. A local server receives the packet like with {@link #sendPacketToServer(Packet)}.
+	 * @param packet The packet to send
+	 * @return Information about the sending process, which is done when the datagram was sent
+	 */
+	public AsyncResult sendDatagramToServer(Packet packet);
+	
 	/**
 	 * @return {@link ConnectionState} of the connection to the server
 	 */
@@ -13,4 +13,10 @@ public interface NetworkManagerCommon extends PacketIdMappingContainer{
 	public TargetIdentifier getLocalID();
 	
 	public EventBusRegistry getEventBus();
+	
+	/**
+	 * The sum of the {@link NetworkMetrics} of all connections of this manager, including connections that are already closed.
+	 * @return The metrics of this manager
+	 */
+	public NetworkMetrics getMetrics();
 }
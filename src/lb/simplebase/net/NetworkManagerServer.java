@@ -5,6 +5,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 import lb.simplebase.action.AsyncResult;
 import lb.simplebase.action.AsyncResultGroup;
@@ -24,6 +25,15 @@ public interface NetworkManagerServer extends NetworkManagerCommon {
 	 */
 	public AsyncResult sendPacketToClient(Packet packet, TargetIdentifier client);
 	
+	/**
+	 * Sends a packet to one client as an unreliable datagram, if datagrams were enabled with {@link ServerConfig#setDatagramPort(int)}.
+	 * The packet can be lost or arrive out of order. Local clients receive the packet like with {@link #sendPacketToClient(Packet, TargetIdentifier)}.
+	 * @param packet The {@link Packet} that should be sent
+	 * @param client The {@link TargetIdentifier} that this packet should be sent to
+	 * @return The {@link AsyncResult} of sending the packet, which is done when the datagram was sent
+	 */
+	public AsyncResult sendDatagramToClient(Packet packet, TargetIdentifier client);
+	
 	public default AsyncResultGroup sendPacketToClients(Packet packet, TargetIdentifier...clients) {
 		AsyncResult[] results = new AsyncResult[clients.length];
 		for(int i = 0; i < clients.length; i++) {
@@ -37,10 +47,37 @@ public interface NetworkManagerServer extends NetworkManagerCommon {
 		for(TargetIdentifier client : clients) {
 			results.add(sendPacketToClient(packet, client));
 		}
-		return new AsyncResultGroup((AsyncResult[]) results.toArray());
+		return new AsyncResultGroup(results.toArray(new AsyncResult[results.size()]));
 	}
 	public default AsyncResultGroup sendPacketToAllClients(Packet packet) {
-		return getClients().withStateReturn((set) -> sendPacketToClients(packet, set), false);
+		return broadcastPacket(packet);
+	}
+	
+	/**
+	 * Sends a packet to all clients.
+	 * @param packet The {@link Packet} that should be sent
+	 * @return An {@link AsyncResultGroup} with the results for all clients
+	 * @see #broadcastPacket(Packet, Predicate)
+	 */
+	public default AsyncResultGroup broadcastPacket(Packet packet) {
+		return broadcastPacket(packet, (client) -> true);
+	}
+	
+	/**
+	 * Sends a packet to all clients that match the filter.<br>
+	 * Servers that send packets over the network should encode the packet only once for all clients.
+	 * @param packet The {@link Packet} that should be sent
+	 * @param filter Selects the clients that the packet is sent to
+	 * @return An {@link AsyncResultGroup} with the results for all selected clients
+	 */
+	public default AsyncResultGroup broadcastPacket(Packet packet, Predicate<? super TargetIdentifier> filter) {
+		return getClients().withStateReturn((set) -> {
+			final List<TargetIdentifier> selected = new LinkedList<>();
+			for(TargetIdentifier client : set) {
+				if(filter.test(client)) selected.add(client);
+			}
+			return sendPacketToClients(packet, selected);
+		}, false);
 	}
 	
 	public default AsyncResultGroup sendCustomPacketToClients(Function<TargetIdentifier, Packet> mapper, TargetIdentifier...clients) {
@@ -56,7 +93,7 @@ public interface NetworkManagerServer extends NetworkManagerCommon {
 		for(TargetIdentifier client : clients) {
 			results.add(sendPacketToClient(mapper.apply(client), client));
 		}
-		return new AsyncResultGroup((AsyncResult[]) results.toArray());
+		return new AsyncResultGroup(results.toArray(new AsyncResult[results.size()]));
 	}
 	public default AsyncResultGroup sendCustomPacketToAllClients(Function<TargetIdentifier, Packet> mapper) {
 		return getClients().withStateReturn((set) -> sendCustomPacketToClients(mapper, set), false);
@@ -0,0 +1,293 @@
+package lb.simplebase.net;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counts the packets and bytes that were sent and received, datagrams, decoding errors and failed sends, and measures how long
+ * packet handlers run and how long it takes until a sent packet has been written.<br>
+ * Every {@link NetworkConnection} has its own metrics, and all values are added to the metrics of its {@link NetworkManager} as well.
+ * All counters are {@link LongAdder}s and recording a value does not allocate, so the metrics are always enabled.
+ * The values of a {@link NetworkManager} can be published as a JMX MBean with {@link NetworkManager#publishMetrics()}.
+ * @see NetworkManagerCommon#getMetrics()
+ * @see NetworkConnection#getMetrics()
+ */
+public final class NetworkMetrics {
+
+	private final NetworkMetrics parent;
+	private final IntSupplier queuedPackets;
+
+	private final LongAdder packetsSent;
+	private final LongAdder bytesSent;
+	private final LongAdder sendFailures;
+	private final LongAdder packetsReceived;
+	private final LongAdder bytesReceived;
+	private final LongAdder decodeErrors;
+	private final LongAdder datagramsSent;
+	private final LongAdder datagramsReceived;
+	private final LongAdder staleDatagrams;
+	private final LatencyHistogram handlerLatency;
+	private final LatencyHistogram sendLatency;
+
+	/**
+	 * @param parent The metrics that all values are also added to, or <code>null</code>
+	 * @param queuedPackets Supplies the amount of received packets that wait to be processed
+	 */
+	NetworkMetrics(NetworkMetrics parent, IntSupplier queuedPackets) {
+		this.parent = parent;
+		this.queuedPackets = queuedPackets;
+		this.packetsSent = new LongAdder();
+		this.bytesSent = new LongAdder();
+		this.sendFailures = new LongAdder();
+		this.packetsReceived = new LongAdder();
+		this.bytesReceived = new LongAdder();
+		this.decodeErrors = new LongAdder();
+		this.datagramsSent = new LongAdder();
+		this.datagramsReceived = new LongAdder();
+		this.staleDatagrams = new LongAdder();
+		this.handlerLatency = new LatencyHistogram(parent == null ? null : parent.handlerLatency);
+		this.sendLatency = new LatencyHistogram(parent == null ? null : parent.sendLatency);
+	}
+
+	void recordPacketSent(int bytes, long startNanos) {
+		sendLatency.record(System.nanoTime() - startNanos); //Also recorded in the parent by the histogram
+		recordSentCounters(bytes);
+	}
+
+	private void recordSentCounters(int bytes) {
+		packetsSent.increment();
+		bytesSent.add(bytes);
+		if(parent != null) parent.recordSentCounters(bytes);
+	}
+
+	void recordSendFailure() {
+		sendFailures.increment();
+		if(parent != null) parent.recordSendFailure();
+	}
+
+	void recordPacketReceived() {
+		packetsReceived.increment();
+		if(parent != null) parent.recordPacketReceived();
+	}
+
+	void recordBytesReceived(int bytes) {
+		bytesReceived.add(bytes);
+		if(parent != null) parent.recordBytesReceived(bytes);
+	}
+
+	void recordDecodeErrors(PacketMappingNotFoundException error) {
+		final int count = 1 + error.getSuppressed().length; //Later errors of the same chunk are suppressed
+		decodeErrors.add(count);
+		if(parent != null) parent.decodeErrors.add(count);
+	}
+
+	void recordDatagramSent() {
+		datagramsSent.increment();
+		if(parent != null) parent.recordDatagramSent();
+	}
+
+	void recordDatagramReceived(int bytes) {
+		datagramsReceived.increment();
+		bytesReceived.add(bytes);
+		if(parent != null) parent.recordDatagramReceived(bytes);
+	}
+
+	void recordStaleDatagram() {
+		staleDatagrams.increment();
+		if(parent != null) parent.recordStaleDatagram();
+	}
+
+	void recordHandlerLatency(long startNanos) {
+		handlerLatency.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Packets are counted when all their bytes were written. Local connections count packets with 0 bytes.
+	 * @return The amount of sent packets
+	 */
+	public long getPacketsSent() {
+		return packetsSent.sum();
+	}
+
+	/**
+	 * @return The amount of bytes that were written, including frame headers
+	 */
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	/**
+	 * @return The amount of packets that could not be written, e.g. because of an IO error or because the connection was closed first
+	 */
+	public long getSendFailures() {
+		return sendFailures.sum();
+	}
+
+	/**
+	 * @return The amount of received packets that were passed to the packet handlers
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived.sum();
+	}
+
+	/**
+	 * @return The amount of bytes that were read, including frame headers
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	/**
+	 * @return The amount of received packets that were discarded, because no {@link PacketIdMapping} exists for their id
+	 * @see PacketMappingNotFoundException
+	 */
+	public long getDecodeErrors() {
+		return decodeErrors.sum();
+	}
+
+	/**
+	 * Packets that are sent as datagrams are counted as packets too, every datagram can contain many packets.
+	 * @return The amount of datagrams that were sent
+	 */
+	public long getDatagramsSent() {
+		return datagramsSent.sum();
+	}
+
+	/**
+	 * @return The amount of datagrams that were received, including stale datagrams
+	 */
+	public long getDatagramsReceived() {
+		return datagramsReceived.sum();
+	}
+
+	/**
+	 * @return The amount of received datagrams that were dropped, because a datagram with a higher sequence number had already arrived
+	 */
+	public long getStaleDatagrams() {
+		return staleDatagrams.sum();
+	}
+
+	/**
+	 * Only packets of managers with queue limits or ordered dispatch are counted.
+	 * @return The amount of received packets that wait to be processed
+	 * @see InboundQueueStatistics
+	 */
+	public int getQueuedPackets() {
+		return queuedPackets.getAsInt();
+	}
+
+	/**
+	 * @return The time between starting and finishing the packet handlers of a received packet
+	 */
+	public LatencyHistogram getHandlerLatency() {
+		return handlerLatency;
+	}
+
+	/**
+	 * @return The time between sending a packet and completing its {@link lb.simplebase.action.AsyncResult}
+	 */
+	public LatencyHistogram getSendLatency() {
+		return sendLatency;
+	}
+
+	NetworkMetricsMXBean createMXBean() {
+		return new MXBeanView(this);
+	}
+
+	@Override
+	public String toString() {
+		return "NetworkMetrics [sent=" + getPacketsSent() + " packets, " + getBytesSent() + " bytes, " + getSendFailures() + " failed, received="
+				+ getPacketsReceived() + " packets, " + getBytesReceived() + " bytes, " + getDecodeErrors() + " decode errors, datagrams=" + getDatagramsSent()
+				+ " sent, " + getDatagramsReceived() + " received, " + getStaleDatagrams() + " stale, queued="
+				+ getQueuedPackets() + ", handler=" + getHandlerLatency() + ", send=" + getSendLatency() + "]";
+	}
+
+	private static final class MXBeanView implements NetworkMetricsMXBean {
+		private final NetworkMetrics metrics;
+
+		private MXBeanView(NetworkMetrics metrics) {
+			this.metrics = metrics;
+		}
+
+		@Override
+		public long getPacketsSent() {
+			return metrics.getPacketsSent();
+		}
+
+		@Override
+		public long getBytesSent() {
+			return metrics.getBytesSent();
+		}
+
+		@Override
+		public long getSendFailures() {
+			return metrics.getSendFailures();
+		}
+
+		@Override
+		public long getPacketsReceived() {
+			return metrics.getPacketsReceived();
+		}
+
+		@Override
+		public long getBytesReceived() {
+			return metrics.getBytesReceived();
+		}
+
+		@Override
+		public long getDecodeErrors() {
+			return metrics.getDecodeErrors();
+		}
+
+		@Override
+		public long getDatagramsSent() {
+			return metrics.getDatagramsSent();
+		}
+
+		@Override
+		public long getDatagramsReceived() {
+			return metrics.getDatagramsReceived();
+		}
+
+		@Override
+		public long getStaleDatagrams() {
+			return metrics.getStaleDatagrams();
+		}
+
+		@Override
+		public int getQueuedPackets() {
+			return metrics.getQueuedPackets();
+		}
+
+		@Override
+		public double getHandlerLatencyMean() {
+			return metrics.handlerLatency.getMeanNanos();
+		}
+
+		@Override
+		public long getHandlerLatency99thPercentile() {
+			return metrics.handlerLatency.getPercentileNanos(0.99);
+		}
+
+		@Override
+		public long getHandlerLatencyMax() {
+			return metrics.handlerLatency.getMaxNanos();
+		}
+
+		@Override
+		public double getSendLatencyMean() {
+			return metrics.sendLatency.getMeanNanos();
+		}
+
+		@Override
+		public long getSendLatency99thPercentile() {
+			return metrics.sendLatency.getPercentileNanos(0.99);
+		}
+
+		@Override
+		public long getSendLatencyMax() {
+			return metrics.sendLatency.getMaxNanos();
+		}
+	}
+
+}
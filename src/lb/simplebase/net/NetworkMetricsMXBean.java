@@ -0,0 +1,28 @@
+package lb.simplebase.net;
+
+/**
+ * The JMX view of the {@link NetworkMetrics} of a {@link NetworkManager}. Latencies are in nanoseconds.
+ * @see NetworkManager#publishMetrics()
+ */
+public interface NetworkMetricsMXBean {
+
+	public long getPacketsSent();
+	public long getBytesSent();
+	public long getSendFailures();
+	public long getPacketsReceived();
+	public long getBytesReceived();
+	public long getDecodeErrors();
+	public long getDatagramsSent();
+	public long getDatagramsReceived();
+	public long getStaleDatagrams();
+	public int getQueuedPackets();
+
+	public double getHandlerLatencyMean();
+	public long getHandlerLatency99thPercentile();
+	public long getHandlerLatencyMax();
+
+	public double getSendLatencyMean();
+	public long getSendLatency99thPercentile();
+	public long getSendLatencyMax();
+
+}
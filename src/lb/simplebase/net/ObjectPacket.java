@@ -1,62 +1,69 @@
 package lb.simplebase.net;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+
+import lb.simplebase.io.ObjectCodec;
 import lb.simplebase.io.ReadableByteData;
 import lb.simplebase.io.WritableByteData;
 
+/**
+ * A {@link Packet} that contains a single object. The object is converted to bytes by an {@link ObjectCodec},
+ * which is {@link ObjectCodec#binary()} unless a different codec is set in the constructor.<br>
+ * The codec is not sent with the packet: the instance that reads the packet, usually created by the {@link PacketIdMapping}
+ * from {@link #getMapping(int, ObjectCodec)}, must use the same codec as the sender.
+ */
 public class ObjectPacket implements Packet{
 	
+	private final ObjectCodec codec;
 	private Object object;
 	
 	public ObjectPacket() {
-		object = null;
+		this(ObjectCodec.binary());
+	}
+	
+	public ObjectPacket(ObjectCodec codec) {
+		this.object = null;
+		this.codec = codec;
 	}
 	
 	public ObjectPacket(Serializable data) {
-		object = data;
+		this(data, ObjectCodec.binary());
+	}
+	
+	/**
+	 * Creates a packet with an object that can be written by the codec. For the binary codec, this
+	 * can be a record that is not {@link Serializable}.
+	 * @param data The object to send
+	 * @param codec The {@link ObjectCodec} that writes the object
+	 */
+	public ObjectPacket(Object data, ObjectCodec codec) {
+		this.object = data;
+		this.codec = codec;
 	}
 	
 	@Override
 	public void writeData(WritableByteData data) {
-		ObjectOutputStream out = null;
 		try {
-			out = new ObjectOutputStream(data.getOutStream());
-			out.writeObject(object);
+			codec.writeObject(object, data);
 		} catch (IOException e) {
-			NetworkManager.NET_LOG.error("ObjectPacket: Error while writing serializable data", e);
-		} finally {
-			if(out != null) {
-				try {
-					out.close();
-				} catch (IOException e) {
-					NetworkManager.NET_LOG.warn("ObjectPacket: ObjectOutputStream could not be closed", e);
-				}
-			}
+			NetworkManager.NET_LOG.error("ObjectPacket: Error while writing object data", e);
 		}
 	}
 
 	@Override
 	public void readData(ReadableByteData data) {
-		ObjectInputStream in = null;
 		try {
-			in = new ObjectInputStream(data.getInStream());
-			object = in.readObject();
-		} catch (IOException | ClassNotFoundException e) {
-			NetworkManager.NET_LOG.error("ObjectPacket: Error while reading serializable data", e);
-		} finally {
-			if(in != null) {
-				try {
-					in.close();
-				} catch (IOException e) {
-					NetworkManager.NET_LOG.warn("ObjectPacket: ObjectInputStream could not be closed", e);
-				}
-			}
+			object = codec.readObject(data);
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("ObjectPacket: Error while reading object data", e);
 		}
 	}
 
+	public ObjectCodec getCodec() {
+		return codec;
+	}
+
 	public Object getObject() {
 		return object;
 	}
@@ -67,6 +74,16 @@ public class ObjectPacket implements Packet{
 	}
 	
 	public static PacketIdMapping getMapping(final int id) {
+		return getMapping(id, ObjectCodec.binary());
+	}
+	
+	/**
+	 * A mapping for {@link ObjectPacket}s that are read with a specific codec.
+	 * @param id The packet id
+	 * @param codec The {@link ObjectCodec} for received packets
+	 * @return The {@link PacketIdMapping} for the id
+	 */
+	public static PacketIdMapping getMapping(final int id, final ObjectCodec codec) {
 		return new PacketIdMapping() {
 			
 			@Override
@@ -81,7 +98,7 @@ public class ObjectPacket implements Packet{
 			
 			@Override
 			public Packet getNewInstance() {
-				return new ObjectPacket();
+				return new ObjectPacket(codec);
 			}
 		};
 	}
@@ -18,6 +18,8 @@ public interface Packet {
 	
 	/**
 	 * Read all of this packet's data from the provided {@link ReadableByteData} instance.
+	 * The data object may share its content with a receive buffer that is reused after this method returns,
+	 * so implementations must not keep a reference to it.
 	 * @param data The {@link ReadableByteData} that provides the data
 	 */
 	public void readData(ReadableByteData data);
@@ -0,0 +1,57 @@
+package lb.simplebase.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lb.simplebase.io.WritableGrowableData;
+
+/**
+ * Keeps encoding buffers for outgoing packets, so that sending a packet does not have to allocate a new array.<br>
+ * A buffer is taken by the thread that encodes the packet and given back by the thread that wrote it to the connection.
+ */
+final class PacketBufferPool {
+
+	/**
+	 * The initial size of new buffers
+	 */
+	public static final int INITIAL_CAPACITY = 512;
+	/**
+	 * Buffers that grew larger than this are shrunk before they are put back into the pool
+	 */
+	public static final int MAX_POOLED_CAPACITY = 65536;
+	/**
+	 * The maximum amount of buffers in the pool. Additional buffers are left to the garbage collector.
+	 */
+	public static final int MAX_POOLED_BUFFERS = 256;
+
+	private static final Queue<WritableGrowableData> buffers = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledCount = new AtomicInteger(0);
+
+	private PacketBufferPool() {}
+
+	/**
+	 * @return An empty buffer, either from the pool or newly created
+	 */
+	public static WritableGrowableData acquire() {
+		final WritableGrowableData buffer = buffers.poll();
+		if(buffer == null) return new WritableGrowableData(INITIAL_CAPACITY);
+		pooledCount.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used by the caller afterwards.
+	 * @param buffer The buffer, or <code>null</code>
+	 */
+	public static void release(WritableGrowableData buffer) {
+		if(buffer == null) return;
+		if(pooledCount.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			pooledCount.decrementAndGet();
+			return;
+		}
+		buffer.reset(MAX_POOLED_CAPACITY);
+		buffers.add(buffer);
+	}
+
+}
@@ -0,0 +1,79 @@
+package lb.simplebase.net;
+
+/**
+ * A logical channel of a network connection. Every packet type is sent on one channel, which is declared by its
+ * {@link PacketIdMapping#getChannel()}, and each channel has a priority.<br>
+ * All channels share the byte stream of the connection. Packets of one channel are sent in the order in which they were sent,
+ * but when several channels have packets waiting, the channel with the highest priority is written first.
+ * If a fragment size is set for the connection (see {@link ServerConfig#setFragmentSize(int)} and
+ * {@link ClientConfig#setFragmentSize(int)}), large packets are split into fragments, and packets of channels with a higher priority
+ * are sent between the fragments, so that e.g. input packets don't wait until a large world chunk was sent.
+ * <p>
+ * Channels are equal if they have the same id and priority. Packets of local connections are never queued, so channels
+ * have no effect there.
+ * <pre>
+ * public static final PacketChannel INPUT = PacketChannel.create(1, 10);
+ * public static final PacketChannel CHUNKS = PacketChannel.create(2, -10);
+ *
+ * manager.addMapping(PacketIdMapping.create(5, InputPacket.class, InputPacket::new, INPUT));
+ * </pre>
+ */
+public final class PacketChannel {
+
+	/**
+	 * The channel of all packet types that don't declare a channel, with id <code>0</code> and priority <code>0</code>
+	 */
+	public static final PacketChannel DEFAULT = new PacketChannel(0, 0);
+
+	private final int id;
+	private final int priority;
+
+	private PacketChannel(int id, int priority) {
+		this.id = id;
+		this.priority = priority;
+	}
+
+	/**
+	 * Creates a {@link PacketChannel} with an id and a priority.
+	 * @param id The id of the channel, which tells different channels with the same priority apart
+	 * @param priority The priority of the channel. Channels with a higher value are written first
+	 * @return The {@link PacketChannel}
+	 */
+	public static PacketChannel create(int id, int priority) {
+		if(id == 0 && priority == 0) return DEFAULT;
+		return new PacketChannel(id, priority);
+	}
+
+	/**
+	 * @return The id of this channel
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return The priority of this channel. Channels with a higher value are written first
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * id + priority;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) return true;
+		if (!(obj instanceof PacketChannel)) return false;
+		final PacketChannel other = (PacketChannel) obj;
+		return id == other.id && priority == other.priority;
+	}
+
+	@Override
+	public String toString() {
+		return "PacketChannel [id=" + id + ", priority=" + priority + "]";
+	}
+
+}
@@ -10,6 +10,7 @@ public final class PacketContext {
 	private final NetworkManagerCommon manager;
 	private final NetworkConnection connection;
 	private final Object payload;
+	private final InboundPacketThreadHandler.Mailbox mailbox;
 	
 	protected PacketContext(boolean isServer, NetworkManagerCommon manager, NetworkConnection connection, Object payload) {
 		Objects.requireNonNull(manager, "Network manager must not be null");
@@ -25,6 +26,11 @@ public final class PacketContext {
 		this.manager = manager;
 		this.connection = connection;
 		this.payload = payload;
+		this.mailbox = new InboundPacketThreadHandler.Mailbox(this);
+	}
+	
+	InboundPacketThreadHandler.Mailbox getMailbox() {
+		return mailbox;
 	}
 	
 	public boolean isServerSide() {
@@ -84,4 +90,14 @@ public final class PacketContext {
 		return getConnection().sendPacketToTarget(packet);
 	}
 	
+	/**
+	 * Sends a packet back to the sender as an unreliable datagram.
+	 * @param packet The packet to send
+	 * @return The {@link AsyncResult} of sending the packet
+	 * @see NetworkConnection#sendDatagramToTarget(Packet)
+	 */
+	public AsyncResult replyDatagram(Packet packet) {
+		return getConnection().sendDatagramToTarget(packet);
+	}
+	
 }
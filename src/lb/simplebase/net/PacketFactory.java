@@ -1,12 +1,20 @@
 package lb.simplebase.net;
 
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import lb.simplebase.io.ReadableArrayData;
-import lb.simplebase.io.WritableFixedData;
-import lb.simplebase.io.WritableFixedData.WritableArrayData;
-import lb.simplebase.io.WritableStreamData;
+import lb.simplebase.io.ReadableBufferData;
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+import lb.simplebase.io.WritableGrowableData;
 
 
 /**
@@ -14,23 +22,124 @@ import lb.simplebase.io.WritableStreamData;
  * <p>
  * A {@link Packet} will be converted to:
  * <ul>
- * <li>packet header ({@link #PACKET_HEADER}): 4 bytes</li>
+ * <li>packet header ({@link #PACKETHEADER}): 4 bytes</li>
  * <li>packet id ({@link PacketIdMapping#getPacketId()}): 4 bytes</li>
  * <li>packet data length: 4 bytes</li>
  * <li>packet data: custom length</li>
  * </ul>
+ * If compact frames are enabled on both sides of a connection, packets are converted to a compact frame instead:
+ * <ul>
+ * <li>one byte {@link #COMPACT_FRAME_MARKER}, where the lower four bits are flags</li>
+ * <li>packet id as a zigzag encoded variable-length integer ({@link WritableByteData#writeSignedVarInt(int)}): 1 to 5 bytes</li>
+ * <li>packet data length as a variable-length integer ({@link WritableByteData#writeVarInt(int)}): 1 to 5 bytes</li>
+ * <li>packet data: custom length</li>
+ * </ul>
+ * Compact frames are negotiated when the connection is opened: both sides send a handshake control frame in the normal format,
+ * and a side starts to send compact frames when the handshake of the other side says that it can read them.
+ * A factory with compact frames enabled can always read both formats.
+ * <p>
+ * If a compression threshold is set, compact frames with at least this amount of data are compressed with a {@link Deflater}.
+ * The {@link #FLAG_COMPRESSED} flag is set in the marker byte, and the data starts with its uncompressed length as a variable-length integer.
+ * Each factory reuses one {@link Deflater} and one {@link Inflater}, which are released by {@link #notifyConnectionClosed()}.
+ * <p>
+ * Packet ids from {@link #CONTROL_ID_MIN} to {@link #CONTROL_ID_MAX} are reserved for control frames, which are handled
+ * by the factory itself and are never passed to a {@link PacketIdMapping}.
+ * <p>
+ * Connections with a fragment size send large frames in fragment control frames, so that frames of other {@link PacketChannel}s
+ * can be sent between them. A fragment contains the number of the stream that it belongs to as a variable-length integer, a byte with
+ * the {@link #FRAGMENT_LAST} flag, and the next bytes of the original frame. The factory collects the fragments of each stream and decodes
+ * the original frame when the last fragment was received. Every factory can read fragments, but they are only sent to a remote side
+ * whose handshake says that it has enabled them with {@link #enableFragments()}. At most {@link #MAX_FRAGMENT_STREAMS} streams can be open
+ * at the same time, and a stream can collect at most {@link #getMaxFrameSize()} bytes. If the remote side exceeds a limit, the factory
+ * stops decoding and calls the handler from {@link #setProtocolErrorHandler(Runnable)}, which usually closes the connection.
+ * <p>
+ * Servers with datagrams offer them to their clients with a control frame that contains the token of the connection as a <code>long</code>
+ * and the UDP port of the server as a variable-length integer. Datagrams contain complete frames, which are decoded with {@link #feedDatagram(ByteBuffer)}.
  */
 public class PacketFactory {
 	
 	public static final byte[] PACKETHEADER = {(byte) 0xFF, (byte) 0xF0, (byte) 0x0F, (byte) 0x00};
 	
+	/**
+	 * The first byte of a compact frame, when no flags are set
+	 */
+	public static final int COMPACT_FRAME_MARKER = 0xC0;
+	private static final int COMPACT_MARKER_MASK = 0xF0;
+	private static final int COMPACT_FLAGS_MASK = 0x0F;
+	/**
+	 * Flag in the marker byte of a compact frame: the data is compressed
+	 */
+	public static final int FLAG_COMPRESSED = 0x01;
+	/**
+	 * The highest ratio of decompressed to compressed bytes that deflate can reach. Compressed frames that claim a larger
+	 * decompressed length are invalid and dropped before any memory is allocated for them
+	 */
+	public static final int MAX_DEFLATE_RATIO = 1032;
+	
+	/**
+	 * The lowest packet id that is reserved for control frames
+	 */
+	public static final int CONTROL_ID_MIN = Integer.MIN_VALUE;
+	/**
+	 * The highest packet id that is reserved for control frames
+	 */
+	public static final int CONTROL_ID_MAX = Integer.MIN_VALUE + 255;
+	
+	private static final int CONTROL_HANDSHAKE = CONTROL_ID_MIN;
+	private static final int CONTROL_HEARTBEAT = CONTROL_ID_MIN + 1;
+	private static final int CONTROL_FRAGMENT = CONTROL_ID_MIN + 2;
+	private static final int CONTROL_DATAGRAM_OFFER = CONTROL_ID_MIN + 3;
+	private static final byte FEATURE_COMPACT_FRAMES = 0x01;
+	private static final byte FEATURE_COMPRESSION = 0x02;
+	private static final byte FEATURE_FRAGMENTS = 0x04;
+	/**
+	 * Flag in a fragment control frame: this is the last fragment of the original frame
+	 */
+	public static final int FRAGMENT_LAST = 0x01;
+	/**
+	 * The maximum size of the header of a fragment control frame in bytes
+	 */
+	public static final int MAX_FRAGMENT_HEADER_LENGTH = 18;
+	/**
+	 * The maximum amount of fragment streams that can be open at the same time. Senders take a stream for every frame
+	 * that they write in fragments and don't start more streams than this. At most 64
+	 */
+	public static final int MAX_FRAGMENT_STREAMS = 64;
+	/**
+	 * The default maximum size of a frame that is collected from fragments, in bytes
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+	
 	private final PacketIdMappingContainer mapCon;
 	private final Consumer<Packet> finishedPacketReceiver;
+	private final boolean compactFrames;
+	private volatile boolean compactOutput; //Set when the handshake of the remote side was received
+	private volatile boolean compressedOutput; //Set when the handshake of the remote side was received
+	private volatile boolean fragments; //Set before the handshake is sent
+	private volatile boolean fragmentedOutput; //Set when the handshake of the remote side was received
+	private final int compressionThreshold;
+	private final CompressionStatistics statistics;
+	private final Deflater deflater; //null if compression is disabled, used while holding its monitor
+	private boolean deflaterClosed; //Guarded by the deflater's monitor
+	private Inflater inflater; //Created when the first compressed frame is received
 	
+	//Decoder state, only accessed while holding this instance's monitor
 	protected Mode mode = Mode.SEARCH_HEADER; 
 	protected int accStep = 0;
-	protected byte[] tempData = new byte[4];
+	protected int dataLength = 0; //Amount of bytes to accumulate in Mode.ACC_DATA
+	protected byte[] tempData = null; //Payload of a packet that arrives in more than one chunk
+	private final byte[] headerData = new byte[4]; //Reused for packet id and data length
 	private int packetId = 0;
+	private int frameFlags = 0; //Flags of the current compact frame
+	private int varIntValue = 0; //Variable-length integer in a compact header that is being read
+	private int varIntShift = 0;
+	private Map<Integer, WritableGrowableData> fragmentStreams = null; //Created when the first fragment is received
+	private volatile BiConsumer<Long, Integer> datagramOfferReceiver = null;
+	private volatile int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private volatile Runnable protocolErrorHandler = null;
+	private boolean protocolError = false; //Set when the remote side exceeded a limit, no more data is decoded
+	
+	private static final byte[] EMPTY_DATA = new byte[0];
 	
 	/**
 	 * Creates a new {@link PacketFactory} for this {@link NetworkConnection}.
@@ -38,10 +147,45 @@ public class PacketFactory {
 	 * @param finishedPacketReceiver The {@link NetworkConnection} that will receive finished {@link Packet}s
 	 */
 	public PacketFactory(PacketIdMappingContainer mapCon, Consumer<Packet> finishedPacketReceiver) {
+		this(mapCon, finishedPacketReceiver, false);
+	}
+	
+	/**
+	 * Creates a new {@link PacketFactory} for this {@link NetworkConnection}.
+	 * @param mapCon The {@link PacketIdMappingContainer} that contains all packet &lt;-&gt; id mappings
+	 * @param finishedPacketReceiver The {@link NetworkConnection} that will receive finished {@link Packet}s
+	 * @param compactFrames Whether compact frames can be read, and should be sent after the handshake of the remote side was received
+	 */
+	public PacketFactory(PacketIdMappingContainer mapCon, Consumer<Packet> finishedPacketReceiver, boolean compactFrames) {
+		this(mapCon, finishedPacketReceiver, compactFrames, -1, new CompressionStatistics(null));
+	}
+	
+	/**
+	 * Creates a new {@link PacketFactory} for this {@link NetworkConnection}.
+	 * @param mapCon The {@link PacketIdMappingContainer} that contains all packet &lt;-&gt; id mappings
+	 * @param finishedPacketReceiver The {@link NetworkConnection} that will receive finished {@link Packet}s
+	 * @param compactFrames Whether compact frames can be read, and should be sent after the handshake of the remote side was received
+	 * @param compressionThreshold The minimum amount of packet data bytes for compression, or a negative value to disable compression.
+	 * Compression is only used for compact frames
+	 * @param statistics The {@link CompressionStatistics} that compressed and decompressed packets are counted in
+	 */
+	public PacketFactory(PacketIdMappingContainer mapCon, Consumer<Packet> finishedPacketReceiver, boolean compactFrames,
+			int compressionThreshold, CompressionStatistics statistics) {
 		Objects.requireNonNull(mapCon);
 		Objects.requireNonNull(finishedPacketReceiver);
+		Objects.requireNonNull(statistics);
 		this.mapCon = mapCon;
 		this.finishedPacketReceiver = finishedPacketReceiver;
+		this.compactFrames = compactFrames;
+		this.compactOutput = false;
+		this.compressedOutput = false;
+		this.fragments = false;
+		this.fragmentedOutput = false;
+		this.compressionThreshold = compactFrames ? compressionThreshold : -1;
+		this.statistics = statistics;
+		this.deflater = this.compressionThreshold >= 0 ? new Deflater() : null;
+		this.deflaterClosed = false;
+		this.inflater = null;
 	}
 	
 	/**
@@ -51,47 +195,277 @@ public class PacketFactory {
 	 */
 	//Sync -> everybody has to wait their turn to give a byte
 	public synchronized void feed(byte data) throws PacketMappingNotFoundException { //I hate decoding bytes
-		//First save data and increase accumulation counter
-		tempData[accStep] = data; //save data in current step
+		if(protocolError) return;
 		if(mode == Mode.SEARCH_HEADER) { //Special case for header, because ti doesnt accept any data
-			if(data == PACKETHEADER[accStep]) {
+			if(accStep == 0 && isCompactMarker(data)) {
+				startCompactHeader(data);
+				return;
+			} else if(data == PACKETHEADER[accStep]) {
 				accStep++; //Only increase header finding if data is correct
 			} else {
 				accStep = 0; //If one byte is not correct, completely reset
 			}
-		} else { //for other modes increase counter
-			accStep++; 
+		} else if(mode == Mode.COMPACT_ID || mode == Mode.COMPACT_LENGTH) {
+			feedCompactHeader(data);
+			return;
+		} else if(mode == Mode.ACC_DATA) {
+			if(tempData == null) tempData = new byte[dataLength];
+			tempData[accStep++] = data;
+		} else { //for other modes save data and increase counter
+			headerData[accStep++] = data;
 		}
 		
 		updateState();
 	}
 	
+	/**
+	 * Feed a chunk of received data to construct packets from. The monitor of this {@link PacketFactory} is only acquired once
+	 * for the whole chunk, and payload bytes are copied in bulk instead of one by one.<br>
+	 * If the chunk contains more than one packet with an unknown id, only the first {@link PacketMappingNotFoundException} is thrown,
+	 * with the others added as suppressed exceptions, but all remaining bytes of the chunk are still decoded.
+	 * @param data The array containing the received data
+	 * @param offset The index of the first received byte in the array
+	 * @param length The amount of received bytes
+	 * @throws PacketMappingNotFoundException If a packet was completed, and the id was not found
+	 * @see #feed(ByteBuffer)
+	 */
+	public void feed(byte[] data, int offset, int length) throws PacketMappingNotFoundException {
+		feed(ByteBuffer.wrap(data, offset, length));
+	}
+	
+	/**
+	 * Feed a chunk of received data to construct packets from. All bytes from the buffer's position to its limit are consumed.<p>
+	 * Header, packet id and data length are parsed directly from the buffer. If the data of a packet is completely
+	 * contained in the buffer, the packet reads it through a {@link ReadableBufferData} that shares the buffer's content,
+	 * so no array is allocated and nothing is copied. Only packets that are split over several chunks are accumulated in a separate array.
+	 * Because the buffer will usually be reused for the next chunk, {@link Packet#readData(lb.simplebase.io.ReadableByteData)}
+	 * must not keep a reference to the data object.<br>
+	 * If the chunk contains more than one packet with an unknown id, only the first {@link PacketMappingNotFoundException} is thrown,
+	 * with the others added as suppressed exceptions, but all remaining bytes of the chunk are still decoded.
+	 * @param data The buffer containing the received data
+	 * @throws PacketMappingNotFoundException If a packet was completed, and the id was not found
+	 */
+	public synchronized void feed(ByteBuffer data) throws PacketMappingNotFoundException {
+		PacketMappingNotFoundException firstError = null;
+		while(data.hasRemaining() && !protocolError) {
+			try {
+				if(mode == Mode.SEARCH_HEADER) {
+					if(accStep == 0 && decodeCompleteFrame(data)) continue; //The fast path: a whole packet is in the buffer
+					final byte b = data.get(); //Header bytes have to be checked one by one
+					if(accStep == 0 && isCompactMarker(b)) {
+						startCompactHeader(b);
+						continue;
+					} else if(b == PACKETHEADER[accStep]) {
+						accStep++;
+					} else {
+						accStep = 0;
+					}
+				} else if(mode == Mode.COMPACT_ID || mode == Mode.COMPACT_LENGTH) {
+					feedCompactHeader(data.get());
+					continue;
+				} else if(mode == Mode.ACC_DATA) {
+					if(accStep == 0 && data.remaining() >= dataLength) { //All data is here, no need to copy it
+						final ByteBuffer packetData = data.slice();
+						packetData.limit(dataLength);
+						data.position(data.position() + dataLength);
+						mode = Mode.SEARCH_HEADER;
+						makePacket(packetId, frameFlags, new ReadableBufferData(packetData, false));
+						continue;
+					}
+					if(tempData == null) tempData = new byte[dataLength];
+					final int count = Math.min(getRemainingBytes(), data.remaining());
+					data.get(tempData, accStep, count);
+					accStep += count;
+				} else { //Packet id and length are copied as a block
+					final int count = Math.min(getRemainingBytes(), data.remaining());
+					data.get(headerData, accStep, count);
+					accStep += count;
+				}
+				
+				updateState();
+			} catch (PacketMappingNotFoundException e) {
+				if(firstError == null) { //Keep decoding the rest of the chunk
+					firstError = e;
+				} else {
+					firstError.addSuppressed(e);
+				}
+			}
+		}
+		if(protocolError) data.position(data.limit()); //Dropped
+		if(firstError != null) throw firstError;
+	}
+	
+	/**
+	 * Decodes all frames in the data of a datagram. A datagram only contains complete frames, so if it ends
+	 * inside of a frame, the rest of that frame is dropped and the next datagram is decoded from its start.
+	 * A factory that decodes datagrams should not be used for a stream at the same time. If a datagram exceeds a limit, only that datagram is dropped.
+	 * @param data The frames of the datagram
+	 * @throws PacketMappingNotFoundException If a packet was completed, and the id was not found
+	 */
+	public synchronized void feedDatagram(ByteBuffer data) throws PacketMappingNotFoundException {
+		try {
+			feed(data);
+		} finally {
+			if(mode != Mode.SEARCH_HEADER || accStep != 0) {
+				NetworkManager.NET_LOG.warn("PacketFactory: Datagram ended inside of a frame, frame dropped");
+				mode = Mode.SEARCH_HEADER;
+				accStep = 0;
+				tempData = null;
+			}
+			protocolError = false;
+		}
+	}
+	
+	/**
+	 * Decodes a packet if header, id, length and data are all completely available in the buffer.
+	 * The buffer position is moved behind the packet before it is made.
+	 * @param data The buffer that contains the received data
+	 * @return Whether a packet was decoded. If <code>false</code>, the buffer position was not changed
+	 * @throws PacketMappingNotFoundException When the packetId mapping was not found
+	 */
+	private boolean decodeCompleteFrame(ByteBuffer data) throws PacketMappingNotFoundException {
+		if(isCompactMarker(data.get(data.position()))) return decodeCompleteCompactFrame(data);
+		if(data.remaining() < 12) return false;
+		final int start = data.position();
+		for(int i = 0; i < 4; i++) {
+			if(data.get(start + i) != PACKETHEADER[i]) return false;
+		}
+		final int dataLength = getInt(data, start + 8);
+		if(dataLength < 0 || data.remaining() - 12 < dataLength) return false;
+		final int id = getInt(data, start + 4);
+		data.position(start + 12);
+		final ByteBuffer packetData = data.slice();
+		packetData.limit(dataLength);
+		data.position(start + 12 + dataLength);
+		makePacket(id, 0, new ReadableBufferData(packetData, false));
+		return true;
+	}
+	
+	/**
+	 * Like {@link #decodeCompleteFrame(ByteBuffer)}, for a compact frame.
+	 */
+	private boolean decodeCompleteCompactFrame(ByteBuffer data) throws PacketMappingNotFoundException {
+		final int start = data.position();
+		final long id = getVarInt(data, start + 1);
+		if(id < 0) return false;
+		final int lengthIndex = (int) (id >>> 32);
+		final long length = getVarInt(data, lengthIndex);
+		if(length < 0) return false;
+		final int dataIndex = (int) (length >>> 32);
+		final int dataLength = (int) length;
+		if(dataLength < 0 || data.limit() - dataIndex < dataLength) return false;
+		data.position(dataIndex);
+		final ByteBuffer packetData = data.slice();
+		packetData.limit(dataLength);
+		data.position(dataIndex + dataLength);
+		final int rawId = (int) id;
+		makePacket((rawId >>> 1) ^ -(rawId & 1), data.get(start) & COMPACT_FLAGS_MASK, new ReadableBufferData(packetData, false));
+		return true;
+	}
+	
+	/**
+	 * Reads a variable-length integer from the buffer without changing its position.
+	 * @return The index after the integer in the upper 32 bits and the value in the lower 32 bits,
+	 * or <code>-1</code> if the integer is not complete or invalid
+	 */
+	private static long getVarInt(ByteBuffer data, int index) {
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7) {
+			if(index >= data.limit()) return -1;
+			final byte b = data.get(index++);
+			value |= (b & 0x7F) << shift;
+			if(b >= 0) return ((long) index << 32) | (value & 0xFFFFFFFFL);
+		}
+		return -1;
+	}
+	
+	private boolean isCompactMarker(byte b) {
+		return compactFrames && (b & COMPACT_MARKER_MASK) == COMPACT_FRAME_MARKER;
+	}
+	
+	private void startCompactHeader(byte marker) {
+		frameFlags = marker & COMPACT_FLAGS_MASK;
+		varIntValue = 0;
+		varIntShift = 0;
+		accStep = 0;
+		mode = Mode.COMPACT_ID;
+	}
+	
+	/**
+	 * Decodes the id and length of a compact frame, one byte at a time.
+	 */
+	private void feedCompactHeader(byte b) throws PacketMappingNotFoundException {
+		varIntValue |= (b & 0x7F) << varIntShift;
+		varIntShift += 7;
+		if(b < 0) { //More bytes follow
+			if(varIntShift >= 35) {
+				NetworkManager.NET_LOG.warn("PacketFactory: Invalid variable-length integer in compact frame header, searching for next header");
+				mode = Mode.SEARCH_HEADER;
+			}
+			return;
+		}
+		final int value = varIntValue;
+		varIntValue = 0;
+		varIntShift = 0;
+		if(mode == Mode.COMPACT_ID) {
+			packetId = (value >>> 1) ^ -(value & 1);
+			mode = Mode.COMPACT_LENGTH;
+		} else {
+			if(value < 0) {
+				NetworkManager.NET_LOG.warn("PacketFactory: Invalid packet data length " + value + ", searching for next header");
+				mode = Mode.SEARCH_HEADER;
+				return;
+			}
+			dataLength = value;
+			tempData = null;
+			accStep = 0;
+			mode = Mode.ACC_DATA;
+			if(dataLength == 0) updateState(); //Complete right away
+		}
+	}
+	
 	protected int getRemainingBytes() {
-		return mode.getAccumulateLimit() - accStep;
+		return getAccumulateLimit() - accStep;
+	}
+	
+	/**
+	 * The amount of bytes that have to be accumulated in the current mode.
+	 * @return The amount of bytes for the current mode
+	 */
+	protected int getAccumulateLimit() {
+		return mode == Mode.ACC_DATA ? dataLength : mode.getAccumulateLimit();
 	}
 	
 	protected void updateState() throws PacketMappingNotFoundException {
-		if(accStep >= mode.getAccumulateLimit()) { //If this step is done
+		if(accStep >= getAccumulateLimit()) { //If this step is done
 			//The next step depends on the current mode
 			switch (mode) {
 			case SEARCH_HEADER: //header found
 				mode = Mode.ACC_PACKETID; //read packetId next, nothing must be saved
+				frameFlags = 0; //Normal frames have no flags
 				break;
 			case ACC_PACKETID: //packetId done
 				//save the packetId
-				packetId = parseInt(tempData); //Read it from tempdata
+				packetId = parseInt(headerData); //Read it from the header data
 				mode = Mode.ACC_DATALEN; //read datalength next
 				break;
 			case ACC_DATALEN: //datalength has been read
-				final int datalen = parseInt(tempData); //read data legth from tempData
-				Mode.setDataLimit(datalen); //set the limit for Mode.ACC_DATA
-				tempData = new byte[datalen]; //reDim the data array
+				final int datalen = parseInt(headerData); //read data legth from the header data
+				if(datalen < 0) { //Not a valid packet, so this was not a real header
+					NetworkManager.NET_LOG.warn("PacketFactory: Invalid packet data length " + datalen + ", searching for next header");
+					mode = Mode.SEARCH_HEADER;
+					break;
+				}
+				dataLength = datalen; //set the limit for Mode.ACC_DATA
+				tempData = null; //Only created if the data arrives in more than one chunk
 				mode = Mode.ACC_DATA; //read data next
 				break;
 			case ACC_DATA: //data has been read
-				makePacket(); //make a packet and send it
-				tempData = new byte[4]; //ReDim array
+				final byte[] packetData = tempData == null ? EMPTY_DATA : tempData;
+				tempData = null;
 				mode = Mode.SEARCH_HEADER; //start searching for packets again
+				accStep = 0; //Reset before the packet is made, so a missing mapping does not break the decoder
+				makePacket(packetId, frameFlags, new ReadableArrayData(packetData, false)); //make a packet and send it
 				break;
 			default: //That's not gonna happen
 				mode = Mode.SEARCH_HEADER; //complete reset anyways
@@ -99,24 +473,358 @@ public class PacketFactory {
 			}
 			
 			accStep = 0; //definitely reset counter, because this is a new step/mode
+			if(getRemainingBytes() == 0) updateState(); //Packets without data are complete right away
 		}
 	}
 	
 	/**
-	 * Create a packet from the current tempData and id
+	 * Create a packet from the payload data and id
 	 * and send it to the connection
 	 * @throws PacketMappingNotFoundException When the packetId mapping was not found (duh)
 	 */
-	private void makePacket() throws PacketMappingNotFoundException {
-		final PacketIdMapping mapping = mapCon.getMappingFor(packetId); //Mapping for id
+	private void makePacket(int id, int flags, ReadableByteData packetData) throws PacketMappingNotFoundException {
+		if((flags & FLAG_COMPRESSED) != 0) {
+			packetData = decompress(packetData);
+			if(packetData == null) return;
+		}
+		if(id <= CONTROL_ID_MAX) { //Always >= CONTROL_ID_MIN
+			handleControlFrame(id, packetData);
+			return;
+		}
+		final PacketIdMapping mapping = mapCon.getMappingFor(id); //Mapping for id
 		if(mapping == null)
-			throw new PacketMappingNotFoundException("mapping not found for id while constructing packet", packetId);
+			throw new PacketMappingNotFoundException("mapping not found for id while constructing packet", id);
 		final Packet newPacket = mapping.getNewInstance(); //make a packet
-		final ReadableArrayData packetData = new ReadableArrayData(tempData, false);
 		newPacket.readData(packetData); //read the packet data
 		finishedPacketReceiver.accept(newPacket); //send the packet to the connection
 	}
 	
+	/**
+	 * Decompresses the data of a compressed compact frame with the reused {@link Inflater}.
+	 * @return The decompressed data, or <code>null</code> if the data is invalid
+	 */
+	private ReadableByteData decompress(ReadableByteData data) {
+		try {
+			final int length = data.readVarInt();
+			if(length < 0) throw new IllegalArgumentException("Negative length " + length);
+			final int compressedLength = data.getRemainingLength();
+			if(length > (long) compressedLength * MAX_DEFLATE_RATIO)
+				throw new DataFormatException("Decompressed length " + length + " is impossible for " + compressedLength + " compressed bytes");
+			final byte[] input = data.read(compressedLength);
+			final byte[] output = new byte[length];
+			if(inflater == null) inflater = new Inflater();
+			inflater.reset();
+			inflater.setInput(input);
+			int count = 0;
+			while(count < length && !inflater.finished()) {
+				final int inflated = inflater.inflate(output, count, length - count);
+				if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break; //Data ends too early
+				count += inflated;
+			}
+			if(count != length || !inflater.finished())
+				throw new DataFormatException("Decompressed data does not have the expected length " + length);
+			statistics.recordDecompression(compressedLength, length);
+			return new ReadableArrayData(output, false);
+		} catch (DataFormatException | IllegalArgumentException e) {
+			NetworkManager.NET_LOG.warn("PacketFactory: Could not decompress packet data, packet dropped", e);
+			return null;
+		}
+	}
+	
+	private void handleControlFrame(int id, ReadableByteData data) throws PacketMappingNotFoundException {
+		switch (id) {
+		case CONTROL_HANDSHAKE:
+			final byte features = data.canRead() ? data.readByte() : 0;
+			if(fragments && (features & FEATURE_FRAGMENTS) != 0) {
+				fragmentedOutput = true;
+				NetworkManager.NET_LOG.debug("PacketFactory: Remote side accepts fragments");
+			}
+			if(compactFrames && (features & FEATURE_COMPACT_FRAMES) != 0) {
+				compactOutput = true;
+				NetworkManager.NET_LOG.debug("PacketFactory: Remote side accepts compact frames");
+				if(deflater != null && (features & FEATURE_COMPRESSION) != 0) {
+					compressedOutput = true;
+					NetworkManager.NET_LOG.debug("PacketFactory: Remote side accepts compressed frames");
+				}
+			}
+			break;
+		case CONTROL_HEARTBEAT:
+			//Only keeps the connection from timing out, receiving it is enough
+			break;
+		case CONTROL_FRAGMENT:
+			handleFragment(data);
+			break;
+		case CONTROL_DATAGRAM_OFFER:
+			final BiConsumer<Long, Integer> receiver = datagramOfferReceiver;
+			if(receiver == null) {
+				NetworkManager.NET_LOG.debug("PacketFactory: Datagrams were offered, but they are not enabled");
+			} else {
+				try {
+					final long token = data.readLong();
+					receiver.accept(token, data.readVarInt());
+				} catch (RuntimeException e) {
+					NetworkManager.NET_LOG.warn("PacketFactory: Invalid datagram offer, frame ignored", e);
+				}
+			}
+			break;
+		default:
+			NetworkManager.NET_LOG.warn("PacketFactory: Unknown control frame id " + (id - CONTROL_ID_MIN) + ", frame ignored");
+			break;
+		}
+	}
+	
+	/**
+	 * Adds the next bytes of a fragmented frame to the collected bytes of its stream.
+	 * When the last fragment was received, the original frame is decoded.
+	 */
+	private void handleFragment(ReadableByteData data) throws PacketMappingNotFoundException {
+		final int stream;
+		final int flags;
+		try {
+			stream = data.readVarInt();
+			flags = data.readByte();
+		} catch (RuntimeException e) {
+			NetworkManager.NET_LOG.warn("PacketFactory: Invalid fragment header, fragment dropped", e);
+			return;
+		}
+		if(fragmentStreams == null) fragmentStreams = new HashMap<>();
+		WritableGrowableData collected = fragmentStreams.get(stream);
+		if(collected == null) {
+			if(fragmentStreams.size() >= MAX_FRAGMENT_STREAMS) {
+				protocolError("More than " + MAX_FRAGMENT_STREAMS + " fragment streams were opened");
+				return;
+			}
+			collected = new WritableGrowableData(Math.max(data.getRemainingLength() * 2, 64));
+			fragmentStreams.put(stream, collected);
+		}
+		if((long) collected.getLength() + data.getRemainingLength() > maxFrameSize) {
+			protocolError("Fragments of stream " + stream + " exceed the maximum frame size of " + maxFrameSize + " bytes");
+			return;
+		}
+		collected.write(data.read(data.getRemainingLength()));
+		if((flags & FRAGMENT_LAST) == 0) return;
+		fragmentStreams.remove(stream);
+		final ByteBuffer frame = collected.getAsBuffer();
+		//The decoder is at the start of a frame while a frame is made, so the original frame can be decoded right here
+		if(!frame.hasRemaining() || !decodeCompleteFrame(frame) || frame.hasRemaining()) {
+			NetworkManager.NET_LOG.warn("PacketFactory: Fragments of stream " + stream + " did not contain exactly one frame, bytes dropped");
+		}
+	}
+	
+	/**
+	 * Stops decoding, because the remote side has exceeded a limit. Only called while holding this instance's monitor.
+	 */
+	private void protocolError(String message) {
+		NetworkManager.NET_LOG.warn("PacketFactory: " + message + ", decoding stopped");
+		protocolError = true;
+		fragmentStreams = null;
+		final Runnable handler = protocolErrorHandler;
+		if(handler != null) handler.run();
+	}
+	
+	/**
+	 * Sets the maximum size of a frame that is collected from fragments. Must be called before data is decoded.
+	 * @param maxFrameSize The maximum amount of bytes of a reassembled frame
+	 * @see #DEFAULT_MAX_FRAME_SIZE
+	 */
+	public void setMaxFrameSize(int maxFrameSize) {
+		if(maxFrameSize <= 0) throw new IllegalArgumentException("Maximum frame size must be positive");
+		this.maxFrameSize = maxFrameSize;
+	}
+	
+	/**
+	 * The maximum size of a frame that is collected from fragments.
+	 * @return The maximum amount of bytes of a reassembled frame
+	 */
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Sets the handler that is called when the remote side exceeds a limit of the frame format, e.g. when it opens too many
+	 * fragment streams. The factory stops decoding before the handler is called. Called while decoding, on the thread that feeds the data.
+	 * @param handler The handler, usually closes the connection
+	 */
+	public void setProtocolErrorHandler(Runnable handler) {
+		this.protocolErrorHandler = handler;
+	}
+	
+	/**
+	 * Whether this factory can read compact frames and sends a handshake for them.
+	 * @return Whether compact frames are enabled
+	 */
+	public boolean isCompactFrameEnabled() {
+		return compactFrames;
+	}
+	
+	/**
+	 * Whether {@link #createPacketData(Packet)} creates compact frames. This is the case after the handshake from a remote side
+	 * that accepts compact frames was received.
+	 * @return Whether packets are encoded as compact frames
+	 */
+	public boolean isCompactFrameOutput() {
+		return compactOutput;
+	}
+	
+	/**
+	 * Tells the remote side in the handshake that it can send large frames in fragments. Must be called before the handshake is sent.
+	 * Fragments can be read without this call.
+	 */
+	void enableFragments() {
+		fragments = true;
+	}
+	
+	/**
+	 * Whether a handshake is sent because fragments are enabled.
+	 * @return Whether {@link #enableFragments()} was called
+	 */
+	public boolean isFragmentEnabled() {
+		return fragments;
+	}
+	
+	/**
+	 * Whether large frames can be sent in fragments. This is the case after the handshake from a remote side
+	 * that has enabled fragments was received, if fragments are enabled for this factory too.
+	 * @return Whether the remote side accepts fragments
+	 */
+	public boolean isFragmentedOutput() {
+		return fragmentedOutput;
+	}
+	
+	/**
+	 * Sets the receiver for the datagram offer of a server. Without a receiver, offers are ignored.
+	 * @param receiver Receives the token of the connection and the UDP port of the server
+	 */
+	void setDatagramOfferReceiver(BiConsumer<Long, Integer> receiver) {
+		this.datagramOfferReceiver = receiver;
+	}
+	
+	/**
+	 * Whether {@link #createPacketData(Packet)} compresses packets with at least {@link #getCompressionThreshold()} bytes of data.
+	 * This is the case after the handshake from a remote side that accepts compressed frames was received.
+	 * @return Whether large packets are compressed
+	 */
+	public boolean isCompressedOutput() {
+		return compressedOutput;
+	}
+	
+	/**
+	 * @return The minimum amount of packet data bytes for compression, or <code>-1</code> if compression is disabled
+	 */
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * @return The {@link CompressionStatistics} that compressed and decompressed packets are counted in
+	 */
+	public CompressionStatistics getCompressionStatistics() {
+		return statistics;
+	}
+	
+	/**
+	 * Encodes packets as compact frames without waiting for a handshake. Used for encoders that only
+	 * create data for connections that have already negotiated compact frames.
+	 * Packets are compressed too if a compression threshold was set.
+	 */
+	void enableCompactOutput() {
+		compactOutput = true;
+		compressedOutput = deflater != null;
+	}
+	
+	/**
+	 * Creates the handshake control frame that tells the remote side which frame formats this factory can read.
+	 * Connections send it when they are opened.
+	 * @return The bytes of the handshake frame
+	 */
+	public byte[] createHandshakeData() {
+		final WritableGrowableData buffer = encodeHandshake();
+		try {
+			return buffer.getAsArray();
+		} finally {
+			PacketBufferPool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Creates the handshake control frame that tells the remote side which frame formats this factory can read.
+	 * It always uses the normal frame format.
+	 * @return A buffer from the {@link PacketBufferPool} that contains the frame
+	 */
+	protected WritableGrowableData encodeHandshake() {
+		final WritableGrowableData buffer = PacketBufferPool.acquire();
+		buffer.write(PACKETHEADER);
+		buffer.writeInt(CONTROL_HANDSHAKE);
+		buffer.writeInt(1);
+		final int features = (compactFrames ? FEATURE_COMPACT_FRAMES | FEATURE_COMPRESSION : 0) //All compact decoders can decompress
+				| (fragments ? FEATURE_FRAGMENTS : 0);
+		buffer.writeByte((byte) features);
+		return buffer;
+	}
+	
+	/**
+	 * Creates the control frame that offers datagrams to a client. It always uses the normal frame format.
+	 * @param token The token that identifies the connection in datagrams
+	 * @param port The UDP port of the server
+	 * @return A buffer from the {@link PacketBufferPool} that contains the frame
+	 */
+	protected WritableGrowableData encodeDatagramOffer(long token, int port) {
+		final WritableGrowableData buffer = PacketBufferPool.acquire();
+		buffer.write(PACKETHEADER);
+		buffer.writeInt(CONTROL_DATAGRAM_OFFER);
+		buffer.reserve(4);
+		buffer.writeLong(token);
+		buffer.writeVarInt(port);
+		buffer.setInt(8, buffer.getLength() - 12);
+		return buffer;
+	}
+	
+	/**
+	 * Writes the header of a fragment control frame, which is followed by the bytes of the fragment.
+	 * It always uses the normal frame format.
+	 * @param target The array that the header is written to, with at least {@link #MAX_FRAGMENT_HEADER_LENGTH} bytes
+	 * @param stream The number of the stream that the fragment belongs to. All fragments of one frame need the same stream number,
+	 * and no other frame may use the stream until the last fragment was sent
+	 * @param last Whether this is the last fragment of the frame
+	 * @param length The amount of bytes in the fragment
+	 * @return The length of the header
+	 */
+	static int writeFragmentHeader(byte[] target, int stream, boolean last, int length) {
+		System.arraycopy(PACKETHEADER, 0, target, 0, 4);
+		putInt(target, 4, CONTROL_FRAGMENT);
+		putInt(target, 8, WritableByteData.varIntLength(stream) + 1 + length);
+		int index = 12;
+		while((stream & ~0x7F) != 0) {
+			target[index++] = (byte) ((stream & 0x7F) | 0x80);
+			stream >>>= 7;
+		}
+		target[index++] = (byte) stream;
+		target[index++] = last ? (byte) FRAGMENT_LAST : 0;
+		return index;
+	}
+	
+	private static void putInt(byte[] target, int index, int value) {
+		//Little endian, like WritableByteData.writeInt(int)
+		target[index    ] = (byte) value;
+		target[index + 1] = (byte) (value >>> 8);
+		target[index + 2] = (byte) (value >>> 16);
+		target[index + 3] = (byte) (value >>> 24);
+	}
+	
+	/**
+	 * Creates the heartbeat control frame, which has no data. Connections send it when nothing else was sent for a while,
+	 * so that the remote side can tell an idle connection from a dead one.
+	 * It always uses the normal frame format.
+	 * @return A buffer from the {@link PacketBufferPool} that contains the frame
+	 */
+	protected WritableGrowableData encodeHeartbeat() {
+		final WritableGrowableData buffer = PacketBufferPool.acquire();
+		buffer.write(PACKETHEADER);
+		buffer.writeInt(CONTROL_HEARTBEAT);
+		buffer.writeInt(0);
+		return buffer;
+	}
+	
 	/**
 	 * The {@link PacketIdMappingContainer} used by this {@link PacketFactory}.
 	 * @return The {@link PacketIdMappingContainer} used by this {@link PacketFactory}
@@ -132,58 +840,181 @@ public class PacketFactory {
 	 * @throws PacketMappingNotFoundException When the packet class cloud not be converted into an id
 	 */
 	public byte[] createPacketData(Packet packet) throws PacketMappingNotFoundException {
-		//First, check for a mapping for the packet class
-		if(!mapCon.hasMappingFor(packet.getClass()))
+		final WritableGrowableData buffer = encodePacket(packet);
+		try {
+			return buffer.getAsArray();
+		} finally {
+			PacketBufferPool.release(buffer);
+		}
+	}
+	
+	/**
+	 * Converts a {@link Packet} into bytes, including header and metadata, without copying the data.
+	 * The packet writes its data directly into a pooled buffer behind the space for the header,
+	 * and the header is filled in when the length of the data is known.
+	 * @param packet The {@link Packet} to convert
+	 * @return A buffer from the {@link PacketBufferPool} that contains the bytes. It should be released to the pool when it was sent
+	 * @throws PacketMappingNotFoundException When the packet class cloud not be converted into an id
+	 */
+	protected WritableGrowableData encodePacket(Packet packet) throws PacketMappingNotFoundException {
+		return encodePacket(packet, findMapping(packet));
+	}
+	
+	/**
+	 * Converts a {@link Packet} into bytes like {@link #encodePacket(Packet)}, for the outbound queue of a connection.
+	 * The {@link PacketChannel} of the packet is taken from the same mapping that provides the packet id.
+	 * @param packet The {@link Packet} to convert
+	 * @return The encoded packet with one reference, which is owned by the caller
+	 * @throws PacketMappingNotFoundException When the packet class cloud not be converted into an id
+	 */
+	EncodedPacket encodeForQueue(Packet packet) throws PacketMappingNotFoundException {
+		final PacketIdMapping mapping = findMapping(packet);
+		return new EncodedPacket(encodePacket(packet, mapping), mapping.getChannel());
+	}
+	
+	private PacketIdMapping findMapping(Packet packet) throws PacketMappingNotFoundException {
+		final PacketIdMapping mapping = mapCon.getMappingFor(packet.getClass());
+		if(mapping == null)
 			throw new PacketMappingNotFoundException("No mapping was found when trying to send packet", packet);
-		final int packetId = mapCon.getMappingFor(packet.getClass()).getPacketId(); //The mapping must exist, otherwise ^^
-		//Then move write packet data to a buffer
-		final WritableStreamData packetData = new WritableStreamData();
-		packet.writeData(packetData); //Write packet data
-		final int packetDataLength = packetData.getLength();
-		//Write data to buffer
-		final WritableFixedData allData = new WritableArrayData(packetDataLength + 12);
-		allData.write(PACKETHEADER);
-		allData.writeInt(packetId);
-		allData.writeInt(packetDataLength);
-		allData.write(packetData.internalArray());
-		//create array
-		return allData.internalArray();
+		return mapping;
 	}
 	
+	private WritableGrowableData encodePacket(Packet packet, PacketIdMapping mapping) {
+		final int packetId = mapping.getPacketId();
+		//Reserve space for the header, then write the packet data behind it
+		final WritableGrowableData buffer = PacketBufferPool.acquire();
+		try {
+			if(compactOutput) {
+				buffer.writeByte((byte) COMPACT_FRAME_MARKER);
+				buffer.writeSignedVarInt(packetId);
+				final int lengthIndex = buffer.getLength();
+				buffer.reserve(1); //Enough for up to 127 bytes of data, moved if the data is longer
+				packet.writeData(buffer);
+				if(compressedOutput && buffer.getLength() - lengthIndex - 1 >= compressionThreshold) {
+					final WritableGrowableData compressed = compressFrame(buffer, lengthIndex + 1, packetId);
+					if(compressed != null) {
+						PacketBufferPool.release(buffer);
+						return compressed;
+					}
+				}
+				setCompactLength(buffer, lengthIndex);
+			} else {
+				buffer.write(PACKETHEADER);
+				buffer.reserve(8); //Id and length
+				packet.writeData(buffer);
+				buffer.setInt(4, packetId);
+				buffer.setInt(8, buffer.getLength() - 12);
+			}
+		} catch (RuntimeException e) {
+			PacketBufferPool.release(buffer);
+			throw e;
+		}
+		return buffer;
+	}
+	
+	/**
+	 * Creates a compressed compact frame for the packet data in the buffer, starting at the index.
+	 * @return A new buffer from the {@link PacketBufferPool} with the frame, or <code>null</code> if the data did not become smaller
+	 */
+	private WritableGrowableData compressFrame(WritableGrowableData buffer, int dataIndex, int packetId) {
+		final int dataLength = buffer.getLength() - dataIndex;
+		final WritableGrowableData frame = PacketBufferPool.acquire();
+		frame.writeByte((byte) (COMPACT_FRAME_MARKER | FLAG_COMPRESSED));
+		frame.writeSignedVarInt(packetId);
+		final int lengthIndex = frame.getLength();
+		frame.reserve(1);
+		frame.writeVarInt(dataLength);
+		final int compressedIndex = frame.getLength();
+		frame.reserve(dataLength); //Compressed data that is not smaller is not used
+		int count = 0;
+		boolean finished = false;
+		synchronized (deflater) {
+			if(!deflaterClosed) {
+				deflater.reset();
+				deflater.setInput(buffer.internalArray(), dataIndex, dataLength);
+				deflater.finish();
+				while(count < dataLength && !deflater.finished()) {
+					count += deflater.deflate(frame.internalArray(), compressedIndex + count, dataLength - count);
+				}
+				finished = deflater.finished();
+			}
+		}
+		if(!finished) {
+			statistics.recordCompression(dataLength, dataLength);
+			PacketBufferPool.release(frame);
+			return null;
+		}
+		statistics.recordCompression(dataLength, count);
+		frame.truncate(compressedIndex + count);
+		setCompactLength(frame, lengthIndex);
+		return frame;
+	}
+	
+	/**
+	 * Writes the data length of a compact frame into the reserved byte at the index. If the length
+	 * needs more than one byte, the data is moved back to make room for it.
+	 */
+	private static void setCompactLength(WritableGrowableData buffer, int lengthIndex) {
+		final int dataLength = buffer.getLength() - lengthIndex - 1;
+		final int size = WritableByteData.varIntLength(dataLength);
+		if(size > 1) buffer.insert(lengthIndex + 1, size - 1);
+		for(int i = 0; i < size; i++) {
+			final int group = (dataLength >>> (7 * i)) & 0x7F;
+			buffer.setByte(lengthIndex + i, (byte) (i < size - 1 ? group | 0x80 : group));
+		}
+	}
+	
+	/**
+	 * Releases the {@link Deflater} and {@link Inflater} of this factory. Packets that are encoded later are not compressed.
+	 */
 	protected void notifyConnectionClosed() {
-		//Nothing really
+		if(deflater != null) {
+			synchronized (deflater) {
+				deflaterClosed = true;
+				deflater.end();
+			}
+		}
+		synchronized (this) {
+			if(inflater != null) inflater.end();
+			inflater = null;
+			fragmentStreams = null;
+		}
+	}
+	
+	private static int getInt(ByteBuffer buffer, int index) {
+		//Little endian, independent of the buffer's byte order
+		return 	((( (int) buffer.get(index + 3)) & 0xFF) << 24) |
+				((( (int) buffer.get(index + 2)) & 0xFF) << 16) |
+				((( (int) buffer.get(index + 1)) & 0xFF) << 8 ) |
+				( ( (int) buffer.get(index    )) & 0xFF);
 	}
 	
 	public static int parseInt(byte[] bytes) {
 		if(bytes.length != 4) throw new ArrayIndexOutOfBoundsException("Array must have legth 4");
 		//Code copied from ReadableByteData
 		//No enclosing typecast needed, result is already int
-		return 	(( (int) bytes[3]) << 24) | //MSB has most left shift
-				(( (int) bytes[2]) << 16) |
-				(( (int) bytes[1]) << 8 ) |
-				(  (int) bytes[0]);		  //LSB not shifted
+		return 	((( (int) bytes[3]) & 0xFF) << 24) | //MSB has most left shift
+				((( (int) bytes[2]) & 0xFF) << 16) |
+				((( (int) bytes[1]) & 0xFF) << 8 ) |
+				( ( (int) bytes[0]) & 0xFF);		  //LSB not shifted
 	}
 	
-	private static enum Mode {
-		SEARCH_HEADER(4), ACC_PACKETID(4), ACC_DATALEN(4), ACC_DATA(0);
+	/**
+	 * The steps of the decoder. The amount of bytes for {@link #ACC_DATA} depends on the packet
+	 * and is stored in the {@link PacketFactory} instance.
+	 */
+	protected static enum Mode {
+		SEARCH_HEADER(4), ACC_PACKETID(4), ACC_DATALEN(4), ACC_DATA(0),
+		COMPACT_ID(0), COMPACT_LENGTH(0); //Variable length, not counted with the accumulate limit
 		
-		private int accumulateLimit;
+		private final int accumulateLimit;
 		
 		private Mode(int accLim) {
 			accumulateLimit = accLim;
 		}
 		
-		private void setLimit(int limit) {
-			accumulateLimit = limit;
-		}
-		
 		public int getAccumulateLimit() {
 			return accumulateLimit;
 		}
-		
-		//Mutable enums!!!!
-		public static void setDataLimit(int limit) {
-			ACC_DATA.setLimit(limit);
-		}
 	}
 }
@@ -0,0 +1,26 @@
+package lb.simplebase.net;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a field of a {@link Packet} class that is written and read by a {@link PacketSerializer}.<br>
+ * The field must not be static or final. Fields are written in the order of their {@link #value()}, so both sides of
+ * a connection read the fields in the same order. The fields of a superclass are written before the fields of its subclasses.
+ * @see AnnotatedPacket
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(FIELD)
+public @interface PacketField {
+
+	/**
+	 * The position of the field in the packet data. Must be unique within one class.
+	 */
+	int value();
+	
+}
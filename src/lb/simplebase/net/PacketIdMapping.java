@@ -1,5 +1,6 @@
 package lb.simplebase.net;
 
+import java.util.Objects;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -28,6 +29,15 @@ public interface PacketIdMapping {
 	 */
 	public Class<? extends Packet> getPacketClass();
 	
+	/**
+	 * The logical channel that packets of this type are sent on. Channels with a higher priority are written first
+	 * when packets of several channels wait to be sent on a connection.
+	 * @return The {@link PacketChannel} of this packet type, {@link PacketChannel#DEFAULT} if not overridden
+	 */
+	public default PacketChannel getChannel() {
+		return PacketChannel.DEFAULT;
+	}
+	
 	/**
 	 * Creates a new {@link PacketIdMapping} with these values. The id should be unique to this packet implementation.
 	 * The {@link Supplier} <b>must</b> return a new instance for every call.
@@ -38,6 +48,21 @@ public interface PacketIdMapping {
 	 * @return The created {@link PacketIdMapping}
 	 */
 	public static <T extends Packet> PacketIdMapping create(final int id, final Class<T> clazz, final Supplier<T> newInstance) {
+		return create(id, clazz, newInstance, PacketChannel.DEFAULT);
+	}
+	
+	/**
+	 * Creates a new {@link PacketIdMapping} with these values. The id should be unique to this packet implementation.
+	 * The {@link Supplier} <b>must</b> return a new instance for every call.
+	 * @param <T> The type of the {@link Packet} implementation
+	 * @param id The integer id of this {@link Packet} type
+	 * @param clazz The class of this {@link Packet} implementation
+	 * @param newInstance A {@link Supplier} that generates new instances of this packet implementation
+	 * @param channel The {@link PacketChannel} that packets of this type are sent on
+	 * @return The created {@link PacketIdMapping}
+	 */
+	public static <T extends Packet> PacketIdMapping create(final int id, final Class<T> clazz, final Supplier<T> newInstance, final PacketChannel channel) {
+		Objects.requireNonNull(channel, "Channel must not be null");
 		return new PacketIdMapping() {
 			
 			@Override
@@ -55,6 +80,11 @@ public interface PacketIdMapping {
 				return newInstance.get();
 			}
 			
+			@Override
+			public PacketChannel getChannel() {
+				return channel;
+			}
+			
 		};
 	}
 	
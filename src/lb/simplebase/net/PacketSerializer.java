@@ -0,0 +1,392 @@
+package lb.simplebase.net;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import lb.simplebase.io.ObjectCodec;
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+import lb.simplebase.reflect.BaseReflectionUtils;
+import lb.simplebase.reflect.MethodHandleUtils;
+
+/**
+ * Writes and reads the {@link PacketField}s of a {@link Packet} class.<br>
+ * The fields are found once per class, and a getter and setter {@link MethodHandle} is created for each of them.
+ * Writing a packet then only calls these handles with their exact types, so primitive fields are never boxed.
+ * <p>
+ * Field types are written like this:
+ * <ul>
+ * <li>Primitives with the methods of {@link WritableByteData}</li>
+ * <li>{@link String}s as a <code>boolean</code> that is <code>false</code> for <code>null</code>, followed by {@link WritableByteData#writeUTF8(CharSequence)}</li>
+ * <li><code>byte[]</code> as an <code>int</code> length and the bytes, <code>-1</code> for <code>null</code></li>
+ * <li>Enums as an <code>int</code> ordinal, <code>-1</code> for <code>null</code></li>
+ * <li>All other types with {@link ObjectCodec#binary()}</li>
+ * </ul>
+ * @see AnnotatedPacket
+ */
+public final class PacketSerializer {
+
+	private static final ClassValue<PacketSerializer> SERIALIZERS = new ClassValue<PacketSerializer>() {
+		@Override
+		protected PacketSerializer computeValue(Class<?> type) {
+			return new PacketSerializer(type);
+		}
+	};
+
+	private final Class<?> packetClass;
+	private final FieldAccessor[] fields;
+
+	private PacketSerializer(Class<?> packetClass) {
+		this.packetClass = packetClass;
+		final List<FieldAccessor> accessors = new ArrayList<>();
+		addFields(packetClass, accessors);
+		this.fields = accessors.toArray(new FieldAccessor[accessors.size()]);
+	}
+
+	/**
+	 * The serializer for a packet class. It is created on the first call and then reused.
+	 * @param packetClass The {@link Packet} class
+	 * @return The {@link PacketSerializer} for the class
+	 * @throws IllegalArgumentException When a {@link PacketField} is static, final or not accessible, or a position is used twice
+	 */
+	public static PacketSerializer forClass(Class<? extends Packet> packetClass) {
+		return SERIALIZERS.get(packetClass);
+	}
+
+	/**
+	 * Writes all {@link PacketField}s of the packet.
+	 * @param packet The packet, must be an instance of the class of this serializer
+	 * @param data The {@link WritableByteData} that receives the fields
+	 */
+	public void writeFields(Packet packet, WritableByteData data) {
+		checkType(packet);
+		final Object instance = packet;
+		for(FieldAccessor field : fields) {
+			try {
+				field.write(instance, data);
+			} catch (Throwable e) {
+				if(e instanceof Error) throw (Error) e;
+				NetworkManager.NET_LOG.error("PacketSerializer: Error while writing field " + field.field.getName() + " of " + packetClass.getName(), e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads all {@link PacketField}s of the packet.
+	 * @param packet The packet, must be an instance of the class of this serializer
+	 * @param data The {@link ReadableByteData} that provides the fields
+	 */
+	public void readFields(Packet packet, ReadableByteData data) {
+		checkType(packet);
+		final Object instance = packet;
+		for(FieldAccessor field : fields) {
+			try {
+				field.read(instance, data);
+			} catch (Throwable e) {
+				if(e instanceof Error) throw (Error) e;
+				NetworkManager.NET_LOG.error("PacketSerializer: Error while reading field " + field.field.getName() + " of " + packetClass.getName(), e);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return The amount of {@link PacketField}s in the packet class, including superclasses
+	 */
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	private void checkType(Packet packet) {
+		if(packet.getClass() != packetClass) {
+			throw new IllegalArgumentException("Serializer for " + packetClass.getName() + " can not be used for " + packet.getClass().getName());
+		}
+	}
+
+	private static void addFields(Class<?> type, List<FieldAccessor> accessors) {
+		if(type.getSuperclass() != null) addFields(type.getSuperclass(), accessors);
+		final Map<Integer, Field> sorted = new TreeMap<>();
+		for(Field field : type.getDeclaredFields()) {
+			final PacketField annotation = field.getAnnotation(PacketField.class);
+			if(annotation == null) continue;
+			final int modifiers = field.getModifiers();
+			if(Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) {
+				throw new IllegalArgumentException("Packet field " + type.getName() + "." + field.getName() + " must not be static or final");
+			}
+			final Field previous = sorted.put(annotation.value(), field);
+			if(previous != null) {
+				throw new IllegalArgumentException("Packet fields " + previous.getName() + " and " + field.getName() + " in "
+						+ type.getName() + " have the same position " + annotation.value());
+			}
+		}
+		for(Field field : sorted.values()) {
+			accessors.add(createAccessor(type, field));
+		}
+	}
+
+	private static FieldAccessor createAccessor(Class<?> declaringClass, Field declared) {
+		final Field field = BaseReflectionUtils.getField(declaringClass, declared.getName()); //Accessible instance
+		final MethodHandle getter = MethodHandleUtils.unreflectGetter(field);
+		final MethodHandle setter = MethodHandleUtils.unreflectSetter(field);
+		if(getter == null || setter == null) {
+			throw new IllegalArgumentException("Packet field " + declaringClass.getName() + "." + declared.getName() + " is not accessible");
+		}
+		final Class<?> type = field.getType();
+		if(type == boolean.class) return new BooleanField(field, getter, setter);
+		if(type == byte.class) return new ByteField(field, getter, setter);
+		if(type == short.class) return new ShortField(field, getter, setter);
+		if(type == char.class) return new CharField(field, getter, setter);
+		if(type == int.class) return new IntField(field, getter, setter);
+		if(type == long.class) return new LongField(field, getter, setter);
+		if(type == float.class) return new FloatField(field, getter, setter);
+		if(type == double.class) return new DoubleField(field, getter, setter);
+		if(type == String.class) return new StringField(field, getter, setter);
+		if(type == byte[].class) return new ByteArrayField(field, getter, setter);
+		if(type.isEnum()) return new EnumField(field, getter, setter);
+		return new ObjectField(field, getter, setter);
+	}
+
+	/**
+	 * Getter and setter for one field. The handles are adapted to take the packet as an {@link Object},
+	 * and to use the field type if it is primitive, {@link String} or <code>byte[]</code>, and {@link Object} otherwise.
+	 */
+	private static abstract class FieldAccessor {
+		protected final Field field;
+		protected final MethodHandle getter;
+		protected final MethodHandle setter;
+
+		protected FieldAccessor(Field field, MethodHandle getter, MethodHandle setter, Class<?> handleType) {
+			this.field = field;
+			this.getter = getter.asType(MethodType.methodType(handleType, Object.class));
+			this.setter = setter.asType(MethodType.methodType(void.class, Object.class, handleType));
+		}
+
+		protected abstract void write(Object packet, WritableByteData data) throws Throwable;
+		protected abstract void read(Object packet, ReadableByteData data) throws Throwable;
+	}
+
+	private static final class BooleanField extends FieldAccessor {
+		private BooleanField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, boolean.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeBoolean((boolean) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readBoolean());
+		}
+	}
+
+	private static final class ByteField extends FieldAccessor {
+		private ByteField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, byte.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeByte((byte) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readByte());
+		}
+	}
+
+	private static final class ShortField extends FieldAccessor {
+		private ShortField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, short.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeShort((short) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readShort());
+		}
+	}
+
+	private static final class CharField extends FieldAccessor {
+		private CharField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, char.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeChar((char) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readChar());
+		}
+	}
+
+	private static final class IntField extends FieldAccessor {
+		private IntField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, int.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeInt((int) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readInt());
+		}
+	}
+
+	private static final class LongField extends FieldAccessor {
+		private LongField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, long.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeLong((long) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readLong());
+		}
+	}
+
+	private static final class FloatField extends FieldAccessor {
+		private FloatField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, float.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeFloat((float) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readFloat());
+		}
+	}
+
+	private static final class DoubleField extends FieldAccessor {
+		private DoubleField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, double.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			data.writeDouble((double) getter.invokeExact(packet));
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			setter.invokeExact(packet, data.readDouble());
+		}
+	}
+
+	private static final class StringField extends FieldAccessor {
+		private StringField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, String.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			final String value = (String) getter.invokeExact(packet);
+			data.writeBoolean(value != null);
+			if(value != null) data.writeUTF8(value);
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			final String value = data.readBoolean() ? data.readUTF8() : null;
+			setter.invokeExact(packet, value);
+		}
+	}
+
+	private static final class ByteArrayField extends FieldAccessor {
+		private ByteArrayField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, byte[].class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			final byte[] value = (byte[]) getter.invokeExact(packet);
+			if(value == null) {
+				data.writeInt(-1);
+			} else {
+				data.writeInt(value.length);
+				data.write(value);
+			}
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			final int length = data.readInt();
+			final byte[] value = length < 0 ? null : data.read(length);
+			setter.invokeExact(packet, value);
+		}
+	}
+
+	private static final class EnumField extends FieldAccessor {
+		private final Object[] constants;
+
+		private EnumField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, Object.class);
+			this.constants = field.getType().getEnumConstants();
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			final Enum<?> value = (Enum<?>) (Object) getter.invokeExact(packet);
+			data.writeInt(value == null ? -1 : value.ordinal());
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			final int ordinal = data.readInt();
+			if(ordinal >= constants.length) {
+				throw new IllegalArgumentException("Invalid ordinal " + ordinal + " for enum " + field.getType().getName());
+			}
+			final Object value = ordinal < 0 ? null : constants[ordinal];
+			setter.invokeExact(packet, value);
+		}
+	}
+
+	private static final class ObjectField extends FieldAccessor {
+		private ObjectField(Field field, MethodHandle getter, MethodHandle setter) {
+			super(field, getter, setter, Object.class);
+		}
+
+		@Override
+		protected void write(Object packet, WritableByteData data) throws Throwable {
+			final Object value = (Object) getter.invokeExact(packet);
+			ObjectCodec.binary().writeObject(value, data);
+		}
+
+		@Override
+		protected void read(Object packet, ReadableByteData data) throws Throwable {
+			final Object value = ObjectCodec.binary().readObject(data);
+			if(value != null && !field.getType().isInstance(value)) {
+				throw new ClassCastException("Value of type " + value.getClass().getName() + " can not be stored in field " + field.getName());
+			}
+			setter.invokeExact(packet, value);
+		}
+	}
+
+}
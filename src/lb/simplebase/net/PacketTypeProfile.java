@@ -0,0 +1,72 @@
+package lb.simplebase.net;
+
+/**
+ * The handler times of one packet type at the moment that {@link PacketTypeProfiler#getSnapshot()} was called.
+ * All times are in nanoseconds.
+ */
+public final class PacketTypeProfile {
+
+	private final Class<? extends Packet> packetType;
+	private final long invocationCount;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long percentile99Nanos;
+
+	PacketTypeProfile(Class<? extends Packet> packetType, LatencyHistogram histogram) {
+		this.packetType = packetType;
+		this.invocationCount = histogram.getCount();
+		this.totalNanos = histogram.getTotalNanos();
+		this.maxNanos = histogram.getMaxNanos();
+		this.percentile99Nanos = histogram.getPercentileNanos(0.99);
+	}
+
+	/**
+	 * @return The class of the profiled packets
+	 */
+	public Class<? extends Packet> getPacketType() {
+		return packetType;
+	}
+
+	/**
+	 * @return How often a packet of this type was handled
+	 */
+	public long getInvocationCount() {
+		return invocationCount;
+	}
+
+	/**
+	 * @return The time that was spent handling packets of this type
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return The longest time that handling a single packet of this type took
+	 */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * @return The average time that handling a single packet of this type took
+	 */
+	public double getMeanNanos() {
+		return invocationCount == 0 ? 0 : (double) totalNanos / invocationCount;
+	}
+
+	/**
+	 * The upper bound of the {@link LatencyHistogram} bucket that contains the 99th percentile.
+	 * @return The time that handling 99% of the packets of this type did not exceed
+	 */
+	public long getPercentile99Nanos() {
+		return percentile99Nanos;
+	}
+
+	@Override
+	public String toString() {
+		return packetType.getSimpleName() + " [count=" + invocationCount + ", total=" + totalNanos + "ns, mean=" + (long) getMeanNanos()
+				+ "ns, p99=" + percentile99Nanos + "ns, max=" + maxNanos + "ns]";
+	}
+
+}
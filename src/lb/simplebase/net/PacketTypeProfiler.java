@@ -0,0 +1,87 @@
+package lb.simplebase.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures how long the handlers of a {@link PacketTypeDistributor} take for every packet class.
+ * Every class has its own {@link LatencyHistogram}, so packets of different types and packets that are handled
+ * at the same time are recorded without contention. After the first packet of a class, recording does not allocate.
+ * @see PacketTypeDistributor#setProfilingEnabled(boolean)
+ */
+public final class PacketTypeProfiler {
+
+	private static final Comparator<PacketTypeProfile> HOTTEST_FIRST =
+			Comparator.comparingLong(PacketTypeProfile::getTotalNanos).reversed();
+	
+	private final Map<Class<? extends Packet>, LatencyHistogram> histograms;
+	
+	PacketTypeProfiler() {
+		this.histograms = new ConcurrentHashMap<>();
+	}
+	
+	void record(Class<? extends Packet> packetType, long nanos) {
+		LatencyHistogram histogram = histograms.get(packetType); //get() does not lock, computeIfAbsent might
+		if(histogram == null) histogram = histograms.computeIfAbsent(packetType, (type) -> new LatencyHistogram());
+		histogram.record(nanos);
+	}
+	
+	/**
+	 * The profiles of all packet types that were handled since profiling was enabled or {@link #reset()} was called,
+	 * with the types that used the most handler time first.
+	 * @return A list of profiles that is not updated anymore
+	 */
+	public List<PacketTypeProfile> getSnapshot() {
+		final List<PacketTypeProfile> profiles = new ArrayList<>(histograms.size());
+		for(Map.Entry<Class<? extends Packet>, LatencyHistogram> entry : histograms.entrySet()) {
+			profiles.add(new PacketTypeProfile(entry.getKey(), entry.getValue()));
+		}
+		profiles.sort(HOTTEST_FIRST);
+		return Collections.unmodifiableList(profiles);
+	}
+	
+	/**
+	 * The packet types that used the most handler time in total.
+	 * @param limit The maximum amount of packet types
+	 * @return The first profiles of the {@link #getSnapshot()}
+	 */
+	public List<PacketTypeProfile> getHotTypes(int limit) {
+		if(limit < 0) throw new IllegalArgumentException("Limit must not be negative");
+		final List<PacketTypeProfile> snapshot = getSnapshot();
+		return snapshot.size() <= limit ? snapshot : snapshot.subList(0, limit);
+	}
+	
+	/**
+	 * The profile of a single packet type.
+	 * @param packetType The class of the packet
+	 * @return The profile of this packet type, with an invocation count of <code>0</code> if no packets of this type were handled
+	 */
+	public PacketTypeProfile getProfile(Class<? extends Packet> packetType) {
+		final LatencyHistogram histogram = histograms.get(packetType);
+		return new PacketTypeProfile(packetType, histogram == null ? new LatencyHistogram() : histogram);
+	}
+	
+	/**
+	 * Removes the profiles of all packet types. Packets that are handled at the same time might still be recorded.
+	 */
+	public void reset() {
+		histograms.clear();
+	}
+	
+	/**
+	 * @return A report that lists all profiles, starting with the hottest packet type
+	 */
+	@Override
+	public String toString() {
+		final StringBuilder report = new StringBuilder("PacketTypeProfiler:");
+		for(PacketTypeProfile profile : getSnapshot()) {
+			report.append(System.lineSeparator()).append("  ").append(profile);
+		}
+		return report.toString();
+	}
+	
+}
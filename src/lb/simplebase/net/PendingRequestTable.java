@@ -0,0 +1,129 @@
+package lb.simplebase.net;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The requests of a {@link RequestManager} that wait for a response, by correlation id.<br>
+ * Every entry has a timeout on the shared {@link TimerWheel}. An entry is removed before its future is completed by a response, a failure
+ * or the timeout, so it is no longer counted when the application sees the result. If the application cancels the future,
+ * the entry is removed right after that. The timeout is canceled when the future is done.
+ * Futures are never completed on the thread of the wheel, because that would run the dependent stages of the application there.
+ */
+final class PendingRequestTable {
+
+	private final ConcurrentMap<Long, PendingRequest<?>> pending;
+
+	PendingRequestTable() {
+		this.pending = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Adds a request that waits for a response.
+	 * @param correlationId The id of the request, must not be in use
+	 * @param target The side that the request is sent to, only responses from there are accepted
+	 * @param responseType The expected type of the response
+	 * @param timeout The time in ms after which the future fails with a {@link TimeoutException}
+	 * @return The future that is completed with the response
+	 */
+	<T extends Packet> CompletableFuture<T> add(long correlationId, TargetIdentifier target, Class<T> responseType, int timeout) {
+		final PendingRequest<T> request = new PendingRequest<>(target, responseType);
+		final Long key = correlationId;
+		if(pending.putIfAbsent(key, request) != null) throw new IllegalStateException("Correlation id " + correlationId + " is already in use");
+		final TimerWheel.Timeout timer = TimerWheel.shared().schedule(() -> {
+			final TimeoutException error = new TimeoutException("No response was received within " + timeout + "ms");
+			if(!AsyncNetTask.executeAsync(() -> fail(key, request, error))) fail(key, request, error);
+		}, timeout, TimeUnit.MILLISECONDS);
+		request.future.whenComplete((value, error) -> {
+			pending.remove(key, request);
+			timer.cancel();
+		});
+		return request.future;
+	}
+
+	/**
+	 * Completes a request with the response. If the response does not have the expected type, the request fails.
+	 * @param correlationId The id of the request
+	 * @param source The side that sent the response
+	 * @param response The response
+	 * @return Whether a request with this id was waiting for a response from the source
+	 */
+	boolean complete(long correlationId, TargetIdentifier source, Packet response) {
+		final PendingRequest<?> request = pending.get(correlationId);
+		if(request == null || !request.target.equals(source)) return false;
+		pending.remove(correlationId, request);
+		request.complete(response);
+		return true;
+	}
+
+	/**
+	 * Fails a request.
+	 * @param correlationId The id of the request
+	 * @param source The side that sent the failure
+	 * @param error The exception for the future
+	 * @return Whether a request with this id was waiting for a response from the source
+	 */
+	boolean fail(long correlationId, TargetIdentifier source, Throwable error) {
+		final PendingRequest<?> request = pending.get(correlationId);
+		if(request == null || !request.target.equals(source)) return false;
+		fail(correlationId, request, error);
+		return true;
+	}
+
+	/**
+	 * Fails all requests that were sent to a target, e.g. because the connection was closed.
+	 * @param target The target of the requests
+	 * @param error The exception for the futures
+	 * @return The amount of failed requests
+	 */
+	int failAll(TargetIdentifier target, Throwable error) {
+		int count = 0;
+		for(Map.Entry<Long, PendingRequest<?>> entry : pending.entrySet()) {
+			final PendingRequest<?> request = entry.getValue();
+			if(request.target.equals(target) && fail(entry.getKey(), request, error)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Removes a request and then fails its future.
+	 * @return Whether the future was failed by this call
+	 */
+	private boolean fail(Long key, PendingRequest<?> request, Throwable error) {
+		pending.remove(key, request);
+		return request.future.completeExceptionally(error);
+	}
+
+	/**
+	 * @return The amount of requests that wait for a response
+	 */
+	int size() {
+		return pending.size();
+	}
+
+	private static final class PendingRequest<T extends Packet> {
+		private final TargetIdentifier target;
+		private final Class<T> responseType;
+		private final CompletableFuture<T> future;
+
+		private PendingRequest(TargetIdentifier target, Class<T> responseType) {
+			this.target = target;
+			this.responseType = responseType;
+			this.future = new CompletableFuture<>();
+		}
+
+		private void complete(Packet response) {
+			if(responseType.isInstance(response)) {
+				future.complete(responseType.cast(response));
+			} else {
+				future.completeExceptionally(new RequestFailedException("Response has type " + response.getClass().getSimpleName()
+						+ ", but " + responseType.getSimpleName() + " was expected"));
+			}
+		}
+	}
+
+}
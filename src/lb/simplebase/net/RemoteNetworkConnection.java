@@ -1,9 +1,14 @@
 package lb.simplebase.net;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import lb.simplebase.action.AsyncResult;
 import lb.simplebase.net.ClosedConnectionEvent.Cause;
@@ -11,48 +16,233 @@ import lb.simplebase.util.OptionalError;
 
 class RemoteNetworkConnection extends NetworkConnection{
 
+	/**
+	 * Queued packets are copied into a buffer of this size, so that many small packets are sent with one write
+	 */
+	public static final int WRITE_BUFFER_SIZE = 16384;
+	
 	private final Socket connection;
 	private final DataReceiverThread dataThread;
 	private final PacketFactory factory;
 	
-	public RemoteNetworkConnection(TargetIdentifier source, TargetIdentifier target, NetworkManager packetHandler, Socket connectedSocket, boolean isServer, Object payload) {
+	private final MultiplexedWriteQueue writeQueue;
+	private final AtomicBoolean writerScheduled;
+	private final int fragmentSize;
+	private byte[] writeBuffer; //Only used by the writer task
+	
+	public RemoteNetworkConnection(TargetIdentifier source, TargetIdentifier target, NetworkManager packetHandler, Socket connectedSocket, boolean isServer, Object payload, int readBufferSize, boolean virtualThreads, boolean compactFrames, int compressionThreshold, int fragmentSize, int maxFrameSize) {
 		super(source, target, packetHandler, ConnectionState.fromSocket(connectedSocket), isServer, payload); //Create the state from the socket (that might be open from a server)
 		
 		this.connection = connectedSocket;
-		this.factory = new PacketFactory(getNetworkManager(), this::handleReceivedPacket);
-		this.dataThread = new DataReceiverThread(connection, factory, this);
+		this.factory = new PacketFactory(getNetworkManager(), this::handleReceivedPacket, compactFrames, compressionThreshold, getCompressionStatistics());
+		this.dataThread = new DataReceiverThread(connection, factory, this, readBufferSize, virtualThreads);
+		this.writeQueue = new MultiplexedWriteQueue();
+		this.writerScheduled = new AtomicBoolean(false);
+		this.fragmentSize = fragmentSize;
+		if(fragmentSize > 0) factory.enableFragments();
+		factory.setMaxFrameSize(maxFrameSize);
+		factory.setProtocolErrorHandler(() -> closeWithCause(Cause.PROTOCOL_ERROR));
 		
-		if(connectedSocket.isConnected()) dataThread.start(); //Begin when a live socket is used
+		if(connectedSocket.isConnected()) { //Begin when a live socket is used
+			dataThread.start();
+			sendHandshake();
+		}
 	}
 	
+	/**
+	 * Encodes the packet on the calling thread and adds it to the outbound queue of this connection.
+	 * The queue is written by only one task at a time, so packets of one {@link PacketChannel} arrive in the order
+	 * in which this method was called. Packets of channels with a higher priority are written first.
+	 * The returned {@link AsyncResult} is done when the bytes of the packet have been written to the socket.
+	 */
 	@Override
 	public AsyncResult sendPacketToTarget(Packet packet) {
 		if(getState() == ConnectionState.OPEN) {
-			return AsyncNetTask.submitTask((f) -> {
-				byte[] dataToSend;
-				//1. Split packet into bytes
-				try {
-					dataToSend = factory.createPacketData(packet);
-				} catch (PacketMappingNotFoundException e) {
-					f.setErrorAndMessage(e, "No mapping was found for packet type " + packet.getClass().getSimpleName());
-					return; //On error, abort here
-				}
-				//2. Try to send it through the connection
-				try {
-					connection.getOutputStream().write(dataToSend);
-				} catch (IOException e) {
-					f.setErrorAndMessage(e, "An IO error occurred while trying to write packet data to the connection");
-					return;
-				}
-				//3. Done!
-			});
+			final EncodedPacket dataToSend;
+			try {
+				dataToSend = factory.encodeForQueue(packet);
+			} catch (PacketMappingNotFoundException e) {
+				return AsyncNetTask.createFailed(e, "No mapping was found for packet type " + packet.getClass().getSimpleName());
+			}
+			return queuePacket(dataToSend);
 		} else {
 			return AsyncNetTask.createFailed(null, "Connection was not open");
 		}
 	}
 	
+	/**
+	 * Queues the handshake control frame that tells the remote side that compact frames or fragments can be read.
+	 */
+	private void sendHandshake() {
+		if(factory.isCompactFrameEnabled() || factory.isFragmentEnabled()) queuePacket(new EncodedPacket(factory.encodeHandshake()));
+	}
+	
+	@Override
+	void sendHeartbeat() {
+		if(getState() == ConnectionState.OPEN) queuePacket(new EncodedPacket(factory.encodeHeartbeat()));
+	}
+	
+	@Override
+	void sendDatagramOffer(long token, int port) {
+		if(getState() == ConnectionState.OPEN) queuePacket(new EncodedPacket(factory.encodeDatagramOffer(token, port)));
+	}
+	
+	/**
+	 * Accepts the datagram offer of the server. Must be called before the connection is connected.
+	 * @param sequenced Whether the datagrams to the server have sequence numbers
+	 */
+	void enableDatagrams(boolean sequenced) {
+		factory.setDatagramOfferReceiver((token, port) -> acceptDatagramOffer(token, port, sequenced));
+	}
+	
+	private void acceptDatagramOffer(long token, int port, boolean sequenced) {
+		try {
+			final InetSocketAddress serverAddress = new InetSocketAddress(connection.getInetAddress(), port);
+			setDatagramEndpoint(DatagramEndpoint.createClient(this, factory, token, serverAddress, sequenced));
+			NetworkManager.NET_LOG.info("Network Connection: Datagrams enabled with server port " + port);
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.error("Network Connection: Could not open the datagram socket, datagrams are disabled", e);
+		}
+	}
+	
+	@Override
+	PacketFactory getPacketFactory() {
+		return factory;
+	}
+	
+	@Override
+	protected void closeWithReason(Cause cause) {
+		super.closeWithReason(cause);
+		factory.notifyConnectionClosed();
+		dataThread.setPaused(false); //Let the thread see that the socket is closed
+	}
+	
+	@Override
+	void setReadingPaused(boolean paused) {
+		dataThread.setPaused(paused);
+	}
+	
+	@Override
+	boolean usesCompactFrames() {
+		return factory.isCompactFrameOutput();
+	}
+	
+	@Override
+	AsyncResult sendEncodedPacket(Packet packet, EncodedPacket encoded) {
+		if(getState() == ConnectionState.OPEN) {
+			return queuePacket(encoded.retain());
+		} else {
+			return AsyncNetTask.createFailed(null, "Connection was not open");
+		}
+	}
+	
+	private AsyncResult queuePacket(EncodedPacket dataToSend) {
+		final AsyncNetTask task = AsyncNetTask.createPending();
+		writeQueue.add(dataToSend, task);
+		scheduleWriter();
+		return task;
+	}
+	
+	private void scheduleWriter() {
+		if(writerScheduled.compareAndSet(false, true)) {
+			if(!executeAsync(this::writeQueuedPackets)) {
+				failQueuedPackets(null, "Packet could not be sent: Executor was shut down");
+				writerScheduled.set(false);
+			}
+		}
+	}
+	
+	/**
+	 * Writes all queued packets. Packets that are queued at the same time are collected in the write buffer
+	 * and sent with a single write call. Only one instance of this task runs at a time.
+	 * The encoded packets are released when they were written.
+	 */
+	private void writeQueuedPackets() {
+		if(writeBuffer == null) writeBuffer = new byte[WRITE_BUFFER_SIZE];
+		final MultiplexedWriteQueue.Slice slice = new MultiplexedWriteQueue.Slice();
+		final List<MultiplexedWriteQueue.Entry> written = new ArrayList<>();
+		do {
+			try {
+				writeSlices(connection.getOutputStream(), slice, written);
+			} catch (IOException e) {
+				NetworkManager.NET_LOG.error("Network Connection: Could not write " + written.size() + " packets", e);
+				for(MultiplexedWriteQueue.Entry failed : written) {
+					getMetrics().recordSendFailure();
+					failed.data.release();
+					failed.task.completePending(e, "An IO error occurred while trying to write packet data to the connection");
+				}
+				written.clear();
+				//The rest of a frame that was written in fragments can't be sent anymore
+				failQueuedPackets(e, "An IO error occurred while trying to write packet data to the connection");
+			}
+			writerScheduled.set(false);
+			//A sender might have added a packet after the queue was empty, but before the flag was reset
+		} while(!writeQueue.isEmpty() && writerScheduled.compareAndSet(false, true));
+	}
+	
+	/**
+	 * Writes slices until the queue is empty. The queue chooses the lane again for every slice, so a packet of a higher priority
+	 * that is queued while a large packet is written in fragments is sent after the current fragment.
+	 */
+	private void writeSlices(OutputStream output, MultiplexedWriteQueue.Slice slice, List<MultiplexedWriteQueue.Entry> written) throws IOException {
+		final int currentFragmentSize = factory.isFragmentedOutput() ? fragmentSize : 0;
+		int length = 0;
+		while(writeQueue.next(slice, currentFragmentSize)) {
+			final int size = slice.getTotalLength();
+			if(length > 0 && length + size > writeBuffer.length) { //Does not fit: send what we have first
+				output.write(writeBuffer, 0, length);
+				length = 0;
+				completeWritten(written);
+			}
+			if(size > writeBuffer.length) { //Too large for the buffer anyways
+				if(slice.headerLength > 0) output.write(slice.header, 0, slice.headerLength);
+				output.write(slice.array, slice.offset, slice.length);
+				final MultiplexedWriteQueue.Entry done = writeQueue.advance(slice);
+				if(done != null) written.add(done);
+				completeWritten(written);
+			} else {
+				System.arraycopy(slice.header, 0, writeBuffer, length, slice.headerLength);
+				System.arraycopy(slice.array, slice.offset, writeBuffer, length + slice.headerLength, slice.length);
+				length += size;
+				final MultiplexedWriteQueue.Entry done = writeQueue.advance(slice);
+				if(done != null) written.add(done);
+			}
+		}
+		if(length > 0) output.write(writeBuffer, 0, length);
+		output.flush();
+		completeWritten(written);
+	}
+	
+	private void completeWritten(List<MultiplexedWriteQueue.Entry> written) {
+		recordWriteActivity();
+		for(MultiplexedWriteQueue.Entry entry : written) {
+			getMetrics().recordPacketSent(entry.data.getLength(), entry.startNanos);
+			entry.data.release();
+			entry.task.completePending(null, null);
+		}
+		written.clear();
+	}
+	
+	private void failQueuedPackets(Exception ex, String message) {
+		MultiplexedWriteQueue.Entry unsent;
+		while((unsent = writeQueue.poll()) != null) {
+			getMetrics().recordSendFailure();
+			unsent.data.release();
+			unsent.task.completePending(ex, message);
+		}
+	}
+	
 	@Override
 	public Optional<IOException> close() {
+		return closeWithCause(Cause.EXPECTED);
+	}
+	
+	@Override
+	void closeTimedOut() {
+		closeWithCause(Cause.TIMEOUT);
+	}
+	
+	private Optional<IOException> closeWithCause(Cause cause) {
 		try { //The entire thing changes the state, so sync on write
 			stateRW.writeLock().lock();
 			NetworkManager.NET_LOG.debug("Closing connection, current state " + getState());
@@ -64,12 +254,14 @@ class RemoteNetworkConnection extends NetworkConnection{
 					connection.shutdownOutput();
 					connection.close();
 					NetworkManager.NET_LOG.info("Closed Network connection to " + getRemoteTargetId());
-					closeWithReason(Cause.EXPECTED);
+					closeWithReason(cause);
 					return Optional.empty();
 				} catch (IOException e) {
 					NetworkManager.NET_LOG.error("Closing the Socket failed with exception", e);
-					closeWithReason(Cause.EXPECTED); //It is expected to close, this IOException did not CAUSE closing the socket
+					closeWithReason(cause); //This IOException did not CAUSE closing the socket
 					return Optional.of(e);
+				} finally {
+					failQueuedPackets(null, "Connection was closed before the packet was sent");
 				}
 			}
 		} finally {
@@ -89,6 +281,8 @@ class RemoteNetworkConnection extends NetworkConnection{
 					dataThread.start();
 					//And lastly set the state
 					state = ConnectionState.OPEN;
+					sendHandshake();
+					startIdleTimeouts();
 					return OptionalError.ofValue(Boolean.FALSE, IOException.class);
 				} catch (SocketTimeoutException e) {
 					NetworkManager.NET_LOG.warn("The timeout (" + timeout + "ms) expired before a connection could be made", e);
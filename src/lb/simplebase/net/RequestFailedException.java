@@ -0,0 +1,29 @@
+package lb.simplebase.net;
+
+/**
+ * This {@link Exception} completes the future of a request sent by a {@link RequestManager} when no matching response will arrive,
+ * e.g. because the request could not be sent, the connection was closed, or the remote side could not handle the request.
+ * Requests that are not answered in time fail with a {@link java.util.concurrent.TimeoutException} instead.
+ */
+public class RequestFailedException extends Exception {
+
+	private static final long serialVersionUID = -3517620946870385527L;
+
+	/**
+	 * Creates a new {@link RequestFailedException}.
+	 * @param message The error message
+	 */
+	public RequestFailedException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Creates a new {@link RequestFailedException}.
+	 * @param message The error message
+	 * @param cause The exception that made the request fail, can be <code>null</code>
+	 */
+	public RequestFailedException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+}
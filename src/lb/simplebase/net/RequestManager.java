@@ -0,0 +1,261 @@
+package lb.simplebase.net;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lb.simplebase.action.AsyncResult;
+import lb.simplebase.io.ReadableArrayData;
+
+/**
+ * Sends packets as requests and completes a {@link CompletableFuture} when the matching response arrives.<br>
+ * Every request gets a correlation id, which the response carries back, so any amount of requests can wait for their
+ * responses on one connection at the same time, and responses can arrive in any order. Requests that wait for a response are kept
+ * in a table with a timeout for each of them: a request fails with a {@link java.util.concurrent.TimeoutException} if no response
+ * arrives in time, and with a {@link RequestFailedException} if it could not be sent, if its connection is closed, or if the
+ * remote side could not handle it.
+ * <p>
+ * Both sides of a connection need a {@link RequestManager} with the same packet id. The other side answers requests with the
+ * handlers that were set with {@link #setRequestHandler(Class, RequestHandler)}. Requests and responses are normal packets
+ * that need their own {@link PacketIdMapping}s, and they are wrapped in a {@link CorrelatedPacket} when they are sent.
+ * <pre>
+ * RequestManager serverRequests = new RequestManager(server, 100);
+ * serverRequests.setRequestHandler(PingPacket.class, (ping, context) -&gt; new PongPacket(ping.getTime()));
+ *
+ * RequestManager clientRequests = new RequestManager(client, 100);
+ * clientRequests.request(new PingPacket(), PongPacket.class).thenAccept(...);
+ * </pre>
+ * Futures are completed on the threads that process received packets, or on the executor for asynchronous tasks.
+ */
+public final class RequestManager implements PacketReceiver {
+
+	/**
+	 * The time in ms that requests wait for a response if no other timeout is set
+	 */
+	public static final int DEFAULT_TIMEOUT = 30000;
+
+	private final NetworkManagerCommon manager;
+	private final PendingRequestTable pending;
+	private final AtomicLong nextCorrelationId;
+	private final Map<Class<? extends Packet>, RequestHandler<?>> handlers;
+	private volatile int defaultTimeout;
+
+	/**
+	 * Creates a new {@link RequestManager} for a network manager. The mapping for {@link CorrelatedPacket}s is added to the manager,
+	 * and the {@link RequestManager} is added to its packet handlers.
+	 * @param manager The network manager that sends and receives requests and responses
+	 * @param packetId The packet id for {@link CorrelatedPacket}s, which must be the same on both sides
+	 */
+	public RequestManager(NetworkManagerCommon manager, int packetId) {
+		this.manager = Objects.requireNonNull(manager, "Network manager must not be null");
+		this.pending = new PendingRequestTable();
+		this.nextCorrelationId = new AtomicLong(0);
+		this.handlers = new ConcurrentHashMap<>();
+		this.defaultTimeout = DEFAULT_TIMEOUT;
+		manager.addMapping(PacketIdMapping.create(packetId, CorrelatedPacket.class, CorrelatedPacket::new));
+		manager.addIncomingPacketHandler(this);
+		manager.getEventBus().register(this::failRequestsOfClosedConnection, ClosedConnectionEvent.class);
+	}
+
+	/**
+	 * Sends a request to the server of a client manager. The request uses the default timeout.
+	 * @param request The request
+	 * @param responseType The expected type of the response
+	 * @return A future that is completed with the response
+	 * @throws IllegalStateException If the network manager of this {@link RequestManager} is not a {@link NetworkManagerClient}
+	 */
+	public <T extends Packet> CompletableFuture<T> request(Packet request, Class<T> responseType) {
+		if(!(manager instanceof NetworkManagerClient)) throw new IllegalStateException("Requests without a target can only be sent by a client");
+		return request(((NetworkManagerClient) manager).getServerIndentifier(), request, responseType, defaultTimeout);
+	}
+
+	/**
+	 * Sends a request to a client, or, for a client manager, to the server. The request uses the default timeout.
+	 * @param target The {@link TargetIdentifier} of the remote side
+	 * @param request The request
+	 * @param responseType The expected type of the response
+	 * @return A future that is completed with the response
+	 */
+	public <T extends Packet> CompletableFuture<T> request(TargetIdentifier target, Packet request, Class<T> responseType) {
+		return request(target, request, responseType, defaultTimeout);
+	}
+
+	/**
+	 * Sends a request to a client, or, for a client manager, to the server.
+	 * @param target The {@link TargetIdentifier} of the remote side
+	 * @param request The request
+	 * @param responseType The expected type of the response
+	 * @param timeout The time in ms after which the future fails with a {@link java.util.concurrent.TimeoutException}
+	 * @return A future that is completed with the response
+	 */
+	public <T extends Packet> CompletableFuture<T> request(TargetIdentifier target, Packet request, Class<T> responseType, int timeout) {
+		Objects.requireNonNull(target, "Target must not be null");
+		Objects.requireNonNull(request, "Request must not be null");
+		Objects.requireNonNull(responseType, "Response type must not be null");
+		if(timeout <= 0) throw new IllegalArgumentException("Timeout must be at least 1ms");
+		final PacketIdMapping mapping = manager.getMappingFor(request.getClass());
+		if(mapping == null) {
+			final CompletableFuture<T> failed = new CompletableFuture<>();
+			failed.completeExceptionally(new PacketMappingNotFoundException("No mapping was found when trying to send request", request));
+			return failed;
+		}
+		final long correlationId = nextCorrelationId.getAndIncrement();
+		final CompletableFuture<T> future = pending.add(correlationId, target, responseType, timeout);
+		final AsyncResult sent = send(target, new CorrelatedPacket(correlationId, CorrelatedPacket.REQUEST, mapping.getPacketId(), request));
+		sent.addDoneHandler(() -> {
+			if(sent.isFailed()) future.completeExceptionally(new RequestFailedException("Request could not be sent: " + sent.getErrorMessage(), sent.getError()));
+		});
+		return future;
+	}
+
+	private AsyncResult send(TargetIdentifier target, Packet packet) {
+		if(manager instanceof NetworkManagerServer) {
+			return ((NetworkManagerServer) manager).sendPacketToClient(packet, target);
+		} else if(manager instanceof NetworkManagerClient) {
+			return ((NetworkManagerClient) manager).sendPacketTo(packet, target);
+		} else {
+			return AsyncNetTask.createFailed(null, "Network manager can't send packets");
+		}
+	}
+
+	/**
+	 * Sets the handler that answers requests of a type. Requests without a handler are answered with a failure.
+	 * @param type The class of the request packets
+	 * @param handler The handler, or <code>null</code> to remove the handler
+	 */
+	public <Q extends Packet> void setRequestHandler(Class<Q> type, RequestHandler<? super Q> handler) {
+		Objects.requireNonNull(type, "Request type must not be null");
+		if(handler == null) {
+			handlers.remove(type);
+		} else {
+			handlers.put(type, handler);
+		}
+	}
+
+	/**
+	 * Sets the timeout for requests that are sent without a timeout.
+	 * @param timeout The timeout in ms
+	 */
+	public void setDefaultTimeout(int timeout) {
+		if(timeout <= 0) throw new IllegalArgumentException("Timeout must be at least 1ms");
+		defaultTimeout = timeout;
+	}
+
+	/**
+	 * @return The timeout in ms for requests that are sent without a timeout
+	 */
+	public int getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	/**
+	 * @return The amount of requests that were sent and wait for a response
+	 */
+	public int getPendingRequestCount() {
+		return pending.size();
+	}
+
+	/**
+	 * Handles received {@link CorrelatedPacket}s. All other packets are ignored.
+	 */
+	@Override
+	public void processPacket(Packet received, PacketContext source) {
+		if(!(received instanceof CorrelatedPacket)) return;
+		final CorrelatedPacket packet = (CorrelatedPacket) received;
+		switch (packet.getKind()) {
+		case CorrelatedPacket.REQUEST:
+			handleRequest(packet, source);
+			break;
+		case CorrelatedPacket.RESPONSE:
+			try {
+				if(!pending.complete(packet.getCorrelationId(), source.getSenderId(), decodePayload(packet))) {
+					NetworkManager.NET_LOG.debug("Request Manager: Response without a waiting request (" + packet.getCorrelationId() + ")");
+				}
+			} catch (PacketMappingNotFoundException | RuntimeException e) {
+				pending.fail(packet.getCorrelationId(), source.getSenderId(), new RequestFailedException("Response could not be decoded", e));
+			}
+			break;
+		case CorrelatedPacket.FAILURE:
+			pending.fail(packet.getCorrelationId(), source.getSenderId(), new RequestFailedException(packet.getFailureMessage()));
+			break;
+		default:
+			NetworkManager.NET_LOG.warn("Request Manager: Unknown correlated packet kind " + packet.getKind() + ", packet ignored");
+			break;
+		}
+	}
+
+	private void handleRequest(CorrelatedPacket packet, PacketContext source) {
+		final long correlationId = packet.getCorrelationId();
+		final Packet request;
+		try {
+			request = decodePayload(packet);
+		} catch (PacketMappingNotFoundException | RuntimeException e) {
+			NetworkManager.NET_LOG.warn("Request Manager: Request could not be decoded", e);
+			source.replyPacket(new CorrelatedPacket(correlationId, "Request could not be decoded: " + e.getMessage()));
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		final RequestHandler<Packet> handler = (RequestHandler<Packet>) handlers.get(request.getClass());
+		if(handler == null) {
+			source.replyPacket(new CorrelatedPacket(correlationId, "No handler for requests of type " + request.getClass().getSimpleName()));
+			return;
+		}
+		final Packet response;
+		try {
+			response = handler.handleRequest(request, source);
+		} catch (Exception e) {
+			NetworkManager.NET_LOG.warn("Request Manager: Request handler threw an exception", e);
+			source.replyPacket(new CorrelatedPacket(correlationId, "Request handler failed: " + e));
+			return;
+		}
+		if(response == null) {
+			source.replyPacket(new CorrelatedPacket(correlationId, "Request handler did not return a response"));
+			return;
+		}
+		final PacketIdMapping mapping = manager.getMappingFor(response.getClass());
+		if(mapping == null) {
+			NetworkManager.NET_LOG.warn("Request Manager: No mapping was found for response type " + response.getClass().getSimpleName());
+			source.replyPacket(new CorrelatedPacket(correlationId, "No mapping was found for response type " + response.getClass().getSimpleName()));
+		} else {
+			source.replyPacket(new CorrelatedPacket(correlationId, CorrelatedPacket.RESPONSE, mapping.getPacketId(), response));
+		}
+	}
+
+	/**
+	 * Creates the wrapped packet from its bytes, or returns the packet object if it was delivered through a local connection.
+	 */
+	private Packet decodePayload(CorrelatedPacket packet) throws PacketMappingNotFoundException {
+		if(packet.getPayload() != null) return packet.getPayload();
+		final PacketIdMapping mapping = manager.getMappingFor(packet.getPayloadId());
+		if(mapping == null) throw new PacketMappingNotFoundException("mapping not found for id while constructing wrapped packet", packet.getPayloadId());
+		final Packet payload = mapping.getNewInstance();
+		payload.readData(new ReadableArrayData(packet.getPayloadData(), false));
+		return payload;
+	}
+
+	private void failRequestsOfClosedConnection(ClosedConnectionEvent event) {
+		final TargetIdentifier remote = event.getConnectionContext().getSenderId();
+		final int count = pending.failAll(remote, new RequestFailedException("Connection was closed (" + event.getCause() + ")"));
+		if(count > 0) NetworkManager.NET_LOG.info("Request Manager: " + count + " requests failed because the connection was closed (" + remote + ")");
+	}
+
+	/**
+	 * Answers requests of one type
+	 * @param <Q> The type of the request packets
+	 */
+	@FunctionalInterface
+	public static interface RequestHandler<Q extends Packet> {
+		/**
+		 * Creates the response for a request. If this method throws an exception or returns <code>null</code>,
+		 * the request fails with a {@link RequestFailedException} on the requesting side.
+		 * @param request The request
+		 * @param context The context of the connection that the request was received from
+		 * @return The response, which is sent back to the requesting side
+		 * @throws Exception If the request can't be answered
+		 */
+		public Packet handleRequest(Q request, PacketContext context) throws Exception;
+	}
+
+}
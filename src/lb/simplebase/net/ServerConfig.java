@@ -2,17 +2,51 @@ package lb.simplebase.net;
 
 import java.io.IOException;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Objects;
 import java.util.function.Consumer;
 
 public class ServerConfig {
 
 	private int threads;
 	private byte[] udpDiscovery;
+	private int readBufferSize;
+	private int selectorThreads;
+	private boolean virtualThreads;
+	private boolean compactFrames;
+	private int compressionThreshold;
+	private int fragmentSize;
+	private int maxFrameSize;
+	private int datagramPort;
+	private boolean datagramSequencing;
+	private boolean orderedDispatch;
+	private int connectionQueueLimit;
+	private int totalQueueLimit;
+	private InboundOverflowPolicy overflowPolicy;
+	private LocalDelivery localDelivery;
+	private int readIdleTimeout;
+	private int writeIdleTimeout;
 	public Consumer<ServerSocket> modSocket;
 	
 	protected ServerConfig() {
 		threads = 0; //Zero means unlimited threads
 		udpDiscovery = null;
+		readBufferSize = DataReceiverThread.DEFAULT_BUFFER_SIZE;
+		selectorThreads = 0; //Zero means blocking sockets
+		virtualThreads = false;
+		compactFrames = false;
+		compressionThreshold = -1;
+		fragmentSize = 0;
+		maxFrameSize = PacketFactory.DEFAULT_MAX_FRAME_SIZE;
+		datagramPort = -1;
+		datagramSequencing = false;
+		orderedDispatch = false;
+		connectionQueueLimit = 0;
+		totalQueueLimit = 0;
+		overflowPolicy = InboundOverflowPolicy.PAUSE_READING;
+		localDelivery = LocalDelivery.DIRECT;
+		readIdleTimeout = 0;
+		writeIdleTimeout = 0;
 	}
 	
 	public void setDatagramDiscovery(byte[] headerSequence) {
@@ -40,6 +74,250 @@ public class ServerConfig {
 		return this;
 	}
 	
+	/**
+	 * Sets the size of the buffer that data received from a client is read into before it is decoded.
+	 * Every client connection has its own buffer of this size.
+	 * @param size The buffer size in bytes, must be at least 1
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setReadBufferSize(int size) {
+		if(size <= 0) throw new IllegalArgumentException("Read buffer size must be at least 1");
+		readBufferSize = size;
+		return this;
+	}
+	
+	/**
+	 * Selects the transport that the server uses for client connections.<br>
+	 * If the count is <code>0</code> (the default), every client connection uses a blocking {@link java.net.Socket} with its own receiver thread.
+	 * If the count is greater than <code>0</code>, the server uses non-blocking {@link java.nio.channels.SocketChannel}s, and
+	 * all connections are served by this amount of selector threads. This allows many more clients than the blocking transport.
+	 * Both transports post the same events and deliver packets to the same {@link PacketReceiver}s.
+	 * @param count The amount of selector threads, or <code>0</code> for blocking sockets
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setSelectorThreadCount(int count) {
+		if(count < 0) throw new IllegalArgumentException("Selector thread count must not be negative");
+		selectorThreads = count;
+		return this;
+	}
+	
+	/**
+	 * Runs the receiver loop of every client connection and the packet handlers on virtual threads instead of platform threads.
+	 * This allows the blocking socket transport to serve many idle connections without one platform thread each.<br>
+	 * Virtual threads require Java 21 or newer. On older JVMs, a warning is logged and platform threads are used.<br>
+	 * When enabled, the processing thread count is ignored: every received packet is handled on a new virtual thread.
+	 * Asynchronous tasks of the server's connections, like writing queued packets, also run on virtual threads.
+	 * Other servers and clients are not affected and keep using platform threads.
+	 * @param enabled Whether virtual threads should be used
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setVirtualThreads(boolean enabled) {
+		virtualThreads = enabled;
+		return this;
+	}
+	
+	/**
+	 * Enables the compact frame format for client connections. Packet ids and lengths are then written as variable-length integers,
+	 * which saves up to 9 bytes for every small packet. The format is negotiated when a connection is opened, so
+	 * it is only used if the other side has enabled it too. Disabled by default.
+	 * @param enabled Whether compact frames should be used
+	 * @return This {@link ServerConfig}
+	 * @see PacketFactory
+	 */
+	public ServerConfig setCompactFrames(boolean enabled) {
+		compactFrames = enabled;
+		return this;
+	}
+	
+	protected boolean useCompactFrames() {
+		return compactFrames || compressionThreshold >= 0;
+	}
+	
+	/**
+	 * Compresses packets with at least this amount of data bytes before they are sent to clients. Smaller packets are sent
+	 * as they are, because compression would not make them smaller. Compressed packets are sent as compact frames,
+	 * so this enables compact frames too (see {@link #setCompactFrames(boolean)}).
+	 * Whether compression pays off can be checked with {@link NetworkConnection#getCompressionStatistics()}.
+	 * Disabled by default.
+	 * @param threshold The minimum amount of data bytes, or a negative value to disable compression
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setCompressionThreshold(int threshold) {
+		compressionThreshold = threshold < 0 ? -1 : threshold;
+		return this;
+	}
+	
+	protected int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Splits frames that are larger than this amount of bytes into fragments when they are sent to clients, so that packets of
+	 * {@link PacketChannel}s with a higher priority can be sent between the fragments instead of waiting until the large packet was sent.
+	 * Fragments are only sent if the other side has set a fragment size too, which is negotiated when a connection is opened.
+	 * Packets of channels with a higher priority are always sent first, fragments only make the waiting time shorter when large packets are sent.
+	 * Disabled by default.
+	 * @param fragmentSize The maximum amount of bytes of a frame that are sent at once, or <code>0</code> to disable fragments
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setFragmentSize(int fragmentSize) {
+		if(fragmentSize < 0) throw new IllegalArgumentException("Fragment size must not be negative");
+		this.fragmentSize = fragmentSize;
+		return this;
+	}
+	
+	protected int getFragmentSize() {
+		return fragmentSize;
+	}
+	
+	/**
+	 * Limits the size of a frame that the remote side sends in fragments, and at most {@link PacketFactory#MAX_FRAGMENT_STREAMS} fragment streams
+	 * can be open at the same time. A connection whose remote side exceeds a limit is closed with {@link ClosedConnectionEvent.Cause#PROTOCOL_ERROR}.
+	 * The default is {@link PacketFactory#DEFAULT_MAX_FRAME_SIZE}.
+	 * @param maxFrameSize The maximum amount of bytes of a reassembled frame
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setMaxFrameSize(int maxFrameSize) {
+		if(maxFrameSize <= 0) throw new IllegalArgumentException("Maximum frame size must be positive");
+		this.maxFrameSize = maxFrameSize;
+		return this;
+	}
+	
+	protected int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+	
+	/**
+	 * Opens a UDP socket for unreliable datagrams next to the connections to clients, see {@link NetworkConnection#sendDatagramToTarget(Packet)}.
+	 * The port is sent to every client over its connection, and clients that have enabled datagrams with {@link ClientConfig#setDatagrams(boolean)}
+	 * then send and receive datagrams as well. The port must be different from the server port if LAN discovery is used, because that uses
+	 * the server port for UDP. Disabled by default.
+	 * @param port The UDP port, <code>0</code> for any free port, or a negative value to disable datagrams
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setDatagramPort(int port) {
+		if(port > 65535) throw new IllegalArgumentException("Datagram port must be at most 65535");
+		datagramPort = port;
+		return this;
+	}
+	
+	protected int getDatagramPort() {
+		return datagramPort;
+	}
+	
+	/**
+	 * Adds a sequence number to every datagram that is sent to clients, so that clients drop datagrams that arrive after a newer one.
+	 * Use this if every packet sent as a datagram replaces the previous one, e.g. for position updates. Disabled by default.
+	 * @param enabled Whether datagrams have sequence numbers
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setDatagramSequencing(boolean enabled) {
+		datagramSequencing = enabled;
+		return this;
+	}
+	
+	protected boolean useDatagramSequencing() {
+		return datagramSequencing;
+	}
+	
+	/**
+	 * Processes the packets of each client one after another, in the order in which they were received, like a mailbox.
+	 * Handlers then don't need locking for state that belongs to one client.<br>
+	 * Packets of different clients are still processed in parallel, by at most the processing thread count or,
+	 * if that is <code>0</code>, one thread per available processor.<br>
+	 * Disabled by default: every packet is processed as a separate task, so packets can be processed at the same time and in any order.
+	 * @param enabled Whether packets should be processed in order
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setOrderedDispatch(boolean enabled) {
+		orderedDispatch = enabled;
+		return this;
+	}
+	
+	protected boolean useOrderedDispatch() {
+		return orderedDispatch;
+	}
+	
+	/**
+	 * Limits the amount of received packets that wait to be processed, so that a burst of packets or a misbehaving client
+	 * can't fill up the memory of the server. When a limit is reached, the {@link InboundOverflowPolicy} is applied
+	 * (see {@link #setInboundOverflowPolicy(InboundOverflowPolicy)}) and an {@link InboundQueueOverflowEvent} is posted.
+	 * With a limit, the packets of one client are processed one after another, like with {@link #setOrderedDispatch(boolean)}.
+	 * Both limits are disabled by default.
+	 * @param perConnection The maximum amount of queued packets of one client, or <code>0</code> for no limit
+	 * @param total The maximum amount of queued packets of all clients, or <code>0</code> for no limit
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setInboundQueueLimits(int perConnection, int total) {
+		if(perConnection < 0 || total < 0) throw new IllegalArgumentException("Queue limits must not be negative");
+		connectionQueueLimit = perConnection;
+		totalQueueLimit = total;
+		return this;
+	}
+	
+	/**
+	 * Selects what happens to a received packet when an inbound queue limit is reached. The default is {@link InboundOverflowPolicy#PAUSE_READING}.
+	 * @param policy The policy for full queues
+	 * @return This {@link ServerConfig}
+	 * @see #setInboundQueueLimits(int, int)
+	 */
+	public ServerConfig setInboundOverflowPolicy(InboundOverflowPolicy policy) {
+		overflowPolicy = Objects.requireNonNull(policy, "Overflow policy must not be null");
+		return this;
+	}
+	
+	protected int getInboundConnectionQueueLimit() {
+		return connectionQueueLimit;
+	}
+	
+	protected int getInboundTotalQueueLimit() {
+		return totalQueueLimit;
+	}
+	
+	protected InboundOverflowPolicy getInboundOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/**
+	 * Selects how packets are sent to clients that are connected through a local connection in the same program.
+	 * The default is {@link LocalDelivery#DIRECT}.
+	 * @param delivery The delivery mode for local connections
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setLocalDelivery(LocalDelivery delivery) {
+		localDelivery = Objects.requireNonNull(delivery, "Local delivery must not be null");
+		return this;
+	}
+	
+	protected LocalDelivery getLocalDelivery() {
+		return localDelivery;
+	}
+	
+	/**
+	 * Detects dead clients that would otherwise stay connected until the operating system notices, which can take hours.<br>
+	 * If nothing was received from a client for the read idle timeout, the connection is closed and the {@link ClosedConnectionEvent}
+	 * has the cause {@link ClosedConnectionEvent.Cause#TIMEOUT}. If nothing was sent to a client for the write idle timeout,
+	 * a small heartbeat frame is sent, so the write idle timeout should be less than the read idle timeout of the other side.
+	 * All timeouts are checked by one shared timer thread. Local connections never time out. Both timeouts are disabled by default.
+	 * @param readIdleTimeout The time in ms after which an idle connection is closed, or <code>0</code> to disable
+	 * @param writeIdleTimeout The time in ms after which a heartbeat is sent, or <code>0</code> to disable
+	 * @return This {@link ServerConfig}
+	 */
+	public ServerConfig setIdleTimeouts(int readIdleTimeout, int writeIdleTimeout) {
+		if(readIdleTimeout < 0 || writeIdleTimeout < 0) throw new IllegalArgumentException("Idle timeouts must not be negative");
+		this.readIdleTimeout = readIdleTimeout;
+		this.writeIdleTimeout = writeIdleTimeout;
+		return this;
+	}
+	
+	protected int getReadIdleTimeout() {
+		return readIdleTimeout;
+	}
+	
+	protected int getWriteIdleTimeout() {
+		return writeIdleTimeout;
+	}
+	
 	public void addSocketModifier(Consumer<ServerSocket> modifier) {
 		if(modSocket == null) {
 			modSocket = modifier;
@@ -64,7 +342,38 @@ public class ServerConfig {
 		}
 	}
 	
+	/**
+	 * Internal use only
+	 * @return The opened channel, or <code>null</code> if it could not be opened
+	 */
+	protected ServerSocketChannel configuredChannel() {
+		try {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			if(modSocket != null) modSocket.accept(channel.socket());
+			return channel;
+		} catch (IOException e) {
+			NetworkManager.NET_LOG.warn("Error while creating server channel: ", e);
+			return null;
+		}
+	}
+	
+	protected boolean useSelectorTransport() {
+		return selectorThreads > 0;
+	}
+	
+	protected int getSelectorThreadCount() {
+		return selectorThreads;
+	}
+	
+	protected boolean useVirtualThreads() {
+		return virtualThreads;
+	}
+	
 	protected int getThreadCount() {
 		return threads;
 	}
+	
+	protected int getReadBufferSize() {
+		return readBufferSize;
+	}
 }
@@ -28,7 +28,7 @@ class SocketNetworkManagerClient extends NetworkManager implements NetworkManage
 	 * @param config Options for this client
 	 */
 	protected SocketNetworkManagerClient(TargetIdentifier localId, TargetIdentifier serverId, ClientConfig config) {
-		super(localId);
+		super(localId, config != null && VirtualThreads.checkRequested(config.useVirtualThreads()));
 		
 		Objects.requireNonNull(localId,  "Local TargetIdentifier must not be null");
 		Objects.requireNonNull(serverId, "Server TargetIdentifier must not be null");
@@ -36,12 +36,20 @@ class SocketNetworkManagerClient extends NetworkManager implements NetworkManage
 		
 		this.serverId = serverId;
 		allHandlers = new PacketDistributor();
-		handler = new InboundPacketThreadHandler(allHandlers, 0);
+		final boolean virtualThreads = usesVirtualThreads();
+		handler = new InboundPacketThreadHandler(allHandlers, config.useOrderedDispatch() ? 1 : 0, virtualThreads, config.useOrderedDispatch(),
+				getInboundQueueStatistics(), bus::post);
+		handler.setQueueLimits(config.getInboundQueueLimit(), 0, config.getInboundOverflowPolicy());
 		
 		if(LocalConnectionManager.hasServer(serverId) || serverId.isLocalOnly()) { //If local is possible, then do it
-			serverConnection = new LocalNetworkConnection(localId, serverId, this, false, config.getCustomObject());
+			final LocalNetworkConnection localConnection = new LocalNetworkConnection(localId, serverId, this, false, config.getCustomObject());
+			localConnection.setDelivery(config.getLocalDelivery());
+			serverConnection = localConnection;
 		} else {
-			serverConnection = new RemoteNetworkConnection(localId, serverId, this, config.configuredSocket(), false, config.getCustomObject());
+			final RemoteNetworkConnection remoteConnection = new RemoteNetworkConnection(localId, serverId, this, config.configuredSocket(), false, config.getCustomObject(), config.getReadBufferSize(), virtualThreads, config.useCompactFrames(), config.getCompressionThreshold(), config.getFragmentSize(), config.getMaxFrameSize());
+			remoteConnection.setIdleTimeouts(config.getReadIdleTimeout(), config.getWriteIdleTimeout());
+			if(config.useDatagrams()) remoteConnection.enableDatagrams(config.useDatagramSequencing());
+			serverConnection = remoteConnection;
 		}
 	}
 	
@@ -56,6 +64,12 @@ class SocketNetworkManagerClient extends NetworkManager implements NetworkManage
 		return serverConnection.sendPacketToTarget(packet);
 	}
 	
+	@Override
+	public AsyncResult sendDatagramToServer(Packet packet) {
+		if(!serverConnection.isConnectionOpen()) return AsyncNetTask.createFailed(null, "Connection to server is not open");
+		return serverConnection.sendDatagramToTarget(packet);
+	}
+	
 	/**
 	 * Tries to open the connection to the server.
 	 * If the connection is already open, or could not be made, <code>false</code> is returned.
@@ -93,6 +107,11 @@ class SocketNetworkManagerClient extends NetworkManager implements NetworkManage
 	public void processPacket(Packet received, PacketContext source) {
 		handler.processPacket(received, source);
 	}
+	
+	@Override
+	void processPacketInline(Packet received, PacketContext source) {
+		handler.processPacketInline(received, source);
+	}
 
 	@Override
 	protected void shutdown() {
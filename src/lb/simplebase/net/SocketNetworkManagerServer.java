@@ -2,7 +2,6 @@ package lb.simplebase.net;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
@@ -12,19 +11,29 @@ import lb.simplebase.event.EventResult;
 
 class SocketNetworkManagerServer extends CommonServer {
 
-	protected SocketNetworkManagerServer(TargetIdentifier localId, ServerSocket socket, int threads, boolean udpDiscovery, byte[] sequence) throws SocketException {
-		super(localId, threads);
+	protected SocketNetworkManagerServer(TargetIdentifier localId, ServerSocket socket, ServerConfig config, boolean udpDiscovery) throws SocketException {
+		super(localId, config.getThreadCount(), VirtualThreads.checkRequested(config.useVirtualThreads()), config.useOrderedDispatch());
+		setFrameFormat(config.useCompactFrames(), config.getCompressionThreshold());
+		handler.setQueueLimits(config.getInboundConnectionQueueLimit(), config.getInboundTotalQueueLimit(), config.getInboundOverflowPolicy());
+		setLocalDelivery(config.getLocalDelivery());
+		setIdleTimeouts(config.getReadIdleTimeout(), config.getWriteIdleTimeout());
+		setFragmentSize(config.getFragmentSize());
+		setMaxFrameSize(config.getMaxFrameSize());
+		setDatagrams(config.getDatagramPort(), config.useDatagramSequencing());
 		serverSocket = socket;
-		acceptor = new ConnectionAcceptorThread(serverSocket, this);
+		acceptor = new ConnectionAcceptorThread(serverSocket, this::acceptIncomingUnconfirmedConnection);
 		allowDatagramDiscovery = udpDiscovery;
+		readBufferSize = config.getReadBufferSize();
+		virtualThreads = VirtualThreads.checkRequested(config.useVirtualThreads());
 		
 		if(udpDiscovery) {
 			receiverSocket = new DatagramSocket(null); //unbound
 			
 			//normalize sequence
+			final byte[] sequence = config.getDatagramDiscoverySequence();
 			byte[] seq = new byte[7];
 			System.arraycopy(sequence, 0, seq, 0, Math.min(7, sequence.length));
-			echoThread = new LanServerDiscoveryEchoThread(this, seq);
+			echoThread = new LanServerDiscoveryEchoThread(this, receiverSocket, seq);
 		} else {
 			receiverSocket = null;
 			echoThread = null;
@@ -38,6 +47,9 @@ class SocketNetworkManagerServer extends CommonServer {
 	private final DatagramSocket receiverSocket;
 	private final LanServerDiscoveryEchoThread echoThread;
 	
+	private final int readBufferSize;
+	private final boolean virtualThreads;
+	
 	protected DatagramSocket getDatagramSocket() {
 		return receiverSocket;
 	}
@@ -47,20 +59,6 @@ class SocketNetworkManagerServer extends CommonServer {
 		return allowDatagramDiscovery;
 	}
 	
-	protected byte attemptUdpConnection(InetAddress source) {
-		NetworkManager.NET_LOG.info("Server Manager: UDP connection check (" + source + ")");
-
-		//Post the event
-		final EventResult result = bus.post(new AttemptedConnectionEvent(source, this));
-		if(result.isCanceled()) {
-			NetworkManager.NET_LOG.info("Server Manager: UDP connection check rejected (" + source + ")");
-			return LanServerDiscovery.DENIED;
-		} else {
-			NetworkManager.NET_LOG.info("Server Manager: UDP connection check accepted (" + source + ")");
-			return LanServerDiscovery.SUCCESS;
-		}
-	}
-	
 	protected void acceptIncomingUnconfirmedConnection(Socket newConnectionSocket) {
 		NetworkManager.NET_LOG.info("Server Manager: Remote connection attempted (" + newConnectionSocket.getRemoteSocketAddress() + ")");
 
@@ -77,14 +75,9 @@ class SocketNetworkManagerServer extends CommonServer {
 			TargetIdentifier remote = RemoteIDGenerator.generateID((InetSocketAddress) newConnectionSocket.getRemoteSocketAddress());
 			final EventResult result2 = bus.post(new ConfigureConnectionEvent(newConnectionSocket, remote, this));
 			final ConfigureConnectionEvent handledEvent = result2.getEvent(ConfigureConnectionEvent.class);
-			NetworkConnection newCon = new RemoteNetworkConnection(getLocalID(), remote, this, newConnectionSocket, true, handledEvent.getCustomObject());
-			try {
-				clientListLock.writeLock().lock();
-				clientList.add(newCon);
-				NetworkManager.NET_LOG.info("Server Manager: Remote connection accepted successfully (" + remote + ")");
-			} finally {
-				clientListLock.writeLock().unlock();
-			}
+			NetworkConnection newCon = new RemoteNetworkConnection(getLocalID(), remote, this, newConnectionSocket, true, handledEvent.getCustomObject(), readBufferSize, virtualThreads, useCompactFrames(), getCompressionThreshold(), getFragmentSize(), getMaxFrameSize());
+			addClient(newCon);
+			NetworkManager.NET_LOG.info("Server Manager: Remote connection accepted successfully (" + remote + ")");
 		}
 	}
 	
@@ -98,6 +91,7 @@ class SocketNetworkManagerServer extends CommonServer {
 				getLocalID().bindSocket(() -> SocketActions.of(serverSocket));
 //				serverSocket.bind(getLocalID().getConnectionAddress());
 				if(allowDatagramDiscovery) getLocalID().bindSocket(() -> SocketActions.of(receiverSocket));
+				startDatagrams(serverSocket.getInetAddress());
 //					receiverSocket.bind(getLocalID().getConnectionAddress());
 			} catch (IOException e) {
 				NetworkManager.NET_LOG.error("Server Manager: Error while binding socket", e);
@@ -122,13 +116,16 @@ class SocketNetworkManagerServer extends CommonServer {
 			LocalConnectionManager.removeServer(this);
 			//Then kick everyone
 			NetworkManager.NET_LOG.info("Server Manager: Disconnecting all clients");
-			for(NetworkConnection con : clientList) {
+			for(NetworkConnection con : getClientConnections()) {
 				NetworkManager.NET_LOG.debug("Closing client connection: " + con.getRemoteTargetId());
 				con.close();
 			}
 			handler.shutdownExecutor();
+			stopDatagrams();
+			closeBroadcastEncoders();
 			try {
 				serverSocket.close();
+				acceptor.awaitStop(1000);
 				if(allowDatagramDiscovery) receiverSocket.close();
 			} catch (IOException e) {
 				NetworkManager.NET_LOG.error("Server Manager: Error while closing Socket", e);
@@ -0,0 +1,284 @@
+package lb.simplebase.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks after a delay on a single thread, using a hashed wheel of buckets.<br>
+ * Time is divided into ticks. A timeout is put into the bucket of the tick in which it expires, modulo the size of the wheel,
+ * and remembers how many rounds of the wheel are left until then. Every tick, the thread only looks at one bucket, so scheduling,
+ * canceling and expiring a timeout take constant time, no matter how many timeouts are pending.
+ * This makes the wheel suitable for one timeout per connection on servers with very many connections, where a timer task or
+ * a {@link java.util.concurrent.ScheduledExecutorService} entry per connection would be too expensive.<br>
+ * Timeouts expire up to one tick late. Tasks run on the thread of the wheel and must not block.
+ * <p>
+ * All network connections share the wheel returned by {@link #shared()}, which is stopped by {@link NetworkManager#cleanUp()}.
+ */
+final class TimerWheel implements Runnable {
+
+	/**
+	 * The duration of one tick of the shared wheel in milliseconds
+	 */
+	public static final int DEFAULT_TICK_MILLIS = 50;
+	/**
+	 * The amount of buckets of the shared wheel
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+
+	private static final int MAX_TRANSFERS_PER_TICK = 100000; //Spreads a burst of new timeouts over several ticks
+
+	private static TimerWheel sharedWheel; //Guarded by the class monitor
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startNanos;
+	private final Queue<Timeout> added;
+	private final Queue<Timeout> canceled;
+	private final AtomicLong pendingCount;
+	private final Thread thread;
+	private volatile boolean stopped;
+
+	/**
+	 * Creates and starts a new timer wheel.
+	 * @param tickMillis The duration of one tick in milliseconds
+	 * @param wheelSize The amount of buckets, rounded up to a power of two
+	 * @param name The name of the thread of the wheel
+	 */
+	TimerWheel(int tickMillis, int wheelSize, String name) {
+		if(tickMillis <= 0) throw new IllegalArgumentException("Tick duration must be at least 1ms");
+		if(wheelSize <= 0 || wheelSize > (1 << 30)) throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+		final int size = Integer.highestOneBit(wheelSize) == wheelSize ? wheelSize : Integer.highestOneBit(wheelSize) << 1;
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		this.wheel = new Bucket[size];
+		for(int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+		this.added = new ConcurrentLinkedQueue<>();
+		this.canceled = new ConcurrentLinkedQueue<>();
+		this.pendingCount = new AtomicLong();
+		this.stopped = false;
+		this.startNanos = System.nanoTime();
+		this.thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * The wheel that is used for the idle timeouts of all network connections. It is created when it is first used.
+	 * @return The shared {@link TimerWheel}
+	 */
+	static synchronized TimerWheel shared() {
+		if(sharedWheel == null) {
+			sharedWheel = new TimerWheel(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, "NetworkTimerWheel");
+		}
+		return sharedWheel;
+	}
+
+	/**
+	 * Stops the shared wheel if it was created. Pending timeouts will not expire.
+	 */
+	static synchronized void shutdownShared() {
+		if(sharedWheel != null) sharedWheel.stop();
+	}
+
+	/**
+	 * Runs the task once after the delay.
+	 * If the wheel was stopped, the task is never run and the returned timeout is already canceled.
+	 * @param task The task to run on the thread of the wheel
+	 * @param delay The delay, which is rounded up to full ticks
+	 * @param unit The {@link TimeUnit} of the delay
+	 * @return A {@link Timeout} that can cancel the task
+	 */
+	Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		final long delayNanos = Math.max(0, unit.toNanos(delay));
+		final long elapsed = System.nanoTime() - startNanos;
+		//Guard against overflow for very long delays
+		final long deadline = delayNanos > Long.MAX_VALUE - elapsed ? Long.MAX_VALUE : elapsed + delayNanos;
+		final Timeout timeout = new Timeout(this, task, deadline);
+		if(stopped) {
+			timeout.state = Timeout.CANCELED;
+		} else {
+			pendingCount.incrementAndGet();
+			added.add(timeout);
+		}
+		return timeout;
+	}
+
+	/**
+	 * @return The amount of timeouts that have neither expired nor been canceled
+	 */
+	long getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * Stops the thread of this wheel. Pending timeouts will not expire.
+	 */
+	void stop() {
+		stopped = true;
+		thread.interrupt();
+	}
+
+	@Override
+	public void run() {
+		long tick = 0;
+		while(!stopped) {
+			if(!waitForTick(tick)) break; //Stopped
+			removeCanceled();
+			transferAdded(tick);
+			wheel[(int) (tick & mask)].expire();
+			tick++;
+		}
+	}
+
+	/**
+	 * Waits until the end of the tick.
+	 * @return <code>false</code> if the wheel was stopped while waiting
+	 */
+	private boolean waitForTick(long tick) {
+		final long deadline = tickNanos * (tick + 1);
+		while(true) {
+			final long now = System.nanoTime() - startNanos;
+			final long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - now + 999999);
+			if(sleepMillis <= 0) return true;
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException e) {
+				if(stopped) return false;
+			}
+		}
+	}
+
+	private void removeCanceled() {
+		Timeout timeout;
+		while((timeout = canceled.poll()) != null) {
+			if(timeout.bucket != null) timeout.bucket.remove(timeout);
+		}
+	}
+
+	private void transferAdded(long tick) {
+		for(int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+			final Timeout timeout = added.poll();
+			if(timeout == null) return;
+			if(timeout.state == Timeout.CANCELED) continue; //Was already removed from the count
+			final long expireTick = Math.max(timeout.deadline / tickNanos, tick); //Already expired timeouts expire with this tick
+			timeout.remainingRounds = (expireTick - tick) / wheel.length;
+			wheel[(int) (expireTick & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * A task that runs once after a delay
+	 */
+	static final class Timeout {
+
+		private static final int WAITING = 0;
+		private static final int CANCELED = 1;
+		private static final int EXPIRED = 2;
+		private static final AtomicIntegerFieldUpdater<Timeout> STATE = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+		private final TimerWheel owner;
+		private final Runnable task;
+		private final long deadline; //Since the start of the wheel
+		private volatile int state;
+
+		//Only accessed by the thread of the wheel
+		private long remainingRounds;
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout previous;
+
+		private Timeout(TimerWheel owner, Runnable task, long deadline) {
+			this.owner = owner;
+			this.task = task;
+			this.deadline = deadline;
+			this.state = WAITING;
+		}
+
+		/**
+		 * Prevents the task from running, if it has not expired yet.
+		 * @return <code>true</code> if the task was canceled, <code>false</code> if it has expired or was already canceled
+		 */
+		boolean cancel() {
+			if(!STATE.compareAndSet(this, WAITING, CANCELED)) return false;
+			owner.pendingCount.decrementAndGet();
+			owner.canceled.add(this);
+			return true;
+		}
+
+		/**
+		 * @return Whether {@link #cancel()} was called before the task ran
+		 */
+		boolean isCanceled() {
+			return state == CANCELED;
+		}
+
+		/**
+		 * @return Whether the task was run
+		 */
+		boolean isExpired() {
+			return state == EXPIRED;
+		}
+
+		private void expire() {
+			if(!STATE.compareAndSet(this, WAITING, EXPIRED)) return;
+			owner.pendingCount.decrementAndGet();
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				NetworkManager.NET_LOG.error("Timer Wheel: Exception while running a timeout task", e);
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of timeouts, only accessed by the thread of the wheel
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.bucket = this;
+			if(head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private Timeout remove(Timeout timeout) {
+			final Timeout next = timeout.next;
+			if(timeout.previous != null) timeout.previous.next = next; else head = next;
+			if(next != null) next.previous = timeout.previous; else tail = timeout.previous;
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			return next;
+		}
+
+		private void expire() {
+			Timeout timeout = head;
+			while(timeout != null) {
+				if(timeout.state == Timeout.CANCELED) {
+					timeout = remove(timeout);
+				} else if(timeout.remainingRounds <= 0) { //The deadline is in this tick, so it has passed
+					final Timeout next = remove(timeout);
+					timeout.expire();
+					timeout = next;
+				} else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+	}
+
+}
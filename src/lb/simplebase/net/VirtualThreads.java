@@ -0,0 +1,124 @@
+package lb.simplebase.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import lb.simplebase.util.NamedThreadFactory;
+
+/**
+ * Creates threads and executors that use the virtual threads of Java 21 and newer.<br>
+ * The API is only accessed through reflection, so this class also loads on older JVMs. There,
+ * {@link #isAvailable()} returns <code>false</code> and all methods create platform threads instead.
+ */
+final class VirtualThreads {
+
+	private static final Method ofVirtual;		//Thread.ofVirtual()
+	private static final Method builderName;	//Thread.Builder.name(String, long)
+	private static final Method builderFactory;	//Thread.Builder.factory()
+	private static final Method perTaskExecutor;//Executors.newThreadPerTaskExecutor(ThreadFactory)
+
+	private static volatile boolean warnedUnavailable = false;
+
+	static {
+		Method of = null;
+		Method name = null;
+		Method factory = null;
+		Method executor = null;
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			of = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			//Check that virtual threads can actually be created (they are a preview feature in Java 19 and 20)
+			((ThreadFactory) factory.invoke(of.invoke(null))).newThread(() -> {});
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			of = null;
+		}
+		ofVirtual = of;
+		builderName = name;
+		builderFactory = factory;
+		perTaskExecutor = executor;
+	}
+
+	private VirtualThreads() {}
+
+	/**
+	 * @return Whether the running JVM supports virtual threads
+	 */
+	public static boolean isAvailable() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Checks whether virtual threads should be used for a network manager.
+	 * Logs a warning (only once) if they were requested but are not supported by the running JVM.
+	 * @param requested Whether the configuration asked for virtual threads
+	 * @return Whether virtual threads will be used
+	 */
+	public static boolean checkRequested(boolean requested) {
+		if(!requested) return false;
+		if(isAvailable()) return true;
+		if(!warnedUnavailable) {
+			warnedUnavailable = true;
+			NetworkManager.NET_LOG.warn("Virtual threads require Java 21 or newer. Using platform threads instead.");
+		}
+		return false;
+	}
+
+	/**
+	 * Creates a {@link ThreadFactory} for virtual threads that are named with the prefix and an increasing number.
+	 * @param namePrefix The prefix for all thread names
+	 * @return The {@link ThreadFactory}, or <code>null</code> if virtual threads are not available
+	 */
+	public static ThreadFactory createFactory(String namePrefix) {
+		if(!isAvailable()) return null;
+		try {
+			return (ThreadFactory) builderFactory.invoke(builderName.invoke(ofVirtual.invoke(null), namePrefix, 0L));
+		} catch (ReflectiveOperationException e) {
+			NetworkManager.NET_LOG.error("Virtual Threads: Could not create thread factory", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates an executor that runs every task on a new virtual thread. If virtual threads are not
+	 * available, a cached thread pool of platform threads is created instead.
+	 * @param namePrefix The prefix for all thread names
+	 * @return The new {@link ExecutorService}
+	 */
+	public static ExecutorService createExecutor(String namePrefix) {
+		final ThreadFactory factory = createFactory(namePrefix);
+		if(factory != null) {
+			try {
+				return (ExecutorService) perTaskExecutor.invoke(null, factory);
+			} catch (ReflectiveOperationException e) {
+				NetworkManager.NET_LOG.error("Virtual Threads: Could not create executor", e);
+			}
+		}
+		return Executors.newCachedThreadPool(new NamedThreadFactory(namePrefix));
+	}
+
+	/**
+	 * Creates a new, unstarted thread. It is a virtual thread if requested and available,
+	 * otherwise it is a daemon platform thread.
+	 * @param name The name of the thread
+	 * @param task The task that the thread runs
+	 * @param virtual Whether a virtual thread should be created
+	 * @return The new {@link Thread}
+	 */
+	public static Thread createThread(String name, Runnable task, boolean virtual) {
+		final ThreadFactory factory = virtual ? createFactory(name) : null;
+		final Thread thread;
+		if(factory != null) {
+			thread = factory.newThread(task);
+		} else {
+			thread = new Thread(task);
+			thread.setDaemon(true);
+		}
+		thread.setName(name);
+		return thread;
+	}
+}
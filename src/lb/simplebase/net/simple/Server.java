@@ -27,7 +27,7 @@ public abstract class Server extends ReceiveSide {
 	protected abstract void newConnection(String name);
 	
 	public final void sendToAll(String message) {
-		server.sendPacketToAllClients(new StringMessagePacket(message)).sync();
+		server.broadcastPacket(new StringMessagePacket(message)).sync();
 	}
 	
 	public final void sendTo(String name, String message) {
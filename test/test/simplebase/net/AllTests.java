@@ -6,9 +6,18 @@ import org.junit.runners.Suite.SuiteClasses;
 
 @RunWith(Suite.class)
 @SuiteClasses({
+	AsyncNetTaskTest.class,
 	BasicTest.class,
 	BufferTest.class,
+	ConnectionAttemptFilterTest.class,
 	LocalNetworkTest.class,
-	NetworkTest.class
+	NetworkTest.class,
+	ObjectCodecTest.class,
+	PacketFactoryTest.class,
+	PacketIdMappingContainerTest.class,
+	PacketSerializerTest.class,
+	PacketTypeDistributorTest.class,
+	RemoteConnectionTest.class,
+	RequestManagerTest.class
 })
 public class AllTests {}
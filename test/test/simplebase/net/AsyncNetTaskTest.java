@@ -0,0 +1,153 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.action.AsyncResult;
+import lb.simplebase.net.AsyncNetTask;
+
+class AsyncNetTaskTest {
+
+	@Test
+	void completedTest() throws InterruptedException {
+		final AsyncResult success = AsyncNetTask.createSucceeded();
+		assertSame(success, AsyncNetTask.createSucceeded(), "Successful result is not shared");
+		assertTrue(success.isDone() && success.isSuccess() && !success.isFailed(), "Wrong state for successful result");
+		final AtomicInteger handlerCalls = new AtomicInteger();
+		success.addDoneHandler(handlerCalls::incrementAndGet);
+		assertEquals(1, handlerCalls.get(), "Done handler did not run immediately");
+		
+		final AsyncResult failure = AsyncNetTask.createFailed(null, "Test failure");
+		assertTrue(failure.isDone() && failure.isFailed() && !failure.isSuccess(), "Wrong state for failed result");
+		assertEquals("Test failure", failure.syncOrError().getErrorMessage(), "Wrong error message");
+	}
+
+	@Test
+	void submittedTaskTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> order = new ArrayList<>();
+		final AsyncResult task = AsyncNetTask.submitTask((accessor) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			accessor.setErrorAndMessage(new IOException("Test exception"), null);
+		});
+		for(int i = 0; i < 10; i++) {
+			final int index = i;
+			task.addDoneHandler(() -> order.add(index));
+		}
+		final CountDownLatch handlersDone = new CountDownLatch(1);
+		task.addDoneHandler(handlersDone::countDown); //The task is done before its handlers have run
+		assertFalse(task.isDone(), "Task is done before it was released");
+		release.countDown();
+		assertTrue(task.syncOrError().isFailed(), "Task did not fail");
+		assertTrue(handlersDone.await(10, TimeUnit.SECONDS), "Done handlers did not run");
+		assertEquals("Test exception", task.getErrorMessage(), "Message was not taken from the exception");
+		for(int i = 0; i < 10; i++) {
+			assertEquals(Integer.valueOf(i), order.get(i), "Done handlers did not run in the order in which they were added");
+		}
+	}
+
+	@Test
+	void completableFutureTest() throws InterruptedException, ExecutionException {
+		final CompletableFuture<AsyncResult> success = AsyncNetTask.submitTask((accessor) -> {}).toCompletableFuture();
+		assertTrue(success.get().isSuccess(), "Future was not completed with the result");
+		
+		final CompletableFuture<AsyncResult> failure = AsyncNetTask.submitTask((accessor) -> {
+			throw new IllegalStateException("Test exception");
+		}).toCompletableFuture();
+		try {
+			failure.get(10, TimeUnit.SECONDS);
+			fail("Failed task completed the future normally");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException, "Future does not have the task exception as its cause: " + e.getCause());
+		} catch (TimeoutException e) {
+			fail("Future was not completed");
+		}
+		
+		final AtomicInteger composed = new AtomicInteger();
+		final List<CompletableFuture<AsyncResult>> futures = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			futures.add(AsyncNetTask.submitTask((accessor) -> composed.incrementAndGet()).toCompletableFuture());
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get();
+		assertEquals(100, composed.get(), "Not all composed tasks were done");
+	}
+
+	/**
+	 * A pending task that is completed by two threads at the same time, e.g. by the writer and by closing the connection,
+	 * must keep the result of the first completion. The failing thread is held inside of the completion while it reads
+	 * the message of its exception, and the other thread completes the task successfully in the meantime.
+	 */
+	@Test
+	void concurrentCompletionTest() throws Exception {
+		final Method createPending = AsyncNetTask.class.getDeclaredMethod("createPending");
+		final Method completePending = AsyncNetTask.class.getDeclaredMethod("completePending", Exception.class, String.class);
+		createPending.setAccessible(true);
+		completePending.setAccessible(true);
+		final AsyncNetTask task = (AsyncNetTask) createPending.invoke(null);
+		final List<String> seenByHandler = new ArrayList<>();
+		task.addDoneHandler(() -> seenByHandler.add(describe(task)));
+		
+		final CountDownLatch messageRequested = new CountDownLatch(1);
+		final CountDownLatch releaseMessage = new CountDownLatch(1);
+		final IOException failure = new IOException() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			public String getMessage() {
+				if(messageRequested.getCount() == 0) return "Connection closed"; //Only the completion is held, not the log
+				messageRequested.countDown();
+				try {
+					releaseMessage.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return "Connection closed";
+			}
+		};
+		final Thread failing = new Thread(() -> {
+			try {
+				completePending.invoke(task, failure, null);
+			} catch (ReflectiveOperationException e) {
+				throw new AssertionError(e);
+			}
+		});
+		failing.start();
+		try {
+			assertTrue(messageRequested.await(10, TimeUnit.SECONDS), "Failing completion did not start");
+			completePending.invoke(task, null, null);
+			assertTrue(task.isSuccess() && !task.isFailed(), "First completion was not successful: " + describe(task));
+		} finally {
+			releaseMessage.countDown();
+			failing.join(10000);
+		}
+		assertTrue(task.isSuccess() && !task.isFailed(), "Late completion changed the result: " + describe(task));
+		assertEquals(null, task.getError(), "Successful task has an error");
+		assertEquals(null, task.getErrorMessage(), "Successful task has an error message");
+		assertEquals(1, seenByHandler.size(), "Done handler did not run once");
+		assertEquals(describe(task), seenByHandler.get(0), "Done handler saw a different result");
+	}
+	
+	private static String describe(AsyncResult result) {
+		return "success=" + result.isSuccess() + ", failed=" + result.isFailed() + ", error=" + result.getError() + ", message=" + result.getErrorMessage();
+	}
+
+}
@@ -3,11 +3,17 @@ package test.simplebase.net;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import lb.simplebase.io.ReadableArrayData;
+import lb.simplebase.io.ReadableBufferData;
+import lb.simplebase.io.WritableByteData;
+import lb.simplebase.io.WritableGrowableData;
 import lb.simplebase.io.WritableStreamData;
 
 class BufferTest {
@@ -57,5 +63,84 @@ class BufferTest {
 		byte[] newData = writeBuffer.internalArray();
 		assertArrayEquals(data, newData, "Arrays not equal");
 	}
+	
+	@Test
+	void testGrowableBuffer() {
+		final WritableGrowableData growBuffer = new WritableGrowableData(16);
+		growBuffer.reserve(4);
+		for(int i = 0; i < 100; i++) {
+			growBuffer.writeInt(i);
+			growBuffer.writeLong(-i);
+		}
+		growBuffer.setInt(0, 1234567);
+		assertEquals(4 + 100 * 12, growBuffer.getLength(), "Length not equal");
+		
+		readBuffer = new ReadableArrayData(growBuffer.getAsArray(), false);
+		assertEquals(1234567, readBuffer.readInt(), "Header int not equal");
+		for(int i = 0; i < 100; i++) {
+			assertEquals(i, readBuffer.readInt(), "Ints not equal");
+			assertEquals(-i, readBuffer.readLong(), "Longs not equal");
+		}
+		
+		growBuffer.reset(16);
+		assertEquals(0, growBuffer.getLength(), "Buffer was not reset");
+		assertEquals(16, growBuffer.getCapacity(), "Buffer was not shrunk");
+	}
+
+	@Test
+	void testVarInts() {
+		final int[] ints = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+		final long[] longs = {0, 300, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+		final WritableGrowableData growBuffer = new WritableGrowableData(4);
+		for(WritableByteData data : new WritableByteData[] {writeBuffer, growBuffer}) {
+			for(int value : ints) {
+				data.writeVarInt(value);
+				data.writeSignedVarInt(value);
+			}
+			for(long value : longs) {
+				data.writeVarLong(value);
+				data.writeSignedVarLong(value);
+			}
+		}
+		assertArrayEquals(writeBuffer.getAsArray(), growBuffer.getAsArray(), "Encodings not equal");
+		
+		readBuffer = new ReadableArrayData(growBuffer.getAsArray(), false);
+		for(int value : ints) {
+			assertEquals(value, readBuffer.readVarInt(), "Varints not equal");
+			assertEquals(value, readBuffer.readSignedVarInt(), "Signed varints not equal");
+		}
+		for(long value : longs) {
+			assertEquals(value, readBuffer.readVarLong(), "Varlongs not equal");
+			assertEquals(value, readBuffer.readSignedVarLong(), "Signed varlongs not equal");
+		}
+		
+		final WritableGrowableData small = new WritableGrowableData(16);
+		small.writeVarInt(127);
+		small.writeSignedVarInt(-64);
+		assertEquals(2, small.getLength(), "Small values do not fit in one byte");
+	}
+	
+	@Test
+	void testUTF8() {
+		final String[] strings = {"", "Hello", "Gr\u00fc\u00dfe \u2603", "\ud83d\ude00 Emoji", new String(new char[300]).replace('\0', 'x')};
+		final WritableGrowableData growBuffer = new WritableGrowableData(4);
+		for(String string : strings) {
+			writeBuffer.writeUTF8(string);
+			growBuffer.writeUTF8(string);
+			assertEquals(string.getBytes(StandardCharsets.UTF_8).length, WritableByteData.utf8Length(string), "Lengths not equal");
+		}
+		assertArrayEquals(writeBuffer.getAsArray(), growBuffer.getAsArray(), "Encodings not equal");
+		
+		readBuffer = new ReadableArrayData(writeBuffer.getAsArray(), false);
+		final ReadableBufferData directBuffer = new ReadableBufferData(ByteBuffer.wrap(growBuffer.getAsArray()), false);
+		for(String string : strings) {
+			assertEquals(string, readBuffer.readUTF8(), "Strings not equal");
+			assertEquals(string, directBuffer.readUTF8(), "Buffer strings not equal");
+		}
+		
+		growBuffer.reset(16);
+		growBuffer.writeUTF8("a\ud800b"); //Unpaired surrogate
+		assertEquals("a?b", new ReadableArrayData(growBuffer.getAsArray(), false).readUTF8(), "Surrogate not replaced");
+	}
 
 }
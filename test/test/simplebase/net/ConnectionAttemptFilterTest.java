@@ -0,0 +1,94 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.net.AttemptedConnectionEvent;
+import lb.simplebase.net.ConnectionAttemptFilter;
+
+class ConnectionAttemptFilterTest {
+
+	@Test
+	void banTest() throws UnknownHostException {
+		final ConnectionAttemptFilter filter = new ConnectionAttemptFilter();
+		assertTrue(filter.ban("10.0.0.0/8"), "Range was not added");
+		assertTrue(filter.ban("192.168.1.17"), "Single address was not added");
+		assertTrue(filter.ban("2001:db8::/32"), "IPv6 range was not added");
+		assertFalse(filter.ban("10.1.0.0/16"), "Smaller range inside a banned range was added");
+
+		assertTrue(filter.isBanned(address("10.255.3.4")), "Address in range is not banned");
+		assertTrue(filter.isBanned(address("192.168.1.17")), "Single address is not banned");
+		assertFalse(filter.isBanned(address("192.168.1.18")), "Neighbor of single address is banned");
+		assertFalse(filter.isBanned(address("11.0.0.1")), "Address outside of range is banned");
+		assertTrue(filter.isBanned(address("2001:db8:1234::1")), "IPv6 address in range is not banned");
+		assertFalse(filter.isBanned(address("2001:db9::1")), "IPv6 address outside of range is banned");
+		assertEquals(Arrays.asList("10.0.0.0/8", "192.168.1.17/32", "2001:db8:0:0:0:0:0:0/32"), filter.getBannedRanges(), "Wrong ranges");
+
+		assertFalse(filter.unban("10.1.0.0/16"), "Range that was not banned was removed");
+		assertTrue(filter.unban("10.0.0.0/8"), "Range was not removed");
+		assertFalse(filter.isBanned(address("10.255.3.4")), "Address is still banned");
+		filter.clearBans();
+		assertFalse(filter.isBanned(address("192.168.1.17")), "Bans were not cleared");
+
+		try {
+			filter.ban("example.com/8");
+			fail("Host name was accepted");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+		try {
+			filter.ban("10.0.0.0/33");
+			fail("Too long prefix was accepted");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	@Test
+	void smallerRangeTest() throws UnknownHostException {
+		final ConnectionAttemptFilter filter = new ConnectionAttemptFilter();
+		assertTrue(filter.ban("172.16.5.0/24"), "Small range was not added");
+		assertTrue(filter.ban("172.16.0.0/12"), "Larger range was not added");
+		assertEquals(Arrays.asList("172.16.0.0/12"), filter.getBannedRanges(), "Covered range was not replaced");
+		assertTrue(filter.isBanned(address("172.31.255.255")), "Address in larger range is not banned");
+	}
+
+	@Test
+	void rateLimitTest() throws UnknownHostException {
+		final ConnectionAttemptFilter filter = new ConnectionAttemptFilter();
+		filter.setRateLimit(0.1, 3);
+		final InetAddress first = address("203.0.113.1");
+		final InetAddress second = address("203.0.113.2");
+		for(int i = 0; i < 3; i++) {
+			assertTrue(filter.tryAcquire(first), "Attempt " + i + " within the burst was rejected");
+		}
+		assertFalse(filter.tryAcquire(first), "Attempt after the burst was allowed");
+		assertTrue(filter.tryAcquire(second), "Other address was limited");
+
+		filter.ban("198.51.100.0/24");
+		final AttemptedConnectionEvent banned = new AttemptedConnectionEvent(address("198.51.100.7"), null);
+		filter.accept(banned);
+		assertTrue(banned.isCanceled(), "Banned address was not rejected");
+		final AttemptedConnectionEvent limited = new AttemptedConnectionEvent(first, null);
+		filter.accept(limited);
+		assertTrue(limited.isCanceled(), "Limited address was not rejected");
+		assertEquals(1, filter.getBannedRejectionCount(), "Wrong banned count");
+		assertEquals(1, filter.getRateLimitedRejectionCount(), "Wrong rate limited count");
+
+		filter.setRateLimit(0, 1);
+		assertTrue(filter.tryAcquire(first), "Attempt was rejected without a limit");
+	}
+
+	static InetAddress address(String literal) throws UnknownHostException {
+		return InetAddress.getByName(literal);
+	}
+
+}
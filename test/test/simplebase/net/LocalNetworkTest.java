@@ -3,6 +3,9 @@ package test.simplebase.net;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
@@ -16,6 +19,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.runners.MethodSorters;
 
+import lb.simplebase.action.AsyncResult;
+import lb.simplebase.net.ClientConfig;
+import lb.simplebase.net.LocalDelivery;
 import lb.simplebase.net.NetworkManager;
 import lb.simplebase.net.NetworkManagerClient;
 import lb.simplebase.net.NetworkManagerServer;
@@ -98,6 +104,40 @@ class LocalNetworkTest {
 		assertEquals(test2, assertionPacket);
 	}
 
+	@Test
+	void localDeliveryTest() throws InterruptedException {
+		for(LocalDelivery delivery : new LocalDelivery[] {LocalDelivery.DIRECT, LocalDelivery.INLINE}) {
+			final TargetIdentifier deliveryServer = TargetIdentifier.createLocal("server-" + delivery);
+			final NetworkManagerServer orderedServer = NetworkManager.createServer(deliveryServer,
+					NetworkManager.createServerConfig().setOrderedDispatch(true).setLocalDelivery(delivery));
+			final NetworkManagerClient deliveryClient = NetworkManager.createClient(TargetIdentifier.createLocal("client-" + delivery), deliveryServer,
+					ClientConfig.forConnectionTo(deliveryServer).setLocalDelivery(delivery));
+			final List<Packet> received = Collections.synchronizedList(new ArrayList<>());
+			orderedServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+			orderedServer.addIncomingPacketHandler((packet, context) -> received.add(packet));
+			deliveryClient.addAllMappings(orderedServer);
+			orderedServer.startServer();
+			try {
+				deliveryClient.openConnectionToServer();
+				final List<Packet> sent = new ArrayList<>();
+				for(int i = 0; i < 1000; i++) {
+					final Packet packet = new TestPacket(new byte[] {(byte) i, (byte) (i >> 8)});
+					sent.add(packet);
+					final AsyncResult result = deliveryClient.sendPacketToServer(packet);
+					assertTrue(result.isDone() && result.isSuccess(), "Local send was not completed immediately");
+					if(delivery == LocalDelivery.INLINE) assertEquals(i + 1, received.size(), "Inline packet was not handled by the sender");
+				}
+				for(int i = 0; i < 500 && received.size() < sent.size(); i++) {
+					Thread.sleep(10);
+				}
+				assertEquals(sent, received, "Packets were not received in order with " + delivery);
+			} finally {
+				deliveryClient.closeConnectionToServer();
+				orderedServer.stopServer();
+			}
+		}
+	}
+	
 	void getPacket(Packet packet, PacketContext source) {
 //		assertEquals(assertionPacket, packet);
 		assertionPacket = packet;
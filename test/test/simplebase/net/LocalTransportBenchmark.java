@@ -0,0 +1,58 @@
+package test.simplebase.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lb.simplebase.net.ClientConfig;
+import lb.simplebase.net.LocalDelivery;
+import lb.simplebase.net.NetworkManager;
+import lb.simplebase.net.NetworkManagerClient;
+import lb.simplebase.net.NetworkManagerServer;
+import lb.simplebase.net.PacketIdMapping;
+import lb.simplebase.net.TargetIdentifier;
+
+/**
+ * Compares the {@link LocalDelivery} modes of a local connection.
+ * Run the main method, the numbers are packets per second from sending the first packet until the server handled the last one.
+ */
+public class LocalTransportBenchmark {
+
+	static final int WARMUP_ROUNDS = 3;
+	static final int ROUNDS = 5;
+	static final int PACKETS = 200000;
+
+	public static void main(String[] args) throws InterruptedException {
+		for(LocalDelivery delivery : LocalDelivery.values()) {
+			final TargetIdentifier serverId = TargetIdentifier.createLocal("server-" + delivery);
+			final NetworkManagerServer server = NetworkManager.createServer(serverId, NetworkManager.createServerConfig().setLocalDelivery(delivery));
+			final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client-" + delivery), serverId,
+					ClientConfig.forConnectionTo(serverId).setLocalDelivery(delivery));
+			final AtomicInteger handled = new AtomicInteger();
+			final CountDownLatch[] done = new CountDownLatch[1];
+			server.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+			server.addIncomingPacketHandler((packet, context) -> {
+				if(handled.incrementAndGet() == PACKETS) done[0].countDown();
+			});
+			client.addAllMappings(server);
+			server.startServer();
+			client.openConnectionToServer();
+			
+			final TestPacket packet = new TestPacket(new byte[16]);
+			for(int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+				handled.set(0);
+				done[0] = new CountDownLatch(1);
+				final long start = System.nanoTime();
+				for(int j = 0; j < PACKETS; j++) {
+					client.sendPacketToServer(packet);
+				}
+				done[0].await();
+				final long time = System.nanoTime() - start;
+				if(i >= WARMUP_ROUNDS) System.out.println(delivery + ": " + (PACKETS * 1000000000L / time) + " packets/s");
+			}
+			client.closeConnectionToServer();
+			server.stopServer();
+		}
+		NetworkManager.cleanUp();
+	}
+
+}
@@ -0,0 +1,96 @@
+package test.simplebase.net;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lb.simplebase.io.ObjectCodec;
+import lb.simplebase.io.ReadableArrayData;
+import lb.simplebase.io.WritableGrowableData;
+
+/**
+ * Compares the binary codec to Java serialization for a small message object.
+ * Run the main method, the numbers are average nanoseconds for one write and one read.
+ */
+public class ObjectCodecBenchmark {
+
+	static final int WARMUP_ROUNDS = 5;
+	static final int ROUNDS = 5;
+	static final int ITERATIONS = 100000;
+
+	public static void main(String[] args) throws IOException {
+		final Object message = createMessage();
+		for(ObjectCodec codec : new ObjectCodec[] {ObjectCodec.javaSerialization(), ObjectCodec.binary()}) {
+			final String name = codec.getClass().getSimpleName();
+			final WritableGrowableData data = new WritableGrowableData(512);
+			codec.writeObject(message, data);
+			System.out.println(name + ": " + data.getLength() + " bytes");
+			for(int i = 0; i < WARMUP_ROUNDS; i++) run(codec, message);
+			for(int i = 0; i < ROUNDS; i++) {
+				final long[] times = run(codec, message);
+				System.out.println(name + ": write " + times[0] + " ns, read " + times[1] + " ns");
+			}
+		}
+	}
+
+	static long[] run(ObjectCodec codec, Object message) throws IOException {
+		final WritableGrowableData data = new WritableGrowableData(512);
+		long writeTime = 0;
+		long readTime = 0;
+		int check = 0;
+		for(int i = 0; i < ITERATIONS; i++) {
+			data.reset(512);
+			final long start = System.nanoTime();
+			codec.writeObject(message, data);
+			final long written = System.nanoTime();
+			final Object result = codec.readObject(new ReadableArrayData(data.internalArray(), false));
+			readTime += System.nanoTime() - written;
+			writeTime += written - start;
+			check += result.hashCode();
+		}
+		if(check == 42) System.out.println(); //Keep the result alive
+		return new long[] {writeTime / ITERATIONS, readTime / ITERATIONS};
+	}
+
+	static Object createMessage() {
+		final List<Position> positions = new ArrayList<>();
+		for(int i = 0; i < 10; i++) positions.add(new Position(i, i * 2.5, -i));
+		final Map<String, Object> attributes = new HashMap<>();
+		attributes.put("name", "Player 1");
+		attributes.put("score", 12345);
+		attributes.put("online", true);
+		return new PlayerState(17, "Player 1", positions, attributes);
+	}
+
+	static class Position implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final double x;
+		final double y;
+		final double z;
+
+		Position(double x, double y, double z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+	}
+
+	static class PlayerState implements Serializable {
+		private static final long serialVersionUID = 1L;
+		final int id;
+		final String name;
+		final List<Position> path;
+		final Map<String, Object> attributes;
+
+		PlayerState(int id, String name, List<Position> path, Map<String, Object> attributes) {
+			this.id = id;
+			this.name = name;
+			this.path = path;
+			this.attributes = attributes;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.io.ObjectCodec;
+import lb.simplebase.io.ReadableArrayData;
+import lb.simplebase.io.WritableGrowableData;
+import lb.simplebase.net.ObjectPacket;
+
+class ObjectCodecTest {
+
+	@Test
+	void testSimpleValues() throws IOException {
+		assertNull(roundTrip(null), "Null not equal");
+		assertEquals("H\u00e4llo W\u00f6rld \u2603", roundTrip("H\u00e4llo W\u00f6rld \u2603"), "Strings not equal");
+		assertEquals(Boolean.TRUE, roundTrip(true), "Booleans not equal");
+		assertEquals(Byte.valueOf((byte) -7), roundTrip((byte) -7), "Bytes not equal");
+		assertEquals(Short.valueOf(Short.MIN_VALUE), roundTrip(Short.MIN_VALUE), "Shorts not equal");
+		assertEquals(Character.valueOf('\uffff'), roundTrip('\uffff'), "Chars not equal");
+		assertEquals(Integer.valueOf(Integer.MIN_VALUE), roundTrip(Integer.MIN_VALUE), "Ints not equal");
+		assertEquals(Long.valueOf(Long.MAX_VALUE), roundTrip(Long.MAX_VALUE), "Longs not equal");
+		assertEquals(Float.valueOf(1.5f), roundTrip(1.5f), "Floats not equal");
+		assertEquals(Double.valueOf(-0.25), roundTrip(-0.25), "Doubles not equal");
+		assertArrayEquals(new byte[] {1, -2, 3}, (byte[]) roundTrip(new byte[] {1, -2, 3}), "Byte arrays not equal");
+		assertArrayEquals(new int[] {0, -1, Integer.MAX_VALUE}, (int[]) roundTrip(new int[] {0, -1, Integer.MAX_VALUE}), "Int arrays not equal");
+		assertTrue(Arrays.equals(new long[] {Long.MIN_VALUE, 5}, (long[]) roundTrip(new long[] {Long.MIN_VALUE, 5})), "Long arrays not equal");
+		assertArrayEquals(new String[][] {{"a"}, {null, "b"}}, (String[][]) roundTrip(new String[][] {{"a"}, {null, "b"}}), "Object arrays not equal");
+	}
+
+	@Test
+	void testCollections() throws IOException {
+		final List<Object> list = new ArrayList<>(Arrays.asList(1, "two", 3L, null));
+		final Map<String, Object> map = new HashMap<>();
+		map.put("list", list);
+		map.put("set", new LinkedHashSet<>(Arrays.asList("x", "y")));
+		final Object result = roundTrip(map);
+		assertEquals(map, result, "Maps not equal");
+		assertSame(HashMap.class, result.getClass(), "Map type not kept");
+		assertSame(LinkedHashSet.class, ((Map<?, ?>) result).get("set").getClass(), "Set type not kept");
+	}
+
+	@Test
+	void testObjects() throws IOException {
+		final Message message = new Message("Alice", 42, Mood.HAPPY, new ArrayList<>(Arrays.asList("a", "b")));
+		message.cache = "not sent";
+		final Message result = (Message) roundTrip(message);
+		assertEquals(message, result, "Objects not equal");
+		assertNull(result.cache, "Transient field was written");
+		assertSame(Mood.SAD, roundTrip(Mood.SAD), "Enum constant not equal");
+
+		//Not part of the binary format, written with Java serialization
+		final BigInteger big = BigInteger.ONE.shiftLeft(100);
+		assertEquals(big, roundTrip(big), "Serialized object not equal");
+	}
+
+	@Test
+	void testUnsupportedObject() {
+		try {
+			roundTrip(new Object());
+			fail("Object that is not serializable was written");
+		} catch (IOException e) {
+			//expected
+		}
+	}
+
+	@Test
+	void testSmallerThanSerialization() throws IOException {
+		final Message message = new Message("Bob", 7, Mood.SAD, new ArrayList<>());
+		final WritableGrowableData binary = new WritableGrowableData(64);
+		ObjectCodec.binary().writeObject(message, binary);
+		final WritableGrowableData serialized = new WritableGrowableData(64);
+		ObjectCodec.javaSerialization().writeObject(message, serialized);
+		assertTrue(binary.getLength() < serialized.getLength() / 2, "Binary data is not smaller: " + binary.getLength());
+		assertEquals(message, ObjectCodec.javaSerialization().readObject(new ReadableArrayData(serialized.getAsArray(), false)),
+				"Serialized objects not equal");
+	}
+
+	@Test
+	void testObjectPacket() {
+		final WritableGrowableData data = new WritableGrowableData(64);
+		new ObjectPacket("text").writeData(data);
+		final ObjectPacket received = new ObjectPacket();
+		received.readData(new ReadableArrayData(data.getAsArray(), false));
+		assertEquals("text", received.getObject(), "Packet object not equal");
+	}
+
+	static Object roundTrip(Object value) throws IOException {
+		final WritableGrowableData data = new WritableGrowableData(64);
+		ObjectCodec.binary().writeObject(value, data);
+		final ReadableArrayData read = new ReadableArrayData(data.getAsArray(), false);
+		final Object result = ObjectCodec.binary().readObject(read);
+		assertEquals(0, read.getRemainingLength(), "Not all bytes were read");
+		return result;
+	}
+
+	enum Mood {
+		HAPPY, SAD { @Override public String toString() { return "sad"; } };
+	}
+
+	static class Base implements Serializable {
+		private static final long serialVersionUID = 1L;
+		protected final int id;
+
+		Base(int id) {
+			this.id = id;
+		}
+	}
+
+	static class Message extends Base {
+		private static final long serialVersionUID = 1L;
+		private final String sender;
+		private final Mood mood;
+		private final List<String> tags;
+		transient String cache;
+
+		Message(String sender, int id, Mood mood, List<String> tags) {
+			super(id);
+			this.sender = sender;
+			this.mood = mood;
+			this.tags = tags;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Message)) return false;
+			final Message other = (Message) obj;
+			return id == other.id && Objects.equals(sender, other.sender) && mood == other.mood && Objects.equals(tags, other.tags);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(id, sender, mood, tags);
+		}
+	}
+
+}
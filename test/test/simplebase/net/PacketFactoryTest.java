@@ -0,0 +1,505 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+import lb.simplebase.io.WritableGrowableData;
+import lb.simplebase.net.AsyncNetTask;
+import lb.simplebase.net.CompressionStatistics;
+import lb.simplebase.net.Packet;
+import lb.simplebase.net.PacketChannel;
+import lb.simplebase.net.PacketFactory;
+import lb.simplebase.net.PacketIdMapping;
+import lb.simplebase.net.PacketIdMappingContainer;
+
+class PacketFactoryTest {
+
+	static final int CONNECTIONS = 16;
+	static final int PACKETS_PER_CONNECTION = 2000;
+
+	PacketIdMappingContainer mappings;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		final Set<PacketIdMapping> set = Collections.synchronizedSet(new HashSet<>());
+		mappings = new PacketIdMappingContainer() {
+
+			@Override
+			public Set<PacketIdMapping> getAllMappings() {
+				return set;
+			}
+
+			@Override
+			public void addMapping(PacketIdMapping mapping) {
+				set.add(mapping);
+			}
+		};
+		mappings.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+	}
+
+	@Test
+	void testChunkedDecode() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory factory = new PacketFactory(mappings, received::add);
+		final List<TestPacket> sent = createPackets(new Random(42), 500);
+		final byte[] stream = encode(factory, sent);
+
+		final Random random = new Random(7);
+		int index = 0;
+		while(index < stream.length) {
+			final int count = Math.min(stream.length - index, 1 + random.nextInt(700));
+			factory.feed(stream, index, count);
+			index += count;
+		}
+		assertEquals(sent, received, "Decoded packets do not match");
+	}
+
+	@Test
+	void testSingleByteChunks() throws Exception {
+		final List<TestPacket> sent = createPackets(new Random(5), 100);
+		sent.add(new TestPacket(new byte[0]));
+		sent.add(new TestPacket(new byte[20000])); //Compact length needs three bytes
+		
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory factory = new PacketFactory(mappings, received::add);
+		feedReused(factory, encode(factory, sent), 1);
+		assertEquals(sent, received, "Decoded packets do not match");
+
+		final List<Packet> compactReceived = new ArrayList<>();
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {}, true);
+		final PacketFactory receiver = new PacketFactory(mappings, compactReceived::add, true);
+		sender.feed(ByteBuffer.wrap(receiver.createHandshakeData()));
+		feedReused(receiver, encode(sender, sent), 1);
+		assertEquals(sent, compactReceived, "Decoded compact packets do not match");
+	}
+
+	@Test
+	void testManyFramesPerChunk() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory factory = new PacketFactory(mappings, received::add);
+		final List<TestPacket> sent = new ArrayList<>();
+		for(int i = 0; i < 5000; i++) {
+			sent.add(new TestPacket(new byte[] {(byte) i}));
+		}
+		final byte[] stream = encode(factory, sent);
+		feedReused(factory, stream, 8192); //Hundreds of frames per chunk, and frames that are split between chunks
+		assertEquals(sent, received, "Decoded packets do not match");
+
+		received.clear();
+		factory.feed(ByteBuffer.wrap(stream));
+		assertEquals(sent, received, "Decoded packets from a single chunk do not match");
+	}
+
+	@Test
+	void testDecodeFromHeapSlice() throws Exception {
+		final List<Packet> sent = createTextPackets();
+		final byte[] stream = encodeAll(sent);
+		final ByteBuffer whole = ByteBuffer.allocate(stream.length + 100);
+		Arrays.fill(whole.array(), (byte) -1); //Bytes outside of the slice would break the packets
+		whole.position(37);
+		final ByteBuffer slice = whole.slice();
+		assertEquals(37, slice.arrayOffset(), "Slice does not start inside of the array");
+		slice.position(5);
+		slice.put(stream);
+		slice.limit(slice.position());
+		slice.position(5);
+		assertDecoded(sent, slice);
+	}
+
+	@Test
+	void testDecodeFromDirectBuffer() throws Exception {
+		final List<Packet> sent = createTextPackets();
+		final byte[] stream = encodeAll(sent);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(stream.length + 20);
+		assertFalse(direct.hasArray(), "Direct buffer has an array");
+		direct.position(7);
+		direct.put(stream);
+		direct.limit(direct.position());
+		direct.position(7);
+		assertDecoded(sent, direct);
+	}
+
+	private void assertDecoded(List<Packet> sent, ByteBuffer buffer) throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory factory = new PacketFactory(mappings, received::add);
+		final int limit = buffer.limit();
+		final int capacity = buffer.capacity();
+		factory.feed(buffer);
+		assertEquals(sent, received, "Decoded packets do not match");
+		assertEquals(limit, buffer.position(), "Buffer was not consumed up to its limit");
+		assertEquals(limit, buffer.limit(), "Limit of the buffer was changed");
+		assertEquals(capacity, buffer.capacity(), "Capacity of the buffer was changed");
+	}
+
+	private List<Packet> createTextPackets() {
+		mappings.addMapping(PacketIdMapping.create(7, TextPacket.class, TextPacket::new));
+		final List<Packet> packets = new ArrayList<>();
+		packets.addAll(createPackets(new Random(17), 50));
+		for(int i = 0; i < 50; i++) {
+			packets.add(new TextPacket("Text \u00e4\u20ac " + i));
+		}
+		Collections.shuffle(packets, new Random(18));
+		return packets;
+	}
+
+	private byte[] encodeAll(List<Packet> packets) throws Exception {
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {});
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for(Packet packet : packets) {
+			stream.write(sender.createPacketData(packet));
+		}
+		return stream.toByteArray();
+	}
+
+	/**
+	 * Decodes one stream per connection on many threads at the same time. Every thread feeds its own factory in
+	 * random chunk sizes, so the decoders of all connections are in different states while they run interleaved.
+	 */
+	@Test
+	void testConcurrentConnections() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(CONNECTIONS);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Boolean>> results = new ArrayList<>();
+		try {
+			for(int i = 0; i < CONNECTIONS; i++) {
+				final Random random = new Random(i);
+				final List<Packet> received = new ArrayList<>();
+				final PacketFactory factory = new PacketFactory(mappings, received::add);
+				final List<TestPacket> sent = createPackets(random, PACKETS_PER_CONNECTION);
+				final byte[] stream = encode(factory, sent);
+
+				results.add(executor.submit(() -> {
+					start.await();
+					int index = 0;
+					while(index < stream.length) {
+						final int count = Math.min(stream.length - index, 1 + random.nextInt(64));
+						factory.feed(stream, index, count);
+						index += count;
+						if(random.nextInt(16) == 0) Thread.yield(); //Mix up the interleaving
+					}
+					return sent.equals(received);
+				}));
+			}
+			start.countDown();
+			for(Future<Boolean> result : results) {
+				assertTrue(result.get(60, TimeUnit.SECONDS), "Decoded packets of a connection do not match");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testCompactFrames() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {}, true);
+		final PacketFactory receiver = new PacketFactory(mappings, received::add, true);
+		final List<TestPacket> sent = createPackets(new Random(3), 200);
+		sent.add(new TestPacket(new byte[20000])); //Length needs three bytes
+
+		final byte[] legacy = sender.createPacketData(sent.get(0));
+		assertFalse(sender.isCompactFrameOutput(), "Compact output before handshake");
+		sender.feed(ByteBuffer.wrap(receiver.createHandshakeData()));
+		assertTrue(sender.isCompactFrameOutput(), "No compact output after handshake");
+		final byte[] compact = sender.createPacketData(sent.get(0));
+		assertEquals(legacy.length - 12 + 2 + WritableByteData.varIntLength(legacy.length - 12), compact.length, "Compact frame has the wrong size");
+
+		final byte[] stream = encode(sender, sent);
+		final Random random = new Random(11);
+		int index = 0;
+		while(index < stream.length) {
+			final int count = Math.min(stream.length - index, 1 + random.nextInt(500));
+			receiver.feed(stream, index, count);
+			index += count;
+		}
+		for(byte b : compact) receiver.feed(b); //Byte by byte
+		receiver.feed(legacy, 0, legacy.length); //Both formats are accepted
+		sent.add(sent.get(0));
+		sent.add(sent.get(0));
+		assertEquals(sent, received, "Decoded packets do not match");
+	}
+
+	@Test
+	void testCompactFramesDisabled() throws Exception {
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {}, true);
+		final PacketFactory receiver = new PacketFactory(mappings, (packet) -> {}, false);
+		sender.feed(ByteBuffer.wrap(receiver.createHandshakeData()));
+		assertFalse(sender.isCompactFrameOutput(), "Compact output without remote support");
+		receiver.feed(ByteBuffer.wrap(sender.createHandshakeData())); //Control frames are ignored
+		assertFalse(receiver.isCompactFrameOutput(), "Compact output while disabled");
+	}
+
+	@Test
+	void testCompression() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final CompressionStatistics sendStats = new CompressionStatistics();
+		final CompressionStatistics receiveStats = new CompressionStatistics();
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {}, true, 64, sendStats);
+		final PacketFactory receiver = new PacketFactory(mappings, received::add, true, -1, receiveStats);
+		sender.feed(ByteBuffer.wrap(receiver.createHandshakeData()));
+		assertTrue(sender.isCompressedOutput(), "No compressed output after handshake");
+
+		final List<TestPacket> sent = createPackets(new Random(5), 50); //Random data does not become smaller
+		for(int i = 0; i < 50; i++) {
+			sent.add(new TestPacket(new byte[i * 100])); //Zeros compress well
+		}
+		final byte[] stream = encode(sender, sent);
+		final Random random = new Random(13);
+		int index = 0;
+		while(index < stream.length) {
+			final int count = Math.min(stream.length - index, 1 + random.nextInt(300));
+			receiver.feed(stream, index, count);
+			index += count;
+		}
+		final byte[] single = sender.createPacketData(sent.get(sent.size() - 1));
+		for(byte b : single) receiver.feed(b); //Byte by byte
+		sent.add(sent.get(sent.size() - 1));
+		assertEquals(sent, received, "Decoded packets do not match");
+
+		assertTrue(sendStats.getCompressionRatio() < 0.5, "Data was not compressed: " + sendStats);
+		assertTrue(receiveStats.getDecompressedPacketCount() > 0, "No packets were decompressed");
+		assertTrue(receiveStats.getDecompressedPacketCount() < sendStats.getCompressedPacketCount(), "Random data was compressed");
+		assertTrue(receiveStats.getBytesBeforeDecompression() < receiveStats.getBytesAfterDecompression(), "Statistics do not match: " + receiveStats);
+	}
+
+	@Test
+	void testCompressedLengthLimit() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final PacketFactory receiver = new PacketFactory(mappings, received::add, true, -1, new CompressionStatistics());
+		final Deflater deflater = new Deflater();
+		deflater.setInput(new byte[100]);
+		deflater.finish();
+		final byte[] compressed = new byte[200];
+		final int compressedLength = deflater.deflate(compressed);
+		deflater.end();
+		
+		//A few compressed bytes that claim to become 2 GB
+		final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+		frame.write(PacketFactory.COMPACT_FRAME_MARKER | PacketFactory.FLAG_COMPRESSED);
+		frame.write(10); //Id 5, zigzag encoded
+		writeVarInt(frame, 5 + compressedLength);
+		writeVarInt(frame, Integer.MAX_VALUE);
+		frame.write(compressed, 0, compressedLength);
+		receiver.feed(ByteBuffer.wrap(frame.toByteArray()));
+		assertTrue(received.isEmpty(), "Frame with an impossible length was decoded");
+		
+		final TestPacket next = new TestPacket(new byte[] {1, 2, 3});
+		receiver.feed(ByteBuffer.wrap(new PacketFactory(mappings, (packet) -> {}).createPacketData(next)));
+		assertEquals(Collections.singletonList(next), received, "Decoder did not continue after the invalid frame");
+	}
+
+	@Test
+	void testFragmentStreamLimit() throws Exception {
+		final List<Packet> received = new ArrayList<>();
+		final AtomicInteger errors = new AtomicInteger();
+		final PacketFactory receiver = new PacketFactory(mappings, received::add);
+		receiver.setProtocolErrorHandler(errors::incrementAndGet);
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for(int i = 0; i <= PacketFactory.MAX_FRAGMENT_STREAMS; i++) { //One stream too many, none of them ends
+			writeFragment(stream, i, false, new byte[10]);
+		}
+		stream.write(new PacketFactory(mappings, (packet) -> {}).createPacketData(new TestPacket(new byte[] {1})));
+		receiver.feed(ByteBuffer.wrap(stream.toByteArray()));
+		assertEquals(1, errors.get(), "Too many fragment streams were not reported");
+		assertTrue(received.isEmpty(), "Decoding continued after the limit was exceeded");
+	}
+
+	@Test
+	void testFragmentSizeLimit() throws Exception {
+		final AtomicInteger errors = new AtomicInteger();
+		final PacketFactory receiver = new PacketFactory(mappings, (packet) -> {});
+		receiver.setMaxFrameSize(1000);
+		receiver.setProtocolErrorHandler(errors::incrementAndGet);
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		writeFragment(stream, 0, false, new byte[600]);
+		receiver.feed(ByteBuffer.wrap(stream.toByteArray()));
+		assertEquals(0, errors.get(), "Fragment below the limit was reported");
+		receiver.feed(ByteBuffer.wrap(stream.toByteArray()));
+		assertEquals(1, errors.get(), "Stream above the maximum frame size was not reported");
+	}
+
+	@Test
+	void testWriteQueueFragmentStreams() throws Exception {
+		//More lanes than stream numbers, every lane with a higher priority starts its large packet while all others are still in fragments
+		final int lanes = PacketFactory.MAX_FRAGMENT_STREAMS + 36;
+		final int fragmentSize = 64;
+		final Class<?> queueClass = Class.forName("lb.simplebase.net.MultiplexedWriteQueue");
+		final Class<?> sliceClass = Class.forName("lb.simplebase.net.MultiplexedWriteQueue$Slice");
+		final Class<?> encodedClass = Class.forName("lb.simplebase.net.EncodedPacket");
+		final Constructor<?> newQueue = queueClass.getDeclaredConstructor();
+		final Constructor<?> newSlice = sliceClass.getDeclaredConstructor();
+		final Constructor<?> newEncoded = encodedClass.getDeclaredConstructor(WritableGrowableData.class, PacketChannel.class);
+		final Method add = queueClass.getDeclaredMethod("add", encodedClass, AsyncNetTask.class);
+		final Method next = queueClass.getDeclaredMethod("next", sliceClass, int.class);
+		final Method advance = queueClass.getDeclaredMethod("advance", sliceClass);
+		final Method createPending = AsyncNetTask.class.getDeclaredMethod("createPending");
+		for(AccessibleObject member : new AccessibleObject[] {newQueue, newSlice, newEncoded, add, next, advance, createPending}) {
+			member.setAccessible(true);
+		}
+		final Object queue = newQueue.newInstance();
+		final Object slice = newSlice.newInstance();
+
+		final PacketFactory sender = new PacketFactory(mappings, (packet) -> {});
+		final List<Packet> received = new ArrayList<>();
+		final AtomicInteger errors = new AtomicInteger();
+		final PacketFactory receiver = new PacketFactory(mappings, received::add);
+		receiver.setProtocolErrorHandler(errors::incrementAndGet);
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final Set<TestPacket> sent = new HashSet<>();
+		for(int i = 0; i < lanes; i++) {
+			final byte[] data = new byte[1000];
+			data[0] = (byte) i;
+			final TestPacket packet = new TestPacket(data);
+			sent.add(packet);
+			final WritableGrowableData buffer = new WritableGrowableData(1100);
+			buffer.write(sender.createPacketData(packet));
+			add.invoke(queue, newEncoded.newInstance(buffer, PacketChannel.create(i + 1, i + 1)), createPending.invoke(null));
+			assertTrue((Boolean) next.invoke(queue, slice, fragmentSize), "Queue is empty");
+			writeSlice(stream, sliceClass, slice);
+			advance.invoke(queue, slice);
+		}
+		while((Boolean) next.invoke(queue, slice, fragmentSize)) {
+			writeSlice(stream, sliceClass, slice);
+			advance.invoke(queue, slice);
+		}
+
+		receiver.feed(ByteBuffer.wrap(stream.toByteArray()));
+		assertEquals(0, errors.get(), "Write queue used more fragment streams than allowed");
+		assertEquals(sent, new HashSet<>(received), "Not all packets were collected from their fragments");
+	}
+
+	private static void writeSlice(ByteArrayOutputStream stream, Class<?> sliceClass, Object slice) throws Exception {
+		final byte[] header = (byte[]) field(sliceClass, "header").get(slice);
+		stream.write(header, 0, field(sliceClass, "headerLength").getInt(slice));
+		stream.write((byte[]) field(sliceClass, "array").get(slice), field(sliceClass, "offset").getInt(slice), field(sliceClass, "length").getInt(slice));
+	}
+
+	private static Field field(Class<?> type, String name) throws Exception {
+		final Field field = type.getDeclaredField(name);
+		field.setAccessible(true);
+		return field;
+	}
+
+	/**
+	 * Writes a fragment control frame in the normal frame format.
+	 */
+	static void writeFragment(ByteArrayOutputStream stream, int streamId, boolean last, byte[] data) throws Exception {
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		writeVarInt(content, streamId);
+		content.write(last ? PacketFactory.FRAGMENT_LAST : 0);
+		content.write(data);
+		stream.write(PacketFactory.PACKETHEADER);
+		stream.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+				.putInt(PacketFactory.CONTROL_ID_MIN + 2).putInt(content.size()).array()); //Fragment control frame id
+		content.writeTo(stream);
+	}
+
+	static void writeVarInt(ByteArrayOutputStream stream, int value) {
+		while((value & ~0x7F) != 0) {
+			stream.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		stream.write(value);
+	}
+
+	static List<TestPacket> createPackets(Random random, int count) {
+		final List<TestPacket> packets = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			final byte[] data = new byte[random.nextInt(300)];
+			random.nextBytes(data);
+			packets.add(new TestPacket(data));
+		}
+		return packets;
+	}
+
+	/**
+	 * Feeds the stream in chunks through one buffer that is overwritten after every chunk, like the receiver threads do.
+	 */
+	static void feedReused(PacketFactory factory, byte[] stream, int chunkSize) throws Exception {
+		final byte[] buffer = new byte[chunkSize];
+		final ByteBuffer view = ByteBuffer.wrap(buffer);
+		for(int index = 0; index < stream.length; index += chunkSize) {
+			final int count = Math.min(chunkSize, stream.length - index);
+			System.arraycopy(stream, index, buffer, 0, count);
+			view.clear();
+			view.limit(count);
+			factory.feed(view);
+			Arrays.fill(buffer, (byte) -1);
+		}
+	}
+
+	static byte[] encode(PacketFactory factory, List<TestPacket> packets) throws Exception {
+		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for(TestPacket packet : packets) {
+			stream.write(factory.createPacketData(packet));
+		}
+		return stream.toByteArray();
+	}
+
+	/**
+	 * A packet with a string, which is decoded directly from the array of the buffer if it has one
+	 */
+	static final class TextPacket implements Packet {
+		private String text;
+
+		TextPacket() {}
+
+		TextPacket(String text) {
+			this.text = text;
+		}
+
+		@Override
+		public void writeData(WritableByteData data) {
+			data.writeUTF8(text);
+		}
+
+		@Override
+		public void readData(ReadableByteData data) {
+			text = data.readUTF8();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof TextPacket && ((TextPacket) obj).text.equals(text);
+		}
+
+		@Override
+		public int hashCode() {
+			return text.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "TextPacket [text=" + text + "]";
+		}
+	}
+
+}
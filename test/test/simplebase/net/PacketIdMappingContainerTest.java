@@ -0,0 +1,80 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.io.ReadableByteData;
+import lb.simplebase.io.WritableByteData;
+import lb.simplebase.net.IndexedPacketIdMappingContainer;
+import lb.simplebase.net.Packet;
+import lb.simplebase.net.PacketIdMapping;
+
+class PacketIdMappingContainerTest {
+
+	IndexedPacketIdMappingContainer container;
+	PacketIdMapping dense;
+	PacketIdMapping sparse;
+	PacketIdMapping negative;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		container = new IndexedPacketIdMappingContainer();
+		dense = PacketIdMapping.create(5, TestPacket.class, TestPacket::new);
+		sparse = PacketIdMapping.create(1000000, OtherPacket.class, OtherPacket::new);
+		negative = PacketIdMapping.create(-3, ThirdPacket.class, ThirdPacket::new);
+		container.addMapping(dense);
+		container.addMapping(sparse);
+		container.addMapping(negative);
+	}
+
+	@Test
+	void testLookup() {
+		assertSame(dense, container.getMappingFor(5), "Dense id not found");
+		assertSame(sparse, container.getMappingFor(1000000), "Sparse id not found");
+		assertSame(negative, container.getMappingFor(-3), "Negative id not found");
+		assertSame(dense, container.getMappingFor(TestPacket.class), "Class not found");
+		assertSame(sparse, container.getMappingFor(OtherPacket.class), "Class not found");
+		assertTrue(container.hasMappingFor(ThirdPacket.class), "Class not found");
+
+		assertNull(container.getMappingFor(4), "Unmapped id was found");
+		assertNull(container.getMappingFor(Packet.class), "Unmapped class was found");
+		assertSame(dense, container.getMappingFor(6, dense), "Default mapping not returned");
+		assertEquals(3, container.getAllMappings().size(), "Wrong amount of mappings");
+	}
+
+	@Test
+	void testConflictingMappings() {
+		container.addMapping(PacketIdMapping.create(5, Packet.class, TestPacket::new)); //id is used
+		container.addMapping(PacketIdMapping.create(6, TestPacket.class, TestPacket::new)); //class is used
+		assertSame(dense, container.getMappingFor(5), "Mapping was replaced");
+		assertFalse(container.hasMappingFor(6), "Conflicting mapping was added");
+		assertFalse(container.hasMappingFor(Packet.class), "Conflicting mapping was added");
+		assertEquals(3, container.getAllMappings().size(), "Wrong amount of mappings");
+	}
+
+	@Test
+	void testAddAfterLookup() {
+		final IndexedPacketIdMappingContainer other = new IndexedPacketIdMappingContainer();
+		assertFalse(other.hasMappingFor(TestPacket.class), "Class found in empty container");
+		other.addAllMappings(container);
+		assertSame(dense, other.getMappingFor(TestPacket.class), "Class lookup not updated");
+		assertSame(negative, other.getMappingFor(-3), "Id lookup not updated");
+	}
+
+	static class OtherPacket extends TestPacket {}
+
+	static class ThirdPacket implements Packet {
+		@Override
+		public void writeData(WritableByteData data) {}
+
+		@Override
+		public void readData(ReadableByteData data) {}
+	}
+
+}
@@ -0,0 +1,119 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.io.ReadableArrayData;
+import lb.simplebase.io.WritableGrowableData;
+import lb.simplebase.net.AnnotatedPacket;
+import lb.simplebase.net.PacketField;
+import lb.simplebase.net.PacketSerializer;
+
+class PacketSerializerTest {
+
+	@Test
+	void testRoundTrip() {
+		final MovePacket packet = new MovePacket();
+		packet.entity = 12;
+		packet.x = -1.5;
+		packet.y = 2.25f;
+		packet.sprinting = true;
+		packet.timestamp = Long.MIN_VALUE;
+		packet.key = 'w';
+		packet.name = "Spieler \u00fc";
+		packet.payload = new byte[] {1, 2, 3};
+		packet.direction = Direction.WEST;
+		packet.path = new ArrayList<>(Arrays.asList(1, 2, 3));
+		packet.ignored = 99;
+
+		final MovePacket result = roundTrip(packet);
+		assertEquals(12, result.entity, "Superclass field not equal");
+		assertEquals(-1.5, result.x, 0, "Doubles not equal");
+		assertEquals(2.25f, result.y, 0, "Floats not equal");
+		assertEquals(true, result.sprinting, "Booleans not equal");
+		assertEquals(Long.MIN_VALUE, result.timestamp, "Longs not equal");
+		assertEquals('w', result.key, "Chars not equal");
+		assertEquals("Spieler \u00fc", result.name, "Strings not equal");
+		assertArrayEquals(new byte[] {1, 2, 3}, result.payload, "Byte arrays not equal");
+		assertSame(Direction.WEST, result.direction, "Enums not equal");
+		assertEquals(packet.path, result.path, "Objects not equal");
+		assertEquals(0, result.ignored, "Field without annotation was written");
+	}
+
+	@Test
+	void testNullValues() {
+		final MovePacket result = roundTrip(new MovePacket());
+		assertNull(result.name, "String not null");
+		assertNull(result.payload, "Array not null");
+		assertNull(result.direction, "Enum not null");
+		assertNull(result.path, "Object not null");
+	}
+
+	@Test
+	void testFieldOrder() {
+		final MovePacket packet = new MovePacket();
+		packet.entity = 0x01020304;
+		packet.x = 0;
+		final WritableGrowableData data = new WritableGrowableData(64);
+		packet.writeData(data);
+		final ReadableArrayData read = new ReadableArrayData(data.getAsArray(), false);
+		assertEquals(0x01020304, read.readInt(), "Superclass field is not first");
+		assertEquals(0.0, read.readDouble(), 0, "Field with position 0 is not second");
+		assertEquals(10, PacketSerializer.forClass(MovePacket.class).getFieldCount(), "Wrong amount of fields");
+	}
+
+	@Test
+	void testInvalidClass() {
+		try {
+			PacketSerializer.forClass(InvalidPacket.class);
+			fail("Final field was accepted");
+		} catch (IllegalArgumentException e) {
+			//expected
+		}
+	}
+
+	static MovePacket roundTrip(MovePacket packet) {
+		final WritableGrowableData data = new WritableGrowableData(64);
+		packet.writeData(data);
+		final ReadableArrayData read = new ReadableArrayData(data.getAsArray(), false);
+		final MovePacket result = new MovePacket();
+		result.readData(read);
+		assertEquals(0, read.getRemainingLength(), "Not all bytes were read");
+		return result;
+	}
+
+	enum Direction {
+		NORTH, EAST, SOUTH, WEST;
+	}
+
+	static class EntityPacket extends AnnotatedPacket {
+		@PacketField(0) int entity;
+	}
+
+	static class MovePacket extends EntityPacket {
+		@PacketField(9) List<Integer> path;
+		@PacketField(0) double x;
+		@PacketField(1) float y;
+		@PacketField(2) boolean sprinting;
+		@PacketField(3) long timestamp;
+		@PacketField(4) char key;
+		@PacketField(5) String name;
+		@PacketField(6) byte[] payload;
+		@PacketField(7) Direction direction;
+		int ignored;
+	}
+
+	static class InvalidPacket extends AnnotatedPacket {
+		@PacketField(0) final int value = 0;
+	}
+
+}
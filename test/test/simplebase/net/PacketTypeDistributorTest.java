@@ -0,0 +1,74 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.net.PacketTypeDistributor;
+import lb.simplebase.net.PacketTypeProfile;
+import lb.simplebase.net.PacketTypeProfiler;
+
+class PacketTypeDistributorTest {
+
+	@Test
+	void distributionTest() {
+		final AtomicInteger defaultCount = new AtomicInteger();
+		final AtomicInteger typedCount = new AtomicInteger();
+		final PacketTypeDistributor distributor = new PacketTypeDistributor((packet, context) -> defaultCount.incrementAndGet());
+		assertTrue(distributor.registerTypeHandler(SlowPacket.class, (packet, context) -> typedCount.incrementAndGet()), "Handler was not registered");
+		assertFalse(distributor.registerTypeHandler(SlowPacket.class, (packet, context) -> {}), "Handler was replaced");
+		distributor.processPacket(new SlowPacket(), null);
+		distributor.processPacket(new TestPacket(new byte[0]), null);
+		assertEquals(1, typedCount.get(), "Packet was not handled by the type handler");
+		assertEquals(1, defaultCount.get(), "Packet was not handled by the default handler");
+		assertFalse(distributor.isProfilingEnabled(), "Profiling must be disabled by default");
+		assertNull(distributor.getProfiler(), "Disabled distributor has a profiler");
+	}
+
+	@Test
+	void profilingTest() {
+		final PacketTypeDistributor distributor = new PacketTypeDistributor((packet, context) -> {});
+		distributor.registerTypeHandler(SlowPacket.class, (packet, context) -> {
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		distributor.setProfilingEnabled(true);
+		final PacketTypeProfiler profiler = distributor.getProfiler();
+		for(int i = 0; i < 10; i++) {
+			distributor.processPacket(new SlowPacket(), null);
+			distributor.processPacket(new TestPacket(new byte[0]), null);
+			distributor.processPacket(new TestPacket(new byte[0]), null);
+		}
+
+		final List<PacketTypeProfile> snapshot = profiler.getSnapshot();
+		assertEquals(2, snapshot.size(), "Wrong amount of profiled types");
+		final PacketTypeProfile hottest = profiler.getHotTypes(1).get(0);
+		assertEquals(SlowPacket.class, hottest.getPacketType(), "Slow handler is not the hottest type");
+		assertEquals(10, hottest.getInvocationCount(), "Wrong invocation count");
+		assertTrue(hottest.getMaxNanos() >= 2000000, "Handler time was not measured");
+		assertTrue(hottest.getTotalNanos() >= 10 * 2000000, "Handler time was not summed");
+		assertEquals(20, profiler.getProfile(TestPacket.class).getInvocationCount(), "Default handler was not profiled");
+
+		distributor.setProfilingEnabled(false);
+		distributor.processPacket(new SlowPacket(), null);
+		assertEquals(10, profiler.getProfile(SlowPacket.class).getInvocationCount(), "Packet was profiled while profiling was disabled");
+		profiler.reset();
+		assertEquals(0, profiler.getSnapshot().size(), "Profiles were not reset");
+	}
+
+	static final class SlowPacket extends TestPacket {
+		SlowPacket() {
+			super(new byte[0]);
+		}
+	}
+
+}
@@ -0,0 +1,903 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.action.AsyncResult;
+import lb.simplebase.action.AsyncResultGroup;
+import lb.simplebase.net.AttemptedConnectionEvent;
+import lb.simplebase.net.ClientConfig;
+import lb.simplebase.net.ClosedConnectionEvent;
+import lb.simplebase.net.ConfigureConnectionEvent;
+import lb.simplebase.net.InboundOverflowPolicy;
+import lb.simplebase.net.InboundQueueOverflowEvent;
+import lb.simplebase.net.InboundQueueStatistics;
+import lb.simplebase.net.LatencyHistogram;
+import lb.simplebase.net.NetworkManager;
+import lb.simplebase.net.NetworkManagerClient;
+import lb.simplebase.net.NetworkManagerServer;
+import lb.simplebase.net.NetworkMetrics;
+import lb.simplebase.net.Packet;
+import lb.simplebase.net.PacketChannel;
+import lb.simplebase.net.PacketIdMapping;
+import lb.simplebase.net.TargetIdentifier;
+
+/**
+ * Tests the socket transport. The client uses a different id than the server,
+ * so it cannot use a local connection and has to go through the network.
+ */
+class RemoteConnectionTest {
+
+	static final int PACKETS = 5000;
+	static final int CLIENTS = 5;
+
+	static TargetIdentifier server;
+	static TargetIdentifier serverFromClient;
+
+	NetworkManagerServer serverManager;
+	NetworkManagerClient clientManager;
+
+	final BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		NetworkManager.cleanUp();
+	}
+
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		server =			TargetIdentifier.createNetwork("server", "localhost", 1235).getValue();
+		serverFromClient =	TargetIdentifier.createNetwork("remote", "localhost", 1235).getValue();
+	}
+
+	@BeforeEach
+	void setUp() throws Exception {
+		//One processing thread, so packets are handled in the order in which they arrive
+		serverManager = NetworkManager.createServer(server, NetworkManager.createServerConfig().setProcessingThreadCount(1));
+		serverManager.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		serverManager.addIncomingPacketHandler((packet, context) -> received.add(packet));
+		clientManager = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverFromClient);
+		clientManager.addAllMappings(serverManager);
+		serverManager.startServer();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		clientManager.closeConnectionToServer();
+		serverManager.stopServer();
+	}
+
+	@Test
+	void sendOrderTest() throws InterruptedException {
+		clientManager.openConnectionToServer();
+		assertTrue(clientManager.isConnectionOpen(), "Connection not open");
+
+		final Random random = new Random(11);
+		final List<TestPacket> sent = new ArrayList<>(PACKETS);
+		final List<AsyncResult> results = new ArrayList<>(PACKETS);
+		for(int i = 0; i < PACKETS; i++) { //Send without waiting, so packets queue up in the connection
+			final byte[] data = new byte[random.nextInt(100)];
+			random.nextBytes(data);
+			final TestPacket packet = new TestPacket(data);
+			sent.add(packet);
+			results.add(clientManager.sendPacketToServer(packet));
+		}
+		for(AsyncResult result : results) {
+			assertTrue(result.sync().isSuccess(), "Could not send Packet");
+		}
+		for(int i = 0; i < PACKETS; i++) {
+			final Packet packet = received.poll(10, TimeUnit.SECONDS);
+			assertNotNull(packet, "Packet " + i + " was not received");
+			assertEquals(sent.get(i), packet, "Packets were received in the wrong order");
+		}
+	}
+
+	/**
+	 * Like {@link #sendOrderTest()}, but with a server that uses non-blocking channels and selector threads.
+	 * Also checks the events of the server for one connection.
+	 */
+	@Test
+	void selectorTransportTest() throws InterruptedException {
+		final List<String> events = Collections.synchronizedList(new ArrayList<>());
+		final BlockingQueue<TargetIdentifier> configured = new LinkedBlockingQueue<>();
+		final CountDownLatch closed = new CountDownLatch(1);
+		final BlockingQueue<Packet> serverReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<Packet> clientReceived = new LinkedBlockingQueue<>();
+		final NetworkManagerServer selectorServer = NetworkManager.createServer(TargetIdentifier.createNetwork("selector", "localhost", 1251).getValue(),
+				NetworkManager.createServerConfig().setProcessingThreadCount(1).setSelectorThreadCount(2));
+		assertEquals("ChannelNetworkManagerServer", selectorServer.getClass().getSimpleName(), "Server does not use selectors");
+		selectorServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		selectorServer.addIncomingPacketHandler((packet, context) -> serverReceived.add(packet));
+		selectorServer.getEventBus().register((AttemptedConnectionEvent event) -> events.add("attempted"), AttemptedConnectionEvent.class);
+		selectorServer.getEventBus().register((ConfigureConnectionEvent event) -> {
+			events.add("configure");
+			configured.add(event.getRemoteTargetId());
+		}, ConfigureConnectionEvent.class);
+		selectorServer.getEventBus().register((ClosedConnectionEvent event) -> {
+			events.add("closed " + event.getConnectionContext().getSenderId());
+			closed.countDown();
+		}, ClosedConnectionEvent.class);
+		selectorServer.startServer();
+		final TargetIdentifier selectorFromClient = TargetIdentifier.createNetwork("remote", "localhost", 1251).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), selectorFromClient,
+				ClientConfig.forConnectionTo(selectorFromClient).setOrderedDispatch(true)); //The packets of the server are handled in order
+		try {
+			client.addAllMappings(selectorServer);
+			client.addIncomingPacketHandler((packet, context) -> clientReceived.add(packet));
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			final TargetIdentifier remote = configured.poll(10, TimeUnit.SECONDS);
+			assertNotNull(remote, "Connection was not configured");
+			for(int i = 0; i < 100 && selectorServer.getCurrentClientCount() < 1; i++) {
+				Thread.sleep(10); //The client is added after the event
+			}
+			assertEquals(1, selectorServer.getCurrentClientCount(), "Client was not accepted");
+
+			final Random random = new Random(12);
+			final List<TestPacket> sent = new ArrayList<>(PACKETS);
+			final List<AsyncResult> results = new ArrayList<>(PACKETS * 2);
+			for(int i = 0; i < PACKETS; i++) {
+				final byte[] data = new byte[random.nextInt(100)];
+				random.nextBytes(data);
+				final TestPacket packet = new TestPacket(data);
+				sent.add(packet);
+				results.add(client.sendPacketToServer(packet));
+				results.add(selectorServer.sendPacketToClient(packet, remote));
+			}
+			for(AsyncResult result : results) {
+				assertTrue(result.sync().isSuccess(), "Could not send Packet");
+			}
+			for(int i = 0; i < PACKETS; i++) {
+				assertEquals(sent.get(i), serverReceived.poll(10, TimeUnit.SECONDS), "Server did not receive packet " + i + " in order");
+				assertEquals(sent.get(i), clientReceived.poll(10, TimeUnit.SECONDS), "Client did not receive packet " + i + " in order");
+			}
+
+			client.closeConnectionToServer();
+			assertTrue(closed.await(10, TimeUnit.SECONDS), "Closed connection was not noticed");
+			assertEquals(0, selectorServer.getCurrentClientCount(), "Closed connection is still a client");
+			assertEquals(Arrays.asList("attempted", "configure", "closed " + remote), events, "Wrong events for the connection");
+		} finally {
+			client.closeConnectionToServer();
+			selectorServer.stopServer();
+		}
+	}
+
+	@Test
+	void broadcastTest() throws InterruptedException {
+		final List<NetworkManagerClient> clients = new ArrayList<>();
+		final List<BlockingQueue<Packet>> clientReceived = new ArrayList<>();
+		try {
+			for(int i = 0; i < CLIENTS; i++) {
+				final BlockingQueue<Packet> queue = new LinkedBlockingQueue<>();
+				final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client" + i), serverFromClient,
+						ClientConfig.forConnectionTo(serverFromClient));
+				client.addAllMappings(serverManager);
+				client.addIncomingPacketHandler((packet, context) -> queue.add(packet));
+				client.openConnectionToServer();
+				assertTrue(client.isConnectionOpen(), "Connection not open");
+				clients.add(client);
+				clientReceived.add(queue);
+			}
+			for(int i = 0; i < 100 && serverManager.getCurrentClientCount() < CLIENTS; i++) {
+				Thread.sleep(10); //Wait until the server has accepted all clients
+			}
+			assertEquals(CLIENTS, serverManager.getCurrentClientCount(), "Not all clients were accepted");
+
+			final TestPacket packet = new TestPacket(new byte[] {1, 2, 3, 4});
+			final AsyncResultGroup result = serverManager.broadcastPacket(packet);
+			result.sync();
+			assertEquals(CLIENTS, result.getGroupSize(), "Packet was not sent to every client");
+			assertEquals(CLIENTS, result.getCurrentSuccessCount(), "Packet was not sent successfully");
+			for(BlockingQueue<Packet> queue : clientReceived) {
+				assertEquals(packet, queue.poll(10, TimeUnit.SECONDS), "Broadcast packet was not received");
+			}
+
+			final TargetIdentifier excluded = serverManager.getClients().getState().iterator().next();
+			final AsyncResultGroup filtered = serverManager.broadcastPacket(packet, (client) -> !client.equals(excluded));
+			filtered.sync();
+			assertEquals(CLIENTS - 1, filtered.getGroupSize(), "Filter was not applied");
+		} finally {
+			for(NetworkManagerClient client : clients) {
+				client.closeConnectionToServer();
+			}
+		}
+	}
+
+	@Test
+	void broadcastUnmappedTest() throws InterruptedException {
+		final BlockingQueue<Packet> remoteReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<Packet> localReceived = new LinkedBlockingQueue<>();
+		final List<NetworkManagerClient> locals = new ArrayList<>();
+		final List<TargetIdentifier> localIds = new ArrayList<>();
+		try {
+			clientManager.addIncomingPacketHandler((packet, context) -> remoteReceived.add(packet));
+			clientManager.openConnectionToServer();
+			for(int i = 0; i < CLIENTS; i++) { //Some of them come before the network client in the client list
+				localIds.add(TargetIdentifier.createLocal("local" + i));
+				final NetworkManagerClient local = NetworkManager.createClient(localIds.get(i), server);
+				local.addAllMappings(serverManager);
+				local.addIncomingPacketHandler((packet, context) -> localReceived.add(packet));
+				local.openConnectionToServer();
+				locals.add(local);
+			}
+			for(int i = 0; i < 100 && serverManager.getCurrentClientCount() < CLIENTS + 1; i++) {
+				Thread.sleep(10); //Wait until the server has accepted all clients
+			}
+			assertEquals(CLIENTS + 1, serverManager.getCurrentClientCount(), "Not all clients were accepted");
+
+			final AsyncResultGroup result = serverManager.broadcastPacket(new UnmappedPacket());
+			result.sync();
+			assertEquals(1, result.getGroupSize(), "Broadcast without mapping did not fail as a whole");
+			assertEquals(0, result.getCurrentSuccessCount(), "Broadcast without mapping succeeded");
+			assertNull(localReceived.poll(200, TimeUnit.MILLISECONDS), "Local client received a packet without mapping");
+			assertNull(remoteReceived.poll(), "Remote client received a packet without mapping");
+
+			final AsyncResultGroup localOnly = serverManager.broadcastPacket(new UnmappedPacket(), localIds::contains);
+			localOnly.sync();
+			assertEquals(CLIENTS, localOnly.getCurrentSuccessCount(), "Local clients don't need a mapping");
+			for(int i = 0; i < CLIENTS; i++) {
+				assertNotNull(localReceived.poll(10, TimeUnit.SECONDS), "Local client did not receive the packet");
+			}
+		} finally {
+			for(NetworkManagerClient local : locals) {
+				local.closeConnectionToServer();
+			}
+		}
+	}
+
+	/**
+	 * Sends numbered packets from several clients to a server with ordered dispatch and many processing threads.
+	 * The packets of each client must be handled one at a time and in order.
+	 */
+	@Test
+	void orderedDispatchTest() throws InterruptedException {
+		final TargetIdentifier orderedServer = TargetIdentifier.createNetwork("ordered", "localhost", 1236).getValue();
+		final TargetIdentifier orderedFromClient = TargetIdentifier.createNetwork("remote", "localhost", 1236).getValue();
+		final NetworkManagerServer ordered = NetworkManager.createServer(orderedServer,
+				NetworkManager.createServerConfig().setProcessingThreadCount(4).setOrderedDispatch(true));
+		final Map<TargetIdentifier, AtomicInteger> nextIndex = new ConcurrentHashMap<>();
+		final Map<TargetIdentifier, AtomicBoolean> inHandler = new ConcurrentHashMap<>();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(CLIENTS * PACKETS / 5);
+		ordered.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		ordered.addIncomingPacketHandler((packet, context) -> {
+			final AtomicBoolean busy = inHandler.computeIfAbsent(context.getSenderId(), (id) -> new AtomicBoolean());
+			if(!busy.compareAndSet(false, true)) errors.incrementAndGet(); //Two packets of one client at the same time
+			final int index = ByteBuffer.wrap(((TestPacket) packet).getData()).getInt();
+			if(nextIndex.computeIfAbsent(context.getSenderId(), (id) -> new AtomicInteger()).getAndIncrement() != index) errors.incrementAndGet();
+			busy.set(false);
+			done.countDown();
+		});
+		ordered.startServer();
+		final List<NetworkManagerClient> clients = new ArrayList<>();
+		try {
+			for(int i = 0; i < CLIENTS; i++) {
+				final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client" + i), orderedFromClient);
+				client.addAllMappings(ordered);
+				client.openConnectionToServer();
+				assertTrue(client.isConnectionOpen(), "Connection not open");
+				clients.add(client);
+			}
+			for(int i = 0; i < PACKETS / 5; i++) {
+				for(NetworkManagerClient client : clients) {
+					client.sendPacketToServer(new TestPacket(ByteBuffer.allocate(4).putInt(i).array()));
+				}
+			}
+			assertTrue(done.await(30, TimeUnit.SECONDS), "Not all packets were handled");
+			assertEquals(0, errors.get(), "Packets of a client were handled out of order or at the same time");
+		} finally {
+			for(NetworkManagerClient client : clients) {
+				client.closeConnectionToServer();
+			}
+			ordered.stopServer();
+		}
+	}
+
+	@Test
+	void inboundQueueDropTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger handled = new AtomicInteger();
+		final AtomicInteger events = new AtomicInteger();
+		final NetworkManagerServer limited = createLimitedServer(1237, InboundOverflowPolicy.DROP_NEWEST, release, handled);
+		limited.getEventBus().register((InboundQueueOverflowEvent event) -> events.incrementAndGet(), InboundQueueOverflowEvent.class);
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"),
+				TargetIdentifier.createNetwork("remote", "localhost", 1237).getValue());
+		try {
+			client.addAllMappings(limited);
+			client.openConnectionToServer();
+			for(int i = 0; i < 100; i++) {
+				assertTrue(client.sendPacketToServer(new TestPacket(new byte[] {(byte) i})).sync().isSuccess(), "Could not send Packet");
+			}
+			final InboundQueueStatistics statistics = ((NetworkManager) limited).getInboundQueueStatistics();
+			for(int i = 0; i < 500 && statistics.getDroppedNewestCount() + statistics.getQueuedPacketCount() < 99; i++) {
+				Thread.sleep(10);
+			}
+			release.countDown();
+			for(int i = 0; i < 500 && statistics.getQueuedPacketCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(statistics.getDroppedNewestCount() >= 89, "Packets were not dropped: " + statistics);
+			assertEquals(100, handled.get() + statistics.getDroppedNewestCount(), "Packets were lost: " + statistics);
+			assertEquals(statistics.getDroppedNewestCount(), events.get(), "Not every dropped packet posted an event");
+		} finally {
+			release.countDown();
+			client.closeConnectionToServer();
+			limited.stopServer();
+		}
+	}
+
+	/**
+	 * Without ordered dispatch, dropping the oldest packets must not leave a task per received packet behind.
+	 * The handler blocks, so every task that got a packet would hold a thread of the unlimited pool.
+	 */
+	@Test
+	void inboundQueueDropOldestTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger handled = new AtomicInteger();
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final NetworkManagerServer limited = NetworkManager.createServer(TargetIdentifier.createNetwork("limited", "localhost", 1246).getValue(),
+				NetworkManager.createServerConfig().setInboundQueueLimits(10, 0).setInboundOverflowPolicy(InboundOverflowPolicy.DROP_OLDEST));
+		limited.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		limited.addIncomingPacketHandler((packet, context) -> {
+			maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			active.decrementAndGet();
+			handled.incrementAndGet();
+		});
+		limited.startServer();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"),
+				TargetIdentifier.createNetwork("remote", "localhost", 1246).getValue());
+		try {
+			client.addAllMappings(limited);
+			client.openConnectionToServer();
+			for(int i = 0; i < 200; i++) {
+				assertTrue(client.sendPacketToServer(new TestPacket(new byte[] {(byte) i})).sync().isSuccess(), "Could not send Packet");
+			}
+			final InboundQueueStatistics statistics = ((NetworkManager) limited).getInboundQueueStatistics();
+			for(int i = 0; i < 500 && statistics.getDroppedOldestCount() + statistics.getQueuedPacketCount() < 199; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, maxActive.get(), "More than one task processed the packets of the connection");
+			release.countDown();
+			for(int i = 0; i < 500 && statistics.getQueuedPacketCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(statistics.getDroppedOldestCount() >= 189, "Packets were not dropped: " + statistics);
+			assertEquals(200, handled.get() + statistics.getDroppedOldestCount(), "Packets were lost: " + statistics);
+		} finally {
+			release.countDown();
+			client.closeConnectionToServer();
+			limited.stopServer();
+		}
+	}
+
+	/**
+	 * When the total limit is reached by the packets of another connection, a connection without queued packets has nothing
+	 * to drop, so its new packets are dropped and not queued.
+	 */
+	@Test
+	void inboundQueueDropOldestTotalTest() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger handled = new AtomicInteger();
+		final AtomicInteger events = new AtomicInteger();
+		final NetworkManagerServer limited = NetworkManager.createServer(TargetIdentifier.createNetwork("limited", "localhost", 1248).getValue(),
+				NetworkManager.createServerConfig().setProcessingThreadCount(1).setInboundQueueLimits(0, 10).setInboundOverflowPolicy(InboundOverflowPolicy.DROP_OLDEST));
+		limited.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		limited.addIncomingPacketHandler((packet, context) -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			handled.incrementAndGet();
+		});
+		limited.getEventBus().register((InboundQueueOverflowEvent event) -> events.incrementAndGet(), InboundQueueOverflowEvent.class);
+		limited.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1248).getValue();
+		final NetworkManagerClient flooding = NetworkManager.createClient(TargetIdentifier.createLocal("flooding"), serverId);
+		final NetworkManagerClient other = NetworkManager.createClient(TargetIdentifier.createLocal("other"), serverId);
+		try {
+			flooding.addAllMappings(limited);
+			other.addAllMappings(limited);
+			flooding.openConnectionToServer();
+			other.openConnectionToServer();
+			final InboundQueueStatistics statistics = ((NetworkManager) limited).getInboundQueueStatistics();
+			assertTrue(flooding.sendPacketToServer(new TestPacket(new byte[] {0})).sync().isSuccess(), "Could not send Packet");
+			assertTrue(started.await(5, TimeUnit.SECONDS), "First packet was not handled");
+			for(int i = 1; i < 20; i++) {
+				assertTrue(flooding.sendPacketToServer(new TestPacket(new byte[] {(byte) i})).sync().isSuccess(), "Could not send Packet");
+			}
+			//One packet is blocked in the handler, the others fill the queue
+			for(int i = 0; i < 500 && statistics.getDroppedOldestCount() + statistics.getQueuedPacketCount() < 19; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(10, statistics.getQueuedPacketCount(), "The queue was not full: " + statistics);
+			
+			for(int i = 0; i < 20; i++) {
+				assertTrue(other.sendPacketToServer(new TestPacket(new byte[] {(byte) i})).sync().isSuccess(), "Could not send Packet");
+			}
+			for(int i = 0; i < 500 && statistics.getDroppedNewestCount() < 20; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(20, statistics.getDroppedNewestCount(), "Packets of the other connection were not dropped: " + statistics);
+			assertEquals(10, statistics.getQueuedPacketCount(), "Dropped packets were queued: " + statistics);
+			release.countDown();
+			for(int i = 0; i < 500 && statistics.getQueuedPacketCount() > 0; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(11, handled.get(), "Dropped packets were handled: " + statistics);
+			assertEquals(statistics.getDroppedOldestCount() + statistics.getDroppedNewestCount(), events.get(), "Not every dropped packet posted an event");
+		} finally {
+			release.countDown();
+			flooding.closeConnectionToServer();
+			other.closeConnectionToServer();
+			limited.stopServer();
+		}
+	}
+
+	@Test
+	void inboundQueuePauseTest() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger handled = new AtomicInteger();
+		final NetworkManagerServer limited = createLimitedServer(1238, InboundOverflowPolicy.PAUSE_READING, release, handled);
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"),
+				TargetIdentifier.createNetwork("remote", "localhost", 1238).getValue());
+		try {
+			client.addAllMappings(limited);
+			client.openConnectionToServer();
+			for(int i = 0; i < PACKETS; i++) {
+				client.sendPacketToServer(new TestPacket(new byte[100]));
+			}
+			final InboundQueueStatistics statistics = ((NetworkManager) limited).getInboundQueueStatistics();
+			Thread.sleep(200);
+			assertEquals(1, statistics.getPauseCount(), "Reading was not paused");
+			assertTrue(statistics.getQueuedPacketCount() < PACKETS / 2, "Reading did not stop: " + statistics);
+			release.countDown();
+			for(int i = 0; i < 1000 && handled.get() < PACKETS; i++) {
+				Thread.sleep(10);
+			}
+			assertEquals(PACKETS, handled.get(), "Not all packets were handled after reading was resumed");
+		} finally {
+			release.countDown();
+			client.closeConnectionToServer();
+			limited.stopServer();
+		}
+	}
+
+	@Test
+	void metricsTest() throws InterruptedException {
+		clientManager.addMapping(PacketIdMapping.create(6, UnmappedPacket.class, UnmappedPacket::new)); //The server does not know this id
+		clientManager.openConnectionToServer();
+		final List<AsyncResult> results = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			results.add(clientManager.sendPacketToServer(new TestPacket(new byte[10])));
+		}
+		results.add(clientManager.sendPacketToServer(new UnmappedPacket()));
+		for(AsyncResult result : results) {
+			assertTrue(result.sync().isSuccess(), "Could not send Packet");
+		}
+		for(int i = 0; i < 100; i++) {
+			assertNotNull(received.poll(10, TimeUnit.SECONDS), "Packet " + i + " was not received");
+		}
+		
+		final NetworkMetrics clientMetrics = clientManager.getMetrics();
+		final NetworkMetrics serverMetrics = serverManager.getMetrics();
+		for(int i = 0; i < 500 && (serverMetrics.getDecodeErrors() == 0 || serverMetrics.getHandlerLatency().getCount() < 100); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(101, clientMetrics.getPacketsSent(), "Sent packets were not counted");
+		assertEquals(101, clientMetrics.getSendLatency().getCount(), "Send latency was not recorded for every packet");
+		assertEquals(0, clientMetrics.getSendFailures(), "Send failures were counted");
+		assertEquals(clientMetrics.getBytesSent(), serverMetrics.getBytesReceived(), "Byte counts do not match");
+		assertEquals(100, serverMetrics.getPacketsReceived(), "Received packets were not counted");
+		assertEquals(1, serverMetrics.getDecodeErrors(), "The unknown packet id was not counted");
+		assertEquals(100, serverMetrics.getHandlerLatency().getCount(), "Handler latency was not recorded for every packet");
+		assertTrue(serverMetrics.getHandlerLatency().getMaxNanos() > 0, "Handler latency was not measured");
+		
+		assertTrue(((NetworkManager) serverManager).publishMetrics(), "Metrics MBean was not registered");
+		try {
+			final ObjectName name = new ObjectName("lb.simplebase.net:type=NetworkMetrics,name=\"server\"");
+			assertEquals(100L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "PacketsReceived"), "MBean has wrong value");
+		} catch (JMException e) {
+			fail("Could not read the MBean: " + e);
+		} finally {
+			((NetworkManager) serverManager).unpublishMetrics();
+		}
+	}
+	
+	@Test
+	void latencyHistogramTest() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileNanos(0.5), "Empty histogram has a percentile");
+		for(int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000);
+		}
+		assertEquals(100, histogram.getCount(), "Wrong count");
+		assertEquals(50500, histogram.getMeanNanos(), 0.001, "Wrong mean");
+		assertEquals(100000, histogram.getMaxNanos(), "Wrong maximum");
+		final long median = histogram.getPercentileNanos(0.5);
+		assertTrue(median >= 50000 && median < 100000, "Median is not within its bucket: " + median);
+		assertEquals(100000, histogram.getPercentileNanos(1), "Highest percentile must be the maximum");
+	}
+	
+	/**
+	 * A client that sends nothing is closed by the read idle timeout of a server that uses the selector transport.
+	 */
+	@Test
+	void idleTimeoutTest() throws InterruptedException {
+		final NetworkManagerServer timeoutServer = NetworkManager.createServer(TargetIdentifier.createNetwork("timeout", "localhost", 1239).getValue(),
+				NetworkManager.createServerConfig().setSelectorThreadCount(1).setIdleTimeouts(300, 0));
+		final BlockingQueue<ClosedConnectionEvent.Cause> causes = new LinkedBlockingQueue<>();
+		timeoutServer.getEventBus().register((ClosedConnectionEvent event) -> causes.add(event.getCause()), ClosedConnectionEvent.class);
+		timeoutServer.startServer();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"),
+				TargetIdentifier.createNetwork("remote", "localhost", 1239).getValue());
+		try {
+			final long start = System.nanoTime();
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			assertEquals(ClosedConnectionEvent.Cause.TIMEOUT, causes.poll(5, TimeUnit.SECONDS), "Connection did not time out");
+			assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300), "Connection timed out too early");
+			for(int i = 0; i < 500 && client.isConnectionOpen(); i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(!client.isConnectionOpen(), "Client did not notice that the server closed the connection");
+			assertEquals(0, timeoutServer.getCurrentClientCount(), "Timed out client was not removed");
+		} finally {
+			client.closeConnectionToServer();
+			timeoutServer.stopServer();
+		}
+	}
+	
+	/**
+	 * Heartbeats keep idle connections with read idle timeouts on both sides open.
+	 */
+	@Test
+	void heartbeatTest() throws InterruptedException {
+		final NetworkManagerServer heartbeatServer = NetworkManager.createServer(TargetIdentifier.createNetwork("heartbeat", "localhost", 1240).getValue(),
+				NetworkManager.createServerConfig().setIdleTimeouts(400, 100));
+		final AtomicInteger closed = new AtomicInteger();
+		heartbeatServer.getEventBus().register((ClosedConnectionEvent event) -> closed.incrementAndGet(), ClosedConnectionEvent.class);
+		heartbeatServer.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1240).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverId,
+				ClientConfig.forConnectionTo(serverId).setIdleTimeouts(400, 100));
+		try {
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			Thread.sleep(1500);
+			assertTrue(client.isConnectionOpen(), "Client connection timed out");
+			assertEquals(1, heartbeatServer.getCurrentClientCount(), "Server connection timed out");
+			assertEquals(0, closed.get(), "Connection was closed");
+		} finally {
+			client.closeConnectionToServer();
+			heartbeatServer.stopServer();
+		}
+	}
+	
+	/**
+	 * A small packet on a channel with a higher priority overtakes a large packet whose fragments are being written,
+	 * in both directions: the client writes with the socket transport and the server with the selector transport.
+	 */
+	@Test
+	void channelPriorityTest() throws InterruptedException {
+		final PacketChannel urgentChannel = PacketChannel.create(1, 10);
+		final BlockingQueue<Packet> serverReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<Packet> clientReceived = new LinkedBlockingQueue<>();
+		final NetworkManagerServer channelServer = NetworkManager.createServer(TargetIdentifier.createNetwork("channels", "localhost", 1244).getValue(),
+				NetworkManager.createServerConfig().setSelectorThreadCount(1).setProcessingThreadCount(1).setFragmentSize(4096));
+		channelServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		channelServer.addMapping(PacketIdMapping.create(6, UrgentPacket.class, UrgentPacket::new, urgentChannel));
+		channelServer.addIncomingPacketHandler((packet, context) -> {
+			if(packet instanceof UrgentPacket && ((UrgentPacket) packet).getData()[0] == 0) {
+				context.replyPacket(packet); //The answer arrives after the handshake of the server
+			} else {
+				serverReceived.add(packet);
+			}
+		});
+		channelServer.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1244).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverId,
+				ClientConfig.forConnectionTo(serverId).setFragmentSize(4096));
+		client.addAllMappings(channelServer);
+		client.addIncomingPacketHandler((packet, context) -> clientReceived.add(packet));
+		try {
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			client.sendPacketToServer(new UrgentPacket((byte) 0));
+			assertNotNull(clientReceived.poll(5, TimeUnit.SECONDS), "Handshakes were not exchanged");
+			
+			final Random random = new Random(24);
+			final byte[] bulkData = new byte[8 * 1024 * 1024];
+			random.nextBytes(bulkData);
+			final TestPacket bulk = new TestPacket(bulkData);
+			
+			client.sendPacketToServer(bulk);
+			client.sendPacketToServer(new UrgentPacket((byte) 1));
+			assertTrue(serverReceived.poll(10, TimeUnit.SECONDS) instanceof UrgentPacket, "Urgent packet did not overtake the large packet");
+			assertEquals(bulk, serverReceived.poll(10, TimeUnit.SECONDS), "Large packet was not reassembled");
+			
+			channelServer.sendPacketToAllClients(bulk);
+			channelServer.sendPacketToAllClients(new UrgentPacket((byte) 2));
+			assertTrue(clientReceived.poll(10, TimeUnit.SECONDS) instanceof UrgentPacket, "Urgent packet did not overtake the large packet");
+			assertEquals(bulk, clientReceived.poll(10, TimeUnit.SECONDS), "Large packet was not reassembled");
+		} finally {
+			client.closeConnectionToServer();
+			channelServer.stopServer();
+		}
+	}
+	
+	/**
+	 * Packets sent as datagrams arrive next to the connection, small packets are collected into few datagrams,
+	 * and packets that don't fit into a datagram are rejected.
+	 */
+	@Test
+	void datagramTest() throws InterruptedException {
+		final BlockingQueue<Packet> serverReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<Packet> clientReceived = new LinkedBlockingQueue<>();
+		final NetworkManagerServer datagramServer = NetworkManager.createServer(TargetIdentifier.createNetwork("datagrams", "localhost", 1245).getValue(),
+				NetworkManager.createServerConfig().setSelectorThreadCount(1).setProcessingThreadCount(1).setCompactFrames(true)
+				.setDatagramPort(0).setDatagramSequencing(true));
+		datagramServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		datagramServer.addIncomingPacketHandler((packet, context) -> {
+			if(((TestPacket) packet).getData().length == 1) {
+				context.replyDatagram(packet);
+			} else {
+				serverReceived.add(packet);
+			}
+		});
+		datagramServer.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1245).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverId,
+				ClientConfig.forConnectionTo(serverId).setCompactFrames(true).setDatagrams(true).setDatagramSequencing(true));
+		client.addAllMappings(datagramServer);
+		client.addIncomingPacketHandler((packet, context) -> clientReceived.add(packet));
+		try {
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			Packet echo = null;
+			for(int i = 0; i < 50 && echo == null; i++) { //The offer of the server arrives after the connection was opened
+				client.sendDatagramToServer(new TestPacket(new byte[] {(byte) i}));
+				echo = clientReceived.poll(100, TimeUnit.MILLISECONDS);
+			}
+			assertNotNull(echo, "No datagram was echoed by the server");
+			
+			final long datagramsBefore = client.getMetrics().getDatagramsSent();
+			final List<TestPacket> sent = new ArrayList<>();
+			final List<AsyncResult> results = new ArrayList<>();
+			for(int i = 0; i < 100; i++) {
+				final TestPacket packet = new TestPacket(new byte[] {1, (byte) i});
+				sent.add(packet);
+				results.add(client.sendDatagramToServer(packet));
+			}
+			for(AsyncResult result : results) {
+				assertTrue(result.sync().isSuccess(), "Could not send datagram");
+			}
+			for(int i = 0; i < sent.size(); i++) {
+				assertEquals(sent.get(i), serverReceived.poll(5, TimeUnit.SECONDS), "Datagram packet " + i + " was lost or reordered on loopback");
+			}
+			assertTrue(client.getMetrics().getDatagramsSent() - datagramsBefore < sent.size(), "Small packets were not batched");
+			assertEquals(0, datagramServer.getMetrics().getStaleDatagrams(), "Datagrams were dropped as stale");
+			
+			assertTrue(client.sendDatagramToServer(new TestPacket(new byte[2000])).sync().isFailed(), "Packet larger than a datagram was sent");
+		} finally {
+			client.closeConnectionToServer();
+			datagramServer.stopServer();
+		}
+	}
+	
+	/**
+	 * A client whose fragments exceed the maximum frame size of the server is disconnected.
+	 */
+	@Test
+	void maxFrameSizeTest() throws InterruptedException {
+		final BlockingQueue<Packet> serverReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<Packet> clientReceived = new LinkedBlockingQueue<>();
+		final BlockingQueue<ClosedConnectionEvent.Cause> causes = new LinkedBlockingQueue<>();
+		final NetworkManagerServer limitedServer = NetworkManager.createServer(TargetIdentifier.createNetwork("frames", "localhost", 1247).getValue(),
+				NetworkManager.createServerConfig().setSelectorThreadCount(1).setFragmentSize(1024).setMaxFrameSize(4096));
+		limitedServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		limitedServer.addIncomingPacketHandler((packet, context) -> {
+			serverReceived.add(packet);
+			context.replyPacket(new TestPacket(new byte[1])); //The answer arrives after the handshake of the server
+		});
+		limitedServer.getEventBus().register((ClosedConnectionEvent event) -> causes.add(event.getCause()), ClosedConnectionEvent.class);
+		limitedServer.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1247).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverId,
+				ClientConfig.forConnectionTo(serverId).setFragmentSize(1024));
+		client.addAllMappings(limitedServer);
+		client.addIncomingPacketHandler((packet, context) -> clientReceived.add(packet));
+		try {
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			final TestPacket small = new TestPacket(new byte[3000]);
+			client.sendPacketToServer(small);
+			assertEquals(small, serverReceived.poll(5, TimeUnit.SECONDS), "Frame below the limit was not received");
+			assertNotNull(clientReceived.poll(5, TimeUnit.SECONDS), "Handshakes were not exchanged");
+			
+			client.sendPacketToServer(new TestPacket(new byte[10000]));
+			assertEquals(ClosedConnectionEvent.Cause.PROTOCOL_ERROR, causes.poll(5, TimeUnit.SECONDS), "Connection was not closed");
+			assertEquals(null, serverReceived.poll(100, TimeUnit.MILLISECONDS), "Frame above the limit was decoded");
+		} finally {
+			client.closeConnectionToServer();
+			limitedServer.stopServer();
+		}
+	}
+	
+	/**
+	 * With virtual threads, the packet handlers of the server and the client run on virtual threads.
+	 * On JVMs without virtual threads, both fall back to platform threads and still work.
+	 */
+	@Test
+	void virtualThreadsTest() throws InterruptedException {
+		final boolean supported = isVirtualThreadSupported();
+		final BlockingQueue<Thread> serverThreads = new LinkedBlockingQueue<>();
+		final BlockingQueue<Thread> clientThreads = new LinkedBlockingQueue<>();
+		final NetworkManagerServer virtualServer = NetworkManager.createServer(TargetIdentifier.createNetwork("virtual", "localhost", 1249).getValue(),
+				NetworkManager.createServerConfig().setVirtualThreads(true));
+		virtualServer.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		virtualServer.addIncomingPacketHandler((packet, context) -> {
+			serverThreads.add(Thread.currentThread());
+			context.replyPacket(packet);
+		});
+		virtualServer.startServer();
+		final TargetIdentifier serverId = TargetIdentifier.createNetwork("remote", "localhost", 1249).getValue();
+		final NetworkManagerClient client = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverId,
+				ClientConfig.forConnectionTo(serverId).setVirtualThreads(true));
+		client.addAllMappings(virtualServer);
+		client.addIncomingPacketHandler((packet, context) -> clientThreads.add(Thread.currentThread()));
+		try {
+			client.openConnectionToServer();
+			assertTrue(client.isConnectionOpen(), "Connection not open");
+			for(int i = 0; i < 100; i++) {
+				assertTrue(client.sendPacketToServer(new TestPacket(new byte[] {(byte) i})).sync().isSuccess(), "Could not send Packet");
+			}
+			for(int i = 0; i < 100; i++) {
+				final Thread serverThread = serverThreads.poll(5, TimeUnit.SECONDS);
+				final Thread clientThread = clientThreads.poll(5, TimeUnit.SECONDS);
+				assertNotNull(serverThread, "Packet " + i + " was not received by the server");
+				assertNotNull(clientThread, "Reply " + i + " was not received by the client");
+				assertEquals(supported, isVirtual(serverThread), "Wrong thread type for the server handler: " + serverThread);
+				assertEquals(supported, isVirtual(clientThread), "Wrong thread type for the client handler: " + clientThread);
+			}
+		} finally {
+			client.closeConnectionToServer();
+			virtualServer.stopServer();
+		}
+	}
+	
+	/**
+	 * A manager with virtual threads must not change the executors of the other managers. Packets that a client with platform threads
+	 * sends while the other manager is created must not be rejected, and the handlers of the platform server stay on platform threads.
+	 */
+	@Test
+	void virtualThreadsIsolationTest() throws InterruptedException {
+		final AtomicBoolean virtualHandler = new AtomicBoolean();
+		serverManager.addIncomingPacketHandler((packet, context) -> {
+			if(isVirtual(Thread.currentThread())) virtualHandler.set(true);
+		});
+		clientManager.openConnectionToServer();
+		final List<AsyncResult> results = Collections.synchronizedList(new ArrayList<>());
+		final Thread sender = new Thread(() -> {
+			for(int i = 0; i < PACKETS; i++) {
+				results.add(clientManager.sendPacketToServer(new TestPacket(new byte[10])));
+			}
+		});
+		sender.start();
+		final NetworkManagerServer virtualServer = NetworkManager.createServer(TargetIdentifier.createNetwork("virtual", "localhost", 1250).getValue(),
+				NetworkManager.createServerConfig().setVirtualThreads(true));
+		try {
+			virtualServer.startServer();
+			sender.join();
+			for(AsyncResult result : results) {
+				assertTrue(result.sync().isSuccess(), "Packet was not sent: " + result.getErrorMessage());
+			}
+			for(int i = 0; i < PACKETS; i++) {
+				assertNotNull(received.poll(10, TimeUnit.SECONDS), "Packet " + i + " was not received");
+			}
+			assertFalse(virtualHandler.get(), "Handler of the platform server ran on a virtual thread");
+		} finally {
+			virtualServer.stopServer();
+		}
+	}
+	
+	/**
+	 * @return Whether the JVM can create virtual threads
+	 */
+	static boolean isVirtualThreadSupported() {
+		try {
+			final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			final Object ofVirtual = Thread.class.getMethod("ofVirtual").invoke(null);
+			((ThreadFactory) builder.getMethod("factory").invoke(ofVirtual)).newThread(() -> {});
+			return true;
+		} catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * @return Whether the thread is a virtual thread, always <code>false</code> on JVMs without virtual threads
+	 */
+	static boolean isVirtual(Thread thread) {
+		try {
+			return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+		} catch (NoSuchMethodException e) {
+			return false;
+		} catch (ReflectiveOperationException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	static final class UrgentPacket extends TestPacket {
+		UrgentPacket() {}
+		
+		UrgentPacket(byte value) {
+			super(new byte[] {value});
+		}
+	}
+	
+	static final class UnmappedPacket extends TestPacket {
+		UnmappedPacket() {
+			super(new byte[] {1, 2, 3});
+		}
+	}
+	
+	/**
+	 * Creates a server with one processing thread and a limit of 10 queued packets per client.
+	 * The packet handler blocks until the latch is released.
+	 */
+	static NetworkManagerServer createLimitedServer(int port, InboundOverflowPolicy policy, CountDownLatch release, AtomicInteger handled) {
+		final NetworkManagerServer limited = NetworkManager.createServer(TargetIdentifier.createNetwork("limited", "localhost", port).getValue(),
+				NetworkManager.createServerConfig().setProcessingThreadCount(1).setInboundQueueLimits(10, 0).setInboundOverflowPolicy(policy));
+		limited.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		limited.addIncomingPacketHandler((packet, context) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			handled.incrementAndGet();
+		});
+		limited.startServer();
+		return limited;
+	}
+
+}
@@ -0,0 +1,165 @@
+package test.simplebase.net;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import lb.simplebase.net.NetworkManager;
+import lb.simplebase.net.NetworkManagerClient;
+import lb.simplebase.net.NetworkManagerServer;
+import lb.simplebase.net.PacketIdMapping;
+import lb.simplebase.net.RequestFailedException;
+import lb.simplebase.net.RequestManager;
+import lb.simplebase.net.TargetIdentifier;
+
+/**
+ * Tests requests and responses over the socket transport and over a local connection.
+ */
+class RequestManagerTest {
+
+	static final int REQUESTS = 500;
+	
+	NetworkManagerServer serverManager;
+	NetworkManagerClient clientManager;
+	RequestManager serverRequests;
+	RequestManager clientRequests;
+	final CountDownLatch release = new CountDownLatch(1);
+	
+	@AfterAll
+	static void tearDownAfterClass() throws Exception {
+		NetworkManager.cleanUp();
+	}
+	
+	@AfterEach
+	void tearDown() throws Exception {
+		release.countDown();
+		clientManager.closeConnectionToServer();
+		serverManager.stopServer();
+	}
+	
+	void connect(TargetIdentifier server, TargetIdentifier serverFromClient) {
+		serverManager = NetworkManager.createServer(server, NetworkManager.createServerConfig().setProcessingThreadCount(4));
+		serverManager.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		serverManager.addMapping(PacketIdMapping.create(6, BlockingPacket.class, BlockingPacket::new));
+		serverManager.addMapping(PacketIdMapping.create(7, UnhandledPacket.class, UnhandledPacket::new));
+		serverRequests = new RequestManager(serverManager, 100);
+		serverRequests.setRequestHandler(TestPacket.class, (request, context) -> new TestPacket(reverse(request.getData())));
+		serverRequests.setRequestHandler(BlockingPacket.class, (request, context) -> {
+			release.await();
+			return request;
+		});
+		serverManager.startServer();
+		clientManager = NetworkManager.createClient(TargetIdentifier.createLocal("client"), serverFromClient);
+		clientManager.addMapping(PacketIdMapping.create(5, TestPacket.class, TestPacket::new));
+		clientManager.addMapping(PacketIdMapping.create(6, BlockingPacket.class, BlockingPacket::new));
+		clientManager.addMapping(PacketIdMapping.create(7, UnhandledPacket.class, UnhandledPacket::new));
+		clientRequests = new RequestManager(clientManager, 100);
+		clientManager.openConnectionToServer();
+		assertTrue(clientManager.isConnectionOpen(), "Connection not open");
+	}
+	
+	@Test
+	void remoteRequestTest() throws InterruptedException, ExecutionException, TimeoutException {
+		connect(TargetIdentifier.createNetwork("server", "localhost", 1241).getValue(),
+				TargetIdentifier.createNetwork("remote", "localhost", 1241).getValue());
+		requestTest();
+	}
+	
+	@Test
+	void localRequestTest() throws InterruptedException, ExecutionException, TimeoutException {
+		final TargetIdentifier server = TargetIdentifier.createLocal("server");
+		connect(server, server);
+		requestTest();
+	}
+	
+	/**
+	 * Sends many requests at once and checks that every response arrives at the future of its request
+	 */
+	void requestTest() throws InterruptedException, ExecutionException, TimeoutException {
+		final List<CompletableFuture<TestPacket>> futures = new ArrayList<>(REQUESTS);
+		for(int i = 0; i < REQUESTS; i++) {
+			futures.add(clientRequests.request(new TestPacket(new byte[] {(byte) i, (byte) (i >> 8), 1}), TestPacket.class));
+		}
+		for(int i = 0; i < REQUESTS; i++) {
+			final TestPacket response = futures.get(i).get(10, TimeUnit.SECONDS);
+			assertArrayEquals(new byte[] {1, (byte) (i >> 8), (byte) i}, response.getData(), "Wrong response for request " + i);
+		}
+		assertEquals(0, clientRequests.getPendingRequestCount(), "Completed requests are still pending");
+	}
+	
+	@Test
+	void failureTest() throws InterruptedException, TimeoutException {
+		connect(TargetIdentifier.createNetwork("server", "localhost", 1242).getValue(),
+				TargetIdentifier.createNetwork("remote", "localhost", 1242).getValue());
+		
+		final CompletableFuture<TestPacket> unhandled = clientRequests.request(new UnhandledPacket(), TestPacket.class);
+		assertFailure(unhandled, RequestFailedException.class, "Request without handler did not fail");
+		
+		final CompletableFuture<UnhandledPacket> wrongType = clientRequests.request(new BlockingPacket(), UnhandledPacket.class);
+		final CompletableFuture<BlockingPacket> timedOut = clientRequests.request(clientManager.getServerIndentifier(),
+				new BlockingPacket(), BlockingPacket.class, 200);
+		assertFailure(timedOut, TimeoutException.class, "Request did not time out");
+		assertEquals(1, clientRequests.getPendingRequestCount(), "Timed out request is still pending");
+		release.countDown();
+		assertFailure(wrongType, RequestFailedException.class, "Response of the wrong type was accepted");
+		
+		final CompletableFuture<TestPacket> unmapped = clientRequests.request(new RemoteConnectionTest.UnmappedPacket(), TestPacket.class);
+		assertTrue(unmapped.isCompletedExceptionally(), "Request without mapping was sent");
+		assertEquals(0, clientRequests.getPendingRequestCount(), "Failed requests are still pending");
+	}
+	
+	@Test
+	void closedConnectionTest() throws InterruptedException, TimeoutException {
+		connect(TargetIdentifier.createNetwork("server", "localhost", 1243).getValue(),
+				TargetIdentifier.createNetwork("remote", "localhost", 1243).getValue());
+		final CompletableFuture<BlockingPacket> blocked = clientRequests.request(new BlockingPacket(), BlockingPacket.class);
+		Thread.sleep(100);
+		assertEquals(1, clientRequests.getPendingRequestCount(), "Request is not pending");
+		clientManager.closeConnectionToServer();
+		assertFailure(blocked, RequestFailedException.class, "Request did not fail when the connection was closed");
+		assertEquals(0, clientRequests.getPendingRequestCount(), "Failed request is still pending");
+	}
+	
+	static void assertFailure(CompletableFuture<?> future, Class<? extends Throwable> expected, String message) throws InterruptedException, TimeoutException {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail(message);
+		} catch (ExecutionException e) {
+			assertTrue(expected.isInstance(e.getCause()), message + ": " + e.getCause());
+		}
+	}
+	
+	static byte[] reverse(byte[] data) {
+		final byte[] reversed = new byte[data.length];
+		for(int i = 0; i < data.length; i++) {
+			reversed[i] = data[data.length - 1 - i];
+		}
+		return reversed;
+	}
+	
+	static final class BlockingPacket extends TestPacket {
+		BlockingPacket() {
+			super(new byte[] {4, 5});
+		}
+	}
+	
+	static final class UnhandledPacket extends TestPacket {
+		UnhandledPacket() {
+			super(new byte[] {6});
+		}
+	}
+	
+}
@@ -18,6 +18,10 @@ public class TestPacket implements Packet{
 	
 	public TestPacket() {}
 	
+	public byte[] getData() {
+		return byteData;
+	}
+	
 	@Override
 	public void writeData(WritableByteData data) {
 		data.writeInt(length);